@@ -8,8 +8,10 @@ import org.glassfish.grizzly.http.Method;
 import org.glassfish.grizzly.http.server.HttpServer;
 import org.glassfish.grizzly.http.server.NetworkListener;
 import org.glassfish.grizzly.http.server.StaticHttpHandler;
+import server.rest.BinaryRecordHandler;
 import server.rest.DefaultHandler;
 import server.rest.RecordHandler;
+import server.rest.RecordStreamHandler;
 import server.rest.RestHandlers;
 import viewermanager.ViewerManagerKeys;
 import viewermanager.manager.DefaultResponse;
@@ -87,6 +89,8 @@ public class HttpRest implements Server {
                 new DefaultHandler(Method.GET, this::getInterfaces));
         handles.put("/server/errors",
                 new DefaultHandler(Method.GET, ErrorStatus.class, this::getErrors));
+        handles.put("/server/recorders",
+                new DefaultHandler(Method.GET, manager::requestRecorderStats));
 
 
         //// functions for provider
@@ -115,6 +119,10 @@ public class HttpRest implements Server {
                 new RestHandlers.DisconnectionHandler(manager));
         handles.put("/viewer/record", //TODO: fix cannot finish communication correctly
                 new RecordHandler(manager));
+        handles.put("/viewer/record/binary",
+                new BinaryRecordHandler(manager));
+        handles.put("/viewer/record/stream",
+                new RecordStreamHandler(manager));
         handles.put("/viewer/list",
                 new DefaultHandler(Method.GET, manager::requestViewerList));
 
@@ -0,0 +1,83 @@
+package server.rest;
+
+import org.glassfish.grizzly.http.io.OutputBuffer;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+import viewermanager.manager.DefaultResponse;
+import viewermanager.manager.Manager;
+import viewermanager.manager.ServerResponse;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Request for Records by Viewer, responded in binary
+ * Viewerからレコードの要求，バイナリで返答する
+ *
+ * Parameters are the same as <code>RecordHandler</code>.
+ * パラメータは<code>RecordHandler</code>と同じ．
+ *
+ * Response (Content-Type: application/octet-stream):
+ *      - (length(uint32, big endian) | record(MessagePack)) * count
+ *      - Header "X-Record-Count" : count of records
+ *      - Header "X-Viewer-Reconnected" : "true" if the viewer was reconnected
+ *  The records are written as they are made by the <code>Recorder</code>, without base64 and JSON.
+ *  The records are framed once on the result, shared by Viewers requesting the same window.
+ *  When the request failed, the response is JSON same as <code>RecordHandler</code>.
+ *
+ * 返答 (Content-Type: application/octet-stream):
+ *      - (長さ(uint32, ビッグエンディアン) | レコード(MessagePack)) * count
+ *      - ヘッダ "X-Record-Count" : レコードの数
+ *      - ヘッダ "X-Viewer-Reconnected" : Viewerが再接続された場合は"true"
+ *  レコードは<code>Recorder</code>が作ったものをbase64やJSONにせずにそのまま書き出す．
+ *  レコードは同じ範囲を要求するViewerで共有する結果で一度だけフレーム化する．
+ *  要求が失敗した場合の返答は<code>RecordHandler</code>と同じJSONとなる．
+ * */
+public class BinaryRecordHandler extends RecordHandler {
+
+    public static final String CONTENT_TYPE = "application/octet-stream";
+    public static final String HEADER_COUNT = "X-Record-Count";
+    public static final String HEADER_RECONNECTED = "X-Viewer-Reconnected";
+
+    /**
+     * size of the length before each record
+     * 各レコードの前の長さのサイズ
+     * */
+    public static final int LENGTH_SIZE = 4;
+
+    public BinaryRecordHandler(Manager manager) {
+        super(manager);
+    }
+
+    /**
+     * write records in binary, or JSON when failed.
+     * レコードをバイナリで書き出す．失敗した場合はJSONで書き出す．
+     * */
+    @Override
+    protected void writeResponse(Request request, Response response, ServerResponse serverResponse) throws Exception {
+        if (response == null || serverResponse == null) return;
+
+        if (serverResponse.getStatus() != ServerResponse.STATUS_OK
+                || !(serverResponse.getData() instanceof DefaultResponse.RecordResult)) {
+            super.writeResponse(request, response, serverResponse);
+            return;
+        }
+
+        DefaultResponse.RecordResult result = (DefaultResponse.RecordResult) serverResponse.getData();
+        int count = (result.record != null) ? result.record.length : 0;
+        ByteBuffer framed = result.getFramed();
+
+        // Not a text, no charset
+        response.setCharacterEncoding(null);
+        response.setContentType(CONTENT_TYPE);
+        response.setContentLengthLong(framed.remaining());
+        response.setHeader(HEADER_COUNT, String.valueOf(count));
+        if (result.reconnected) {
+            response.setHeader(HEADER_RECONNECTED, "true");
+        }
+
+        // Framed once on the result shared with other viewers, written with one buffer
+        OutputBuffer output = response.getOutputBuffer();
+        output.writeByteBuffer(framed);
+    }
+}
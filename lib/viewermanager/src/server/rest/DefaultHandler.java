@@ -2,7 +2,9 @@ package server.rest;
 
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import org.apache.log4j.Logger;
 import org.glassfish.grizzly.http.Method;
 import org.glassfish.grizzly.http.server.HttpHandler;
@@ -13,7 +15,8 @@ import org.glassfish.grizzly.http.util.Parameters;
 import viewermanager.ViewerManagerKeys;
 import viewermanager.manager.ServerResponse;
 
-import java.lang.reflect.Field;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Function;
@@ -34,7 +37,23 @@ public class DefaultHandler extends HttpHandler {
     protected Class parameterClazz;
     private Object parameters;
     private Function<Object, ServerResponse> serviceDelegate;
-    private ObjectMapper mapper;
+
+    /**
+     * max size of the response sent with the length, larger one is sent in chunks
+     * 長さを付けて送る返答の最大サイズ，それより大きいものはchunkで送る
+     * */
+    protected static final int HEAD_SIZE = 8192;
+
+    /**
+     * writer of JSON, shared by all handlers.
+     *  The target is not closed by the writer, so the response is finished by Grizzly.
+     * JSONのWriter，すべてのHandlerで共有する．
+     *  出力先はWriterが閉じないため，返答はGrizzlyが終える．
+     * */
+    private static final ObjectWriter writer = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
+            .writer();
 
     public DefaultHandler(Method method) {
         logger = Logger.getLogger(System.getProperty(ViewerManagerKeys.LOGGER, ViewerManagerKeys.DEFAULT_LOGGER));
@@ -45,8 +64,6 @@ public class DefaultHandler extends HttpHandler {
         this.method = method;
         this.parameters = null;
         this.serviceDelegate = null;
-        this.mapper = new ObjectMapper();
-        this.mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
     }
 
     public DefaultHandler(Method method, Class parameterClazz) {
@@ -104,6 +121,14 @@ public class DefaultHandler extends HttpHandler {
         return this;
     }
 
+    /**
+     * get parameters read by <code>readParameters</code>.
+     * <code>readParameters</code>で読み込んだパラメータを取得します．
+     * */
+    protected Object getParameters() {
+        return parameters;
+    }
+
     /**
      * get parameter clazz
      * パラメータを変換する先の<code>Class</code>を取得します．
@@ -135,10 +160,14 @@ public class DefaultHandler extends HttpHandler {
         if (validateCall(response, request.getMethod(), method, request.getRequestURI())) {
             request.getParameterNames(); /* experimental:: to finalize parameters */
 
-            /* convert parameter of request to instance of Clazz -> assign to `parameters` */
-            readParameters(request.getParameters());
-            /* call serve with `parameters` */
-            ServerResponse resultServed = serve(parameters);
+            /* convert parameter of request to instance of Clazz */
+            Object params = bindParameters(request.getParameters());
+            if (suspendResponse(request, response, params)) {
+                /* written and logged later */
+                return;
+            }
+            /* call serve with `params` */
+            ServerResponse resultServed = serve(params);
             /* write response with response */
             writeResponse(request, response, resultServed);
         }
@@ -147,6 +176,19 @@ public class DefaultHandler extends HttpHandler {
         connectionLog(request, response);
     }
 
+    /**
+     * suspendResponse : respond later instead of serving now
+     * 今処理する代わりに，後で返答します．
+     *
+     * @param params parameters object specified by parameterClazz.
+     * @return true if the response is suspended, then written and logged later. 返答を保留し，後で書き込みとログを行う場合はtrue
+     * @implNote override this method to hold the request
+     * */
+    protected boolean suspendResponse(Request request, Response response, Object params) throws Exception
+    {
+        return false;
+    }
+
     /**
      * serve : run the service
      * 受け取ったパラメータで指定された関数を呼び出し，<code>ServerResponse</code>を受け取ります．
@@ -172,49 +214,40 @@ public class DefaultHandler extends HttpHandler {
      * */
     public void readParameters(Parameters parameters) throws Exception
     {
-        if (parameterClazz == null || parameters == null) return;
-
-        // Fields of Clazz to convert
-        Field[] fields = parameterClazz.getFields();
-        Object param = parameterClazz.newInstance();
-        logger.debug("parameterClazz: " + parameterClazz.getName());
-
-        for (Field field : fields) {
-            String parameter = parameters.getParameter(field.getName());
-            if (parameter != null) {
-                try {
-                    // field available on input Parameters, try Parse
-                    if (field.getType().equals(Integer.class)) {
-                        // Convert to Integer
-                        field.set(param, Integer.parseInt(parameter));
-                    }
-                    else if (field.getType().equals(Double.class)) {
-                        // Convert to Double
-                        field.set(param, Double.parseDouble(parameter));
-                    }
-                    else if (field.getType().equals(String.class)) {
-                        // Assign as String
-                        field.set(param, parameter);
-                    }
-                    else if (field.getType().equals(Boolean.class)) {
-                        // Convert to Boolean: check with valid Signature
-                        if (parameter.matches("(True|true|TRUE|1|On|On|ON)")) {
-                            field.set(param, true);
-                        }
-                        else {
-                            field.set(param, false);
-                        }
-                    }
-
-                    logger.debug(String.format("> %s = %s", field.getName(), parameter));
-                } catch (IllegalAccessException e) {
-                    // Ignore
-                }
-            } // fi : parameter != null
-        } // rof
+        Object param = bindParameters(parameters);
+        if (param != null) {
+            // set to param
+            this.parameters = param;
+        }
+    }
 
-        // set to param
-        this.parameters = param;
+    /**
+     * bindParameters : parse parameters to a new instance of Clazz
+     *  The binder of Clazz is made on the first request and shared, so no reflection on each request.
+     *  The instance is returned instead of kept, so requests served at once do not share it.
+     * 受け取ったパラメータをクラスの新しいインスタンスに変換して返します．
+     *  クラスの変換は最初の要求で作り共有するため，要求ごとにリフレクションを行いません．
+     *  インスタンスは保持せず返すため，同時に処理する要求で共有されません．
+     *
+     * @param parameters parameters paired from Grizzly
+     * @return instance of Clazz, or null if Clazz or parameters is null.
+     * */
+    protected Object bindParameters(Parameters parameters) throws Exception
+    {
+        if (parameterClazz == null || parameters == null) return null;
+
+        ParameterBinder binder = ParameterBinder.of(parameterClazz);
+        Object param = binder.bind(parameters);
+        if (logger.isDebugEnabled()) {
+            logger.debug("parameterClazz: " + parameterClazz.getName());
+            for (ParameterBinder.Binding binding : binder.getBindings()) {
+                String parameter = parameters.getParameter(binding.name);
+                if (parameter != null) {
+                    logger.debug(String.format("> %s = %s", binding.name, parameter));
+                }
+            }
+        }
+        return param;
     }
 
     /*+++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++*/
@@ -225,7 +258,7 @@ public class DefaultHandler extends HttpHandler {
      *  inform: uri(status): send Bytes count and content types
      * 通信ログを出力する．
      * */
-    private void connectionLog(Request request, Response response)
+    protected void connectionLog(Request request, Response response)
     {
         logger.debug (String.format("%s %s(%d): send %d bytes with content %s"
                 , request.getMethod().getMethodString()
@@ -253,18 +286,42 @@ public class DefaultHandler extends HttpHandler {
     /**
      * write Response helper
      * 受け取った<code>ServerResponse</code>を使い，Httpレスポンスを作成する
+     *
+     * The response is serialized straight to the output, without the whole JSON in memory;
+     *  it is sent with the exact length if it fits in <code>HEAD_SIZE</code>, or in chunks.
+     * 返答はJSON全体をメモリに持たずに，出力へ直接直列化する．
+     *  <code>HEAD_SIZE</code>に収まる場合は正確な長さで，収まらない場合はchunkで送る．
+     *
+     * @implNote overwrite this method to write other than JSON
      * */
-    private void writeResponse(Request request, Response response, ServerResponse serverResponse) throws Exception
+    protected void writeResponse(Request request, Response response, ServerResponse serverResponse) throws Exception
     {
         // both, not null.
         if (response == null || serverResponse == null) return;
 
         // write response from manager
-        String res = mapper.writeValueAsString(serverResponse);
+        response.setContentType("application/json");
+        ResponseOutput output = new ResponseOutput(response);
+        writer.writeValue(output, serverResponse);
+        output.finish();
+    }
+
+    /**
+     * serialize the response to JSON, to keep it.
+     * 保持するために，返答をJSONに直列化する．
+     * */
+    protected byte[] serialize(ServerResponse serverResponse) throws Exception {
+        return writer.writeValueAsBytes(serverResponse);
+    }
 
+    /**
+     * write JSON serialized to Http Response.
+     * 直列化したJSONをHttpレスポンスに書き込む．
+     * */
+    protected void writeJson(Response response, byte[] json) throws Exception {
         response.setContentType("application/json");
-        response.setContentLength(res.length());
-        response.getWriter().write(res);
+        response.setContentLength(json.length);
+        response.getOutputStream().write(json);
     }
 
     /**
@@ -300,4 +357,52 @@ public class DefaultHandler extends HttpHandler {
         response.getWriter().write(result);
     }
 
+    /**
+     * Output of the response: keeps the head, and writes to the response in chunks after it is over.
+     * 返答の出力: 先頭を保持し，それを超えた後はchunkで返答に書き込む．
+     * */
+    private static class ResponseOutput extends OutputStream {
+        private final Response response;
+        private final byte[] head;
+        private int count;
+        private OutputStream output;
+
+        ResponseOutput(Response response) {
+            this.response = response;
+            this.head = new byte[HEAD_SIZE];
+            this.count = 0;
+            this.output = null;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (output == null && count + len <= head.length) {
+                System.arraycopy(b, off, head, count, len);
+                count += len;
+                return;
+            }
+            if (output == null) {
+                // Over the head: the rest is sent in chunks
+                output = response.getNIOOutputStream();
+                output.write(head, 0, count);
+            }
+            output.write(b, off, len);
+        }
+
+        /**
+         * write the head with the exact length, if not over.
+         * 超えていない場合は，先頭を正確な長さで書き込む．
+         * */
+        void finish() throws IOException {
+            if (output == null) {
+                response.setContentLength(count);
+                response.getNIOOutputStream().write(head, 0, count);
+            }
+        }
+    }
 }
@@ -0,0 +1,172 @@
+package server.rest;
+
+import org.glassfish.grizzly.http.util.Parameters;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+
+/**
+ * ParameterBinder - Binds parameters of a request to an instance of the parameter class.
+ *  Public fields of Integer, Double, String and Boolean are bound by their names.
+ *  The constructor, setters of fields and converters of values are made once for each class,
+ *  so a request only creates the instance and writes fields given.
+ *
+ * 要求のパラメータをパラメータのクラスのインスタンスに結び付ける．
+ *  Integer，Double，String，Booleanのpublicなフィールドを名前により結び付ける．
+ *  コンストラクタ，フィールドのセッタ，値の変換はクラスごとに一度だけ作るため，
+ *  要求ではインスタンスを作り，与えられたフィールドを書き込むのみとなる．
+ * */
+class ParameterBinder {
+
+    /**
+     * values for Boolean true
+     * Booleanのtrueとなる値
+     * */
+    private static final Pattern TRUE = Pattern.compile("(True|true|TRUE|1|On|On|ON)");
+
+    /**
+     * binders made, by the parameter class
+     * 作ったBinder，パラメータのクラスで検索
+     * */
+    private static final Map<Class<?>, ParameterBinder> binders = new ConcurrentHashMap<>();
+
+    /**
+     * field bound: name, setter as (Object, Object)void, and converter from the parameter
+     * 結び付けるフィールド: 名前，(Object, Object)voidのセッタ，パラメータからの変換
+     * */
+    static class Binding {
+        final String name;
+        final MethodHandle setter;
+        final Function<String, Object> converter;
+
+        Binding(String name, MethodHandle setter, Function<String, Object> converter) {
+            this.name = name;
+            this.setter = setter;
+            this.converter = converter;
+        }
+    }
+
+    private final Class<?> clazz;
+
+    /**
+     * constructor as ()Object, and fields bound
+     * ()Objectのコンストラクタと，結び付けるフィールド
+     * */
+    private final MethodHandle constructor;
+    private final Binding[] bindings;
+
+    /**
+     * get the binder of the class, made at the first call.
+     * クラスのBinderを取得する．最初の呼び出しで作る．
+     * */
+    static ParameterBinder of(Class<?> clazz) {
+        ParameterBinder binder = binders.get(clazz);
+        if (binder == null) {
+            binder = binders.computeIfAbsent(clazz, ParameterBinder::new);
+        }
+        return binder;
+    }
+
+    private ParameterBinder(Class<?> clazz) {
+        this.clazz = clazz;
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        try {
+            this.constructor = lookup.findConstructor(clazz, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException("no public constructor without arguments : " + clazz.getName(), e);
+        }
+
+        List<Binding> bindings = new ArrayList<>();
+        for (Field field : clazz.getFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())) {
+                continue;
+            }
+            Function<String, Object> converter = converterOf(field.getType());
+            if (converter == null) {
+                continue;
+            }
+            try {
+                MethodHandle setter = lookup.unreflectSetter(field)
+                        .asType(MethodType.methodType(void.class, Object.class, Object.class));
+                bindings.add(new Binding(field.getName(), setter, converter));
+            } catch (IllegalAccessException e) {
+                // Ignore, same as not public
+            }
+        }
+        this.bindings = bindings.toArray(new Binding[0]);
+    }
+
+    /**
+     * get the converter from the parameter to the type.
+     * パラメータから型への変換を取得する．
+     *
+     * @return converter, or null if the type is not supported. 変換，対応しない型の場合はnull
+     * */
+    private static Function<String, Object> converterOf(Class<?> type) {
+        if (type.equals(Integer.class)) {
+            return Integer::valueOf;
+        }
+        else if (type.equals(Double.class)) {
+            return Double::valueOf;
+        }
+        else if (type.equals(String.class)) {
+            return value -> value;
+        }
+        else if (type.equals(Boolean.class)) {
+            // check with valid Signature
+            return value -> TRUE.matcher(value).matches();
+        }
+        return null;
+    }
+
+    /**
+     * get the parameter class.
+     * パラメータのクラスを取得する．
+     * */
+    Class<?> getParameterClass() {
+        return clazz;
+    }
+
+    /**
+     * get fields bound.
+     * 結び付けるフィールドを取得する．
+     * */
+    Binding[] getBindings() {
+        return bindings;
+    }
+
+    /**
+     * create the instance with parameters.
+     * パラメータでインスタンスを作る．
+     *
+     * @throws NumberFormatException if the number is not valid. 数値が正しくない場合
+     * */
+    Object bind(Parameters parameters) throws Exception {
+        Object param;
+        try {
+            param = (Object) constructor.invokeExact();
+            for (Binding binding : bindings) {
+                String value = parameters.getParameter(binding.name);
+                if (value != null) {
+                    binding.setter.invokeExact(param, binding.converter.apply(value));
+                }
+            }
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+        return param;
+    }
+}
@@ -1,7 +1,10 @@
 package server.rest;
 
 import org.glassfish.grizzly.http.Method;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
 import viewermanager.entity.Record;
+import viewermanager.manager.DefaultResponse;
 import viewermanager.manager.Manager;
 import viewermanager.manager.RecordRequestException;
 import viewermanager.manager.ServerRequest;
@@ -19,11 +22,25 @@ import java.util.function.Supplier;
  *      - viewerId : ViewerのID
  *      - time : 要求するレコードの開始時間 (optional)
  *      - count : 要求するレコードの数 (optional)
+ *      - snapshot : trueの場合，最新のステップのワールド全体を持つ1つのレコードを返し，次の要求はその次から続ける (optional)
+ *      - wait : 要求したレコードがまだ記録されていない場合に，記録されるまで返答を保留する最長の時間(ミリ秒) (optional)
  *
  * Arguments Set
  *      - (viewerId)
  *      - (viewerId, count)
  *      - (viewerId, time, count)
+ *      - (viewerId, snapshot)
+ *
+ * A Viewer joined on the way requests with snapshot, and gets one record instead of all records from the first.
+ * 途中から参加したViewerはsnapshotを付けて要求し，最初からのすべてのレコードの代わりに1つのレコードを得る．
+ *
+ * With wait, the request for records not recorded yet is suspended until the first of them is recorded, or the time passed;
+ *  so a live Viewer holds one request instead of polling.
+ * waitを付けると，まだ記録されていないレコードの要求は，その最初のものが記録されるか時間が経過するまで保留される．
+ *  そのためライブのViewerはポーリングの代わりに1つの要求を保持する．
+ *
+ * Results of the same window are shared by Viewers, so the response serialized is kept on the shared result.
+ * 同じ範囲の結果はViewerで共有されるため，共有される結果には直列化した返答を保持する．
  * */
 public class RecordHandler extends DefaultHandler{
 
@@ -34,15 +51,62 @@ public class RecordHandler extends DefaultHandler{
         this.manager = manager;
     }
 
+    /**
+     * suspend the response until records are recorded, with wait.
+     *  The response is written on the worker pool of the server, not on the thread of the Manager.
+     * waitを付けた場合，レコードが記録されるまで返答を保留する．
+     *  返答はManagerのスレッドではなく，サーバのワーカーのプールで書き込む．
+     * */
+    @Override
+    protected boolean suspendResponse(Request request, Response response, Object param) throws Exception {
+        ServerRequest serverRequest = (param instanceof RecordParam) ? createRequest((RecordParam) param) : null;
+        Integer wait = (serverRequest != null) ? ((RecordParam) param).wait : null;
+        if (wait == null || wait <= 0) {
+            return false;
+        }
+
+        // Suspend before waiting: the response may be written from the manager's thread
+        response.suspend();
+        Runnable respond = () -> {
+            try {
+                writeResponse(request, response, manager.requestRecords(serverRequest));
+                connectionLog(request, response);
+            } catch (Exception e) {
+                logger.error("/rest/getRecord: cannot respond records waited", e);
+            } finally {
+                response.resume();
+            }
+        };
+        if (!manager.awaitRecords(serverRequest, wait, request.getRequestExecutor(), respond)) {
+            respond.run();
+        }
+        return true;
+    }
+
     public ServerResponse serv(Object o) {
         if (o == null || !(o instanceof RecordParam)) {
             return new ServerResponse(ServerResponse.STATUS_BADREQ, "need valid parameters");
         }
 
-        RecordParam param = (RecordParam) o;
+        ServerRequest request = createRequest((RecordParam) o);
+        if (request == null) {
+            return new ServerResponse(ServerResponse.STATUS_BADREQ, "['viewerId'] cannot be null.");
+        }
+
+        // try to get records
+        return manager.requestRecords(request);
+    }
+
+    /**
+     * create the request from parameters.
+     * パラメータから要求を作る．
+     *
+     * @return request, or null if parameters are not valid. 要求，パラメータが正しくない場合はnull
+     * */
+    ServerRequest createRequest(RecordParam param) {
         if (param.viewerId == null) {
             logger.error("/rest/getRecord: request 'viewerId' is null.");
-            return new ServerResponse(ServerResponse.STATUS_BADREQ, "['viewerId'] cannot be null.");
+            return null;
         }
 
         // Create Request
@@ -61,8 +125,36 @@ public class RecordHandler extends DefaultHandler{
             request = new ServerRequest(param.viewerId, timestamp);
         }
 
-        // try to get records
-        return manager.requestRecords(request);
+        request.setSnapshot(Boolean.TRUE.equals(param.snapshot));
+        return request;
+    }
+
+    /**
+     * write records in JSON, serialized once for each result.
+     * レコードをJSONで書き出す．結果ごとに一度だけ直列化する．
+     * */
+    @Override
+    protected void writeResponse(Request request, Response response, ServerResponse serverResponse) throws Exception {
+        if (response == null || serverResponse == null) return;
+
+        if (serverResponse.getStatus() != ServerResponse.STATUS_OK || serverResponse.getMessage() != null
+                || !(serverResponse.getData() instanceof DefaultResponse.RecordResult)) {
+            super.writeResponse(request, response, serverResponse);
+            return;
+        }
+
+        DefaultResponse.RecordResult result = (DefaultResponse.RecordResult) serverResponse.getData();
+        byte[] json = result.getResponseJson();
+        if (json == null && result.isShared()) {
+            json = serialize(serverResponse);
+            result.setResponseJson(json);
+        }
+        if (json == null) {
+            // Not shared: serialized straight to the output
+            super.writeResponse(request, response, serverResponse);
+            return;
+        }
+        writeJson(response, json);
     }
 
     public static class RecordParam
@@ -70,6 +162,8 @@ public class RecordHandler extends DefaultHandler{
         public Integer viewerId;
         public Integer time;
         public Integer count;
+        public Boolean snapshot;
+        public Integer wait;
 
     }
 }
@@ -0,0 +1,164 @@
+package server.rest;
+
+import org.glassfish.grizzly.CloseListener;
+import org.glassfish.grizzly.CloseType;
+import org.glassfish.grizzly.Closeable;
+import org.glassfish.grizzly.WriteHandler;
+import org.glassfish.grizzly.http.Method;
+import org.glassfish.grizzly.http.io.NIOOutputStream;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+import viewermanager.manager.Manager;
+import viewermanager.manager.RecordSink;
+import viewermanager.manager.RecordStream;
+import viewermanager.manager.ServerResponse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Push channel of Records for Viewer, over chunked HTTP
+ * Viewerへのレコードの送信経路 (chunked HTTP)
+ *
+ * Parameters:
+ *      - viewerId : ViewerのID
+ *      - time : 送信するレコードの開始番号 (optional, 省略時はViewerの続きから)
+ *
+ * Response (Content-Type: application/octet-stream, Transfer-Encoding: chunked):
+ *      - (length(uint32, big endian) | record(MessagePack)) ... same as <code>BinaryRecordHandler</code>
+ *  The response is kept open, and records are written as soon as the Provider records them.
+ *  It ends when the Provider finished and all records are sent, or the Viewer disconnected.
+ *  When the client cannot receive fast enough, records are not read until it can.
+ *  When the request failed, the response is JSON same as <code>RecordHandler</code>.
+ *
+ * 返答 (Content-Type: application/octet-stream, Transfer-Encoding: chunked):
+ *      - (長さ(uint32, ビッグエンディアン) | レコード(MessagePack)) ... <code>BinaryRecordHandler</code>と同じ
+ *  返答は開いたままにされ，Providerがレコードを記録し次第書き込まれる．
+ *  Providerが終了してすべてのレコードを送ったとき，またはViewerが切断されたときに終わる．
+ *  クライアントが十分速く受け取れない場合は，受け取れるようになるまでレコードを読まない．
+ *  要求が失敗した場合の返答は<code>RecordHandler</code>と同じJSONとなる．
+ * */
+public class RecordStreamHandler extends DefaultHandler {
+
+    private Manager manager;
+
+    public RecordStreamHandler(Manager manager) {
+        super(Method.GET, StreamParam.class);
+        this.manager = manager;
+    }
+
+    /**
+     * service: open the stream, and keep the response suspended.
+     * */
+    @Override
+    public void service(Request request, Response response) throws Exception {
+        if (!validateCall(response, request.getMethod(), method, request.getRequestURI())) {
+            return;
+        }
+
+        request.getParameterNames(); /* experimental:: to finalize parameters */
+        StreamParam param = (StreamParam) bindParameters(request.getParameters());
+        if (param == null || param.viewerId == null) {
+            logger.error("/rest/stream: request 'viewerId' is null.");
+            writeResponse(request, response, new ServerResponse(ServerResponse.STATUS_BADREQ, "['viewerId'] cannot be null."));
+            return;
+        }
+
+        // Suspend before open: records may be written from the manager's thread
+        response.suspend();
+        GrizzlySink sink = new GrizzlySink(response);
+        ServerResponse result = manager.requestRecordStream(param.viewerId, param.time, sink);
+        if (result == null || !(result.getData() instanceof RecordStream)) {
+            writeResponse(request, response, result);
+            response.resume();
+            return;
+        }
+
+        RecordStream stream = (RecordStream) result.getData();
+        response.setCharacterEncoding(null);
+        response.setContentType(BinaryRecordHandler.CONTENT_TYPE);
+
+        // Close the stream when the client is gone
+        request.getContext().getConnection().addCloseListener(new CloseListener<Closeable, CloseType>() {
+            @Override
+            public void onClosed(Closeable closeable, CloseType type) throws IOException {
+                stream.close();
+            }
+        });
+        stream.start();
+    }
+
+    public static class StreamParam
+    {
+        public Integer viewerId;
+        public Integer time;
+    }
+
+    /**
+     * <code>RecordSink</code> on the suspended Grizzly response.
+     * 中断したGrizzlyの返答への<code>RecordSink</code>
+     * */
+    private class GrizzlySink implements RecordSink {
+        private final Response response;
+        private final NIOOutputStream output;
+        private final byte[] prefix;
+        private boolean closed;
+
+        GrizzlySink(Response response) {
+            this.response = response;
+            this.output = response.getNIOOutputStream();
+            this.prefix = new byte[BinaryRecordHandler.LENGTH_SIZE];
+            this.closed = false;
+        }
+
+        @Override
+        public boolean isReady() {
+            return output.canWrite();
+        }
+
+        @Override
+        public void onReady(Runnable task) {
+            output.notifyCanWrite(new WriteHandler() {
+                @Override
+                public void onWritePossible() throws Exception {
+                    task.run();
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    logger.info("/rest/stream: cannot write : " + t.getMessage());
+                    close();
+                }
+            });
+        }
+
+        @Override
+        public void write(ByteBuffer record) throws IOException {
+            int size = record.remaining();
+            prefix[0] = (byte) (size >>> 24);
+            prefix[1] = (byte) (size >>> 16);
+            prefix[2] = (byte) (size >>> 8);
+            prefix[3] = (byte) size;
+            output.write(prefix);
+            response.getOutputBuffer().writeByteBuffer(record);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) return;
+            closed = true;
+            try {
+                response.resume();
+            } catch (Exception e) {
+                // already finished by the client
+                logger.debug("/rest/stream: resume failed : " + e.getMessage());
+            }
+        }
+    }
+}
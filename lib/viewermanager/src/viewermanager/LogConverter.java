@@ -0,0 +1,322 @@
+package viewermanager;
+
+import org.apache.log4j.Logger;
+import viewermanager.entity.provider.RRSLogReader;
+import viewermanager.entity.provider.RRSRegistry;
+import viewermanager.log.LogFileException;
+import viewermanager.log.ViewerLogFileWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Log Converter - convert RRS Log Files to ViewerLog (.vlog)
+ * RRSのログファイルをViewerLog(.vlog)に変換する
+ *
+ * Batch mode converts all logs in a directory or matched by a glob,
+ *  with one reading of RRS's Jar Files and a bounded count of workers.
+ * バッチモードでは，ディレクトリ内またはglobに一致するすべてのログを，
+ *  1度のRRSのJarファイルの読み込みと，限られた数のワーカで変換する．
+ * */
+public class LogConverter {
+
+    /**
+     * result of converting one log
+     * 1つのログの変換結果
+     * */
+    public static class Result {
+        /** path of input log. 入力のログのパス */
+        public String input;
+        /** path of output ViewerLog. 出力のViewerLogのパス */
+        public String output;
+        /** count of records written. 書き出したレコードの数 */
+        public int records;
+        /** milliseconds taken to convert. 変換にかかった時間(ミリ秒) */
+        public long time;
+        /** size of input log. 入力のログのサイズ */
+        public long inputBytes;
+        /** size of output ViewerLog. 出力のViewerLogのサイズ */
+        public long outputBytes;
+        /** error occurred, or null when succeeded. 発生したエラー，成功時はnull */
+        public Exception error;
+
+        public Result(String input, String output) {
+            this.input = input;
+            this.output = output;
+            this.records = 0;
+            this.time = 0;
+            this.inputBytes = new File(input).length();
+            this.outputBytes = 0;
+            this.error = null;
+        }
+
+        public boolean isSucceeded() {
+            return error == null;
+        }
+    }
+
+    private static Logger getLogger() {
+        Logger logger = Logger.getLogger(System.getProperty(ViewerManagerKeys.LOGGER, ViewerManagerKeys.DEFAULT_LOGGER));
+        if (Objects.isNull(logger)) {
+            logger = Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER);
+        }
+        return logger;
+    }
+
+    /**
+     * convert a RRS Log File to ViewerLog.
+     * RRSのログファイルをViewerLogに変換する．
+     *
+     * @param input path of RRS Log. RRSのログのパス
+     * @param output path of ViewerLog, if null, created by <code>ViewerLogFile.createLogPath</code>.
+     * @return result of converting, <code>error</code> is set when failed.
+     * */
+    public static Result convert(String input, String output) {
+        return convert(new RRSLogReader(), input, output);
+    }
+
+    /**
+     * convert a RRS Log File to ViewerLog with the reader given.
+     * 与えられたReaderでRRSのログファイルをViewerLogに変換する．
+     * */
+    private static Result convert(RRSLogReader reader, String input, String output) {
+        Result result = new Result(input, output);
+        long start = System.currentTimeMillis();
+
+        try {
+            reader.open(input);
+
+            // Write out each record as it is read
+            try (ViewerLogFileWriter writer = new ViewerLogFileWriter(reader, output)) {
+                result.output = writer.getPath();
+                while (reader.isIncomingRecordAvailable()) {
+                    writer.write(reader.getIncomingRecord());
+                }
+                result.records = writer.size();
+            }
+            result.outputBytes = new File(result.output).length();
+        } catch (LogFileException | RuntimeException e) {
+            // A broken log fails only its own result
+            result.error = e;
+        } finally {
+            reader.shutdown();
+        }
+
+        result.time = System.currentTimeMillis() - start;
+        return result;
+    }
+
+    /**
+     * find RRS Log Files (*.log) in a directory (recursive), or matched by a glob like "logs/&#42;&#42;/rescue.log".
+     *  "&#42;&#42;/" in the glob also matches no directory, so "logs/rescue.log" is matched too.
+     * ディレクトリ内(再帰的)，またはglobに一致するRRSのログファイル(*.log)を探す．
+     *  glob内の"&#42;&#42;/"はディレクトリがない場合にも一致するため，"logs/rescue.log"も一致する．
+     *
+     * @param pattern directory or glob. ディレクトリまたはglob
+     * @return paths of logs found, sorted.
+     * */
+    public static List<Path> findLogs(String pattern) throws IOException {
+        Path base;
+        List<PathMatcher> matchers = new ArrayList<>();
+
+        if (Files.isDirectory(Paths.get(pattern))) {
+            // All logs in the directory
+            base = Paths.get(pattern);
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:**.log"));
+        }
+        else {
+            // Walk from the directory before the first wildcard
+            base = Paths.get(".");
+            Path path = Paths.get(pattern);
+            Path parent = path.isAbsolute() ? path.getRoot() : null;
+            for (Path name : path) {
+                if (name.toString().matches(".*[*?\\[{].*")) {
+                    break;
+                }
+                parent = (parent == null) ? name : parent.resolve(name);
+            }
+            if (parent != null && !parent.equals(path)) {
+                base = parent;
+            }
+            for (String glob : expandGlob(pattern)) {
+                matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+            }
+        }
+
+        if (!Files.isDirectory(base)) {
+            return new ArrayList<>();
+        }
+
+        final Path root = base;
+        try (Stream<Path> stream = Files.walk(root)) {
+            return stream.filter(Files::isRegularFile)
+                    .filter(p -> matchers.stream().anyMatch(m -> m.matches(p) || m.matches(root.relativize(p))))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * globs with each "&#42;&#42;/" kept or removed, because "&#42;&#42;/" of PathMatcher needs one directory at least.
+     * "&#42;&#42;/"を残したものと除いたもののglob．PathMatcherの"&#42;&#42;/"は少なくとも1つのディレクトリを必要とするため．
+     * */
+    private static List<String> expandGlob(String pattern) {
+        List<String> globs = new ArrayList<>();
+        int index = pattern.indexOf("**/");
+        if (index < 0) {
+            globs.add(pattern);
+            return globs;
+        }
+
+        String head = pattern.substring(0, index);
+        for (String tail : expandGlob(pattern.substring(index + 3))) {
+            globs.add(head + "**/" + tail);
+            globs.add(head + tail);
+        }
+        return globs;
+    }
+
+    /**
+     * convert all RRS Log Files found by <code>pattern</code>.
+     *  outputs keep the tree under the base directory, or are put beside inputs when <code>outputDir</code> is null.
+     *  an error on a log is kept in its result, and the summary is always written.
+     * <code>pattern</code>で見つかったすべてのRRSのログファイルを変換する．
+     *  出力は基準ディレクトリ以下の構造を保つ．<code>outputDir</code>がnullのときは入力と同じ場所に置く．
+     *  ログのエラーはその結果に保持し，要約は常に書き出す．
+     *
+     * @param pattern directory or glob. ディレクトリまたはglob
+     * @param outputDir directory to put ViewerLogs, or null. ViewerLogを置くディレクトリ
+     * @param workers count of logs converted at once. 同時に変換するログの数
+     * @return results of each log, in order of input.
+     * */
+    public static List<Result> batch(String pattern, String outputDir, int workers) throws IOException {
+        Logger logger = getLogger();
+        List<Path> logs = findLogs(pattern);
+        logger.info(String.format("Batch: %d logs found by \"%s\"", logs.size(), pattern));
+        if (logs.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // Read RRS's Jar Files before workers start, shared by all logs
+        RRSRegistry.initialize();
+
+        Path base = Files.isDirectory(Paths.get(pattern)) ? Paths.get(pattern) : commonParent(logs);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, workers));
+        List<Future<Result>> futures = new ArrayList<>();
+        for (Path log : logs) {
+            String output = outputPath(log, base, outputDir);
+            futures.add(executor.submit(() -> {
+                logger.info(String.format("Convert \"%s\" to ViewerLog \"%s\"", log, output));
+                // Workers are used for logs, so each log is read sequentially
+                RRSLogReader reader = new RRSLogReader();
+                reader.setParallelism(1, 1);
+                return convert(reader, log.toString(), output);
+            }));
+        }
+
+        List<Result> results = new ArrayList<>();
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            String input = logs.get(i).toString();
+            try {
+                if (interrupted) {
+                    throw new InterruptedException("batch is interrupted");
+                }
+                results.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                // Unexpected error on the worker, only the log fails
+                logger.error(String.format("Batch: failed on converting \"%s\"", input), e.getCause());
+                Result result = new Result(input, null);
+                result.error = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                results.add(result);
+            } catch (InterruptedException e) {
+                // Logs not converted yet are failed
+                if (!interrupted) {
+                    logger.error("Batch: interrupted on converting", e);
+                    executor.shutdownNow();
+                    interrupted = true;
+                }
+                Result result = new Result(input, null);
+                result.error = e;
+                results.add(result);
+            }
+        }
+        executor.shutdown();
+
+        printSummary(results);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return results;
+    }
+
+    /**
+     * output path for the log, with extension ".vlog".
+     * ログの出力先のパス(拡張子".vlog")
+     * */
+    private static String outputPath(Path log, Path base, String outputDir) throws IOException {
+        String name = log.getFileName().toString().replaceAll("\\.log$", "") + ".vlog";
+        if (outputDir == null) {
+            return log.resolveSibling(name).toString();
+        }
+
+        Path relative = base.toAbsolutePath().normalize().relativize(log.toAbsolutePath().normalize());
+        Path output = Paths.get(outputDir).resolve(relative).resolveSibling(name);
+        Files.createDirectories(output.getParent());
+        return output.toString();
+    }
+
+    /**
+     * the deepest directory containing all paths.
+     * すべてのパスを含む最も深いディレクトリ
+     * */
+    private static Path commonParent(List<Path> paths) {
+        Path common = paths.get(0).toAbsolutePath().normalize().getParent();
+        for (Path path : paths) {
+            Path p = path.toAbsolutePath().normalize();
+            while (common != null && !p.startsWith(common)) {
+                common = common.getParent();
+            }
+        }
+        return (common != null) ? common : Paths.get(".");
+    }
+
+    /**
+     * write out summary of converting: time and bytes per log.
+     * 変換結果の要約(ログ毎の時間とバイト数)を書き出す．
+     * */
+    private static void printSummary(List<Result> results) {
+        Logger logger = getLogger();
+        long time = 0, inputBytes = 0, outputBytes = 0;
+        int failed = 0;
+
+        logger.info(":::::::::::Batch Summary:::::::::::");
+        for (Result result : results) {
+            if (result.isSucceeded()) {
+                logger.info(String.format("OK   %8d ms %12d -> %12d bytes %4d steps : %s",
+                        result.time, result.inputBytes, result.outputBytes, result.records, result.input));
+                outputBytes += result.outputBytes;
+            }
+            else {
+                logger.info(String.format("FAIL %8d ms %12d bytes : %s (%s)",
+                        result.time, result.inputBytes, result.input,
+                        (result.error.getMessage() != null) ? result.error.getMessage() : result.error.toString()));
+                failed++;
+            }
+            time += result.time;
+            inputBytes += result.inputBytes;
+        }
+        logger.info(String.format("Total: %d logs (%d failed), %d ms, %d -> %d bytes",
+                results.size(), failed, time, inputBytes, outputBytes));
+    }
+}
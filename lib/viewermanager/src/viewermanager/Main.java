@@ -8,15 +8,17 @@ import org.kohsuke.args4j.Option;
 import server.HttpRest;
 import viewermanager.entity.Record;
 import viewermanager.entity.provider.RRSLogReader;
-import viewermanager.log.ViewerLogFile;
-import viewermanager.log.ViewerLogFileRecord;
+import viewermanager.log.LogFileException;
+import viewermanager.log.ViewerLogFileWriter;
 import viewermanager.manager.DefaultManager;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 import java.util.Objects;
 import java.util.Properties;
 
@@ -73,6 +75,12 @@ public class Main {
 
         @Option(name="-o", aliases = {"--output"}, metaVar = "OutputFileName", usage="Output File Name for logFile Converting")
         public String outputFilename = null;
+
+        @Option(name="-j", aliases = {"--jobs"}, metaVar = "jobs", usage="Count of Workers for logFile Converting, each worker loads the whole log on heap")
+        public Integer jobs = null;
+
+        @Option(name="-b", aliases = {"--batch"}, metaVar = "InputDirOrGlob", usage="Convert all logfiles in the directory or matched by the glob, to `output` directory")
+        public String batch = null;
     };
 
     private static void initConfig(Parser item) {
@@ -102,6 +110,12 @@ public class Main {
             System.setProperty(key, config.get(key));
         }
 
+        // Workers of log reading given by arguments
+        //  (on batch mode, workers are used for logs, and each log is read sequentially)
+        if (item.jobs != null && item.batch == null) {
+            System.setProperty(ViewerManagerKeys.LOG_READER_THREADS, item.jobs.toString());
+        }
+
         Logger.getLogger(System.getProperty(ViewerManagerKeys.LOGGER ,ViewerManagerKeys.DEFAULT_LOGGER))
                 .setLevel(Level.toLevel(System.getProperty(ViewerManagerKeys.LOG_LEVEL, ViewerManagerKeys.DEFAULT_LOG_LEVEL)));
     }
@@ -119,6 +133,24 @@ public class Main {
         }
         initConfig(item);
 
+        // Is Batch convert mode
+        if (Objects.nonNull(item.batch) && !item.batch.isEmpty()) {
+            Logger log = Logger.getLogger(System.getProperty(ViewerManagerKeys.LOGGER, ViewerManagerKeys.DEFAULT_LOGGER));
+            log.info(":::::::::::Batch Convert Mode:::::::::::");
+            int workers = (item.jobs != null) ? item.jobs : Runtime.getRuntime().availableProcessors();
+            try {
+                List<LogConverter.Result> results = LogConverter.batch(item.batch, item.outputFilename, workers);
+                if (results.stream().anyMatch(r -> !r.isSucceeded())) {
+                    System.exit(1);
+                }
+            } catch (IOException ex) {
+                log.error(String.format("Cannot convert logs \"%s\"", item.batch), ex);
+                System.exit(1);
+            }
+            log.info("Done!");
+            return;
+        }
+
         // Is Log convert mode
         if (Objects.nonNull(item.logFile) && !item.logFile.isEmpty()) {
             Logger log = Logger.getLogger(System.getProperty(ViewerManagerKeys.LOGGER, ViewerManagerKeys.DEFAULT_LOGGER));
@@ -135,13 +167,16 @@ public class Main {
                 return;
             }
 
-            ViewerLogFileRecord logRecord = new ViewerLogFileRecord(reader);
-            while (reader.isIncomingRecordAvailable()) {
-                Record record = reader.getIncomingRecord();
-                logRecord.put(record);
-            }
+            // Write out each record as it is read
             log.info("File Writing...");
-            ViewerLogFile.logWrite(logRecord, item.outputFilename);
+            try (ViewerLogFileWriter writer = new ViewerLogFileWriter(reader, item.outputFilename)) {
+                while (reader.isIncomingRecordAvailable()) {
+                    Record record = reader.getIncomingRecord();
+                    writer.write(record);
+                }
+            } catch (LogFileException ex) {
+                log.error(String.format("Cannot write ViewerLog \"%s\"", item.outputFilename), ex);
+            }
             log.info("Done!");
             reader.shutdown();
 
@@ -8,6 +8,37 @@ public class ViewerManagerKeys {
     public static final String DEFAULT_LOG_LEVEL = "INFO";
     public static final String VIEWER_LOG_DIR = "viewer.manager.log.dir";
     public static final String VIEWER_LOG_DEFAULT_DIR = "logs";
+    public static final String VIEWER_LOG_VERSION = "viewer.manager.log.version";
+    public static final String VIEWER_LOG_DEFAULT_VERSION = "1";
+    public static final String VIEWER_LOG_KEYFRAME = "viewer.manager.log.keyframe";
+    public static final String VIEWER_LOG_DEFAULT_KEYFRAME = "50";
+    public static final String VIEWER_LOG_CODEC = "viewer.manager.log.codec";
+    public static final String VIEWER_LOG_DEFAULT_CODEC = "none";
+    public static final String VIEWER_LOG_COMPACT = "viewer.manager.log.compact";
+    public static final String VIEWER_LOG_DEFAULT_COMPACT = "true";
+
+    public static final String ENCODER_COMPACT = "viewer.manager.encoder.compact";
+    public static final String ENCODER_DEFAULT_COMPACT = "false";
+    public static final String ENCODER_THREADS = "viewer.manager.encoder.threads";
+    public static final String ENCODER_DEFAULT_THREADS = "2";
+    public static final String ENCODER_QUEUE = "viewer.manager.encoder.queue";
+    public static final String ENCODER_DEFAULT_QUEUE = "16";
+    public static final String MANAGER_IDLE_TIME = "viewer.manager.idle.ms";
+    public static final String MANAGER_IDLE_DEFAULT_TIME = "1000";
+    public static final String BATCH_CACHE_SIZE = "viewer.manager.batch.cache.mb";
+    public static final String BATCH_CACHE_DEFAULT_SIZE = "16";
+    public static final String RECORD_WAIT_MAX = "viewer.manager.record.wait.ms";
+    public static final String RECORD_WAIT_DEFAULT_MAX = "30000";
+    public static final String RECORDER_TYPE = "viewer.manager.recorder";
+    public static final String RECORDER_DEFAULT_TYPE = "heap";
+    public static final String RECORDER_DIR = "viewer.manager.recorder.dir";
+    public static final String RECORDER_DEFAULT_DIR = "recorders";
+    public static final String RECORDER_SEGMENT_SIZE = "viewer.manager.recorder.segment.mb";
+    public static final String RECORDER_DEFAULT_SEGMENT_SIZE = "64";
+    public static final String RECORDER_BUDGET = "viewer.manager.recorder.budget.mb";
+    public static final String RECORDER_DEFAULT_BUDGET = "512";
+    public static final String RECORDER_KEYFRAME = "viewer.manager.recorder.keyframe";
+    public static final String RECORDER_DEFAULT_KEYFRAME = "50";
 
     public static final String KERNEL_PORT = "rrs.viewer.default.port";
     public static final String KERNEL_DEFAULT_PORT = "7000";
@@ -15,6 +46,17 @@ public class ViewerManagerKeys {
     public static final String VIEWER_KERNEL_WAIT_DEFAULT_TIME = "1000";
     public static final String VIEWER_KERNEL_WAIT_COUNT = "rrs.viewer.wait.count";
     public static final String VIEWER_KERNEL_WAIT_DEFAULT_COUNT = "60";
+    public static final String VIEWER_QUEUE_SIZE = "rrs.viewer.queue.size";
+    public static final String VIEWER_QUEUE_DEFAULT_SIZE = "1024";
+    public static final String VIEWER_QUEUE_OVERFLOW = "rrs.viewer.queue.overflow";
+    public static final String VIEWER_QUEUE_DEFAULT_OVERFLOW = "block";
+
+    public static final String LOG_READER_THREADS = "rrs.log.reader.threads";
+    public static final String LOG_READER_DEFAULT_THREADS = "1";
+    public static final String LOG_READER_CHUNK = "rrs.log.reader.chunk";
+    public static final String LOG_READER_DEFAULT_CHUNK = "10";
+    public static final String LOG_READER_INCREMENTAL = "rrs.log.reader.incremental";
+    public static final String LOG_READER_DEFAULT_INCREMENTAL = "true";
 
     public static final String HTTP_PORT = "http.port";
     public static final String HTTP_DEFAULT_PORT = "8080";
@@ -29,9 +71,29 @@ public class ViewerManagerKeys {
         map.put(LOGGER, DEFAULT_LOGGER);
         map.put(LOG_LEVEL, DEFAULT_LOG_LEVEL);
         map.put(VIEWER_LOG_DIR, VIEWER_LOG_DEFAULT_DIR);
+        map.put(VIEWER_LOG_VERSION, VIEWER_LOG_DEFAULT_VERSION);
+        map.put(VIEWER_LOG_KEYFRAME, VIEWER_LOG_DEFAULT_KEYFRAME);
+        map.put(VIEWER_LOG_CODEC, VIEWER_LOG_DEFAULT_CODEC);
+        map.put(VIEWER_LOG_COMPACT, VIEWER_LOG_DEFAULT_COMPACT);
+        map.put(ENCODER_COMPACT, ENCODER_DEFAULT_COMPACT);
+        map.put(ENCODER_THREADS, ENCODER_DEFAULT_THREADS);
+        map.put(ENCODER_QUEUE, ENCODER_DEFAULT_QUEUE);
+        map.put(MANAGER_IDLE_TIME, MANAGER_IDLE_DEFAULT_TIME);
+        map.put(BATCH_CACHE_SIZE, BATCH_CACHE_DEFAULT_SIZE);
+        map.put(RECORD_WAIT_MAX, RECORD_WAIT_DEFAULT_MAX);
+        map.put(RECORDER_TYPE, RECORDER_DEFAULT_TYPE);
+        map.put(RECORDER_DIR, RECORDER_DEFAULT_DIR);
+        map.put(RECORDER_SEGMENT_SIZE, RECORDER_DEFAULT_SEGMENT_SIZE);
+        map.put(RECORDER_BUDGET, RECORDER_DEFAULT_BUDGET);
+        map.put(RECORDER_KEYFRAME, RECORDER_DEFAULT_KEYFRAME);
         map.put(KERNEL_PORT, KERNEL_DEFAULT_PORT);
         map.put(VIEWER_KERNEL_WAIT_TIME, VIEWER_KERNEL_WAIT_DEFAULT_TIME);
         map.put(VIEWER_KERNEL_WAIT_COUNT, VIEWER_KERNEL_WAIT_DEFAULT_COUNT);
+        map.put(VIEWER_QUEUE_SIZE, VIEWER_QUEUE_DEFAULT_SIZE);
+        map.put(VIEWER_QUEUE_OVERFLOW, VIEWER_QUEUE_DEFAULT_OVERFLOW);
+        map.put(LOG_READER_THREADS, LOG_READER_DEFAULT_THREADS);
+        map.put(LOG_READER_CHUNK, LOG_READER_DEFAULT_CHUNK);
+        map.put(LOG_READER_INCREMENTAL, LOG_READER_DEFAULT_INCREMENTAL);
         map.put(HTTP_PORT, HTTP_DEFAULT_PORT);
         map.put(HTTP_STATIC, HTTP_DEFAULT_STATIC);
         map.put(HTTP_WEB_HOME, HTTP_DEFAULT_WEB_HOME);
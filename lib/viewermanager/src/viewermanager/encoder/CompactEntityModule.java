@@ -0,0 +1,178 @@
+package viewermanager.encoder;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import viewermanager.entity.Entity;
+import viewermanager.entity.EntityField;
+import viewermanager.entity.Point;
+import viewermanager.entity.WorldStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CompactEntityModule - Jackson Module to write <code>Entity</code> as an array by position.
+ * <code>Entity</code>を位置による配列として書き出すJacksonのモジュール
+ *
+ * An entity is written as <code>[mask, value, value, ...]</code>:
+ *  the bit <code>i</code> of <code>mask</code> is set when the <code>i</code>th field of
+ *  <code>EntityField.FIELDS</code> is not null, and only those values follow in the same order.
+ *  A <code>Point</code> in the values is written as <code>[x, y]</code>.
+ * Field names are not written, so the data are smaller and faster to encode and decode,
+ *  but the reader must know this format; other classes are written as usual.
+ *
+ * Entityは<code>[mask, 値, 値, ...]</code>として書き出す．
+ *  <code>mask</code>の<code>i</code>番目のビットは<code>EntityField.FIELDS</code>の<code>i</code>番目のフィールドが
+ *  nullでないときに立ち，それらの値のみを同じ順に続ける．値の中の<code>Point</code>は<code>[x, y]</code>として書き出す．
+ * フィールド名を書き出さないため，データは小さく，直列化と復元が速いが，読み出す側がこの形式を知っている必要がある．
+ *  その他のクラスは通常通りに書き出す．
+ * */
+public class CompactEntityModule extends SimpleModule {
+
+    private static final long serialVersionUID = 1L;
+
+    public CompactEntityModule() {
+        super("CompactEntityModule", Version.unknownVersion());
+        addSerializer(Entity.class, new EntitySerializer());
+        addDeserializer(Entity.class, new EntityDeserializer());
+        addSerializer(WorldStore.Entities.class, new WorldStoreSerializer(true));
+    }
+
+    /**
+     * create MessagePack ObjectMapper with this module.
+     * このモジュールを使うMessagePackのObjectMapperを作る．
+     * */
+    public static ObjectMapper createMapper() {
+        ObjectMapper mapper = new ObjectMapper(new MessagePackFactory());
+        mapper.registerModule(new CompactEntityModule());
+        return mapper;
+    }
+
+    //-------------------------------------------------------------------------
+    private static class EntitySerializer extends JsonSerializer<Entity> {
+        @Override
+        public void serialize(Entity entity, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            List<EntityField> fields = EntityField.FIELDS;
+            Object[] values = new Object[fields.size()];
+            int mask = 0;
+            int count = 0;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = fields.get(i).get(entity);
+                if (values[i] != null) {
+                    mask |= 1 << i;
+                    count++;
+                }
+            }
+
+            gen.writeStartArray(count + 1);
+            gen.writeNumber(mask);
+            for (Object value : values) {
+                if (value != null) {
+                    writeValue(gen, provider, value);
+                }
+            }
+            gen.writeEndArray();
+        }
+
+        private static void writeValue(JsonGenerator gen, SerializerProvider provider, Object value) throws IOException {
+            if (value instanceof Integer) {
+                gen.writeNumber((Integer) value);
+            }
+            else if (value instanceof String) {
+                gen.writeString((String) value);
+            }
+            else if (value instanceof Boolean) {
+                gen.writeBoolean((Boolean) value);
+            }
+            else if (value instanceof Point) {
+                Point point = (Point) value;
+                gen.writeStartArray(2);
+                gen.writeNumber(point.x);
+                gen.writeNumber(point.y);
+                gen.writeEndArray();
+            }
+            else if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                gen.writeStartArray(list.size());
+                for (Object v : list) {
+                    writeValue(gen, provider, v);
+                }
+                gen.writeEndArray();
+            }
+            else {
+                throw provider.mappingException("CompactEntityModule: unknown value of Entity : %s", value.getClass());
+            }
+        }
+    }
+
+    private static class EntityDeserializer extends JsonDeserializer<Entity> {
+        @Override
+        public Entity deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (p.getCurrentToken() != JsonToken.START_ARRAY || p.nextToken() != JsonToken.VALUE_NUMBER_INT) {
+                throw ctxt.mappingException("CompactEntityModule: Entity is not written as array");
+            }
+
+            List<EntityField> fields = EntityField.FIELDS;
+            Entity entity = new Entity();
+            int mask = p.getIntValue();
+            for (int i = 0; i < fields.size(); i++) {
+                if ((mask & (1 << i)) != 0) {
+                    p.nextToken();
+                    fields.get(i).set(entity, readValue(p, ctxt));
+                }
+            }
+
+            if (p.nextToken() != JsonToken.END_ARRAY) {
+                throw ctxt.mappingException("CompactEntityModule: unexpected values of Entity");
+            }
+            return entity;
+        }
+
+        private static Object readValue(JsonParser p, DeserializationContext ctxt) throws IOException {
+            switch (p.getCurrentToken()) {
+                case VALUE_NUMBER_INT:
+                    return p.getIntValue();
+                case VALUE_STRING:
+                    return p.getText();
+                case VALUE_TRUE:
+                    return Boolean.TRUE;
+                case VALUE_FALSE:
+                    return Boolean.FALSE;
+                case VALUE_NULL:
+                    return null;
+                case START_ARRAY: {
+                    // List of Integer, or List of Point as [x, y]
+                    List<Object> list = new ArrayList<>();
+                    while (p.nextToken() != JsonToken.END_ARRAY) {
+                        if (p.getCurrentToken() == JsonToken.START_ARRAY) {
+                            p.nextToken();
+                            int x = p.getIntValue();
+                            p.nextToken();
+                            int y = p.getIntValue();
+                            if (p.nextToken() != JsonToken.END_ARRAY) {
+                                throw ctxt.mappingException("CompactEntityModule: Point is not [x, y]");
+                            }
+                            list.add(new Point(x, y));
+                        }
+                        else {
+                            list.add(readValue(p, ctxt));
+                        }
+                    }
+                    return list;
+                }
+                default:
+                    throw ctxt.mappingException("CompactEntityModule: unknown value of Entity : " + p.getCurrentToken());
+            }
+        }
+    }
+}
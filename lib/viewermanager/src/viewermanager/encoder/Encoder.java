@@ -19,4 +19,25 @@ public interface Encoder {
      * @return <code>ByteBuffer</code> encoded data when encode succeeded, or null when failed.
      *  */
     ByteBuffer encodeRecord(Record record) throws EncodeException;
+
+    /**
+     * Decode <code>Record</code> from <code>ByteBuffer</code> encoded by this encoder.
+     * このEncoderで変換された<code>ByteBuffer</code>から<code>Record</code>を復元する.
+     *
+     * @param buffer <code>ByteBuffer</code> encoded data, the position is not moved.
+     * @return <code>Record</code> decoded.
+     * */
+    default Record decodeRecord(ByteBuffer buffer) throws EncodeException {
+        throw new EncodeException("decode is not supported");
+    }
+
+    /**
+     * get the format written, with settings; records encoded in other formats are not compatible.
+     * 設定を含む書き出す形式を取得する. 他の形式で変換したレコードとは互換性がない.
+     *
+     * @return name of the format. 形式の名前
+     * */
+    default String getFormat() {
+        return getClass().getName();
+    }
 }
@@ -1,20 +1,28 @@
 package viewermanager.encoder;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.Version;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
 import org.apache.log4j.Logger;
 import org.msgpack.jackson.dataformat.MessagePackFactory;
 import viewermanager.ViewerManagerKeys;
 import viewermanager.entity.Record;
+import viewermanager.entity.WorldStore;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 
 /**
  * MsgPackEncoder - <code>Encoder</code> use MsgPack to encoding.
  *  On Serialize, uses Jackson MessagePack Library.
+ *  If compact, entities are written by position with <code>CompactEntityModule</code>.
+ *  Worlds of <code>WorldStore</code> are written from the store with <code>WorldStoreSerializer</code>.
  *
  * MsgPackを利用する<code>Encoder</code>
  * 直列化のためにJacksonのMessagePackライブラリを使用しています．
+ *  compactの場合は，Entityを<code>CompactEntityModule</code>で位置により書き出します．
+ *  <code>WorldStore</code>のWorldは<code>WorldStoreSerializer</code>でストアから書き出します．
  * */
 public class MsgPackEncoder implements Encoder {
 
@@ -22,14 +30,44 @@ public class MsgPackEncoder implements Encoder {
      * Jackson Serializer Object
      * */
     private ObjectMapper mapper;
+
+    /**
+     * write entities by position
+     * Entityを位置により書き出すか
+     * */
+    private final boolean compact;
+
     Logger logger;
 
+    /**
+     * create encoder, compact if <code>ViewerManagerKeys.ENCODER_COMPACT</code> is true.
+     * <code>ViewerManagerKeys.ENCODER_COMPACT</code>がtrueの場合はcompactなEncoderを作る．
+     * */
     public MsgPackEncoder() {
+        this(Boolean.parseBoolean(System.getProperty(ViewerManagerKeys.ENCODER_COMPACT, ViewerManagerKeys.ENCODER_DEFAULT_COMPACT)));
+    }
+
+    /**
+     * create encoder.
+     * Encoderを作る．
+     *
+     * @param compact write entities by position, see <code>CompactEntityModule</code>. Entityを位置により書き出すか
+     * */
+    public MsgPackEncoder(boolean compact) {
         logger = Logger.getLogger(System.getProperty(ViewerManagerKeys.LOGGER, ViewerManagerKeys.DEFAULT_LOGGER));
         if (logger == null) {
             logger = Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER);
         }
-        mapper = new ObjectMapper(new MessagePackFactory());
+        this.compact = compact;
+        if (compact) {
+            mapper = CompactEntityModule.createMapper();
+        }
+        else {
+            // Worlds of WorldStore are written from the store, same as entities
+            mapper = new ObjectMapper(new MessagePackFactory());
+            mapper.registerModule(new SimpleModule("WorldStoreModule", Version.unknownVersion())
+                    .addSerializer(WorldStore.Entities.class, new WorldStoreSerializer(false)));
+        }
     }
 
     /**
@@ -58,4 +96,31 @@ public class MsgPackEncoder implements Encoder {
 
         return result;
     }
+
+    /**
+     * Decode <code>Record</code> from <code>ByteBuffer</code> encoded by this encoder.
+     * このEncoderで変換された<code>ByteBuffer</code>から<code>Record</code>を復元する.
+     *
+     * @param buffer <code>ByteBuffer</code> encoded data, the position is not moved.
+     * @return <code>Record</code> decoded.
+     *  */
+    @Override
+    public Record decodeRecord(ByteBuffer buffer) throws EncodeException {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        try {
+            return mapper.readValue(data, Record.class);
+        } catch (IOException e) {
+            throw new EncodeException(e);
+        }
+    }
+
+    /**
+     * get the format written: MessagePack, compact or not.
+     * 書き出す形式を取得する: MessagePack，compactか否か.
+     * */
+    @Override
+    public String getFormat() {
+        return getClass().getName() + ((compact) ? ";compact" : "");
+    }
 }
@@ -0,0 +1,183 @@
+package viewermanager.encoder;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import viewermanager.entity.EntityField;
+import viewermanager.entity.WorldStore;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * WorldStoreSerializer - write the world of <code>WorldStore.Entities</code> from the columns of the store.
+ *  The output is the same as the list of <code>Entity</code>, written as usual or by <code>CompactEntityModule</code>,
+ *  but no <code>Entity</code> is created.
+ *
+ * <code>WorldStore.Entities</code>のWorldをストアの列から書き出す．
+ *  出力は通常通り，または<code>CompactEntityModule</code>により書き出した<code>Entity</code>のリストと同じだが，
+ *  <code>Entity</code>を作らない．
+ * */
+public class WorldStoreSerializer extends JsonSerializer<WorldStore.Entities> {
+
+    /**
+     * column of each field of <code>EntityField.FIELDS</code>; -1 for the id, and -2 for fields not in the store.
+     * <code>EntityField.FIELDS</code>のそれぞれのフィールドの列．IDは-1，ストアにないフィールドは-2
+     * */
+    private static final int ID = -1;
+    private static final int NONE = -2;
+    private static final int[] FIELD_COLUMNS;
+    private static final String[] FIELD_NAMES;
+
+    static {
+        Map<String, Integer> columns = new HashMap<>();
+        columns.put("id", ID);
+        columns.put("type", WorldStore.TYPE);
+        columns.put("x", WorldStore.X);
+        columns.put("y", WorldStore.Y);
+        columns.put("position", WorldStore.POSITION);
+        columns.put("damage", WorldStore.DAMAGE);
+        columns.put("buried", WorldStore.BURIED);
+        columns.put("hp", WorldStore.HP);
+        columns.put("history", WorldStore.HISTORY);
+        columns.put("travel", WorldStore.TRAVEL);
+        columns.put("board", WorldStore.BOARD);
+        columns.put("water", WorldStore.WATER);
+        columns.put("blockades", WorldStore.BLOCKADES);
+        columns.put("temp", WorldStore.TEMP);
+        columns.put("broken", WorldStore.BROKEN);
+        columns.put("fiery", WorldStore.FIERY);
+        columns.put("repairCost", WorldStore.REPAIR_COST);
+        columns.put("apexes", WorldStore.APEXES);
+
+        List<EntityField> fields = EntityField.FIELDS;
+        FIELD_COLUMNS = new int[fields.size()];
+        FIELD_NAMES = new String[fields.size()];
+        for (int i = 0; i < FIELD_COLUMNS.length; i++) {
+            FIELD_NAMES[i] = fields.get(i).name;
+            FIELD_COLUMNS[i] = columns.getOrDefault(FIELD_NAMES[i], NONE);
+        }
+    }
+
+    /**
+     * write entities by position, same as <code>CompactEntityModule</code>
+     * <code>CompactEntityModule</code>と同じく，Entityを位置により書き出すか
+     * */
+    private final boolean compact;
+
+    /**
+     * @param compact write entities by position, same as <code>CompactEntityModule</code>. Entityを位置により書き出すか
+     * */
+    public WorldStoreSerializer(boolean compact) {
+        this.compact = compact;
+    }
+
+    @Override
+    public void serialize(WorldStore.Entities world, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        int size = world.size();
+        gen.writeStartArray(size);
+        for (int index = 0; index < size; index++) {
+            if (compact) {
+                writeCompact(world, index, gen);
+            }
+            else {
+                writeObject(world, index, gen);
+            }
+        }
+        gen.writeEndArray();
+    }
+
+    private static boolean isDefined(WorldStore.Entities world, int index, int column) {
+        return column == ID || (column != NONE && world.isDefined(index, column));
+    }
+
+    /**
+     * write the entity as an object, same as <code>Entity</code> of non-null fields.
+     * Entityをオブジェクトとして書き出す．nullでないフィールドの<code>Entity</code>と同じ
+     * */
+    private static void writeObject(WorldStore.Entities world, int index, JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        for (int i = 0; i < FIELD_COLUMNS.length; i++) {
+            int column = FIELD_COLUMNS[i];
+            if (isDefined(world, index, column)) {
+                gen.writeFieldName(FIELD_NAMES[i]);
+                writeValue(world, index, column, gen, false);
+            }
+        }
+        gen.writeEndObject();
+    }
+
+    /**
+     * write the entity as <code>[mask, value, value, ...]</code>, same as <code>CompactEntityModule</code>.
+     * Entityを<code>CompactEntityModule</code>と同じく<code>[mask, 値, 値, ...]</code>として書き出す．
+     * */
+    private static void writeCompact(WorldStore.Entities world, int index, JsonGenerator gen) throws IOException {
+        int mask = 0;
+        int count = 0;
+        for (int i = 0; i < FIELD_COLUMNS.length; i++) {
+            if (isDefined(world, index, FIELD_COLUMNS[i])) {
+                mask |= 1 << i;
+                count++;
+            }
+        }
+
+        gen.writeStartArray(count + 1);
+        gen.writeNumber(mask);
+        for (int i = 0; i < FIELD_COLUMNS.length; i++) {
+            int column = FIELD_COLUMNS[i];
+            if (isDefined(world, index, column)) {
+                writeValue(world, index, column, gen, true);
+            }
+        }
+        gen.writeEndArray();
+    }
+
+    private static void writeValue(WorldStore.Entities world, int index, int column, JsonGenerator gen, boolean compact) throws IOException {
+        switch (column) {
+            case ID:
+                gen.writeNumber(world.getId(index));
+                break;
+            case WorldStore.TYPE:
+                gen.writeString(world.getType(index));
+                break;
+            case WorldStore.BLOCKADES: {
+                int[] array = world.getArray(index, column);
+                gen.writeStartArray(array.length);
+                for (int value : array) {
+                    gen.writeNumber(value);
+                }
+                gen.writeEndArray();
+                break;
+            }
+            case WorldStore.HISTORY:
+            case WorldStore.APEXES: {
+                // [x1, y1, x2, y2, ...] to points
+                int[] array = world.getArray(index, column);
+                gen.writeStartArray(array.length / 2);
+                for (int i = 0; i < array.length; i += 2) {
+                    if (compact) {
+                        gen.writeStartArray(2);
+                        gen.writeNumber(array[i]);
+                        gen.writeNumber(array[i + 1]);
+                        gen.writeEndArray();
+                    }
+                    else {
+                        gen.writeStartObject();
+                        gen.writeFieldName("x");
+                        gen.writeNumber(array[i]);
+                        gen.writeFieldName("y");
+                        gen.writeNumber(array[i + 1]);
+                        gen.writeEndObject();
+                    }
+                }
+                gen.writeEndArray();
+                break;
+            }
+            default:
+                gen.writeNumber(world.getValue(index, column));
+                break;
+        }
+    }
+}
@@ -8,7 +8,6 @@ import rescuecore2.standard.entities.*;
 import rescuecore2.worldmodel.EntityID;
 import viewermanager.ViewerManagerKeys;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -156,18 +155,18 @@ public class Entity {
      * */
     public List<Point> apexes;
 
+    /**
+     * accessors of fields not checked on <code>isEmpty</code>
+     * <code>isEmpty</code>で確認しないフィールドのアクセサ
+     * */
+    private static final EntityField ID = EntityField.FIELDS.get(0);
+    private static final EntityField TYPE = EntityField.FIELDS.get(1);
+
     /**
      * create empty entity
      * */
     public Entity() {
-        /// Set All Member to NULL
-        for(Field field : this.getClass().getFields()) {
-            try {
-                field.set(this, null);
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-            }
-        }
+        /// All Members are NULL by default
     }
 
     /**
@@ -193,22 +192,14 @@ public class Entity {
     public boolean isEmpty() {
         // Empty : non null only id and type
 
-        boolean filled = false;
-        try {
-            for (Field field : this.getClass().getFields()) {
-                if (!field.getName().equals("id") && !field.getName().equals("type")) {
-                    // If any field filled, this may true
-                    filled |= (field.get(this) != null);
-                }
+        for (EntityField field : EntityField.FIELDS) {
+            if (field != ID && field != TYPE && field.get(this) != null) {
+                // If any field filled, this is not empty
+                return false;
             }
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-        } catch(NullPointerException ex) {
-            //
         }
 
-        // empty == !filled
-        return !filled;
+        return true;
     }
 
     /**
@@ -219,19 +210,15 @@ public class Entity {
         /// update members use entity
         if(entity == null) return;
 
-        try {
-            /// Check all members
-            for(Field field : entity.getClass().getFields()) {
-                if(!Objects.equals(field.get(entity), null) && !Objects.equals(field.get(this), field.get(entity)))
-                {
-                    /// if `entity`'s field is not null and difference from `this`
-                    field.set(this, field.get(entity));
-                }
+        /// Check all members
+        for(EntityField field : EntityField.FIELDS) {
+            Object value = field.get(entity);
+            if(value != null && !Objects.equals(field.get(this), value))
+            {
+                /// if `entity`'s field is not null and difference from `this`
+                field.set(this, value);
             }
         }
-        catch (IllegalAccessException e) {
-            e.printStackTrace();
-        }
     }
 
     /**
@@ -367,20 +354,13 @@ public class Entity {
         if (e1 != null && e2 != null && !e1.id.equals(e2.id)) return null;
         Entity entity = new Entity();
 
-        try {
-            for (Field field : entity.getClass().getFields()) {
-                /// Compare all members
-                if (!Objects.equals(field.get(e1), field.get(e2))) {
-                    /// keep
-                    field.set(entity, field.get(e2));
-                }
+        for (EntityField field : EntityField.FIELDS) {
+            /// Compare all members
+            Object value = field.get(e2);
+            if (!Objects.equals(field.get(e1), value)) {
+                /// keep
+                field.set(entity, value);
             }
-        } catch (IllegalAccessException e) {
-            Logger logger = Logger.getLogger(System.getProperty(ViewerManagerKeys.LOGGER, ViewerManagerKeys.DEFAULT_LOGGER));
-            if (logger != null) {
-                logger.warn("cannot parse difference correctly", e);
-            }
-            return null;
         }
 
         entity.id = e1.id;
@@ -0,0 +1,89 @@
+package viewermanager.entity;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Field Accessor of Entity, used instead of reflection.
+ * Entityのフィールドへのアクセサ．リフレクションの代わりに使う．
+ *
+ * <code>FIELDS</code> holds all public fields of <code>Entity</code> in order of declaration;
+ *  add the accessor here when a field is added to <code>Entity</code>.
+ * <code>FIELDS</code>は<code>Entity</code>のすべてのpublicなフィールドを宣言順に持つ．
+ *  <code>Entity</code>にフィールドを追加したときはここにアクセサを追加すること．
+ * */
+public final class EntityField {
+
+    /**
+     * name of the field
+     * フィールド名
+     * */
+    public final String name;
+
+    /**
+     * getter of the field
+     * フィールドのgetter
+     * */
+    private final Function<Entity, Object> getter;
+
+    /**
+     * setter of the field
+     * フィールドのsetter
+     * */
+    private final BiConsumer<Entity, Object> setter;
+
+    @SuppressWarnings("unchecked")
+    private <T> EntityField(String name, Function<Entity, T> getter, BiConsumer<Entity, T> setter) {
+        this.name = name;
+        this.getter = (Function<Entity, Object>) getter;
+        this.setter = (BiConsumer<Entity, Object>) setter;
+    }
+
+    /**
+     * get the value of the field of <code>entity</code>.
+     * <code>entity</code>のフィールドの値を取得する．
+     * */
+    public Object get(Entity entity) {
+        return getter.apply(entity);
+    }
+
+    /**
+     * set the value to the field of <code>entity</code>.
+     *  the value must be the type of the field.
+     * <code>entity</code>のフィールドに値を設定する．
+     *  値はフィールドの型でなければならない．
+     * */
+    public void set(Entity entity, Object value) {
+        setter.accept(entity, value);
+    }
+
+    /**
+     * accessors of all fields of <code>Entity</code>, in order of declaration.
+     * <code>Entity</code>のすべてのフィールドのアクセサ(宣言順)
+     * */
+    public static final List<EntityField> FIELDS = Collections.unmodifiableList(Arrays.asList(
+            new EntityField("id", (Entity e) -> e.id, (Entity e, Integer v) -> e.id = v),
+            new EntityField("type", (Entity e) -> e.type, (Entity e, String v) -> e.type = v),
+            new EntityField("created", (Entity e) -> e.created, (Entity e, Boolean v) -> e.created = v),
+            new EntityField("deleted", (Entity e) -> e.deleted, (Entity e, Boolean v) -> e.deleted = v),
+            new EntityField("x", (Entity e) -> e.x, (Entity e, Integer v) -> e.x = v),
+            new EntityField("y", (Entity e) -> e.y, (Entity e, Integer v) -> e.y = v),
+            new EntityField("position", (Entity e) -> e.position, (Entity e, Integer v) -> e.position = v),
+            new EntityField("damage", (Entity e) -> e.damage, (Entity e, Integer v) -> e.damage = v),
+            new EntityField("buried", (Entity e) -> e.buried, (Entity e, Integer v) -> e.buried = v),
+            new EntityField("hp", (Entity e) -> e.hp, (Entity e, Integer v) -> e.hp = v),
+            new EntityField("history", (Entity e) -> e.history, (Entity e, List<Point> v) -> e.history = v),
+            new EntityField("travel", (Entity e) -> e.travel, (Entity e, Integer v) -> e.travel = v),
+            new EntityField("board", (Entity e) -> e.board, (Entity e, Integer v) -> e.board = v),
+            new EntityField("water", (Entity e) -> e.water, (Entity e, Integer v) -> e.water = v),
+            new EntityField("blockades", (Entity e) -> e.blockades, (Entity e, List<Integer> v) -> e.blockades = v),
+            new EntityField("temp", (Entity e) -> e.temp, (Entity e, Integer v) -> e.temp = v),
+            new EntityField("broken", (Entity e) -> e.broken, (Entity e, Integer v) -> e.broken = v),
+            new EntityField("fiery", (Entity e) -> e.fiery, (Entity e, Integer v) -> e.fiery = v),
+            new EntityField("repairCost", (Entity e) -> e.repairCost, (Entity e, Integer v) -> e.repairCost = v),
+            new EntityField("apexes", (Entity e) -> e.apexes, (Entity e, List<Point> v) -> e.apexes = v)
+    ));
+}
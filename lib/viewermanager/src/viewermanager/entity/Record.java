@@ -1,9 +1,11 @@
 package viewermanager.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * Record - Hold all information of changes between 1 steps
@@ -32,10 +34,18 @@ public class Record {
 
     /**
      * all information of current world (optional)
+     *  if built lazily, use <code>getWorld</code> instead.
      * 現在のワールド全体の情報 (任意使用)
+     *  遅延して作られる場合は，代わりに<code>getWorld</code>を使う．
      * */
     public List<Entity> world;
 
+    /**
+     * builder of <code>world</code>, called at the first <code>getWorld</code>
+     * <code>world</code>を作る関数．最初の<code>getWorld</code>で呼ばれる
+     * */
+    private Supplier<List<Entity>> worldSupplier;
+
     /**
      * all communication, and actions on this time step (may be not null)
      * この時間で発生した通信や行動などのすべて (おそらくnullでない)
@@ -64,6 +74,7 @@ public class Record {
         score = null;
         map = null;
         world = null;
+        worldSupplier = null;
         commands = null;
         changes = null;
         config = null;
@@ -75,9 +86,34 @@ public class Record {
         rec.score = this.score;
         rec.map = this.map;
         rec.world = this.world;
+        rec.worldSupplier = this.worldSupplier;
         rec.commands = this.commands;
         rec.changes = this.changes;
         rec.config = this.config;
         return rec;
     }
+
+    /**
+     * get all information of current world; built at the first call if lazy.
+     * 現在のワールド全体の情報を取得する．遅延して作られる場合は最初の呼び出しで作る．
+     *
+     * @return world, or null if not available.
+     * */
+    public synchronized List<Entity> getWorld() {
+        if (world == null && worldSupplier != null) {
+            world = worldSupplier.get();
+            worldSupplier = null;
+        }
+        return world;
+    }
+
+    /**
+     * set builder of the world, called only when the world is required.
+     * ワールドを作る関数を設定する．ワールドが必要なときにのみ呼ばれる．
+     * */
+    @JsonIgnore
+    public synchronized void setWorldSupplier(Supplier<List<Entity>> supplier) {
+        this.world = null;
+        this.worldSupplier = supplier;
+    }
 }
@@ -0,0 +1,838 @@
+package viewermanager.entity;
+
+import rescuecore2.standard.entities.*;
+import rescuecore2.worldmodel.EntityID;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * World Store - compact store of the converted world, keyed by entity id.
+ * 変換済みのWorldをEntityのIDで保持するコンパクトなストア
+ *
+ * Each entity is kept as a row of primitive int columns and a bitmap of defined columns,
+ *  instead of an <code>Entity</code> of boxed values. Rows are reused across steps, also arrays of the same length,
+ *  so putting the world of each step allocates almost nothing.
+ * <code>get</code> creates the same <code>Entity</code> as <code>new Entity(StandardEntity)</code>.
+ *
+ * それぞれのEntityは，Boxingされた値を持つ<code>Entity</code>の代わりに，
+ *  プリミティブなintの列と定義済みの列を示すビットマップの行として保持される．
+ * 行は同じ長さの配列も含めステップをまたいで再利用されるため，各ステップのWorldの格納はほとんどメモリを確保しない．
+ * <code>get</code>は<code>new Entity(StandardEntity)</code>と同じ<code>Entity</code>を作る．
+ *
+ * Rows are kept in pages of <code>PAGE_ROWS</code> rows. <code>snapshot</code> takes the world at the time
+ *  by sharing pages without copying; the store copies a page only on the first change of it after the snapshot,
+ *  so a step costs the pages it changes, not the whole world. A snapshot can be read on another thread while the store is changed.
+ * 行は<code>PAGE_ROWS</code>行ごとのページに保持される．<code>snapshot</code>はページをコピーせずに共有してその時点のWorldを取る．
+ *  ストアはスナップショットの後に最初に変更するページのみをコピーするため，1ステップのコストはWorld全体ではなく変更したページの分となる．
+ *  ストアを変更している間も，スナップショットは別のスレッドで読み出せる．
+ *
+ * This class is not thread safe, and snapshots are read only.
+ * このクラスはスレッドセーフではない．スナップショットは読み出し専用である．
+ * */
+public class WorldStore {
+
+    //---[Columns]-------------------------------------------------------------
+    /** int columns of the row. 行のintの列 */
+    public static final int X = 0;
+    public static final int Y = 1;
+    public static final int POSITION = 2;
+    public static final int DAMAGE = 3;
+    public static final int BURIED = 4;
+    public static final int HP = 5;
+    public static final int TRAVEL = 6;
+    public static final int BOARD = 7;
+    public static final int WATER = 8;
+    public static final int TEMP = 9;
+    public static final int BROKEN = 10;
+    public static final int FIERY = 11;
+    public static final int REPAIR_COST = 12;
+
+    /** count of int columns. intの列の数 */
+    public static final int COLUMNS = 13;
+
+    /** array columns and type, as bits of the bitmap. 配列の列と種類(ビットマップのビット) */
+    public static final int HISTORY = 13;
+    public static final int BLOCKADES = 14;
+    public static final int APEXES = 15;
+    public static final int TYPE = 16;
+
+    /** count of rows in a page, copied at once. 1ページの行数，まとめてコピーされる */
+    public static final int PAGE_ROWS = 256;
+    private static final int PAGE_SHIFT = 8;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    //---[Rows]----------------------------------------------------------------
+    /**
+     * Page - columns of <code>PAGE_ROWS</code> rows.
+     * <code>PAGE_ROWS</code>行分の列
+     * */
+    private static final class Page {
+        /** entity id of each row. 各行のEntityのID */
+        final int[] ids;
+
+        /** bitmap of defined columns of each row; the bit is 0 when the value is null. 各行の定義済みの列のビットマップ．値がnullのときビットは0 */
+        final int[] defined;
+
+        /** int columns of each row, <code>COLUMNS</code> values per row. 各行のintの列，1行あたり<code>COLUMNS</code>個の値 */
+        final int[] values;
+
+        /** index of type name of each row. 各行の種類名のインデックス */
+        final int[] types;
+
+        /** array columns of each row, as [x1, y1, x2, y2, ...] or ids. 各行の配列の列，[x1, y1, x2, y2, ...]またはIDの並び */
+        final int[][] histories;
+        final int[][] blockades;
+        final int[][] apexes;
+
+        /**
+         * bits of array columns written on this page, reused in place; others may be shared with snapshots
+         * このページで書いた配列の列のビット，その場で再利用する．それ以外はスナップショットと共有しうる
+         * */
+        final int[] owned;
+
+        Page() {
+            ids = new int[PAGE_ROWS];
+            defined = new int[PAGE_ROWS];
+            values = new int[PAGE_ROWS * COLUMNS];
+            types = new int[PAGE_ROWS];
+            histories = new int[PAGE_ROWS][];
+            blockades = new int[PAGE_ROWS][];
+            apexes = new int[PAGE_ROWS][];
+            owned = new int[PAGE_ROWS];
+        }
+
+        /** copy of the page shared with snapshots; arrays are shared, and copied on write. スナップショットと共有するページのコピー */
+        Page(Page page) {
+            ids = page.ids.clone();
+            defined = page.defined.clone();
+            values = page.values.clone();
+            types = page.types.clone();
+            histories = page.histories.clone();
+            blockades = page.blockades.clone();
+            apexes = page.apexes.clone();
+            owned = new int[PAGE_ROWS];
+        }
+    }
+
+    /**
+     * count of rows
+     * 行の数
+     * */
+    private int size;
+
+    /**
+     * pages of rows, row <code>r</code> is <code>r & (PAGE_ROWS - 1)</code> of page <code>r >>> PAGE_SHIFT</code>
+     * 行のページ．行<code>r</code>はページ<code>r >>> PAGE_SHIFT</code>の<code>r & (PAGE_ROWS - 1)</code>
+     * */
+    private Page[] pages;
+
+    /**
+     * snapshot count when each page is copied or created; the page is shared with a snapshot if older than <code>epoch</code>
+     * 各ページをコピー，作成したときのスナップショットの数．<code>epoch</code>より古いページはスナップショットと共有しうる
+     * */
+    private int[] pageEpochs;
+    private int epoch;
+
+    /**
+     * is the table of pages shared with a snapshot; copied before the next change.
+     * ページの表をスナップショットと共有しているか．次の変更の前にコピーする
+     * */
+    private boolean pagesShared;
+
+    /**
+     * is this a snapshot, read only
+     * 読み出し専用のスナップショットか
+     * */
+    private final boolean readOnly;
+
+    //---[Index]---------------------------------------------------------------
+    /**
+     * type names appeared; index is used in <code>types</code>. Replaced on a new type, so snapshots share it.
+     * 出現した種類名．インデックスを<code>types</code>で使う．新しい種類で置き換えるため，スナップショットと共有する
+     * */
+    private String[] typeNames;
+    private Map<String, Integer> typeIndexes;
+
+    /**
+     * open addressing table from entity id to row; -1 of <code>slotRows</code> is empty slot.
+     *  not shared with snapshots, a snapshot makes its own on the first <code>get</code>.
+     * EntityのIDから行へのオープンアドレス法の表．<code>slotRows</code>が-1のスロットは空．
+     *  スナップショットとは共有せず，スナップショットは最初の<code>get</code>で自身のものを作る．
+     * */
+    private int[] slotIds;
+    private int[] slotRows;
+
+    public WorldStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param capacity count of entities expected. 予想されるEntityの数
+     * */
+    public WorldStore(int capacity) {
+        capacity = Math.max(capacity, 16);
+        size = 0;
+        int pageCount = (capacity + PAGE_ROWS - 1) >>> PAGE_SHIFT;
+        pages = new Page[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            pages[i] = new Page();
+        }
+        pageEpochs = new int[pageCount];
+        epoch = 0;
+        pagesShared = false;
+        readOnly = false;
+        typeNames = new String[0];
+        typeIndexes = new HashMap<>();
+
+        int slots = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        slotIds = new int[slots];
+        slotRows = new int[slots];
+        Arrays.fill(slotRows, -1);
+    }
+
+    /**
+     * snapshot sharing pages of the store.
+     * ストアのページを共有するスナップショット
+     * */
+    private WorldStore(WorldStore store) {
+        size = store.size;
+        pages = store.pages;
+        pageEpochs = null;
+        epoch = 0;
+        pagesShared = true;
+        readOnly = true;
+        typeNames = store.typeNames;
+        typeIndexes = null;
+        slotIds = null;
+        slotRows = null;
+    }
+
+    /**
+     * take the world at the time, not changed by later changes of this store.
+     *  pages are shared, and the store copies each of them on the first change after this.
+     * その時点のWorldを取る．このストアの後の変更によって変わらない．
+     *  ページは共有され，ストアはこの後の最初の変更でそれぞれをコピーする．
+     * */
+    public WorldStore snapshot() {
+        if (readOnly) {
+            return this;
+        }
+        epoch++;
+        pagesShared = true;
+        return new WorldStore(this);
+    }
+
+    /**
+     * get the page of the row to change, copied if shared with snapshots.
+     * 変更する行のページを取得する．スナップショットと共有していればコピーする．
+     * */
+    private Page writable(int row) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("WorldStore - snapshot is read only");
+        }
+        if (pagesShared) {
+            pages = pages.clone();
+            pagesShared = false;
+        }
+        int index = row >>> PAGE_SHIFT;
+        if (pageEpochs[index] != epoch) {
+            pages[index] = new Page(pages[index]);
+            pageEpochs[index] = epoch;
+        }
+        return pages[index];
+    }
+
+    private Page page(int row) {
+        return pages[row >>> PAGE_SHIFT];
+    }
+
+    private static int offset(int row) {
+        return row & (PAGE_ROWS - 1);
+    }
+
+    //-------------------------------------------------------------------------
+    /**
+     * count of entities stored.
+     * 格納されたEntityの数
+     * */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * check the entity is stored.
+     * Entityが格納されているか確かめる．
+     * */
+    public boolean contains(int id) {
+        return findRow(id) >= 0;
+    }
+
+    /**
+     * get entity ids stored, in order of rows.
+     * 格納されたEntityのIDを行の順に取得する．
+     * */
+    public int[] getIds() {
+        int[] ids = new int[size];
+        for (int row = 0; row < size; row++) {
+            ids[row] = page(row).ids[offset(row)];
+        }
+        return ids;
+    }
+
+    /**
+     * get type of the entity, without creating <code>Entity</code>.
+     * <code>Entity</code>を作らずにEntityの種類を取得する．
+     *
+     * @return type, or null if not stored or not defined.
+     * */
+    public String getType(int id) {
+        int row = findRow(id);
+        if (row < 0) {
+            return null;
+        }
+        Page page = page(row);
+        int r = offset(row);
+        return ((page.defined[r] & (1 << TYPE)) != 0) ? typeNames[page.types[r]] : null;
+    }
+
+    /**
+     * get an int column of the entity.
+     * Entityのintの列を取得する．
+     *
+     * @param column one of <code>X</code> ... <code>REPAIR_COST</code>
+     * @return value, or null if not stored or not defined.
+     * */
+    public Integer getValue(int id, int column) {
+        int row = findRow(id);
+        if (row < 0) {
+            return null;
+        }
+        Page page = page(row);
+        int r = offset(row);
+        return ((page.defined[r] & (1 << column)) != 0) ? page.values[r * COLUMNS + column] : null;
+    }
+
+    /**
+     * remove all entities; rows are kept for reuse.
+     * すべてのEntityを削除する．行は再利用のために残す．
+     * */
+    public void clear() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("WorldStore - snapshot is read only");
+        }
+        if (size == 0) return;
+        Arrays.fill(slotRows, -1);
+        size = 0;
+    }
+
+    /**
+     * remove the entity.
+     * Entityを削除する．
+     *
+     * @return true if the entity was stored.
+     * */
+    public boolean remove(int id) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("WorldStore - snapshot is read only");
+        }
+        int row = removeSlot(id);
+        if (row < 0) {
+            return false;
+        }
+
+        // Move the last row to the removed row
+        int last = size - 1;
+        if (row != last) {
+            Page to = writable(row);
+            Page from = writable(last);
+            int t = offset(row);
+            int f = offset(last);
+            to.ids[t] = from.ids[f];
+            to.defined[t] = from.defined[f];
+            to.types[t] = from.types[f];
+            System.arraycopy(from.values, f * COLUMNS, to.values, t * COLUMNS, COLUMNS);
+            // Swap arrays with the bits of owned ones, to reuse them
+            int[] h = to.histories[t]; to.histories[t] = from.histories[f]; from.histories[f] = h;
+            int[] b = to.blockades[t]; to.blockades[t] = from.blockades[f]; from.blockades[f] = b;
+            int[] a = to.apexes[t]; to.apexes[t] = from.apexes[f]; from.apexes[f] = a;
+            int o = to.owned[t]; to.owned[t] = from.owned[f]; from.owned[f] = o;
+            setSlot(to.ids[t], row);
+        }
+        size = last;
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+    /**
+     * put RRS entity, converted same as <code>new Entity(StandardEntity)</code>.
+     * RRSのEntityを<code>new Entity(StandardEntity)</code>と同じように変換して格納する．
+     * */
+    public void put(StandardEntity entity) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("WorldStore - snapshot is read only");
+        }
+        int row = rowFor(entity.getID().getValue());
+        Page page = writable(row);
+        int r = offset(row);
+        int base = r * COLUMNS;
+        int[] values = page.values;
+        int mask = 0;
+        String type = null;
+
+        if (entity instanceof Human) {
+            Human human = (Human) entity;
+            if (human instanceof AmbulanceTeam) {
+                type = EntityKey.Entity.TACTICS_AMBULANCE;
+            }
+            else if (human instanceof FireBrigade) {
+                FireBrigade fireBrigade = (FireBrigade) human;
+                if (fireBrigade.isWaterDefined()) {
+                    values[base + WATER] = fireBrigade.getWater();
+                    mask |= 1 << WATER;
+                }
+                type = EntityKey.Entity.TACTICS_FIRE;
+            }
+            else if (human instanceof PoliceForce) {
+                type = EntityKey.Entity.TACTICS_POLICE;
+            }
+            else if (human instanceof Civilian) {
+                type = EntityKey.Entity.CIVILIAN;
+            }
+            else {
+                type = EntityKey.UNKNOWN;
+            }
+
+            if (human.isXDefined()) { values[base + X] = human.getX(); mask |= 1 << X; }
+            if (human.isYDefined()) { values[base + Y] = human.getY(); mask |= 1 << Y; }
+            if (human.isBuriednessDefined()) { values[base + BURIED] = human.getBuriedness(); mask |= 1 << BURIED; }
+            if (human.isDamageDefined()) { values[base + DAMAGE] = human.getDamage(); mask |= 1 << DAMAGE; }
+            // same as Entity.packAgent
+            if (human.isHPDefined()) { values[base + HP] = human.getDamage(); mask |= 1 << HP; }
+            if (human.isPositionDefined()) { values[base + POSITION] = human.getPosition().getValue(); mask |= 1 << POSITION; }
+            if (human.isPositionHistoryDefined()) {
+                int[] path = human.getPositionHistory();
+                if (path.length != 0) {
+                    page.histories[r] = copy(page, r, HISTORY, page.histories[r], path);
+                    mask |= 1 << HISTORY;
+                }
+            }
+            if (human.isTravelDistanceDefined()) { values[base + TRAVEL] = human.getTravelDistance(); mask |= 1 << TRAVEL; }
+        }
+        else if (entity instanceof Area) {
+            Area area = (Area) entity;
+            if (area instanceof Building) {
+                if (area instanceof Refuge) {
+                    type = EntityKey.Entity.REFUGE;
+                } else if (area instanceof GasStation) {
+                    type = EntityKey.Entity.GAS_STATION;
+                } else if (area instanceof AmbulanceCentre) {
+                    type = EntityKey.Entity.CONTROL_AMBULANCE;
+                } else if (area instanceof FireStation) {
+                    type = EntityKey.Entity.CONTROL_FIRE;
+                } else if (area instanceof PoliceOffice) {
+                    type = EntityKey.Entity.CONTROL_POLICE;
+                } else {
+                    type = EntityKey.Entity.BUILDING;
+                }
+
+                Building building = (Building) area;
+                if (building.isBrokennessDefined()) { values[base + BROKEN] = building.getBrokenness(); mask |= 1 << BROKEN; }
+                if (building.isTemperatureDefined()) { values[base + TEMP] = building.getTemperature(); mask |= 1 << TEMP; }
+                if (building.isFierynessDefined()) { values[base + FIERY] = building.getFieryness(); mask |= 1 << FIERY; }
+            }
+            else if (area instanceof Road) {
+                type = (area instanceof Hydrant) ? EntityKey.Entity.HYDRANT : EntityKey.Entity.ROAD;
+            }
+            if (area.isBlockadesDefined() && !area.getBlockades().isEmpty()) {
+                List<EntityID> list = area.getBlockades();
+                int[] array = reusable(page, r, BLOCKADES, page.blockades[r], list.size());
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = list.get(i).getValue();
+                }
+                page.blockades[r] = array;
+                mask |= 1 << BLOCKADES;
+            }
+        }
+        else if (entity instanceof Blockade) {
+            Blockade blockade = (Blockade) entity;
+            type = EntityKey.Entity.BLOCKADE;
+            if (blockade.isXDefined()) { values[base + X] = blockade.getX(); mask |= 1 << X; }
+            if (blockade.isYDefined()) { values[base + Y] = blockade.getY(); mask |= 1 << Y; }
+            if (blockade.isPositionDefined()) { values[base + POSITION] = blockade.getPosition().getValue(); mask |= 1 << POSITION; }
+            if (blockade.isApexesDefined()) {
+                page.apexes[r] = copy(page, r, APEXES, page.apexes[r], blockade.getApexes());
+                mask |= 1 << APEXES;
+            }
+            if (blockade.isRepairCostDefined()) { values[base + REPAIR_COST] = blockade.getRepairCost(); mask |= 1 << REPAIR_COST; }
+        }
+
+        if (type != null) {
+            page.types[r] = typeIndex(type);
+            mask |= 1 << TYPE;
+        }
+        page.defined[r] = mask;
+    }
+
+    /**
+     * copy values into the array of the row, reused if owned by the page and of the same length.
+     * 行の配列に値をコピーする．ページが所有し同じ長さであれば再利用する．
+     * */
+    private static int[] copy(Page page, int r, int column, int[] to, int[] from) {
+        int[] array = reusable(page, r, column, to, from.length);
+        System.arraycopy(from, 0, array, 0, from.length);
+        return array;
+    }
+
+    /**
+     * get the array of the row to write; arrays shared with snapshots are not reused.
+     * 書き込む行の配列を取得する．スナップショットと共有する配列は再利用しない．
+     * */
+    private static int[] reusable(Page page, int r, int column, int[] array, int length) {
+        int bit = 1 << column;
+        if (array != null && array.length == length && (page.owned[r] & bit) != 0) {
+            return array;
+        }
+        page.owned[r] |= bit;
+        return new int[length];
+    }
+
+    /**
+     * get the entity as <code>Entity</code>.
+     * Entityを<code>Entity</code>として取得する．
+     *
+     * @return new <code>Entity</code>, or null if not stored.
+     * */
+    public Entity get(int id) {
+        int row = findRow(id);
+        return (row < 0) ? null : toEntity(row);
+    }
+
+    /**
+     * get all entities as <code>Entity</code>, in order of entity ids.
+     *  rows depend on the order entities are put and removed, so the order of ids keeps the world same
+     *  wherever reading started from.
+     * すべてのEntityを<code>Entity</code>としてEntityのIDの順に取得する．
+     *  行はEntityを格納，削除した順に依存するため，IDの順にすることでどこから読み始めてもWorldが同じになる．
+     * */
+    public List<Entity> toEntities() {
+        int[] rows = sortedRows();
+        List<Entity> list = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            list.add(toEntity(row));
+        }
+        return list;
+    }
+
+    /**
+     * get the world at the time as a list in order of entity ids, not changed by later changes of this store.
+     *  an <code>Entity</code> is created on each <code>get</code>, so the world is not kept as entities;
+     *  encoders write the rows directly, see <code>Entities</code>.
+     * その時点のWorldをEntityのIDの順のリストとして取得する．このストアの後の変更によって変わらない．
+     *  <code>get</code>ごとに<code>Entity</code>を作るため，WorldはEntityとして保持されない．
+     *  Encoderは行を直接書き出す．<code>Entities</code>を参照．
+     * */
+    public Entities asEntities() {
+        return new Entities(snapshot());
+    }
+
+    /**
+     * rows in order of entity ids.
+     * EntityのIDの順の行
+     * */
+    private int[] sortedRows() {
+        // id on the upper bits and row on the lower bits, sorted by id
+        long[] order = new long[size];
+        for (int row = 0; row < size; row++) {
+            order[row] = ((long) page(row).ids[offset(row)] << 32) | row;
+        }
+        Arrays.sort(order);
+
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = (int) order[i];
+        }
+        return rows;
+    }
+
+    private Entity toEntity(int row) {
+        Entity entity = new Entity();
+        Page page = page(row);
+        int r = offset(row);
+        int mask = page.defined[r];
+        int base = r * COLUMNS;
+        int[] values = page.values;
+
+        entity.id = page.ids[r];
+        if ((mask & (1 << TYPE)) != 0) entity.type = typeNames[page.types[r]];
+        if ((mask & (1 << X)) != 0) entity.x = values[base + X];
+        if ((mask & (1 << Y)) != 0) entity.y = values[base + Y];
+        if ((mask & (1 << POSITION)) != 0) entity.position = values[base + POSITION];
+        if ((mask & (1 << DAMAGE)) != 0) entity.damage = values[base + DAMAGE];
+        if ((mask & (1 << BURIED)) != 0) entity.buried = values[base + BURIED];
+        if ((mask & (1 << HP)) != 0) entity.hp = values[base + HP];
+        if ((mask & (1 << HISTORY)) != 0) entity.history = toPoints(page.histories[r]);
+        if ((mask & (1 << TRAVEL)) != 0) entity.travel = values[base + TRAVEL];
+        if ((mask & (1 << BOARD)) != 0) entity.board = values[base + BOARD];
+        if ((mask & (1 << WATER)) != 0) entity.water = values[base + WATER];
+        if ((mask & (1 << BLOCKADES)) != 0) {
+            int[] array = page.blockades[r];
+            entity.blockades = new ArrayList<>(array.length);
+            for (int value : array) {
+                entity.blockades.add(value);
+            }
+        }
+        if ((mask & (1 << TEMP)) != 0) entity.temp = values[base + TEMP];
+        if ((mask & (1 << BROKEN)) != 0) entity.broken = values[base + BROKEN];
+        if ((mask & (1 << FIERY)) != 0) entity.fiery = values[base + FIERY];
+        if ((mask & (1 << REPAIR_COST)) != 0) entity.repairCost = values[base + REPAIR_COST];
+        if ((mask & (1 << APEXES)) != 0) entity.apexes = toPoints(page.apexes[r]);
+        return entity;
+    }
+
+    private static List<Point> toPoints(int[] array) {
+        List<Point> points = new ArrayList<>(array.length / 2);
+        for (int i = 0; i < array.length; i += 2) {
+            points.add(new Point(array[i], array[i + 1]));
+        }
+        return points;
+    }
+
+    private int typeIndex(String type) {
+        Integer index = typeIndexes.get(type);
+        if (index == null) {
+            index = typeNames.length;
+            typeNames = Arrays.copyOf(typeNames, index + 1);
+            typeNames[index] = type;
+            typeIndexes.put(type, index);
+        }
+        return index;
+    }
+
+    //---[View]----------------------------------------------------------------
+    /**
+     * Entities - world of a snapshot as a list of <code>Entity</code>, in order of entity ids.
+     *  Values of each entity are also read by columns, so the world can be written without creating <code>Entity</code>.
+     *
+     * スナップショットのWorldを，EntityのIDの順の<code>Entity</code>のリストとしたもの．
+     *  それぞれのEntityの値は列としても読み出せるため，<code>Entity</code>を作らずにWorldを書き出せる．
+     * */
+    public static final class Entities extends AbstractList<Entity> implements RandomAccess {
+        private final WorldStore store;
+        private final int[] rows;
+
+        private Entities(WorldStore store) {
+            this.store = store;
+            this.rows = store.sortedRows();
+        }
+
+        @Override
+        public Entity get(int index) {
+            return store.toEntity(rows[index]);
+        }
+
+        @Override
+        public int size() {
+            return rows.length;
+        }
+
+        /**
+         * get the entity id of the index.
+         * 番号のEntityのIDを取得する．
+         * */
+        public int getId(int index) {
+            int row = rows[index];
+            return store.page(row).ids[offset(row)];
+        }
+
+        /**
+         * check the column of the index is defined.
+         * 番号の列が定義されているか確かめる．
+         *
+         * @param column one of <code>X</code> ... <code>TYPE</code>
+         * */
+        public boolean isDefined(int index, int column) {
+            int row = rows[index];
+            return (store.page(row).defined[offset(row)] & (1 << column)) != 0;
+        }
+
+        /**
+         * get the type of the index, or null if not defined.
+         * 番号の種類を取得する．定義されていない場合はnull．
+         * */
+        public String getType(int index) {
+            int row = rows[index];
+            return isDefined(index, TYPE) ? store.typeNames[store.page(row).types[offset(row)]] : null;
+        }
+
+        /**
+         * get an int column of the index, defined one.
+         * 番号のintの列を取得する．定義されているもの．
+         *
+         * @param column one of <code>X</code> ... <code>REPAIR_COST</code>
+         * */
+        public int getValue(int index, int column) {
+            int row = rows[index];
+            return store.page(row).values[offset(row) * COLUMNS + column];
+        }
+
+        /**
+         * get an array column of the index, defined one; the array must not be changed.
+         * 番号の配列の列を取得する．定義されているもの．配列は変更しないこと．
+         *
+         * @param column one of <code>HISTORY</code>, <code>BLOCKADES</code> and <code>APEXES</code>
+         * */
+        public int[] getArray(int index, int column) {
+            int row = rows[index];
+            Page page = store.page(row);
+            switch (column) {
+                case HISTORY:
+                    return page.histories[offset(row)];
+                case BLOCKADES:
+                    return page.blockades[offset(row)];
+                case APEXES:
+                    return page.apexes[offset(row)];
+                default:
+                    throw new IllegalArgumentException("not an array column: " + column);
+            }
+        }
+    }
+
+    //---[Index]---------------------------------------------------------------
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int findRow(int id) {
+        if (readOnly) {
+            index();
+        }
+        int mask = slotIds.length - 1;
+        for (int i = hash(id) & mask; slotRows[i] >= 0; i = (i + 1) & mask) {
+            if (slotIds[i] == id) {
+                return slotRows[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * get the row of the entity, or add a new row.
+     * Entityの行を取得する．存在しなければ新しい行を追加する．
+     * */
+    private int rowFor(int id) {
+        int mask = slotIds.length - 1;
+        int i = hash(id) & mask;
+        for (; slotRows[i] >= 0; i = (i + 1) & mask) {
+            if (slotIds[i] == id) {
+                return slotRows[i];
+            }
+        }
+
+        // New Row
+        if (size == pages.length * PAGE_ROWS) {
+            growRows();
+        }
+        int row = size++;
+        Page page = writable(row);
+        page.ids[offset(row)] = id;
+        page.defined[offset(row)] = 0;
+        slotIds[i] = id;
+        slotRows[i] = row;
+
+        // Keep load factor under 0.5
+        if (size * 2 > slotIds.length) {
+            rehash(slotIds.length * 2);
+        }
+        return row;
+    }
+
+    private void setSlot(int id, int row) {
+        int mask = slotIds.length - 1;
+        for (int i = hash(id) & mask; slotRows[i] >= 0; i = (i + 1) & mask) {
+            if (slotIds[i] == id) {
+                slotRows[i] = row;
+                return;
+            }
+        }
+    }
+
+    /**
+     * remove the slot of the entity with backward shifting.
+     * Entityのスロットを後方シフトで削除する．
+     *
+     * @return row of the entity, or -1 if not stored.
+     * */
+    private int removeSlot(int id) {
+        int mask = slotIds.length - 1;
+        int i = hash(id) & mask;
+        while (slotRows[i] >= 0 && slotIds[i] != id) {
+            i = (i + 1) & mask;
+        }
+        if (slotRows[i] < 0) {
+            return -1;
+        }
+        int row = slotRows[i];
+
+        // Shift following slots of the same cluster
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (slotRows[j] < 0) {
+                break;
+            }
+            int k = hash(slotIds[j]) & mask;
+            if ((j > i && (k <= i || k > j)) || (j < i && (k <= i && k > j))) {
+                slotIds[i] = slotIds[j];
+                slotRows[i] = slotRows[j];
+                i = j;
+            }
+        }
+        slotRows[i] = -1;
+        return row;
+    }
+
+    private void rehash(int slots) {
+        slotIds = new int[slots];
+        slotRows = new int[slots];
+        Arrays.fill(slotRows, -1);
+        int mask = slots - 1;
+        for (int row = 0; row < size; row++) {
+            int id = page(row).ids[offset(row)];
+            int i = hash(id) & mask;
+            while (slotRows[i] >= 0) {
+                i = (i + 1) & mask;
+            }
+            slotIds[i] = id;
+            slotRows[i] = row;
+        }
+    }
+
+    /**
+     * make the index of a snapshot on the first lookup; locked on each lookup, as snapshots may be read on several threads.
+     * 最初の検索でスナップショットの索引を作る．スナップショットは複数のスレッドで読み出されうるため，検索ごとにロックする．
+     * */
+    private synchronized void index() {
+        if (slotIds == null) {
+            rehash(Integer.highestOneBit(Math.max(size, 8) * 2 - 1) << 1);
+        }
+    }
+
+    private void growRows() {
+        int count = pages.length;
+        pages = Arrays.copyOf(pages, count * 2);
+        pagesShared = false;
+        pageEpochs = Arrays.copyOf(pageEpochs, count * 2);
+        for (int i = count; i < pages.length; i++) {
+            pages[i] = new Page();
+            pageEpochs[i] = epoch;
+        }
+    }
+}
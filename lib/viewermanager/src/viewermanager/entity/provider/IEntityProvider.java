@@ -77,6 +77,31 @@ public interface IEntityProvider {
      * */
     Record getIncomingRecord();
 
+    /**
+     * set the listener notified when records arrive or the status changes on other threads.
+     *  providers reading records on demand, like log readers, need not notify; the default does nothing.
+     * 別のスレッドでレコードが届いたとき，または状態が変わったときに通知されるリスナを設定する．
+     *  ログを読むProviderのように要求時にレコードを読むProviderは通知する必要はない．標準では何もしない．
+     *
+     * @param listener listener to notify, or null. 通知するリスナ，またはnull
+     * */
+    default void setListener(Listener listener) {
+    }
+
+    /**
+     * Listener of the provider updated, it may be called on the thread receiving records, so do not block.
+     * Providerの更新のリスナ，レコードを受信するスレッド上で呼ばれる可能性があるため，ブロックしないこと．
+     * */
+    interface Listener {
+        /**
+         * called when records arrived or the status changed.
+         * レコードが届いたとき，または状態が変わったときに呼ばれる．
+         *
+         * @param provider provider updated. 更新されたProvider
+         * */
+        void providerUpdated(IEntityProvider provider);
+    }
+
     /**
      * get this provider's id
      * このProviderのIDを取得する．
@@ -1,6 +1,7 @@
 package viewermanager.entity.provider;
 
 import viewermanager.log.LogFileException;
+import viewermanager.recorder.RecordSource;
 
 /**
  * Helper Class for EntityProvider Reading Log Files
@@ -26,6 +27,16 @@ public abstract class ProviderLogReader implements IEntityProvider {
      * */
     public abstract void open(String filename) throws LogFileException;
 
+    /**
+     * create a source to read records of the log again, independent of this provider.
+     * このProviderとは独立に，ログのレコードを再び読み出す読み出し元を作る．
+     *
+     * @return source of records, or null if not supported. レコードの読み出し元，対応しない場合はnull
+     * */
+    public RecordSource createRecordSource() {
+        return null;
+    }
+
     /**
      * get this provider's id
      * このProviderのIDを取得する．
@@ -8,8 +8,6 @@ import rescuecore2.config.Config;
 import rescuecore2.connection.Connection;
 import rescuecore2.connection.ConnectionException;
 import rescuecore2.messages.control.KVTimestep;
-import rescuecore2.misc.java.LoadableTypeProcessor;
-import rescuecore2.registry.Registry;
 import rescuecore2.score.ScoreFunction;
 import rescuecore2.standard.components.StandardViewer;
 import rescuecore2.standard.entities.Area;
@@ -24,6 +22,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
 import java.util.stream.Collectors;
 
 
@@ -49,9 +48,17 @@ public class RRSEntityProvider implements IEntityProvider {
 
     /**
      * Queue of <code>Record</code>s received and transformed.
+     *  The RRS Viewer thread adds, and the manager takes; on overflow, see <code>ViewerManagerKeys.VIEWER_QUEUE_OVERFLOW</code>.
      * 受信して変換した<code>Record</code>を保持するキュー
+     *  RRS Viewerのスレッドが追加し，Managerが取り出す．溢れたときは<code>ViewerManagerKeys.VIEWER_QUEUE_OVERFLOW</code>に従う．
      * */
-    private List<Record> records;
+    private volatile RecordRing records;
+
+    /**
+     * drop records on overflow, instead of waiting for the manager; read from <code>ViewerManagerKeys.VIEWER_QUEUE_OVERFLOW</code> once
+     * 溢れたときにManagerを待たずにレコードを捨てるか．<code>ViewerManagerKeys.VIEWER_QUEUE_OVERFLOW</code>から一度だけ読む
+     * */
+    private final boolean dropOnOverflow;
 
     /**
      * Component Instance of RRS Viewer
@@ -100,6 +107,12 @@ public class RRSEntityProvider implements IEntityProvider {
      * カーネルへの接続が終了したことを示すFuture
      * */
     private Future<Boolean> _futureOpenProvider;
+
+    /**
+     * Listener notified when records arrive or the status changes.
+     * レコードが届いたとき，または状態が変わったときに通知するリスナ
+     * */
+    private volatile IEntityProvider.Listener listener;
     private Logger logger;
 
     public RRSEntityProvider()
@@ -112,6 +125,8 @@ public class RRSEntityProvider implements IEntityProvider {
         map = null;
         config = null;
         records = null;
+        dropOnOverflow = "drop".equalsIgnoreCase(System.getProperty(ViewerManagerKeys.VIEWER_QUEUE_OVERFLOW,
+                ViewerManagerKeys.VIEWER_QUEUE_DEFAULT_OVERFLOW));
         viewerComponent = null;
         time = null;
         maxTimeStep = null;
@@ -120,6 +135,7 @@ public class RRSEntityProvider implements IEntityProvider {
         id = 0;
         status = IEntityProvider.PROVIDER_NOT_CONNECTED;
         _futureOpenProvider = null;
+        listener = null;
     }
 
 
@@ -129,17 +145,6 @@ public class RRSEntityProvider implements IEntityProvider {
         connect(hostName, port);
     }
 
-    /**
-     * Read RRS's Jar Files and collect register entry used in rescuecore2;
-     * RRSのJarファイルを読み込み，rescuecore2で使われる情報を収集する
-     * */
-    private void processJarFiles(Config config) throws IOException
-    {
-        LoadableTypeProcessor pr = new LoadableTypeProcessor(config);
-        pr.addFactoryRegisterCallbacks(Registry.SYSTEM_REGISTRY);
-        pr.process();
-    }
-
     /**
      * Lambda Method for make a connection with Kernel : used in <code>connect</code>
      * <code>connect</code>メソッドで使われる，Kernelとの接続を作成する関数を返す．
@@ -209,12 +214,14 @@ public class RRSEntityProvider implements IEntityProvider {
             } // rof
 
             logger.trace("/RRSEntityProvider/connect?connectThread: exit thread");
-            if (viewerComponent == null) {
+            boolean connected = (viewerComponent != null); /* viewerComponent is not null when succeeded */
+            if (!connected) {
                 /* cannot make a connection  */
                 status = IEntityProvider.PROVIDER_END_WORKING;
                 logger.info("/RRSEntityProvider/connect?connectThread: cannot connect to server.");
             }
-            return viewerComponent != null; /* viewerComponent is not null when succeeded */
+            notifyUpdated();
+            return connected;
         };
     }
 
@@ -246,10 +253,9 @@ public class RRSEntityProvider implements IEntityProvider {
         Config config = new Config();
 
         /* お ま じ な い */
-        /* load Properties from RRS Jars */
-        config.setValue("loadabletypes.inspect.dir", "library/rescue");
+        /* load Properties from RRS Jars, once in the process */
         try {
-            processJarFiles(config);
+            RRSRegistry.initialize();
         } catch (IOException e) {
             logger.error("/RRSEntityProvider/connect: cannot find Jar Files", e);
             throw e;
@@ -266,8 +272,9 @@ public class RRSEntityProvider implements IEntityProvider {
         // TODO: Check the correct time for waiting before connection.
         _futureOpenProvider = executor.submit(processOpenProvider(launcher, (reconnect) ? 10000 : 0));
 
-        // Preparing List as Asynchronous
-        records = Collections.synchronizedList(new ArrayList<>());
+        // Preparing Queue as Asynchronous
+        records = new RecordRing(Integer.parseInt(System.getProperty(ViewerManagerKeys.VIEWER_QUEUE_SIZE,
+                ViewerManagerKeys.VIEWER_QUEUE_DEFAULT_SIZE)));
     }
 
     /**
@@ -279,11 +286,31 @@ public class RRSEntityProvider implements IEntityProvider {
     private void appendRecord(Record record)
     {
         /* record is able to register */
+        RecordRing records = this.records;
         if(records != null && record != null)
         {
-            /* set information keeping on Provider */
-            records.add(record); /* register to list */
-            this.time = record.time; /* update current time */
+            /* register to queue; when full, wait for the manager or drop */
+            boolean block = !dropOnOverflow;
+            boolean added = records.offer(record);
+            if (!added && block) {
+                notifyUpdated();
+            }
+            while (!added && block && !isClosed()) {
+                LockSupport.parkNanos(100_000L);
+                added = records.offer(record);
+            }
+            /* update current time, also when dropped, as the step has passed */
+            this.time = record.time;
+            if (!added) {
+                long dropped = records.drop();
+                if (dropped == 1) {
+                    logger.warn("/rrs/provider: queue overflowed, record dropped on time " + record.time);
+                }
+                else {
+                    logger.debug("/rrs/provider: record dropped on time " + record.time + ", " + dropped + " dropped");
+                }
+                return;
+            }
 
             /* end working when time is over */
             if (this.time >= this.maxTimeStep) {
@@ -291,9 +318,57 @@ public class RRSEntityProvider implements IEntityProvider {
             }
 
             logger.debug("/rrs/provider: record append - " + records.size() +  " stacked");
+            notifyUpdated();
+        }
+    }
+
+    /**
+     * get count of records queued, not taken by the manager.
+     * Managerが取り出していない，キューにあるレコードの数を取得する．
+     * */
+    public int getQueueDepth() {
+        RecordRing records = this.records;
+        return (records != null) ? records.size() : 0;
+    }
+
+    /**
+     * get the max count of records queued at once.
+     * 一度にキューにあったレコードの最大数を取得する．
+     * */
+    public int getQueueMaxDepth() {
+        RecordRing records = this.records;
+        return (records != null) ? records.getMaxDepth() : 0;
+    }
+
+    /**
+     * get count of records dropped on overflow.
+     * 溢れたときに捨てたレコードの数を取得する．
+     * */
+    public long getDroppedRecords() {
+        RecordRing records = this.records;
+        return (records != null) ? records.getDropped() : 0;
+    }
+
+    /**
+     * notify the listener that records arrived or the status changed.
+     * レコードが届いたこと，または状態が変わったことをリスナに通知する．
+     * */
+    private void notifyUpdated() {
+        IEntityProvider.Listener listener = this.listener;
+        if (listener != null) {
+            listener.providerUpdated(this);
         }
     }
 
+    /**
+     * set the listener notified when records arrive or the status changes.
+     * レコードが届いたとき，または状態が変わったときに通知されるリスナを設定する．
+     * */
+    @Override
+    public void setListener(IEntityProvider.Listener listener) {
+        this.listener = listener;
+    }
+
     /**
      * set Initial Information like Map, Config, and World of Start time
      * 初期化として，MapやConfig，初期のWorldModelを取得，設定する．
@@ -337,6 +412,7 @@ public class RRSEntityProvider implements IEntityProvider {
             this.status = IEntityProvider.PROVIDER_WORKING;
         }
         Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER).info("/rrs/provider: Information Set.");
+        notifyUpdated();
     }
 
 
@@ -497,6 +573,7 @@ public class RRSEntityProvider implements IEntityProvider {
             }
 
             /* is the records registered, so not empty */
+            RecordRing records = this.records;
             result = !(records == null || records.isEmpty());
         } // fi
 
@@ -519,8 +596,8 @@ public class RRSEntityProvider implements IEntityProvider {
         }
 
         // get Record top of queue
-        Record rec = records.remove(0);
-        logger.info("rrs/provider/viewer: return a Record, " + records.size() + " Records left");
+        Record rec = records.poll();
+        logger.debug("rrs/provider/viewer: return a Record, " + records.size() + " Records left");
         return rec;
     }
 
@@ -612,7 +689,13 @@ public class RRSEntityProvider implements IEntityProvider {
         /**
          * Transformed  WorldInfo
          * */
-        Map<Integer, Entity> world;
+        WorldStore world;
+
+        /**
+         * is the whole world loaded to <code>world</code>; after that, only changed entities are converted.
+         * <code>world</code>にWorld全体が読み込まれたか．その後は変化したEntityのみを変換する
+         * */
+        boolean worldLoaded;
 
         /**
          * Function that calculate RRS Standard Score
@@ -634,7 +717,8 @@ public class RRSEntityProvider implements IEntityProvider {
             if (Objects.isNull(logger)) {
                 logger = Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER);
             }
-            world = new HashMap<>();
+            world = new WorldStore();
+            worldLoaded = false;
 
             logger.debug("/rrs/provider/viewer: Viewer Instantiate");
         }
@@ -688,12 +772,6 @@ public class RRSEntityProvider implements IEntityProvider {
             // DEBUG: Messages
             logger.debug("rrs/provider/viewer: handleTimeStep");
 
-            // Receive WorldModel
-            Map<Integer, Entity> entityWorld = new HashMap<>();
-            for (StandardEntity standardEntity : this.model) {
-                entityWorld.put(standardEntity.getID().getValue(), new Entity(standardEntity));
-            }
-
             // Receive Entities
             List<Entity> entityUpdate = new ArrayList<>();
             timeStep.getChangeSet().getDeletedEntities().forEach(a ->
@@ -707,8 +785,10 @@ public class RRSEntityProvider implements IEntityProvider {
 
             timeStep.getChangeSet().getChangedEntities().forEach(a ->
             {
+                // Convert only changed entities
                 Entity older = world.get(a.getValue());
-                Entity newer = entityWorld.get(a.getValue());
+                StandardEntity standardEntity = this.model.getEntity(a);
+                Entity newer = (standardEntity != null) ? new Entity(standardEntity) : null;
 
                 Entity entity = null;
                 if (older != null) {
@@ -729,10 +809,28 @@ public class RRSEntityProvider implements IEntityProvider {
                     .map(Action::new)
                     .collect(Collectors.toList());
 
-            // Create Record to Append
+            // Receive WorldModel, only changed entities are converted after the first step
+            if (!worldLoaded) {
+                world.clear();
+                for (StandardEntity standardEntity : this.model) {
+                    world.put(standardEntity);
+                }
+                worldLoaded = true;
+            }
+            else {
+                timeStep.getChangeSet().getChangedEntities().forEach(a -> {
+                    StandardEntity standardEntity = this.model.getEntity(a);
+                    if (standardEntity != null) {
+                        world.put(standardEntity);
+                    }
+                });
+                timeStep.getChangeSet().getDeletedEntities().forEach(a -> world.remove(a.getValue()));
+            }
+
+            // Create Record to Append; the world is built from the snapshot only if the recorder keeps it
             Record record = new Record();
             record.time = timeStep.getTime();
-            record.world = new ArrayList<>(entityWorld.values());
+            record.setWorldSupplier(world.snapshot()::asEntities);
             record.changes = entityUpdate;
             record.commands = actions;
 
@@ -744,7 +842,6 @@ public class RRSEntityProvider implements IEntityProvider {
 
             // Append New Record to Provider
             appendRecord(record);
-            this.world = entityWorld;
 
         }
     }
@@ -6,7 +6,6 @@ import rescuecore2.config.Config;
 import rescuecore2.log.FileLogReader;
 import rescuecore2.log.LogException;
 import rescuecore2.log.LogReader;
-import rescuecore2.misc.java.LoadableTypeProcessor;
 import rescuecore2.registry.Registry;
 import rescuecore2.score.ScoreFunction;
 import rescuecore2.standard.entities.Area;
@@ -19,13 +18,12 @@ import sun.rmi.runtime.Log;
 import viewermanager.ViewerManagerKeys;
 import viewermanager.entity.*;
 import viewermanager.log.LogFileException;
+import viewermanager.recorder.RecordSource;
 
 import java.awt.geom.Rectangle2D;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
 /**
@@ -73,7 +71,19 @@ public class RRSLogReader extends ProviderLogReader {
      * the WorldModel on the last record reading.
      * 最後のレコードを読み出したときのWorldModel
      * */
-    protected Map<Integer, Entity> worldModelRead;
+    protected WorldState worldModelRead;
+
+    /**
+     * keep one WorldModel and convert only changed entities, and build the world of records lazily.
+     * 1つのWorldModelを保持して変化したEntityのみを変換し，レコードのWorldを遅延して作る．
+     * */
+    private boolean incremental;
+
+    /**
+     * lock of <code>reader</code> and <code>worldModelRead</code>, used by reading and shutdown.
+     * <code>reader</code>と<code>worldModelRead</code>のロック．読み出しと終了で使う
+     * */
+    private final Object readerLock = new Object();
 
     /**
      * Log Reader for RRS Log File.
@@ -92,6 +102,50 @@ public class RRSLogReader extends ProviderLogReader {
      * */
     String status;
 
+    /**
+     * count of workers decoding steps in parallel, 1 is sequential.
+     * 並列にステップを変換するワーカの数，1のときは逐次処理
+     * */
+    private int parallelism;
+
+    /**
+     * count of steps decoded by a worker at once.
+     * 1つのワーカが一度に変換するステップ数
+     * */
+    private int chunkSize;
+
+    /**
+     * workers decoding steps, null when not started.
+     * ステップを変換するワーカ，開始していないときはnull
+     * */
+    private ExecutorService executor;
+
+    /**
+     * log readers and score functions for workers; each reader holds the index of the whole log and its key frames,
+     *  so these are released on <code>stopWorkers</code>.
+     * ワーカ用のログReaderとスコア関数．それぞれのReaderはログ全体の索引とキーフレームを持つため，
+     *  <code>stopWorkers</code>で開放する．
+     * */
+    private BlockingQueue<StepDecoder> decoders;
+
+    /**
+     * chunks decoding by workers in order of time.
+     * ワーカが変換中のチャンク(時間順)
+     * */
+    private Deque<Future<List<Record>>> decodingChunks;
+
+    /**
+     * records decoded and not read yet.
+     * 変換済みでまだ読み出されていないレコード
+     * */
+    private Deque<Record> decodedRecords;
+
+    /**
+     * the first step of the chunk submitted next.
+     * 次に渡すチャンクの最初のステップ
+     * */
+    private int nextChunkTime;
+
     public RRSLogReader()
     {
         this.reader = null;
@@ -104,6 +158,27 @@ public class RRSLogReader extends ProviderLogReader {
         this.logFileName = null;
         this.scoreFunction = null;
         this.status = IEntityProvider.PROVIDER_NOT_CONNECTED;
+        this.executor = null;
+        this.decoders = null;
+        this.decodingChunks = null;
+        this.decodedRecords = null;
+        this.nextChunkTime = 0;
+
+        int threads = 1;
+        int chunk = 10;
+        try {
+            threads = Integer.parseInt(System.getProperty(ViewerManagerKeys.LOG_READER_THREADS,
+                    ViewerManagerKeys.LOG_READER_DEFAULT_THREADS));
+            chunk = Integer.parseInt(System.getProperty(ViewerManagerKeys.LOG_READER_CHUNK,
+                    ViewerManagerKeys.LOG_READER_DEFAULT_CHUNK));
+        } catch (NumberFormatException ex) {
+            Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER)
+                    .warn("RRSLogReader - cannot parse parallelism, use sequential reading", ex);
+            threads = 1;
+        }
+        setParallelism(threads, chunk);
+        setIncremental(Boolean.parseBoolean(System.getProperty(ViewerManagerKeys.LOG_READER_INCREMENTAL,
+                ViewerManagerKeys.LOG_READER_DEFAULT_INCREMENTAL)));
     }
 
     public RRSLogReader(String logFileName) throws LogFileException
@@ -144,16 +219,9 @@ public class RRSLogReader extends ProviderLogReader {
      * */
     @Override
     public void open(String fileName) throws LogFileException {
-        Config config = new Config();
         try {
-            /**
-             * Read RRS's Jar Files and collect register entry used in rescuecore2;
-             * RRSのJarファイルを読み込み，rescuecore2で使われる情報を収集する
-             * */
-            config.setValue("loadabletypes.inspect.dir", "library/rescue");
-            LoadableTypeProcessor pr = new LoadableTypeProcessor(config);
-            pr.addFactoryRegisterCallbacks(Registry.SYSTEM_REGISTRY);
-            pr.process();
+            // Read RRS's Jar Files once in the process
+            RRSRegistry.initialize();
 
             // Open Log Reader
             reader = new FileLogReader(fileName, Registry.SYSTEM_REGISTRY);
@@ -238,70 +306,30 @@ public class RRSLogReader extends ProviderLogReader {
             return null;
         }
 
-        // Read once
-        Record record = new Record();
-        try {
-            // Read World
-            HashMap<Integer, Entity> world = new HashMap<>();
-            //// Get WorldModel
-            WorldModel<? extends StandardEntity> model
-                 = StandardWorldModel.createStandardWorldModel(reader.getWorldModel(time));
-            //// Convert all Entity and put to the world.
-            model.getAllEntities().stream().forEach(a -> {
-                world.put(a.getID().getValue(), new Entity(a));
-            });
-
-            // Set to Record
-            record.world = new ArrayList<>(world.values());
-
-            // Read Changes
-            record.changes = new ArrayList<>();
-            if(worldModelRead != null) {
-                //// Get ChangeSet (Updates)
-                ChangeSet changeSet = reader.getUpdates(time).getChangeSet();
-
-                //// Convert all Updates to difference between previous entity.
-                //// すべての更新されたEntityの差分を取って更新を保持する
-                changeSet.getChangedEntities().forEach(a -> {
-                    Entity eold = worldModelRead.get(a.getValue());
-                    Entity entity = Entity.difference(eold, model.getEntity(a));
-
-                    //// entity differences are not null (any difference available)
-                    //// 何らかの差分が存在するため，追加する．
-                    if (entity != null && !entity.isEmpty()) {
-                        if (eold == null) entity.created = true;
-                        record.changes.add(entity);
-                    }
-                });
-
-                //// append deleted entities for record
-                //// 削除済みEntityを保存する
-                changeSet.getDeletedEntities().forEach(a -> {
-                    Entity edel = new Entity();
-                    edel.id = a.getValue();
-                    if(worldModelRead.containsKey(edel.id)) {
-                        edel.type = worldModelRead.get(edel.id).type;
-                    }
-
-                    edel.deleted = true;
-                    record.changes.add(edel);
-                });
+        // Parallel mode: take the record decoded by workers
+        if (parallelism > 1) {
+            Record record = takeDecodedRecord(time);
+            if (record != null) {
+                this.currentTime = time;
+                currentRecord = record;
             }
+            return record;
+        }
 
-            // Read Command and convert all
-            record.commands
-                    = reader.getCommands(time).getCommands()
-                    .stream().map(Action::new).collect(Collectors.toList());
-
-            // Calc Score
-            if(scoreFunction != null) {
-                record.score = scoreFunction.score(model, new Timestep(time));
+        // Read once
+        Record record;
+        try {
+            synchronized (readerLock) {
+                // The first step has no previous world
+                boolean diff = (worldModelRead != null);
+                if (!diff) {
+                    worldModelRead = new WorldState(incremental);
+                }
+                record = convertStep(reader, scoreFunction, time, worldModelRead, diff);
             }
 
             // Store Current State
-            record.time = time;
             this.currentTime = time;
-            worldModelRead = world;
         } catch (LogException e) {
             // File Read Error
             Logger logger = Logger.getLogger(System.getProperty(ViewerManagerKeys.LOGGER, ViewerManagerKeys.DEFAULT_LOGGER));
@@ -318,6 +346,388 @@ public class RRSLogReader extends ProviderLogReader {
         return record;
     }
 
+    /**
+     * convert one step of the log to <code>Record</code>.
+     *  on incremental mode, <code>world</code> of the record is built lazily from a snapshot of the world converted;
+     *  the WorldModel kept is merged with updates, and only changed entities are converted.
+     * ログの1ステップを<code>Record</code>に変換する．
+     *  差分モードではレコードの<code>world</code>は変換したWorldのスナップショットから遅延して作られる．
+     *  保持したWorldModelに更新をマージし，変化したEntityのみを変換する．
+     *
+     * @param reader log reader to read from. 読み出すログのReader
+     * @param scoreFunction score function initialised for the reader. スコアを計算する関数
+     * @param time timeStep want to read. 読み出したいステップ数
+     * @param state converted world of the previous step, updated to this step.
+     *  前のステップで変換したWorld，このステップのWorldに更新される
+     * @param diff take differences from the previous step. 前のステップとの差分を取るか
+     * @exception LogException cannot read the log; <code>state</code> is not changed.
+     * */
+    protected static Record convertStep(LogReader reader, ScoreFunction scoreFunction, int time,
+                                        WorldState state, boolean diff) throws LogException {
+        Record record = new Record();
+        WorldStore world = state.world;
+
+        // Continue from the WorldModel kept, only if the previous step
+        boolean successive = state.incremental && state.model != null && state.time == time - 1;
+
+        // Read all of the step before changing the world
+        //// Get ChangeSet (Updates)
+        ChangeSet changeSet = (diff || successive) ? reader.getUpdates(time).getChangeSet() : null;
+        //// Get WorldModel; FileLogReader keeps the model returned as a key frame,
+        //// so the model kept to merge updates is a copy of it
+        StandardWorldModel model;
+        if (successive) {
+            model = state.model;
+        }
+        else if (state.incremental) {
+            model = new StandardWorldModel();
+            for (rescuecore2.worldmodel.Entity entity : reader.getWorldModel(time)) {
+                model.addEntity(entity.copy());
+            }
+        }
+        else {
+            model = StandardWorldModel.createStandardWorldModel(reader.getWorldModel(time));
+        }
+        //// Read Command and convert all
+        record.commands
+                = reader.getCommands(time).getCommands()
+                .stream().map(Action::new).collect(Collectors.toList());
+
+        //// Apply Updates to the WorldModel kept, same as FileLogReader.getWorldModel
+        if (successive) {
+            model.merge(changeSet);
+        }
+
+        // Read Changes
+        record.changes = new ArrayList<>();
+        if(diff) {
+            //// Convert all Updates to difference between previous entity.
+            //// すべての更新されたEntityの差分を取って更新を保持する
+            changeSet.getChangedEntities().forEach(a -> {
+                Entity eold = world.get(a.getValue());
+                Entity entity = Entity.difference(eold, model.getEntity(a));
+
+                //// entity differences are not null (any difference available)
+                //// 何らかの差分が存在するため，追加する．
+                if (entity != null && !entity.isEmpty()) {
+                    if (eold == null) entity.created = true;
+                    record.changes.add(entity);
+                }
+            });
+
+            //// append deleted entities for record
+            //// 削除済みEntityを保存する
+            changeSet.getDeletedEntities().forEach(a -> {
+                Entity edel = new Entity();
+                edel.id = a.getValue();
+                edel.type = world.getType(edel.id);
+
+                edel.deleted = true;
+                record.changes.add(edel);
+            });
+        }
+
+        // Read World
+        if (successive) {
+            //// Convert only changed entities
+            changeSet.getChangedEntities().forEach(a -> {
+                StandardEntity entity = model.getEntity(a);
+                if (entity != null) {
+                    world.put(entity);
+                }
+            });
+            changeSet.getDeletedEntities().forEach(a -> world.remove(a.getValue()));
+        }
+        else {
+            //// Convert all Entity and put to the world, rows are reused.
+            world.clear();
+            for (StandardEntity entity : model) {
+                world.put(entity);
+            }
+        }
+        state.model = (state.incremental) ? model : null;
+        state.time = time;
+
+        // Set to Record, or built lazily on incremental mode; the snapshot is kept by the record on any thread
+        if (!state.incremental) {
+            record.world = world.asEntities();
+        }
+        else {
+            record.setWorldSupplier(world.snapshot()::asEntities);
+        }
+
+        // Calc Score
+        if(scoreFunction != null) {
+            record.score = scoreFunction.score(model, new Timestep(time));
+        }
+
+        record.time = time;
+        return record;
+    }
+
+    /**
+     * set incremental mode: keep one WorldModel and convert only changed entities,
+     *  and build the world of records lazily.
+     * 差分モードを設定する: 1つのWorldModelを保持して変化したEntityのみを変換し，
+     *  レコードのWorldを遅延して作る．
+     * */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * get is the incremental mode.
+     * 差分モードかを取得する．
+     * */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * converted world and the WorldModel kept on reading.
+     * 読み出し中に保持する変換済みのWorldとWorldModel
+     * */
+    protected static class WorldState {
+        /** converted world. 変換済みのWorld */
+        final WorldStore world;
+        /** WorldModel kept on incremental mode, or null. 差分モードで保持するWorldModel */
+        StandardWorldModel model;
+        /** time of the world. Worldの時間 */
+        int time;
+        /** is the incremental mode. 差分モードか */
+        final boolean incremental;
+
+        WorldState(boolean incremental) {
+            this.world = new WorldStore();
+            this.model = null;
+            this.time = -1;
+            this.incremental = incremental;
+        }
+    }
+
+    //---[Parallel Decoding]----------------------------------------------------
+    /**
+     * set count of workers decoding steps in parallel. 1 means sequential reading.
+     *  steps are read in order, so <code>readLog</code> must be called with successive time.
+     * 並列にステップを変換するワーカの数を設定する．1のときは逐次読み出しとなる．
+     *  ステップは順番に読み出されるため，<code>readLog</code>は連続した時間で呼び出す必要がある．
+     *
+     * @param parallelism count of workers. ワーカの数
+     * @param chunkSize count of steps decoded by a worker at once. 1つのワーカが一度に変換するステップ数
+     * */
+    public void setParallelism(int parallelism, int chunkSize) {
+        this.parallelism = Math.max(1, parallelism);
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * get count of workers decoding steps in parallel.
+     * 並列にステップを変換するワーカの数を取得する．
+     * */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * take the record of <code>time</code> decoded by workers, and request next steps to decode.
+     * ワーカが変換した<code>time</code>のレコードを取り出し，次のステップの変換を要求する．
+     *
+     * @return record of the time, or null if failed to decode.
+     * */
+    private Record takeDecodedRecord(int time) {
+        Logger logger = Logger.getLogger(System.getProperty(ViewerManagerKeys.LOGGER, ViewerManagerKeys.DEFAULT_LOGGER));
+        if (Objects.isNull(logger)) {
+            logger = Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER);
+        }
+
+        try {
+            if (executor == null) {
+                startWorkers(time);
+            }
+
+            // Get records of the next chunk
+            while (decodedRecords.isEmpty() && !decodingChunks.isEmpty()) {
+                decodedRecords.addAll(decodingChunks.poll().get());
+                submitChunks();
+            }
+        } catch (IOException | LogException | ExecutionException e) {
+            logger.warn("RRSLogReader - Cannot Read Log on Workers", e);
+            stopWorkers();
+            return null;
+        } catch (InterruptedException e) {
+            logger.warn("RRSLogReader - Interrupted on Reading Log", e);
+            stopWorkers();
+            return null;
+        }
+
+        Record record = decodedRecords.poll();
+        if (record == null || record.time != time) {
+            // Workers cannot read the step, or requested not in order
+            logger.warn("RRSLogReader - Cannot Read Log on time " + time);
+            return null;
+        }
+
+        if (time >= maxTimeStep) {
+            stopWorkers();
+        }
+        return record;
+    }
+
+    /**
+     * open log readers for each worker and start decoding from <code>time</code>.
+     *  the heap used by readers grows with <code>parallelism</code>, as each of them loads the log.
+     * それぞれのワーカ用のログReaderを開き，<code>time</code>から変換を始める．
+     *  それぞれのReaderがログを読み込むため，Readerが使うヒープは<code>parallelism</code>に比例する．
+     * */
+    private void startWorkers(int time) throws IOException, LogException {
+        decoders = new LinkedBlockingQueue<>();
+        for (int i = 0; i < parallelism; i++) {
+            // Each worker uses own reader, because FileLogReader is not thread safe.
+            LogReader workerReader = new FileLogReader(logFileName, Registry.SYSTEM_REGISTRY);
+            ScoreFunction workerScore = new LegacyScoreFunction();
+            workerScore.initialise(StandardWorldModel.createStandardWorldModel(workerReader.getWorldModel(0)),
+                    workerReader.getConfig());
+            decoders.add(new StepDecoder(workerReader, workerScore));
+        }
+
+        executor = Executors.newFixedThreadPool(parallelism);
+        decodingChunks = new ArrayDeque<>();
+        decodedRecords = new ArrayDeque<>();
+        nextChunkTime = time;
+        submitChunks();
+    }
+
+    /**
+     * submit chunks of steps to workers, keeping chunks in flight twice the workers.
+     * ワーカの2倍のチャンクが処理中になるように，ステップのチャンクをワーカに渡す．
+     * */
+    private void submitChunks() {
+        while (decodingChunks.size() < parallelism * 2 && nextChunkTime <= maxTimeStep) {
+            final int from = nextChunkTime;
+            final int to = Math.min(from + chunkSize - 1, maxTimeStep);
+            final BlockingQueue<StepDecoder> workerDecoders = decoders;
+            final ExecutorService workerExecutor = executor;
+            decodingChunks.add(executor.submit(() -> decodeChunk(workerDecoders, workerExecutor, from, to)));
+            nextChunkTime = to + 1;
+        }
+    }
+
+    /**
+     * decode steps [from, to] on a worker.
+     *  the world of the step before <code>from</code> is converted first to take differences.
+     *  the decoder is returned to <code>workerDecoders</code> after, or dropped if the workers are stopped.
+     * ワーカ上で[from, to]のステップを変換する．
+     *  差分を取るために，<code>from</code>の前のステップのWorldを最初に変換する．
+     *  Decoderは後で<code>workerDecoders</code>に戻す．ワーカが停止している場合は破棄する．
+     * */
+    private List<Record> decodeChunk(BlockingQueue<StepDecoder> workerDecoders, ExecutorService workerExecutor,
+                                     int from, int to) throws InterruptedException {
+        StepDecoder decoder = workerDecoders.take();
+        List<Record> records = new ArrayList<>();
+        try {
+            // The first step has no previous world, same as sequential reading
+            WorldState state = new WorldState(incremental);
+            boolean diff = (from > 1);
+            if (diff) {
+                convertStep(decoder.reader, null, from - 1, state, false);
+            }
+
+            for (int time = from; time <= to; time++) {
+                records.add(convertStep(decoder.reader, decoder.scoreFunction, time, state, diff));
+                diff = true;
+            }
+        } catch (LogException e) {
+            // Records until the error are available, same as sequential reading
+            Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER).warn("RRSLogReader - Cannot Read Log on Worker", e);
+        } finally {
+            workerDecoders.put(decoder);
+            if (workerExecutor.isShutdown()) {
+                // Stopped while decoding, after or before cleared
+                workerDecoders.clear();
+            }
+        }
+        return records;
+    }
+
+    /**
+     * stop workers and release these readers; readers of workers still running are dropped when they finish.
+     * ワーカを停止して，それぞれのReaderを開放する．実行中のワーカのReaderは終了時に破棄する．
+     * */
+    private void stopWorkers() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (decoders != null) {
+            decoders.clear();
+        }
+        executor = null;
+        decoders = null;
+        decodingChunks = null;
+    }
+
+    /**
+     * pair of log reader and score function owned by a worker.
+     * ワーカが持つログReaderとスコア関数の組
+     * */
+    private static class StepDecoder {
+        final LogReader reader;
+        final ScoreFunction scoreFunction;
+
+        StepDecoder(LogReader reader, ScoreFunction scoreFunction) {
+            this.reader = reader;
+            this.scoreFunction = scoreFunction;
+        }
+    }
+
+    //---[Reading Again]--------------------------------------------------------
+    /**
+     * create a source reading steps of the log file again, with own reader.
+     *  a step is converted with the step before it to take differences, same as workers.
+     * 自身のReaderでログファイルのステップを再び読み出す読み出し元を作る．
+     *  ワーカと同じく，差分を取るためにステップはその前のステップと共に変換する．
+     * */
+    @Override
+    public RecordSource createRecordSource() {
+        final String fileName = this.logFileName;
+        final boolean incremental = this.incremental;
+        if (fileName == null) {
+            return null;
+        }
+
+        return new RecordSource() {
+            private StepDecoder decoder = null;
+
+            @Override
+            public synchronized Record readRecord(int time) {
+                try {
+                    if (decoder == null) {
+                        LogReader sourceReader = new FileLogReader(fileName, Registry.SYSTEM_REGISTRY);
+                        ScoreFunction sourceScore = new LegacyScoreFunction();
+                        sourceScore.initialise(StandardWorldModel.createStandardWorldModel(sourceReader.getWorldModel(0)),
+                                sourceReader.getConfig());
+                        decoder = new StepDecoder(sourceReader, sourceScore);
+                    }
+
+                    // The first step has no previous world, same as sequential reading
+                    WorldState state = new WorldState(incremental);
+                    boolean diff = (time > 1);
+                    if (diff) {
+                        convertStep(decoder.reader, null, time - 1, state, false);
+                    }
+                    return convertStep(decoder.reader, decoder.scoreFunction, time, state, diff);
+                } catch (IOException | LogException e) {
+                    Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER).warn("RRSLogReader - Cannot Read Log again on time " + time, e);
+                    return null;
+                }
+            }
+
+            @Override
+            public synchronized void close() {
+                decoder = null;
+            }
+        };
+    }
+
     //---[Impelement: IEntityProvider]------------------------------------------
     /**
      * Shutdown all system and release resource.
@@ -325,7 +735,10 @@ public class RRSLogReader extends ProviderLogReader {
      * */
     @Override
     public void shutdown() {
-        reader = null;
+        stopWorkers();
+        synchronized (readerLock) {
+            reader = null;
+        }
     }
 
     /**
@@ -11,6 +11,7 @@ import viewermanager.ViewerManagerKeys;
 import viewermanager.entity.Action;
 import viewermanager.entity.Perception;
 import viewermanager.entity.Record;
+import viewermanager.recorder.RecordSource;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -27,6 +28,15 @@ public class RRSPerceptionLogReader extends RRSLogReader {
             StandardEntityURN.POLICE_OFFICE);
 
 
+    /**
+     * records with perceptions are not read again.
+     * 知覚情報を持つレコードは再び読み出さない．
+     * */
+    @Override
+    public RecordSource createRecordSource() {
+        return null;
+    }
+
     @Override
     protected Record readLog(int time) {
         Record record = super.readLog(time);
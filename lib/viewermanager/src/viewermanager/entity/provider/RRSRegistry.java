@@ -0,0 +1,65 @@
+package viewermanager.entity.provider;
+
+import rescuecore2.config.Config;
+import rescuecore2.misc.java.LoadableTypeProcessor;
+import rescuecore2.registry.Registry;
+
+import java.io.IOException;
+
+/**
+ * Registry Initializer for rescuecore2
+ * rescuecore2のRegistryの初期化
+ *
+ * RRS's Jar Files are read only once in the process, and the registry is shared by all providers.
+ * RRSのJarファイルはプロセス内で一度だけ読み込まれ，Registryはすべてのproviderで共有される．
+ * */
+public class RRSRegistry {
+
+    /**
+     * directory of RRS's Jar Files
+     * RRSのJarファイルのディレクトリ
+     * */
+    public static final String JAR_DIR = "library/rescue";
+
+    /**
+     * whether the registry is initialized
+     * Registryが初期化済みか
+     * */
+    private static volatile boolean initialized = false;
+
+    private RRSRegistry() {
+    }
+
+    /**
+     * Read RRS's Jar Files and collect register entry used in rescuecore2, only at the first call;
+     *  if failed, read again at the next call.
+     * 初回の呼び出し時のみ，RRSのJarファイルを読み込み，rescuecore2で使われる情報を収集する．
+     *  失敗した場合は次の呼び出しで再度読み込む．
+     *
+     * @return the registry initialized. 初期化済みのRegistry
+     * @exception IOException cannot read Jar Files.
+     * */
+    public static Registry initialize() throws IOException {
+        if (!initialized) {
+            synchronized (RRSRegistry.class) {
+                if (!initialized) {
+                    Config config = new Config();
+                    config.setValue("loadabletypes.inspect.dir", JAR_DIR);
+                    LoadableTypeProcessor pr = new LoadableTypeProcessor(config);
+                    pr.addFactoryRegisterCallbacks(Registry.SYSTEM_REGISTRY);
+                    pr.process();
+                    initialized = true;
+                }
+            }
+        }
+        return Registry.SYSTEM_REGISTRY;
+    }
+
+    /**
+     * whether the registry is initialized.
+     * Registryが初期化済みか
+     * */
+    public static boolean isInitialized() {
+        return initialized;
+    }
+}
@@ -0,0 +1,144 @@
+package viewermanager.entity.provider;
+
+import viewermanager.entity.Record;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RecordRing - Bounded queue of <code>Record</code>s for one producer thread and one consumer thread.
+ *  The producer and the consumer do not lock, each of them only moves own position.
+ *  <code>offer</code> returns false when full, so the producer decides to wait or drop.
+ *
+ * 1つの生産者スレッドと1つの消費者スレッドのための，<code>Record</code>の有界キュー．
+ *  生産者と消費者はロックせず，それぞれ自身の位置のみを進める．
+ *  満杯のとき<code>offer</code>はfalseを返すため，待つか捨てるかは生産者が決める．
+ * */
+public class RecordRing {
+
+    /**
+     * slots of records, the size is a power of 2
+     * レコードの格納場所，サイズは2の冪
+     * */
+    private final Record[] slots;
+    private final int mask;
+
+    /**
+     * next position to read, moved by the consumer; and next position to write, moved by the producer
+     * 次に読み出す位置(消費者が進める)と，次に書き込む位置(生産者が進める)
+     * */
+    private final AtomicLong head;
+    private final AtomicLong tail;
+
+    /**
+     * count of records dropped, and the max depth reached
+     * 捨てたレコードの数と，到達した最大の深さ
+     * */
+    private final AtomicLong dropped;
+    private volatile int maxDepth;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity max count of records, rounded up to a power of 2. レコードの最大数，2の冪に切り上げる
+     * */
+    public RecordRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        slots = new Record[size];
+        mask = size - 1;
+        head = new AtomicLong(0);
+        tail = new AtomicLong(0);
+        dropped = new AtomicLong(0);
+        maxDepth = 0;
+    }
+
+    /**
+     * add the record, only from the producer.
+     * レコードを追加する．生産者からのみ呼ぶ．
+     *
+     * @return false if full. 満杯の場合はfalse
+     * */
+    public boolean offer(Record record) {
+        long t = tail.get();
+        int depth = (int) (t - head.get());
+        if (depth >= slots.length) {
+            return false;
+        }
+        slots[(int) t & mask] = record;
+        // publish the slot written
+        tail.lazySet(t + 1);
+        if (depth + 1 > maxDepth) {
+            maxDepth = depth + 1;
+        }
+        return true;
+    }
+
+    /**
+     * take the oldest record, only from the consumer.
+     * 最も古いレコードを取り出す．消費者からのみ呼ぶ．
+     *
+     * @return record, or null if empty. レコード，空の場合はnull
+     * */
+    public Record poll() {
+        long h = head.get();
+        if (h >= tail.get()) {
+            return null;
+        }
+        int index = (int) h & mask;
+        Record record = slots[index];
+        slots[index] = null;
+        // release the slot to the producer
+        head.lazySet(h + 1);
+        return record;
+    }
+
+    /**
+     * count a record dropped by the producer.
+     * 生産者が捨てたレコードを数える．
+     *
+     * @return count of records dropped. 捨てたレコードの数
+     * */
+    public long drop() {
+        return dropped.incrementAndGet();
+    }
+
+    /**
+     * is no records.
+     * レコードがないか．
+     * */
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    /**
+     * get count of records queued.
+     * キューにあるレコードの数を取得する．
+     * */
+    public int size() {
+        long h = head.get();
+        return (int) Math.max(0, tail.get() - h);
+    }
+
+    /**
+     * get max count of records.
+     * レコードの最大数を取得する．
+     * */
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * get the max count of records queued at once.
+     * 一度にキューにあったレコードの最大数を取得する．
+     * */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * get count of records dropped.
+     * 捨てたレコードの数を取得する．
+     * */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
@@ -1,11 +1,14 @@
 package viewermanager.entity.provider;
 
 
+import org.apache.log4j.Logger;
+import viewermanager.ViewerManagerKeys;
 import viewermanager.entity.MapInfo;
 import viewermanager.entity.Record;
 import viewermanager.log.LogFileException;
-import viewermanager.log.ViewerLogFile;
+import viewermanager.log.ViewerLogFileReader;
 import viewermanager.log.ViewerLogFileRecord;
+import viewermanager.recorder.RecordSource;
 
 import java.util.Map;
 
@@ -22,11 +25,17 @@ public class ViewerLogReader extends ProviderLogReader{
     private String fileName;
 
     /**
-     * Reader of ViewerManager Log File
-     * ViewerManagerのログファイルの読み出し
+     * Header of ViewerManager Log File; <code>log</code> is null
+     * ViewerManagerのログファイルのヘッダ，<code>log</code>はnull
      * */
     private ViewerLogFileRecord recorder;
 
+    /**
+     * Random Access Reader of ViewerManager Log File, records are decoded on demand
+     * ViewerManagerのログファイルを任意の位置から読み出すReader，レコードは必要なときに復元する
+     * */
+    private ViewerLogFileReader fileReader;
+
     /**
      * time Steps of the latest Records
      * 最後に読み込んだレコードのステップ数
@@ -54,6 +63,7 @@ public class ViewerLogReader extends ProviderLogReader{
     public ViewerLogReader() {
         super();
         recorder = null;
+        fileReader = null;
         currentTimeStep = 0;
         maxTimeStep = null;
         status = IEntityProvider.PROVIDER_NOT_CONNECTED;
@@ -66,15 +76,16 @@ public class ViewerLogReader extends ProviderLogReader{
     }
 
     /**
-     * open log file.
-     * ログファイルを開く
+     * open log file; only the header and the index are read.
+     * ログファイルを開く．ヘッダと索引のみを読み込む．
      *
      * @exception LogFileException any error occurred.
      * */
     @Override
     public void open(String filename) throws LogFileException {
-        // Read and unpack all Log Data
-        this.recorder = ViewerLogFile.logRead(filename);
+        // Map the file and read only header and index, records are decoded on demand
+        this.fileReader = new ViewerLogFileReader(filename);
+        this.recorder = fileReader.getHeader();
 
         // Save Information
         this.maxTimeStep = recorder.getMaxTimeStep();
@@ -90,6 +101,10 @@ public class ViewerLogReader extends ProviderLogReader{
     @Override
     public void shutdown()
     {
+        if (fileReader != null) {
+            fileReader.close();
+            fileReader = null;
+        }
         recorder = null;
         status = IEntityProvider.PROVIDER_END_WORKING;
     }
@@ -209,7 +224,7 @@ public class ViewerLogReader extends ProviderLogReader{
         if (isWorking() && record == null) {
             // Check the record
             int time = currentTimeStep + 1;
-            record = recorder.get(time);
+            record = readRecord(time);
             currentTimeStep = time;
 
             // Set to the record global
@@ -244,4 +259,93 @@ public class ViewerLogReader extends ProviderLogReader{
         this.record = null;
         return rec;
     }
+
+    /**
+     * read the record of the time as written from the file.
+     *  records are read in order once, so each record is decoded when read and not kept.
+     * 書かれたままの時間のレコードをファイルから読み出す．
+     *  レコードは順に一度だけ読み出すため，読み出すときに復元し保持しない．
+     * */
+    private Record readRecord(int time) {
+        if (fileReader == null) {
+            return null;
+        }
+
+        try {
+            return fileReader.read(time);
+        } catch (LogFileException e) {
+            Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER).warn("ViewerLogReader - Cannot Read Log on time " + time, e);
+            return null;
+        }
+    }
+
+    /**
+     * create a source reading records of the log file again, with own reader.
+     * 自身のReaderでログファイルのレコードを再び読み出す読み出し元を作る．
+     * */
+    @Override
+    public RecordSource createRecordSource() {
+        String fileName = this.fileName;
+        if (fileName == null) {
+            return null;
+        }
+
+        return new RecordSource() {
+            private ViewerLogFileReader reader = null;
+
+            @Override
+            public synchronized Record readRecord(int time) {
+                try {
+                    if (reader == null) {
+                        reader = new ViewerLogFileReader(fileName);
+                    }
+                    return reader.read(time);
+                } catch (LogFileException e) {
+                    Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER).warn("ViewerLogReader - Cannot Read Log again on time " + time, e);
+                    return null;
+                }
+            }
+
+            @Override
+            public synchronized void close() {
+                if (reader != null) {
+                    reader.close();
+                    reader = null;
+                }
+            }
+        };
+    }
+
+    /**
+     * move to the time; the next incoming record is the record of the time with the whole world.
+     *  on version 2, one keyframe and following records are read; on version 1, records from the first are replayed.
+     * 指定した時間に移動する．次の新しいレコードはWorld全体を持つその時間のレコードとなる．
+     *  形式2では1つのキーフレームとそれに続くレコードを読み出し，形式1では最初からのレコードを再生する．
+     *
+     * @param time time to move. 移動する時間
+     * @return true if moved. 移動できた場合はtrue
+     * */
+    public boolean seek(int time) {
+        if (fileReader == null || time < 1 || time > maxTimeStep) {
+            return false;
+        }
+
+        Record record;
+        try {
+            record = fileReader.seek(time);
+        } catch (LogFileException e) {
+            Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER).warn("ViewerLogReader - Cannot Seek Log to time " + time, e);
+            return false;
+        }
+
+        if (record == null) {
+            return false;
+        }
+
+        // The next incoming record
+        this.record = record;
+        this.currentTimeStep = time;
+        this.status = (time >= maxTimeStep) ? IEntityProvider.PROVIDER_END_WORKING : IEntityProvider.PROVIDER_WORKING;
+        return true;
+    }
 }
@@ -7,10 +7,29 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.log4j.Logger;
 import org.msgpack.jackson.dataformat.MessagePackFactory;
 import viewermanager.ViewerManagerKeys;
+import viewermanager.entity.Entity;
+import viewermanager.entity.Record;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * ViewerManager's Log File RW Helper Function
@@ -18,50 +37,174 @@ import java.util.Calendar;
  * */
 public class ViewerLogFile {
 
+    //---[Format Version 2]-----------------------------------------------------
+    // | "VLOG" | version(int) | header length(int) | header(msgpack) |
+    // | frame: length(int) | kind(byte) | flags(byte) | time(int) | record(msgpack, compressed by codec in flags) | ...
+    //   flags: codec(bits 0-3) | FLAG_COMPACT
+    // | index: count(int) | (time(int) | offset(long) | kind(byte)) * count |
+    // | offset of index(long) | "VIDX" |
+
+    /** magic of the file, version 2. ファイルの先頭の識別子(形式2) */
+    public static final byte[] MAGIC = {'V', 'L', 'O', 'G'};
+    /** magic of the end of the file, version 2. ファイルの末尾の識別子(形式2) */
+    public static final byte[] INDEX_MAGIC = {'V', 'I', 'D', 'X'};
+
+    public static final int VERSION_1 = 1;
+    public static final int VERSION_2 = 2;
+
+    /** frame of the record without world. Worldを持たないレコードのフレーム */
+    public static final byte FRAME_DELTA = 0;
+    /** frame of the record with the whole world. World全体を持つレコードのフレーム */
+    public static final byte FRAME_KEYFRAME = 1;
+
+    /** record of the frame is not compressed. フレームのレコードは圧縮されていない */
+    public static final byte CODEC_NONE = 0;
+    /** record of the frame is compressed with Deflate. フレームのレコードはDeflateで圧縮されている */
+    public static final byte CODEC_DEFLATE = 1;
+    /** record of the frame is compressed with GZIP. フレームのレコードはGZIPで圧縮されている */
+    public static final byte CODEC_GZIP = 2;
+
+    /** mask of the codec in flags of the frame. フレームのフラグ中のコーデックのマスク */
+    public static final byte CODEC_MASK = 0x0f;
+    /** flag of the frame: entities are written by <code>CompactEntityModule</code>. フラグ: Entityは<code>CompactEntityModule</code>で書かれている */
+    public static final byte FLAG_COMPACT = 0x10;
+
+    /** size of length, kind, flags and time of the frame. フレームの長さ，種類，フラグ，時間のサイズ */
+    public static final int FRAME_HEADER_SIZE = 10;
+    /** size of an entry of the index. 索引の1項目のサイズ */
+    public static final int INDEX_ENTRY_SIZE = 13;
+    /** size of the end of the file: offset of index and magic. ファイル末尾(索引の位置と識別子)のサイズ */
+    public static final int TRAILER_SIZE = 12;
+
+    /**
+     * check the file is written in version 2.
+     * ファイルが形式2で書かれているか確かめる．
+     * */
+    public static boolean isVersion2(String fileName) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(fileName))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            return Arrays.equals(magic, MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * get the codec from its name: "none", "deflate" or "gzip".
+     * 名前からコーデックを取得する: "none", "deflate", "gzip"
+     *
+     * @return codec, or <code>CODEC_NONE</code> if unknown.
+     * */
+    public static byte getCodec(String name) {
+        if ("deflate".equalsIgnoreCase(name)) return CODEC_DEFLATE;
+        if ("gzip".equalsIgnoreCase(name)) return CODEC_GZIP;
+        return CODEC_NONE;
+    }
+
+    /**
+     * compress the data with the codec.
+     * データをコーデックで圧縮する．
+     * */
+    public static byte[] compress(byte[] data, byte codec) throws IOException {
+        if (codec == CODEC_NONE) {
+            return data;
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length / 4 + 16);
+        if (codec == CODEC_GZIP) {
+            try (GZIPOutputStream out = new GZIPOutputStream(buffer)) {
+                out.write(data);
+            }
+        }
+        else {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            try (DeflaterOutputStream out = new DeflaterOutputStream(buffer, deflater)) {
+                out.write(data);
+            } finally {
+                deflater.end();
+            }
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * decompress the data compressed with the codec.
+     * コーデックで圧縮されたデータを展開する．
+     * */
+    public static byte[] decompress(byte[] data, byte codec) throws IOException {
+        if (codec == CODEC_NONE) {
+            return data;
+        }
+
+        if (codec == CODEC_GZIP) {
+            // GZIPInputStream ends its own Inflater on close
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+                return readAll(in, data.length * 4);
+            }
+        }
+        else {
+            Inflater inflater = new Inflater();
+            try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(data), inflater)) {
+                return readAll(in, data.length * 4);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * read the stream until the end.
+     * ストリームを最後まで読み出す．
+     * */
+    private static byte[] readAll(InputStream in, int size) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(size);
+        byte[] chunk = new byte[8192];
+        int n;
+        while ((n = in.read(chunk)) > 0) {
+            buffer.write(chunk, 0, n);
+        }
+        return buffer.toByteArray();
+    }
+
     public static boolean logWrite(ViewerLogFileRecord record, String filename)
     {
         if(record == null) {
             return false;
         }
 
-        String path = filename;
-        if (filename == null)
-        {
-            // Create Path
-            Calendar calendar = Calendar.getInstance();
-            String date = String.format("%04d%02d%02d_%02d%02d%02d_%04d", calendar.get(Calendar.YEAR),
-                    calendar.get(Calendar.MONTH) + 1,
-                    calendar.get(Calendar.DAY_OF_MONTH),
-                    calendar.get(Calendar.HOUR),
-                    calendar.get(Calendar.MINUTE),
-                    calendar.get(Calendar.SECOND),
-                    calendar.get(Calendar.MILLISECOND));
-
-            String pathDir = System.getProperty(ViewerManagerKeys.VIEWER_LOG_DIR, ViewerManagerKeys.VIEWER_LOG_DEFAULT_DIR);
-            String mapName = record.mapName;
-            {
-                File dir = new File(pathDir);
-                if (!dir.exists()) {
-                    boolean mkdir = dir.mkdir();
-                    if (!mkdir) {
-                        Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER).warn("ViewerLogFile - Cannot create LogDir");
-                        return false;
-                    }
-                } else if (!dir.isDirectory()) {
-                    Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER).warn("ViewerLogFile - LogDir is not directory");
-                    return false;
-                }
+        String path = (filename != null) ? filename : createLogPath(record.mapName);
+        if (path == null) {
+            return false;
+        }
 
-                File mapFile = new File(record.mapName);
-                if (mapFile.getName() != null) {
-                    mapName = mapFile.getName();
+        // Version 2: framed records, compressed with the codec of ViewerManagerKeys.VIEWER_LOG_CODEC
+        if (String.valueOf(VERSION_2).equals(System.getProperty(ViewerManagerKeys.VIEWER_LOG_VERSION))) {
+            try (ViewerLogFileWriter writer = new ViewerLogFileWriter(record, path)) {
+                if (record.log != null) {
+                    // Only the first record has the world, so keep the world to write keyframes
+                    Map<Integer, Entity> world = new LinkedHashMap<>();
+                    for (Integer time : new TreeSet<>(record.log.keySet())) {
+                        Record r = record.log.get(time);
+                        if (r.world != null) {
+                            world.clear();
+                            for (Entity e : r.world) {
+                                Entity entity = new Entity();
+                                entity.update(e);
+                                world.put(entity.id, entity);
+                            }
+                        }
+                        ViewerLogFileReader.applyChanges(world, r.changes);
+
+                        Record rec = r.copy();
+                        rec.setWorldSupplier(() -> new ArrayList<>(world.values()));
+                        writer.write(rec);
+                    }
                 }
+            } catch (LogFileException e) {
+                Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER).warn("cannot write out logs", e);
             }
-
-            path = pathDir
-                    + File.separator
-                    + mapName + "_" + date
-                    + ".vlog";
+            return true;
         }
 
         // Write Out
@@ -92,6 +235,56 @@ public class ViewerLogFile {
     }
 
 
+    /**
+     * Create the default path of Log File to write out.
+     * 書き出すログファイルの標準のパスを作成する．
+     *
+     * Output File is contained on <code>ViewerManagerKeys.VIEWER_LOG_DIR</code>,
+     *  with Filename (mapName)_(year)(month)(day)_(hour)(minute)(second)_(millisec).vlog
+     *
+     * @param mapName map name of the log, can be a path like "/maps/paris". ログの地図名
+     * @return path of the file, or null when the log directory is not available.
+     * */
+    public static String createLogPath(String mapName)
+    {
+        // Create Path
+        Calendar calendar = Calendar.getInstance();
+        String date = String.format("%04d%02d%02d_%02d%02d%02d_%04d", calendar.get(Calendar.YEAR),
+                calendar.get(Calendar.MONTH) + 1,
+                calendar.get(Calendar.DAY_OF_MONTH),
+                calendar.get(Calendar.HOUR),
+                calendar.get(Calendar.MINUTE),
+                calendar.get(Calendar.SECOND),
+                calendar.get(Calendar.MILLISECOND));
+
+        String pathDir = System.getProperty(ViewerManagerKeys.VIEWER_LOG_DIR, ViewerManagerKeys.VIEWER_LOG_DEFAULT_DIR);
+        {
+            File dir = new File(pathDir);
+            if (!dir.exists()) {
+                boolean mkdir = dir.mkdir();
+                if (!mkdir) {
+                    Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER).warn("ViewerLogFile - Cannot create LogDir");
+                    return null;
+                }
+            } else if (!dir.isDirectory()) {
+                Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER).warn("ViewerLogFile - LogDir is not directory");
+                return null;
+            }
+
+            if (mapName != null) {
+                File mapFile = new File(mapName);
+                if (mapFile.getName() != null) {
+                    mapName = mapFile.getName();
+                }
+            }
+        }
+
+        return pathDir
+                + File.separator
+                + mapName + "_" + date
+                + ".vlog";
+    }
+
     /**
      * To Read from File
      * ファイルからの読み出しのための関数
@@ -105,6 +298,19 @@ public class ViewerLogFile {
             throw new LogFileException(LogFileException.FILE_NOT_FOUND, "File not found or Not File: " + fileName);
         }
 
+        // Version 2: read all records through the index
+        if (isVersion2(fileName)) {
+            try (ViewerLogFileReader reader = new ViewerLogFileReader(fileName)) {
+                ViewerLogFileRecord record = reader.getHeader();
+                record.log = new HashMap<>();
+                for (int i = 0; i < reader.size(); i++) {
+                    Record r = reader.read(reader.getTime(i));
+                    record.log.put(r.time, r);
+                }
+                return record;
+            }
+        }
+
         ViewerLogFileRecord record = null;
 
         ObjectMapper unpacker = new ObjectMapper(new MessagePackFactory());
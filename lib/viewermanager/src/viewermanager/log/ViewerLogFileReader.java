@@ -0,0 +1,435 @@
+package viewermanager.log;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.log4j.Logger;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePackException;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.core.buffer.ByteBufferInput;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import viewermanager.ViewerManagerKeys;
+import viewermanager.encoder.CompactEntityModule;
+import viewermanager.entity.Entity;
+import viewermanager.entity.Record;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * ViewerManager's Log File Random Access Reader
+ * ViewerManagerのログファイルを任意の位置から読み出すためのReader
+ *
+ * The file is memory-mapped, and only the header and the index are read on open;
+ *  each record is decoded on demand.
+ * On version 2, the index is written at the end of the file.
+ * On version 1, the index is made by skipping over the values of <code>log</code> map, without decoding them.
+ * <code>seek</code> gives the record with the whole world of any step,
+ *  by reading one keyframe and the following records until the step.
+ *
+ * ファイルはメモリにマップされ，開くときにはヘッダと索引のみを読み込む．
+ *  各レコードは必要なときに復元する．
+ * 形式2では，索引はファイルの末尾に書かれている．
+ * 形式1では，<code>log</code>のmapの値を復元せずに読み飛ばして索引を作る．
+ * <code>seek</code>は，1つのキーフレームとそのステップまでのレコードを読み出して，
+ *  任意のステップのWorld全体を持つレコードを返す．
+ * */
+public class ViewerLogFileReader implements AutoCloseable {
+
+    /**
+     * path of the file
+     * ファイルのパス
+     * */
+    private String path;
+
+    /**
+     * channel of the file
+     * ファイルのチャネル
+     * */
+    private FileChannel channel;
+
+    /**
+     * whole of the file mapped, or null if the file is too large to map
+     * マップしたファイル全体，ファイルが大きすぎてマップできない場合はnull
+     * */
+    private MappedByteBuffer mapped;
+
+    /**
+     * format version of the file
+     * ファイルの形式のバージョン
+     * */
+    private int version;
+
+    /**
+     * header of the log, <code>log</code> is null
+     * ログのヘッダ，<code>log</code>はnull
+     * */
+    private ViewerLogFileRecord header;
+
+    /**
+     * index of frames, sorted by time
+     * フレームの索引(時間順)
+     * */
+    private int[] times;
+    private long[] offsets;
+    private int[] lengths;
+    private byte[] kinds;
+
+    /**
+     * Jackson Deserializer Object
+     * */
+    private ObjectMapper mapper;
+
+    /**
+     * Jackson Deserializer Object for frames with <code>FLAG_COMPACT</code>
+     * <code>FLAG_COMPACT</code>を持つフレームのためのJacksonのオブジェクト
+     * */
+    private ObjectMapper compactMapper;
+
+    private Logger logger;
+
+    /**
+     * open the file and read the header and the index.
+     * ファイルを開いてヘッダと索引を読み込む．
+     *
+     * @param path path of the file. ファイルのパス
+     * @exception LogFileException cannot open, or the file is not a log.
+     * */
+    public ViewerLogFileReader(String path) throws LogFileException {
+        logger = Logger.getLogger(System.getProperty(ViewerManagerKeys.LOGGER, ViewerManagerKeys.DEFAULT_LOGGER));
+        if (Objects.isNull(logger)) {
+            logger = Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER);
+        }
+
+        this.path = path;
+        this.mapper = new ObjectMapper(new MessagePackFactory());
+        this.compactMapper = CompactEntityModule.createMapper();
+
+        try {
+            channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            if (channel.size() <= Integer.MAX_VALUE) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+
+            if (ViewerLogFile.isVersion2(path)) {
+                version = ViewerLogFile.VERSION_2;
+                readHeader();
+                readIndex();
+            }
+            else {
+                version = ViewerLogFile.VERSION_1;
+                readVersion1();
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            logger.warn("/log/viewer/reader: cannot read file : " + path, e);
+            throw new LogFileException(LogFileException.FAIL_READ_LOG, e.getMessage(), e);
+        } catch (LogFileException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void readHeader() throws IOException, LogFileException {
+        ByteBuffer buffer = read(0, ViewerLogFile.MAGIC.length + 8);
+        byte[] magic = new byte[ViewerLogFile.MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, ViewerLogFile.MAGIC) || buffer.getInt() != ViewerLogFile.VERSION_2) {
+            throw new LogFileException(LogFileException.FILE_IS_NOT_LOG, "not a ViewerLog of version 2: " + path);
+        }
+
+        int length = buffer.getInt();
+        header = mapper.readValue(read(ViewerLogFile.MAGIC.length + 8, length).array(), ViewerLogFileRecord.class);
+        header.log = null;
+    }
+
+    private void readIndex() throws IOException, LogFileException {
+        long size = channel.size();
+        if (size < ViewerLogFile.TRAILER_SIZE) {
+            throw new LogFileException(LogFileException.FAIL_READ_LOG, "no index found: " + path);
+        }
+
+        // Trailer: offset of index, and magic
+        ByteBuffer trailer = read(size - ViewerLogFile.TRAILER_SIZE, ViewerLogFile.TRAILER_SIZE);
+        long indexOffset = trailer.getLong();
+        byte[] magic = new byte[ViewerLogFile.INDEX_MAGIC.length];
+        trailer.get(magic);
+        if (!Arrays.equals(magic, ViewerLogFile.INDEX_MAGIC) || indexOffset < 0 || indexOffset >= size) {
+            // The writer was not closed correctly
+            throw new LogFileException(LogFileException.FAIL_READ_LOG, "no index found: " + path);
+        }
+
+        ByteBuffer buffer = read(indexOffset, (int) (size - ViewerLogFile.TRAILER_SIZE - indexOffset));
+        int count = buffer.getInt();
+        times = new int[count];
+        offsets = new long[count];
+        lengths = null;
+        kinds = new byte[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = buffer.getInt();
+            offsets[i] = buffer.getLong();
+            kinds[i] = buffer.get();
+        }
+    }
+
+    /**
+     * read the header and make the index of version 1: one msgpack map same as <code>ViewerLogFileRecord</code>.
+     *  values except <code>log</code> are copied into a small map and decoded as the header.
+     * 形式1のヘッダを読み込み，索引を作る: <code>ViewerLogFileRecord</code>と同じ1つのmsgpackのmap．
+     *  <code>log</code>以外の値は小さなmapに写してヘッダとして復元する．
+     * */
+    private void readVersion1() throws IOException, LogFileException {
+        MessageUnpacker unpacker = (mapped != null)
+                ? new MessageUnpacker(new ByteBufferInput(mapped.duplicate()))
+                : MessagePack.newDefaultUnpacker(new BufferedInputStream(new FileInputStream(path)));
+
+        List<long[]> index = new ArrayList<>();
+        ByteArrayOutputStream information = new ByteArrayOutputStream();
+        int fields = 0;
+        try {
+            int size = unpacker.unpackMapHeader();
+            for (int i = 0; i < size; i++) {
+                long begin = unpacker.getTotalReadBytes();
+                String key = unpacker.unpackString();
+                if (!key.equals("log")) {
+                    unpacker.skipValue();
+                    information.write(read(begin, (int) (unpacker.getTotalReadBytes() - begin)).array());
+                    fields++;
+                    continue;
+                }
+
+                // Log: time and offset of each record
+                int count = unpacker.unpackMapHeader();
+                for (int j = 0; j < count; j++) {
+                    int time = Integer.parseInt(unpacker.unpackString());
+                    long offset = unpacker.getTotalReadBytes();
+                    unpacker.skipValue();
+                    index.add(new long[]{time, offset, unpacker.getTotalReadBytes() - offset});
+                }
+            }
+        } catch (NumberFormatException | MessagePackException e) {
+            throw new LogFileException(LogFileException.FILE_IS_NOT_LOG, "not a ViewerLog: " + path, e);
+        } finally {
+            unpacker.close();
+        }
+
+        // Header: fields except log
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        MessagePacker packer = MessagePack.newDefaultPacker(buffer);
+        packer.packMapHeader(fields);
+        packer.flush();
+        information.writeTo(buffer);
+        header = mapper.readValue(buffer.toByteArray(), ViewerLogFileRecord.class);
+        header.log = null;
+
+        // Index sorted by time; the first record has the whole world
+        index.sort((a, b) -> Long.compare(a[0], b[0]));
+        times = new int[index.size()];
+        offsets = new long[index.size()];
+        lengths = new int[index.size()];
+        kinds = new byte[index.size()];
+        for (int i = 0; i < index.size(); i++) {
+            times[i] = (int) index.get(i)[0];
+            offsets[i] = index.get(i)[1];
+            lengths[i] = (int) index.get(i)[2];
+            kinds[i] = (i == 0) ? ViewerLogFile.FRAME_KEYFRAME : ViewerLogFile.FRAME_DELTA;
+        }
+    }
+
+    /**
+     * read <code>length</code> bytes from <code>position</code>.
+     * <code>position</code>から<code>length</code>バイト読み出す．
+     * */
+    private ByteBuffer read(long position, int length) throws IOException {
+        if (mapped != null) {
+            if (position < 0 || position + length > mapped.capacity()) {
+                throw new IOException("unexpected end of file: " + path);
+            }
+            byte[] data = new byte[length];
+            ByteBuffer view = mapped.duplicate();
+            view.position((int) position);
+            view.get(data);
+            return ByteBuffer.wrap(data);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of file: " + path);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    //-------------------------------------------------------------------------
+    /**
+     * get the header of the log; <code>log</code> is null.
+     * ログのヘッダを取得する．<code>log</code>はnull
+     * */
+    public ViewerLogFileRecord getHeader() {
+        return header;
+    }
+
+    /**
+     * get format version of the file.
+     * ファイルの形式のバージョンを取得する．
+     * */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * get count of records.
+     * レコードの数を取得する．
+     * */
+    public int size() {
+        return times.length;
+    }
+
+    /**
+     * get time of the record at <code>i</code>th.
+     * <code>i</code>番目のレコードの時間を取得する．
+     * */
+    public int getTime(int i) {
+        return times[i];
+    }
+
+    /**
+     * check is the record of the time written.
+     * その時間のレコードが書かれているか確かめる．
+     * */
+    public boolean contains(int time) {
+        return Arrays.binarySearch(times, time) >= 0;
+    }
+
+    /**
+     * read the record of the time as written; <code>world</code> is set only on keyframes.
+     * 書かれたままの時間のレコードを読み出す．<code>world</code>はキーフレームでのみ設定される．
+     *
+     * @return record, or null if not written.
+     * @exception LogFileException cannot read the file.
+     * */
+    public Record read(int time) throws LogFileException {
+        int i = Arrays.binarySearch(times, time);
+        return (i < 0) ? null : readFrame(i);
+    }
+
+    /**
+     * read the record of the time with the whole world;
+     *  the world is made from the last keyframe and following changes.
+     * World全体を持つ時間のレコードを読み出す．
+     *  Worldは直前のキーフレームとそれに続く変化から作られる．
+     *
+     * @return record, or null if not written.
+     * @exception LogFileException cannot read the file.
+     * */
+    public Record seek(int time) throws LogFileException {
+        int target = Arrays.binarySearch(times, time);
+        if (target < 0) {
+            return null;
+        }
+
+        // Find the last keyframe
+        int i = target;
+        while (i > 0 && kinds[i] != ViewerLogFile.FRAME_KEYFRAME) {
+            i--;
+        }
+
+        // World of the keyframe, and apply changes until the time
+        Record record = readFrame(i);
+        Map<Integer, Entity> world = new LinkedHashMap<>();
+        if (record.world != null) {
+            record.world.forEach(e -> world.put(e.id, e));
+        }
+        for (i = i + 1; i <= target; i++) {
+            record = readFrame(i);
+            applyChanges(world, record.changes);
+        }
+
+        record.world = new ArrayList<>(world.values());
+        return record;
+    }
+
+    /**
+     * apply changes of a record to the world.
+     * レコードの変化をWorldに適用する．
+     * */
+    public static void applyChanges(Map<Integer, Entity> world, Iterable<Entity> changes) {
+        if (changes == null) return;
+
+        for (Entity change : changes) {
+            if (Boolean.TRUE.equals(change.deleted)) {
+                world.remove(change.id);
+                continue;
+            }
+
+            Entity entity = world.get(change.id);
+            if (entity == null) {
+                entity = new Entity();
+                world.put(change.id, entity);
+            }
+            entity.update(change);
+            entity.created = null;
+        }
+    }
+
+    private Record readFrame(int i) throws LogFileException {
+        try {
+            ByteBuffer data;
+            ObjectMapper recordMapper = mapper;
+            if (lengths != null) {
+                // Version 1: msgpack value in log map
+                data = read(offsets[i], lengths[i]);
+            }
+            else {
+                ByteBuffer head = read(offsets[i], ViewerLogFile.FRAME_HEADER_SIZE);
+                int length = head.getInt();
+                head.get();
+                byte flags = head.get();
+                byte codec = (byte) (flags & ViewerLogFile.CODEC_MASK);
+                data = read(offsets[i] + ViewerLogFile.FRAME_HEADER_SIZE, length);
+                if (codec != ViewerLogFile.CODEC_NONE) {
+                    data = ByteBuffer.wrap(ViewerLogFile.decompress(data.array(), codec));
+                }
+                if ((flags & ViewerLogFile.FLAG_COMPACT) != 0) {
+                    recordMapper = compactMapper;
+                }
+            }
+            return recordMapper.readValue(data.array(), Record.class);
+        } catch (IOException e) {
+            logger.warn("/log/viewer/reader: cannot read record : " + times[i], e);
+            throw new LogFileException(LogFileException.FAIL_READ_LOG, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * close the file.
+     * ファイルを閉じる．
+     * */
+    @Override
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("/log/viewer/reader: cannot close file : " + path, e);
+            }
+            channel = null;
+        }
+        mapped = null;
+    }
+}
@@ -2,6 +2,7 @@ package viewermanager.log;
 
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import viewermanager.entity.MapInfo;
 import viewermanager.entity.Record;
 import viewermanager.entity.provider.IEntityProvider;
@@ -19,10 +20,17 @@ public class ViewerLogFileRecord {
      * format version
      * 形式のバージョン
      *
-     * @implNote currently 1
+     * @implNote 1 or 2 (keyframes and index, written by <code>ViewerLogFileWriter</code>)
      * */
     public int version;
 
+    /**
+     * interval of keyframes which have the whole world, only on version 2
+     * 全体のWorldを持つキーフレームの間隔，形式2のみ
+     * */
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    public int keyframe;
+
     /**
      * max timestep of the log
      * ログの最大ステップ数
@@ -55,6 +63,7 @@ public class ViewerLogFileRecord {
 
     public ViewerLogFileRecord() {
         version = 1;
+        keyframe = 0;
         maxTimeStep = 0;
         mapName = null;
         map = null;
@@ -146,8 +155,25 @@ public class ViewerLogFileRecord {
     public void put(Record r) {
         if(r == null) return ;
 
-        // Get Time
-        Integer time = r.time;
+        // (log list is empty) == (the first record)
+        Record record = select(r, log == null);
+        if(log == null)
+        {
+            log = new HashMap<>();
+        }
+        log.put(record.time, record);
+    }
+
+    /**
+     * create new <code>Record</code> taken only data saved on the log file.
+     *  <code>world</code> is kept only on the first record.
+     * ログファイルに保存するデータのみを取り出した<code>Record</code>を作る．
+     *  <code>world</code>は最初のレコードでのみ保持される．
+     *
+     * @param r record given by the provider. Providerから与えられたレコード
+     * @param first is the first record of the log. ログの最初のレコードか
+     * */
+    public static Record select(Record r, boolean first) {
         // Create new empty record to take data needed
         Record record = new Record();
 
@@ -158,15 +184,9 @@ public class ViewerLogFileRecord {
         record.changes = (r.changes != null && !r.changes.isEmpty()) ? r.changes : null;
         record.perceptions = (r.perceptions != null && !r.perceptions.isEmpty()) ? r.perceptions : null;
 
-        // (log list is empty) == (the first record)
-        if(log == null)
-        {
-            log = new HashMap<>();
-            record.world = r.world;
+        if (first) {
+            record.world = r.getWorld();
         }
-        log.put(time, record);
+        return record;
     }
 }
-
-
-
@@ -0,0 +1,514 @@
+package viewermanager.log;
+
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.log4j.Logger;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import viewermanager.ViewerManagerKeys;
+import viewermanager.encoder.CompactEntityModule;
+import viewermanager.entity.Record;
+import viewermanager.entity.provider.IEntityProvider;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ViewerManager's Log File Streaming Writer
+ * ViewerManagerのログファイルを逐次書き出すためのWriter
+ *
+ * Each <code>Record</code> is packed and appended to the file as soon as it is given,
+ *  so the memory used is not depend on the length of the log.
+ * On version 1, the file written is the same format as <code>ViewerLogFile.logWrite</code>.
+ * On version 2, a keyframe with the whole world is written every <code>keyframe</code> steps,
+ *  and the index of steps is written at the end, so readers can seek to any step.
+ *  Each frame can be compressed on its own with the codec, on the shared thread pool;
+ *  frames are written in the order given.
+ * Both can be read with <code>ViewerLogFile.logRead</code>.
+ *
+ * 与えられた<code>Record</code>はすぐに直列化されてファイルに追記されるため，
+ *  ログの長さに関わらずメモリ使用量は一定である．
+ * 形式1では，書き出されるファイルは<code>ViewerLogFile.logWrite</code>と同じ形式である．
+ * 形式2では，<code>keyframe</code>ステップ毎に全体のWorldを持つキーフレームを書き出し，
+ *  末尾にステップの索引を書き出すため，任意のステップに移動して読み出すことができる．
+ *  各フレームは共有のスレッドプール上でコーデックによって個別に圧縮でき，
+ *  フレームは与えられた順に書き出される．
+ * どちらも<code>ViewerLogFile.logRead</code>で読み出すことができる．
+ *
+ * Usage:
+ *  try (ViewerLogFileWriter writer = new ViewerLogFileWriter(provider, path)) {
+ *      writer.write(record);
+ *  }
+ * */
+public class ViewerLogFileWriter implements AutoCloseable {
+
+    /**
+     * MessagePack's map32 header: size of the map is patched on <code>close</code>
+     * MessagePackのmap32ヘッダ: 要素数は<code>close</code>時に書き換える
+     * */
+    private static final byte MAP32 = (byte) 0xdf;
+
+    /**
+     * Thread pool to compress frames, shared by all writers
+     * フレームを圧縮するためのスレッドプール，全てのWriterで共有する
+     * */
+    private static ExecutorService compressor;
+
+    /**
+     * max count of frames compressing at once, per writer
+     * Writer毎に同時に圧縮するフレームの最大数
+     * */
+    private static final int MAX_PENDING = Runtime.getRuntime().availableProcessors() * 2;
+
+    /**
+     * path of the file writing
+     * 書き出し先のファイルのパス
+     * */
+    private String path;
+
+    /**
+     * format version writing
+     * 書き出す形式のバージョン
+     * */
+    private int version;
+
+    /**
+     * interval of keyframes, on version 2
+     * キーフレームの間隔(形式2)
+     * */
+    private int keyframe;
+
+    /**
+     * codec to compress frames, on version 2
+     * フレームを圧縮するコーデック(形式2)
+     * */
+    private byte codec;
+
+    /**
+     * write entities by position with <code>CompactEntityModule</code>, on version 2
+     * Entityを<code>CompactEntityModule</code>で位置により書き出すか(形式2)
+     * */
+    private boolean compact;
+
+    /**
+     * frames compressing, in the order written: time, kind, and compressed data
+     * 圧縮中のフレーム(書き出す順): 時間，種類，圧縮したデータ
+     * */
+    private Deque<Frame> pending;
+
+    /**
+     * Jackson Serializer Object, used for each values
+     * 各値の直列化に使うJacksonのオブジェクト
+     * */
+    private ObjectMapper mapper;
+
+    /**
+     * Jackson Serializer Object for records, with <code>CompactEntityModule</code> if compact
+     * レコードの直列化に使うJacksonのオブジェクト，compactの場合は<code>CompactEntityModule</code>を使う
+     * */
+    private ObjectMapper recordMapper;
+
+    /**
+     * output of the file, on version 1
+     * ファイルへの出力(形式1)
+     * */
+    private MessagePacker packer;
+
+    /**
+     * file offset of the header of <code>log</code> map, on version 1
+     * <code>log</code>のmapヘッダのファイル上の位置(形式1)
+     * */
+    private long logHeaderOffset;
+
+    /**
+     * output of the file, on version 2
+     * ファイルへの出力(形式2)
+     * */
+    private DataOutputStream output;
+
+    /**
+     * bytes written, on version 2
+     * 書き出したバイト数(形式2)
+     * */
+    private long offset;
+
+    /**
+     * index of frames written: time, offset and kind, on version 2
+     * 書き出したフレームの索引: 時間，位置，種類(形式2)
+     * */
+    private List<long[]> index;
+
+    /**
+     * count of records written
+     * 書き出したレコードの数
+     * */
+    private int count;
+
+    private Logger logger;
+
+    /**
+     * create writer and write the header of log from EntityProvider's information.
+     * EntityProviderの情報からログのヘッダを書き出してWriterを作る．
+     *
+     * @param entityProvider provider of the records. レコードを提供するProvider
+     * @param filename path to write, if null, created by <code>ViewerLogFile.createLogPath</code>.
+     * @exception LogFileException cannot open or write the file.
+     * */
+    public ViewerLogFileWriter(IEntityProvider entityProvider, String filename) throws LogFileException {
+        this(new ViewerLogFileRecord(entityProvider), filename);
+    }
+
+    /**
+     * create writer and write the header of log,
+     *  in the version given by <code>ViewerManagerKeys.VIEWER_LOG_VERSION</code>.
+     *  <code>log</code> of the header is ignored.
+     * <code>ViewerManagerKeys.VIEWER_LOG_VERSION</code>で指定された形式で，ログのヘッダを書き出してWriterを作る．
+     *  ヘッダの<code>log</code>は無視される．
+     *
+     * @param header information of the log. ログの情報
+     * @param filename path to write, if null, created by <code>ViewerLogFile.createLogPath</code>.
+     * @exception LogFileException cannot open or write the file.
+     * */
+    public ViewerLogFileWriter(ViewerLogFileRecord header, String filename) throws LogFileException {
+        this(header, filename, getProperty(ViewerManagerKeys.VIEWER_LOG_VERSION, ViewerManagerKeys.VIEWER_LOG_DEFAULT_VERSION),
+                getProperty(ViewerManagerKeys.VIEWER_LOG_KEYFRAME, ViewerManagerKeys.VIEWER_LOG_DEFAULT_KEYFRAME),
+                ViewerLogFile.getCodec(System.getProperty(ViewerManagerKeys.VIEWER_LOG_CODEC, ViewerManagerKeys.VIEWER_LOG_DEFAULT_CODEC)),
+                Boolean.parseBoolean(System.getProperty(ViewerManagerKeys.VIEWER_LOG_COMPACT, ViewerManagerKeys.VIEWER_LOG_DEFAULT_COMPACT)));
+    }
+
+    /**
+     * create writer and write the header of log, without compression.
+     *  <code>log</code> of the header is ignored.
+     * 圧縮せずにログのヘッダを書き出してWriterを作る．
+     *  ヘッダの<code>log</code>は無視される．
+     *
+     * @param header information of the log. ログの情報
+     * @param filename path to write, if null, created by <code>ViewerLogFile.createLogPath</code>.
+     * @param version format version, 1 or 2. 形式のバージョン
+     * @param keyframe interval of keyframes on version 2. 形式2でのキーフレームの間隔
+     * @exception LogFileException cannot open or write the file.
+     * */
+    public ViewerLogFileWriter(ViewerLogFileRecord header, String filename, int version, int keyframe) throws LogFileException {
+        this(header, filename, version, keyframe, ViewerLogFile.CODEC_NONE, false);
+    }
+
+    /**
+     * create writer and write the header of log, with entities written by field names.
+     *  <code>log</code> of the header is ignored.
+     * Entityをフィールド名付きで書き出すように，ログのヘッダを書き出してWriterを作る．
+     *  ヘッダの<code>log</code>は無視される．
+     *
+     * @param header information of the log. ログの情報
+     * @param filename path to write, if null, created by <code>ViewerLogFile.createLogPath</code>.
+     * @param version format version, 1 or 2. 形式のバージョン
+     * @param keyframe interval of keyframes on version 2. 形式2でのキーフレームの間隔
+     * @param codec codec to compress frames on version 2, <code>ViewerLogFile.CODEC_*</code>. 形式2でフレームを圧縮するコーデック
+     * @exception LogFileException cannot open or write the file.
+     * */
+    public ViewerLogFileWriter(ViewerLogFileRecord header, String filename, int version, int keyframe, byte codec) throws LogFileException {
+        this(header, filename, version, keyframe, codec, false);
+    }
+
+    /**
+     * create writer and write the header of log.
+     *  <code>log</code> of the header is ignored.
+     * ログのヘッダを書き出してWriterを作る．
+     *  ヘッダの<code>log</code>は無視される．
+     *
+     * @param header information of the log. ログの情報
+     * @param filename path to write, if null, created by <code>ViewerLogFile.createLogPath</code>.
+     * @param version format version, 1 or 2. 形式のバージョン
+     * @param keyframe interval of keyframes on version 2. 形式2でのキーフレームの間隔
+     * @param codec codec to compress frames on version 2, <code>ViewerLogFile.CODEC_*</code>. 形式2でフレームを圧縮するコーデック
+     * @param compact write entities by position on version 2, see <code>CompactEntityModule</code>. 形式2でEntityを位置により書き出すか
+     * @exception LogFileException cannot open or write the file.
+     * */
+    public ViewerLogFileWriter(ViewerLogFileRecord header, String filename, int version, int keyframe, byte codec, boolean compact) throws LogFileException {
+        logger = Logger.getLogger(System.getProperty(ViewerManagerKeys.LOGGER, ViewerManagerKeys.DEFAULT_LOGGER));
+        if (Objects.isNull(logger)) {
+            logger = Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER);
+        }
+
+        path = (filename != null) ? filename : ViewerLogFile.createLogPath(header.mapName);
+        if (path == null) {
+            throw new LogFileException(LogFileException.FAIL_OPEN, "cannot create path of the log");
+        }
+
+        this.version = (version == ViewerLogFile.VERSION_2) ? ViewerLogFile.VERSION_2 : ViewerLogFile.VERSION_1;
+        this.keyframe = Math.max(1, keyframe);
+        this.codec = (this.version == ViewerLogFile.VERSION_2) ? codec : ViewerLogFile.CODEC_NONE;
+        if (codec != ViewerLogFile.CODEC_NONE && this.version != ViewerLogFile.VERSION_2) {
+            logger.warn("/log/viewer/writer: compression is available only on version 2, written without compression : " + path);
+        }
+        this.compact = compact && this.version == ViewerLogFile.VERSION_2;
+        mapper = new ObjectMapper(new MessagePackFactory());
+        recordMapper = (this.compact) ? CompactEntityModule.createMapper() : mapper;
+        count = 0;
+
+        try {
+            if (this.version == ViewerLogFile.VERSION_2) {
+                openVersion2(header);
+            }
+            else {
+                openVersion1(header);
+            }
+        } catch (IOException e) {
+            logger.warn("/log/viewer/writer: cannot open file : " + path, e);
+            throw new LogFileException(LogFileException.FAIL_OPEN, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * get the thread pool to compress frames; daemon threads, created at the first use.
+     * フレームを圧縮するスレッドプールを取得する．デーモンスレッドで，最初に使うときに作る．
+     * */
+    private static synchronized ExecutorService getCompressor() {
+        if (compressor == null) {
+            compressor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                Thread thread = new Thread(r, "ViewerLogFileWriter-compressor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return compressor;
+    }
+
+    private static int getProperty(String key, String defaultValue) {
+        try {
+            return Integer.parseInt(System.getProperty(key, defaultValue));
+        } catch (NumberFormatException e) {
+            return Integer.parseInt(defaultValue);
+        }
+    }
+
+    private void openVersion1(ViewerLogFileRecord header) throws IOException {
+        packer = MessagePack.newDefaultPacker(new BufferedOutputStream(new FileOutputStream(path)));
+
+        // Header: same fields of ViewerLogFileRecord
+        packer.packMapHeader(6);
+        packer.packString("version");
+        packer.packInt(ViewerLogFile.VERSION_1);
+        packer.packString("maxTimeStep");
+        packer.packInt(header.maxTimeStep);
+        packer.packString("mapName");
+        packer.writePayload(mapper.writeValueAsBytes(header.mapName));
+        packer.packString("map");
+        packer.writePayload(mapper.writeValueAsBytes(header.map));
+        packer.packString("config");
+        packer.writePayload(mapper.writeValueAsBytes(header.config));
+
+        // Log: count of records is not known yet, so reserve map32 header
+        packer.packString("log");
+        logHeaderOffset = packer.getTotalWrittenBytes();
+        packer.writePayload(new byte[]{MAP32, 0, 0, 0, 0});
+    }
+
+    private void openVersion2(ViewerLogFileRecord header) throws IOException {
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+        index = new ArrayList<>();
+        pending = new ArrayDeque<>();
+
+        // Header: ViewerLogFileRecord without log
+        ViewerLogFileRecord information = new ViewerLogFileRecord();
+        information.version = ViewerLogFile.VERSION_2;
+        information.keyframe = keyframe;
+        information.maxTimeStep = header.maxTimeStep;
+        information.mapName = header.mapName;
+        information.map = header.map;
+        information.config = header.config;
+        byte[] data = mapper.writeValueAsBytes(information);
+
+        output.write(ViewerLogFile.MAGIC);
+        output.writeInt(ViewerLogFile.VERSION_2);
+        output.writeInt(data.length);
+        output.write(data);
+        offset = ViewerLogFile.MAGIC.length + 8 + data.length;
+    }
+
+    /**
+     * append <code>Record</code> to the file.
+     *  data are selected same as <code>ViewerLogFileRecord.put</code>,
+     *  and the whole world is kept on keyframes of version 2.
+     * <code>Record</code>をファイルに追記する．
+     *  保存されるデータは<code>ViewerLogFileRecord.put</code>と同じものを選ぶ．
+     *  形式2のキーフレームではWorld全体を保持する．
+     *
+     * @param r record to write. 書き出すレコード
+     * @exception LogFileException cannot write the file.
+     * */
+    public void write(Record r) throws LogFileException {
+        if (r == null) return;
+
+        // (no record written) == (the first record)
+        boolean isKeyframe = (version == ViewerLogFile.VERSION_2) ? (count % keyframe == 0) : (count == 0);
+        Record record = ViewerLogFileRecord.select(r, isKeyframe);
+        try {
+            if (version == ViewerLogFile.VERSION_2) {
+                // Pack here, the record may be changed after return
+                byte kind = (isKeyframe) ? ViewerLogFile.FRAME_KEYFRAME : ViewerLogFile.FRAME_DELTA;
+                byte[] data = recordMapper.writeValueAsBytes(record);
+                if (codec == ViewerLogFile.CODEC_NONE) {
+                    writeFrame(record.time, kind, data);
+                }
+                else {
+                    Frame frame = new Frame(record.time, kind, getCompressor().submit(() -> ViewerLogFile.compress(data, codec)));
+                    pending.addLast(frame);
+                    flushFrames(pending.size() >= MAX_PENDING);
+                }
+            }
+            else {
+                packer.packString(String.valueOf(record.time));
+                packer.writePayload(mapper.writeValueAsBytes(record));
+            }
+            count++;
+        } catch (IOException e) {
+            logger.warn("/log/viewer/writer: cannot write record : " + record.time, e);
+            throw new LogFileException(LogFileException.FAIL_OPEN, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * write frames compressed, in order.
+     * 圧縮が終わったフレームを順に書き出す．
+     *
+     * @param wait wait for the first frame, if true. Trueの場合は先頭のフレームを待つ
+     * */
+    private void flushFrames(boolean wait) throws IOException {
+        while (!pending.isEmpty() && (wait || pending.peekFirst().data.isDone())) {
+            Frame frame = pending.pollFirst();
+            try {
+                writeFrame(frame.time, frame.kind, frame.data.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while compressing : " + frame.time, e);
+            } catch (ExecutionException e) {
+                throw new IOException("cannot compress : " + frame.time, e.getCause());
+            }
+            wait = false;
+        }
+    }
+
+    private void writeFrame(int time, byte kind, byte[] data) throws IOException {
+        index.add(new long[]{time, offset, kind});
+
+        output.writeInt(data.length);
+        output.writeByte(kind);
+        output.writeByte(codec | ((compact) ? ViewerLogFile.FLAG_COMPACT : 0));
+        output.writeInt(time);
+        output.write(data);
+        offset += ViewerLogFile.FRAME_HEADER_SIZE + data.length;
+    }
+
+    /**
+     * get path of the file writing.
+     * 書き出し先のファイルのパスを取得する．
+     * */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * get format version writing.
+     * 書き出す形式のバージョンを取得する．
+     * */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * get codec to compress frames.
+     * フレームを圧縮するコーデックを取得する．
+     * */
+    public byte getCodec() {
+        return codec;
+    }
+
+    /**
+     * check are entities written by position.
+     * Entityを位置により書き出しているか確かめる．
+     * */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * get count of records written.
+     * 書き出したレコードの数を取得する．
+     * */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * flush and close the file, and fix the count of records (version 1) or write the index (version 2).
+     * ファイルを閉じて，レコードの数を確定させる(形式1)，または索引を書き出す(形式2)．
+     *
+     * @exception LogFileException cannot write the file.
+     * */
+    @Override
+    public void close() throws LogFileException {
+        try {
+            if (output != null) {
+                // Frames still compressing
+                while (!pending.isEmpty()) {
+                    flushFrames(true);
+                }
+
+                // Index of frames, and the offset of index
+                output.writeInt(index.size());
+                for (long[] entry : index) {
+                    output.writeInt((int) entry[0]);
+                    output.writeLong(entry[1]);
+                    output.writeByte((int) entry[2]);
+                }
+                output.writeLong(offset);
+                output.write(ViewerLogFile.INDEX_MAGIC);
+                output.close();
+                output = null;
+            }
+
+            if (packer != null) {
+                packer.close();
+                packer = null;
+
+                // Patch the map32 header of log
+                try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+                    file.seek(logHeaderOffset + 1);
+                    file.writeInt(count);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("/log/viewer/writer: cannot close file : " + path, e);
+            throw new LogFileException(LogFileException.FAIL_OPEN, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * frame compressing
+     * 圧縮中のフレーム
+     * */
+    private static class Frame {
+        final int time;
+        final byte kind;
+        final Future<byte[]> data;
+
+        Frame(int time, byte kind, Future<byte[]> data) {
+            this.time = time;
+            this.kind = kind;
+            this.data = data;
+        }
+    }
+}
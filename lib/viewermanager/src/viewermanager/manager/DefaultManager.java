@@ -4,20 +4,53 @@ import org.apache.log4j.Logger;
 import viewermanager.ViewerManagerKeys;
 import viewermanager.encoder.EncodeException;
 import viewermanager.encoder.MsgPackEncoder;
+import viewermanager.entity.MapInfo;
 import viewermanager.entity.Record;
 import viewermanager.entity.provider.*;
 import viewermanager.log.LogFileDirectory;
 import viewermanager.log.LogFileException;
 import viewermanager.recorder.DefaultRecorder;
+import viewermanager.recorder.EncodingPipeline;
+import viewermanager.recorder.MappedRecorder;
+import viewermanager.recorder.RecordSource;
 import viewermanager.recorder.Recorder;
+import viewermanager.recorder.RecorderCache;
+import viewermanager.recorder.WorldSnapshot;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 
+/**
+ * DefaultManager - Manager of Providers, Recorders and Viewers
+ * Provider, Recorder, Viewerを管理するManager
+ *
+ * The state is kept in concurrent maps, and each object is locked by itself:
+ *  a <code>ViewerState</code> while a request of the Viewer updates it,
+ *  a Provider while the main loop records it or it is closed.
+ *  So the requests of Viewers do not wait for the main loop encoding records.
+ * The main loop parks until a Provider notifies records arrived, or <code>ViewerManagerKeys.MANAGER_IDLE_TIME</code> passes.
+ * Records are encoded on the workers of <code>EncodingPipeline</code>, so a Provider of big steps does not delay the others.
+ *
+ * 状態は並行なmapに保持し，それぞれのオブジェクトはそれ自身でロックする:
+ *  <code>ViewerState</code>はViewerの要求が更新する間，Providerはメインループが記録する間または閉じられる間．
+ *  そのため，Viewerの要求はメインループがレコードを符号化するのを待たない．
+ * メインループはProviderがレコードの到着を通知するか，<code>ViewerManagerKeys.MANAGER_IDLE_TIME</code>が経過するまで待機する．
+ * レコードは<code>EncodingPipeline</code>のワーカーで符号化するため，大きなステップのProviderが他を遅らせない．
+ * */
 public class DefaultManager implements Manager {
 
     /**
@@ -32,6 +65,39 @@ public class DefaultManager implements Manager {
      * */
     Map<Integer, Recorder> viewerRecorders;
 
+    /**
+     * budget of records on the heap, evicts records of Recorders
+     * ヒープ上のレコードの予算，Recorderのレコードを追い出す
+     * */
+    RecorderCache recorderCache;
+
+    /**
+     * results of records requested, shared by Viewers requesting the same window; charged to <code>recorderCache</code>
+     * 要求されたレコードの結果，同じ範囲を要求するViewerで共有する．<code>recorderCache</code>に計上する
+     * */
+    RecordBatchCache recordBatches;
+
+    /**
+     * provider's id => world made from records, for Viewers joined on the way; charged to <code>recorderCache</code>
+     * レコードから作るワールドを保持，途中から参加したViewerのため，ProviderIdで検索．<code>recorderCache</code>に計上する
+     * */
+    Map<Integer, WorldSnapshot> recorderSnapshots;
+
+    /**
+     * provider's id => lane to encode records on workers, and append them to the recorder
+     * ワーカーでレコードを符号化しRecorderへ追加するためのレーンを保持，ProviderIdで検索
+     * */
+    EncodingPipeline pipeline;
+    Map<Integer, EncodingPipeline.Lane> recorderLanes;
+
+    /**
+     * provider's id => record taken but not submitted, as the lane is full.
+     *  Checking a Provider may read the next record, like <code>RRSLogReader</code>, so a record taken is kept until submitted.
+     * 取得したがレーンに空きがなく投入していないレコードを保持，ProviderIdで検索．
+     *  <code>RRSLogReader</code>のように確認で次のレコードを読むProviderがあるため，取得したレコードは投入するまで保持する．
+     * */
+    Map<Integer, Record> pendingRecords;
+
     /**
      * provider's list
      * Providerを保持,ProviderIdで検索
@@ -57,11 +123,36 @@ public class DefaultManager implements Manager {
      * */
     Map<Integer, Integer> providerChain;
 
+    /**
+     * provider's id => push channels of records
+     * レコードの送信経路を保持，ProviderIdで検索
+     * */
+    Map<Integer, List<RecordStream>> recordStreams;
+
+    /**
+     * requests waiting for records, and the thread to time them out
+     * レコードを待っている要求と，それらをタイムアウトさせるスレッド
+     * */
+    Set<RecordWait> recordWaits;
+    ScheduledExecutorService waitExecutor;
+
+    /**
+     * threads to respond requests waited, when no executor is given; responses may block on slow Viewers, so not on the timer
+     * 待った要求に返答するスレッド，executorが与えられない場合に使う．返答は遅いViewerで止まりうるため，タイマーでは行わない
+     * */
+    ExecutorService respondExecutor;
+
+    /**
+     * max time to wait for records (milliseconds)
+     * レコードを待つ最長の時間(ミリ秒)
+     * */
+    long maxWaitTime;
+
     /**
      * status of Server, 0==Initial, 1==Running, 2==Ending, 3==End
      * 現在のManagerの状態
      * */
-    Integer serverState;
+    volatile int serverState;
     public static final int STATE_INITIAL = 0; /// Initial, Not Running. 初期化後で動いていない
     public static final int STATE_RUNNING = 1; /// Working also Running. 仕事中で動いている
     public static final int STATE_ENDING = 2;  /// Ending, but Running.  終了中で動いている
@@ -77,7 +168,26 @@ public class DefaultManager implements Manager {
      * current number of Providers
      * 現在，割り当てた最後のProviderId
      * */
-    int numProvider;
+    AtomicInteger numProvider;
+
+    /**
+     * current number of Viewers
+     * 現在，割り当てた最後のViewerId
+     * */
+    AtomicInteger numViewer;
+
+    /**
+     * signal to wake up the main loop, and is it signaled
+     * メインループを起こすためのシグナルと，シグナルされたか
+     * */
+    private final Object signal = new Object();
+    private boolean signaled;
+
+    /**
+     * max time to park the main loop without signal (milliseconds)
+     * シグナルなしでメインループが待機する最長の時間(ミリ秒)
+     * */
+    long idleTime;
 
     Logger logger;
     public Logger getLogger() {
@@ -94,13 +204,54 @@ public class DefaultManager implements Manager {
             logger = Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER);
         }
 
-        viewerStates = new HashMap<>();
-        viewerRecorders = new HashMap<>();
-        providers = new HashMap<>();
-        providerChain = new HashMap<>();
+        viewerStates = new ConcurrentHashMap<>();
+        viewerRecorders = new ConcurrentHashMap<>();
+        recorderCache = new RecorderCache();
+        recordBatches = new RecordBatchCache();
+        recorderCache.addCache(recordBatches);
+        recorderSnapshots = new ConcurrentHashMap<>();
+        recorderCache.addCache(new RecorderCache.ChargedCache() {
+            @Override
+            public long getBytes() {
+                long bytes = 0;
+                for (WorldSnapshot snapshot : recorderSnapshots.values()) {
+                    bytes += snapshot.getBytes();
+                }
+                return bytes;
+            }
+
+            @Override
+            public long invalidate(int providerId) {
+                return removeSnapshot(providerId);
+            }
+        });
+        pipeline = new EncodingPipeline(this::wakeup);
+        recorderLanes = new ConcurrentHashMap<>();
+        pendingRecords = new ConcurrentHashMap<>();
+        providers = new ConcurrentHashMap<>();
+        providerChain = new ConcurrentHashMap<>();
+        recordStreams = new ConcurrentHashMap<>();
+        recordWaits = ConcurrentHashMap.newKeySet();
+        waitExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "record-wait");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Responses wait on the network, so threads are not bounded by processors
+        respondExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "record-respond");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maxWaitTime = Long.parseLong(System.getProperty(ViewerManagerKeys.RECORD_WAIT_MAX,
+                ViewerManagerKeys.RECORD_WAIT_DEFAULT_MAX));
         logFileDirectory = new LogFileDirectory();
         serverState = STATE_INITIAL;
-        numProvider = 0;
+        numProvider = new AtomicInteger(0);
+        numViewer = new AtomicInteger(0);
+        signaled = false;
+        idleTime = Long.parseLong(System.getProperty(ViewerManagerKeys.MANAGER_IDLE_TIME,
+                ViewerManagerKeys.MANAGER_IDLE_DEFAULT_TIME));
     }
 
     /*+++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++*/
@@ -127,18 +278,15 @@ public class DefaultManager implements Manager {
 
         ServerResponse response;
 
-        /* Get Information to create response */
-        ViewerState viewerState = null;
-        synchronized (this) {
-            /* Check Viewer Available */
-            if (!viewerStates.containsKey(viewerId)) {
-                logger.info("/manager/request/record: Record Requested form Unknown Viewer " + viewerId);
-                return new ServerResponse(ServerResponse.STATUS_BADREQ, "Unknown Viewer : {\"viewerId\": " + viewerId + "}");
-            }
-
-            /* Get Viewer Session */
-            viewerState = viewerStates.get(viewerId);
+        /* Get Viewer Session */
+        ViewerState viewerState = viewerStates.get(viewerId);
+        if (viewerState == null) {
+            logger.info("/manager/request/record: Record Requested form Unknown Viewer " + viewerId);
+            return new ServerResponse(ServerResponse.STATUS_BADREQ, "Unknown Viewer : {\"viewerId\": " + viewerId + "}");
+        }
 
+        /* Get Information to create response, only this Viewer is locked */
+        synchronized (viewerState) {
             /* Check is the Session Status */
             if (viewerState.getStatus().equals(ViewerState.STATUS_DISCONNECTED)
                      || viewerState.getStatus().equals(ViewerState.STATUS_RECONNECTED))
@@ -165,24 +313,66 @@ public class DefaultManager implements Manager {
                 return new ServerResponse(ServerResponse.STATUS_OK);
             }
 
+            /* Joined on the way: one record of the whole world on the latest step, and records after it on next requests */
+            int providerId = viewerState.getProviderId();
+            DefaultResponse.RecordResult result = null;
+            int lastTime = 0;
+            if (request.isSnapshot()) {
+                int latest = recorder.size() - 1;
+                try {
+                    ByteBuffer snapshot = recorderSnapshots.computeIfAbsent(providerId, id -> createSnapshot(id, recorder))
+                            .create(latest);
+                    if (snapshot != null) {
+                        result = new DefaultResponse.RecordResult(Collections.singletonList(snapshot));
+                        lastTime = latest + 1;
+                        logger.info("/manager/request/record: Viewer " + viewerId + " joined with snapshot on " + latest);
+                    }
+                } catch (EncodeException e) {
+                    logger.warn("/manager/request/record: cannot create snapshot, records are sent from the first", e);
+                }
+            }
+
             /* Get Records */
             int time = (request.getTime() != null) ? request.getTime() : viewerState.timeStep;
             int count = (request.getCount() != null) ? request.getCount() : recorder.size();
 
-            if (time < 0 || time > recorder.size()) { /* not valid time from */
+            if (result != null) {
+                /* snapshot created */
+            }
+            else if (time < 0 || time > recorder.size()) { /* not valid time from */
                 return new ServerResponse(ServerResponse.STATUS_OK, "No Records Available");
             }
+            else if (request.getTime() != null && viewerState.getStatus().equals(ViewerState.STATUS_CONNECTED)
+                    && time < recorder.size() && recorder.getKeyframeIndex(time) < time) {
+                /* joined on the way: start from the keyframe, so the Viewer has the whole world */
+                int keyframe = recorder.getKeyframeIndex(time);
+                logger.info("/manager/request/record: Viewer " + viewerId + " joined on " + time + ", from keyframe " + keyframe);
+                count += time - keyframe;
+                time = keyframe;
+            }
             else if (time == recorder.size()) {
                 logger.info("/manager/request/record: required timeStep is the last of Records");
                 return new ServerResponse(ServerResponse.STATUS_OK);
             }
 
-            List<ByteBuffer> records = new ArrayList<>();
-            for (int i=0; i<count; i++) {
-                ByteBuffer record = recorder.getRecord(time+i);
-                if (record == null) { break; }
-                records.add(record);
+            /* Windows all recorded never change, so the result is shared */
+            boolean recorded = count > 0 && time + count <= recorder.size();
+            if (result == null) {
+                result = (recorded) ? recordBatches.get(providerId, time, count) : null;
             }
+            if (result == null) {
+                List<ByteBuffer> records = new ArrayList<>();
+                for (int i=0; i<count; i++) {
+                    ByteBuffer record = recorder.getRecord(time+i);
+                    if (record == null) { break; }
+                    records.add(record);
+                }
+                result = new DefaultResponse.RecordResult(records);
+                if (recorded && records.size() == count) {
+                    recordBatches.put(providerId, time, count, result);
+                }
+            }
+            int size = result.record.length;
             /* Update request timeStamp */
             viewerState.setTimeStamp(request.timeStamp);
 
@@ -193,7 +383,9 @@ public class DefaultManager implements Manager {
             IEntityProvider provider = providers.get(viewerState.getProviderId());
 
             // Save State of Records
-            int lastTime = viewerState.getTimeStep() + records.size(); // latestTime = current_time + actual_count
+            if (lastTime == 0) {
+                lastTime = viewerState.getTimeStep() + size; // latestTime = current_time + actual_count
+            }
             viewerState.setTimeStep(lastTime);
 
             // If switch Provide Finished of last data
@@ -215,16 +407,146 @@ public class DefaultManager implements Manager {
             }
 
             viewerStates.put(viewerState.getViewerId(), viewerState);
-            response = new ServerResponse(ServerResponse.STATUS_OK,
-                    new DefaultResponse.RecordResult(records));
+            response = new ServerResponse(ServerResponse.STATUS_OK, result);
 
-            logger.info("/manager/get/records: Viewer " + viewerId + ", get records "  + records.size());
+            logger.info("/manager/get/records: Viewer " + viewerId + ", get records "  + size);
             logger.debug("> " + formatViewer(viewerState));
-        } // :end of synchronized
+        } // :end of synchronized viewerState
 
         return response;
     }
 
+    /**
+     * Wait for records requested by the Viewer, not recorded yet.
+     * {@code task} is run once on other thread, when the first record requested is recorded or {@code timeout} passed;
+     *  then it requests records again with {@code requestRecords}.
+     *  The timeout is up to <code>ViewerManagerKeys.RECORD_WAIT_MAX</code>.
+     *
+     * Viewerが要求した，まだ記録されていないレコードを待つ．
+     * 要求した最初のレコードが記録されたとき，または{@code timeout}が経過したときに{@code task}を別のスレッドで一度だけ実行する．
+     *  その後に{@code requestRecords}で再び要求する．
+     *  タイムアウトは最長で<code>ViewerManagerKeys.RECORD_WAIT_MAX</code>となる．
+     *
+     * @param request Request from Viewer. Viewerからの要求.
+     * @param timeout max time to wait (milliseconds). 待つ最長の時間(ミリ秒).
+     * @param executor runs {@code task}, as the worker pool of the server; or null to run on threads of the Manager.
+     *  {@code task}を実行する，サーバのワーカーのプールなど．nullの場合はManagerのスレッドで実行する.
+     * @param task run when records are recorded, or timed out. レコードが記録されたとき，またはタイムアウトしたときに実行する.
+     * @return false if not to wait, records are available or the request cannot wait; {@code task} is not run.
+     *  待たない場合(レコードがある，または待てない要求)はfalse，{@code task}は実行されない.
+     */
+    @Override
+    public boolean awaitRecords(ServerRequest request, long timeout, Executor executor, Runnable task) {
+        int viewerId = (request.getViewerId() != null) ? request.getViewerId() : Integer.MAX_VALUE;
+        ViewerState viewerState = viewerStates.get(viewerId);
+        if (viewerState == null || timeout <= 0 || serverState == STATE_ENDED) {
+            return false;
+        }
+
+        /* The first record requested, same as requestRecords */
+        int providerId;
+        int time;
+        synchronized (viewerState) {
+            providerId = viewerState.getProviderId();
+            if (viewerState.getStatus().equals(ViewerState.STATUS_DISCONNECTED)
+                    || viewerState.getStatus().equals(ViewerState.STATUS_RECONNECTED)
+                    || (providers.get(providerId) == null && viewerRecorders.get(providerId) == null)) {
+                return false;
+            }
+            time = (request.isSnapshot()) ? 0 : (request.getTime() != null) ? request.getTime() : viewerState.timeStep;
+        }
+
+        RecordWait wait = new RecordWait(providerId, time, task, (executor != null) ? executor : respondExecutor, recordWaits);
+        recordWaits.add(wait);
+        // The main loop may create the recorder at the same time; attach is done only once
+        Recorder recorder = viewerRecorders.get(providerId);
+        if (recorder != null) {
+            wait.attach(recorder);
+        }
+        if (wait.isAvailable() || serverState == STATE_ENDED) {
+            // Recorded before listened, or stopped
+            return !wait.cancel();
+        }
+        try {
+            wait.setTimeout(waitExecutor.schedule(wait::finish, Math.min(timeout, maxWaitTime), TimeUnit.MILLISECONDS));
+        } catch (RejectedExecutionException e) {
+            return !wait.cancel();
+        }
+        logger.debug("/manager/request/record: Viewer " + viewerId + " waits for record " + time);
+        return true;
+    }
+
+    /**
+     * Open the push channel of records for the Viewer.
+     * Records of the connected Provider are written to {@code sink} from {@code time} as soon as they are recorded,
+     *  after {@code RecordStream.start} is called.
+     *
+     * Viewerへのレコードの送信経路を開く．
+     * {@code RecordStream.start}が呼ばれた後，接続されたProviderのレコードを記録され次第{@code time}から{@code sink}へ書き込む．
+     *
+     * @param viewerId ID of the Viewer. ViewerのID.
+     * @param time index of the first record, or null to continue from the Viewer's time. 最初のレコードの番号，nullの場合はViewerの続きから.
+     * @param sink destination of records. レコードの出力先.
+     * @return {@code ServerResponse} contains {@code RecordStream} opened if OK. OKの場合は開かれた{@code RecordStream}を含む{@code ServerResponse}.
+     */
+    @Override
+    public ServerResponse requestRecordStream(int viewerId, Integer time, RecordSink sink)
+    {
+        /* Check Viewer Available */
+        ViewerState viewerState = viewerStates.get(viewerId);
+        if (viewerState == null) {
+            logger.info("/manager/request/stream: Stream Requested form Unknown Viewer " + viewerId);
+            return new ServerResponse(ServerResponse.STATUS_BADREQ, "Unknown Viewer : {\"viewerId\": " + viewerId + "}");
+        }
+
+        RecordStream stream;
+        synchronized (viewerState) {
+
+            /* Check Connection */
+            int providerId = viewerState.getProviderId();
+            IEntityProvider provider = providers.get(providerId);
+            Recorder recorder = viewerRecorders.get(providerId);
+            if (!viewerState.isConnected() || (provider == null && recorder == null)) {
+                logger.info("/manager/request/stream: Stream Requested from Viewer " + viewerId + " has not connected");
+                return new ServerResponse(ServerResponse.STATUS_BADREQ, "not connected");
+            }
+
+            /* Open Stream, records are written after started */
+            stream = new RecordStream(viewerId, providerId, (time != null) ? time : viewerState.getTimeStep(), sink);
+            List<RecordStream> streams = recordStreams.computeIfAbsent(providerId, k -> new CopyOnWriteArrayList<>());
+            streams.removeIf(RecordStream::isClosed);
+            streams.add(stream);
+            // The main loop may create the recorder at the same time; attach is done only once
+            recorder = viewerRecorders.get(providerId);
+            if (recorder != null) {
+                stream.attach(recorder);
+            }
+            if (provider == null || provider.isClosed()) {
+                // Providing already finished
+                stream.end();
+            }
+            viewerState.setStatus(ViewerState.STATUS_SENDING);
+            logger.info("/manager/request/stream: Viewer " + viewerId + " stream opened to Provider " + providerId);
+        }
+
+        return new ServerResponse(ServerResponse.STATUS_OK, stream);
+    }
+
+    /**
+     * close push channels of the Viewer.
+     * Viewerの送信経路を閉じる．
+     * */
+    private void closeRecordStreams(int viewerId) {
+        for (List<RecordStream> streams : recordStreams.values()) {
+            for (RecordStream stream : streams) {
+                if (stream.getViewerId() == viewerId) {
+                    stream.close();
+                }
+            }
+            streams.removeIf(RecordStream::isClosed);
+        }
+    }
+
     /*+++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++*/
     // Viewer Open
     // Viewerの新規追加についての処理
@@ -249,11 +571,11 @@ public class DefaultManager implements Manager {
     public ServerResponse requestOpenViewer(boolean manual)
     {
         // create new state
-        int id = viewerStates.size();
+        int id = numViewer.getAndIncrement();
         ViewerState state = new ViewerState(id);
 
         String msg = "/manager/viewer/open: Viewer Arrived (" + id + ")";
-        synchronized (this) {
+        synchronized (state) {
             // Connect with assign
             if (!manual) {
                 // Search Online Processing Provider
@@ -289,6 +611,24 @@ public class DefaultManager implements Manager {
     // Provider Control
     // Providerの操作に関する処理
     /*+++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++*/
+    /**
+     * Register the Provider opened, assign providerId, and wake up the main loop to record it.
+     *
+     * 開かれたProviderを登録してProviderIdを割り当て，記録するためにメインループを起こす．
+     *
+     * @param provider Provider opened. 開かれたProvider.
+     * @return providerId assigned. 割り当てられたProviderId.
+     * */
+    public int registerProvider(IEntityProvider provider) {
+        provider.setID(numProvider.getAndIncrement());
+        provider.setListener(updated -> wakeup());
+        providers.put(provider.getID(), provider);
+
+        // Records may have arrived before the listener set
+        wakeup();
+        return provider.getID();
+    }
+
     /**
      * Open new Provider and connect to Kernel.
      * If the {@code port} is {@code null}, use default port (may be 7000).
@@ -324,13 +664,7 @@ public class DefaultManager implements Manager {
                 provider.connect(host, port, reconnect);
 
                 // Resister Provider to List
-                int id = 0;
-                synchronized (this) {
-                    id = numProvider;
-                    provider.setID(id);
-                    providers.put(provider.getID(), provider);
-                    numProvider ++;
-                }
+                registerProvider(provider);
 
                 // Create Response
                 Object res = new DefaultResponse.OnlineProviderResult(provider);
@@ -374,18 +708,13 @@ public class DefaultManager implements Manager {
     @Override
     public ServerResponse requestCloseProvider(int providerId) {
         // Operate Close Provider
-        IEntityProvider provider = null;
-        synchronized (this) {
-            // Get Pull Provider
-            if (providers.containsKey(providerId)) {
-                provider = providers.get(providerId);
-                if (provider != null) {
-                    if (providerChain.containsKey(providerId)) {
-                        providerChain.remove(providerId);
-                    }
-                    provider.shutdown();
-                }
-                providers.remove(providerId);
+        // Get Pull Provider
+        IEntityProvider provider = providers.remove(providerId);
+        if (provider != null) {
+            providerChain.remove(providerId);
+            // wait for the main loop recording this provider
+            synchronized (provider) {
+                provider.shutdown();
             }
         }
 
@@ -460,13 +789,7 @@ public class DefaultManager implements Manager {
                     logProvider.open(path);
 
                     // set provider id and register to list
-                    int id = 0;
-                    synchronized (this) {
-                        id = numProvider;
-                        logProvider.setID(id);
-                        providers.put(id, logProvider);
-                        numProvider++;
-                    }
+                    registerProvider(logProvider);
 
                     // Create Response
                     Object data = DefaultResponse.getProviderResult(logProvider);
@@ -556,40 +879,26 @@ public class DefaultManager implements Manager {
         // Request Make Connection
 
         // Get ViewerState
-        ViewerState viewerState = null;
-        IEntityProvider provider = null;
-        Recorder recorder = null;
+        ViewerState viewerState = viewerStates.get(viewerId);
+        IEntityProvider provider = providers.get(providerId);
+        Recorder recorder = viewerRecorders.get(providerId);
         ServerResponse response;
-        synchronized (this) {
-            // Get ViewerState from list
-            if (viewerStates.containsKey(viewerId)) {
-                // get viewer state
-                viewerState = viewerStates.get(viewerId);
-            }
-            if (providers.containsKey(providerId)) {
-                // get provider
-                provider = providers.get(providerId);
-            }
-            if (viewerRecorders.containsKey(providerId)) {
-                // get provider recorder
-                recorder = viewerRecorders.get(providerId);
-            }
-
 
-            // Check viewer and provider available
-            if (viewerState == null) {
-                // Viewer is not available
-                logger.warn("/manager/connection/open: requested viewer is not available");
-                response = new ServerResponse(ServerResponse.STATUS_BADREQ
-                        , "Viewer is not available");
-            }
-            else if (provider == null && recorder == null) {
-                // Provider is not available
-                logger.warn("/manager/connection/open: requested provider is not available");
-                response = new ServerResponse(ServerResponse.STATUS_BADREQ
-                        , "Provider is not available");
-            }
-            else {
+        // Check viewer and provider available
+        if (viewerState == null) {
+            // Viewer is not available
+            logger.warn("/manager/connection/open: requested viewer is not available");
+            response = new ServerResponse(ServerResponse.STATUS_BADREQ
+                    , "Viewer is not available");
+        }
+        else if (provider == null && recorder == null) {
+            // Provider is not available
+            logger.warn("/manager/connection/open: requested provider is not available");
+            response = new ServerResponse(ServerResponse.STATUS_BADREQ
+                    , "Provider is not available");
+        }
+        else {
+            synchronized (viewerState) {
                 if (viewerState.getProviderId() == providerId) {
                     logger.warn("/manager/connection/open: requested connection is already satisfied");
                     response = new ServerResponse(ServerResponse.STATUS_OK);
@@ -600,8 +909,9 @@ public class DefaultManager implements Manager {
                         logger.warn("/manager/connection/open: requested connection with disconnection"
                                 + String.format("{viewerId: %d, providerId: %d}", viewerState.getViewerId(), viewerState.getProviderId()));
                     }
-                    // Connect to
+                    // Connect to, and close streams of the last provider
                     // Register
+                    closeRecordStreams(viewerId);
                     viewerState.connectProvider(providerId);
                     viewerStates.put(viewerState.getViewerId(), viewerState);
                     logger.info(String.format("/manager/connection/open:" +
@@ -614,8 +924,8 @@ public class DefaultManager implements Manager {
                             .setViewerId(viewerId);
                     response = new ServerResponse(ServerResponse.STATUS_OK, res);
                 } // :providerId > 0
-            }
-        } // :end of synchronized
+            } // :end of synchronized viewerState
+        }
 
         return response;
     }
@@ -632,15 +942,15 @@ public class DefaultManager implements Manager {
     @Override
     public ServerResponse requestDisconnect(int viewerId) {
         ServerResponse response;
-        ViewerState viewerState = null;
+        ViewerState viewerState = viewerStates.get(viewerId);
         Integer providerId = null;
 
-        synchronized (this) {
-            if (viewerStates.containsKey(viewerId)) {
-                viewerState = viewerStates.get(viewerId);
+        if (viewerState != null) {
+            synchronized (viewerState) {
                 // Set as Disconnected
                 if (viewerState.isConnected()) {
                     providerId = viewerState.providerId;
+                    closeRecordStreams(viewerId);
                     viewerState.disconnectProvider();
                     viewerStates.put(viewerState.getViewerId(), viewerState);
                 }
@@ -686,19 +996,11 @@ public class DefaultManager implements Manager {
         // Create message list of providers
 
         List<Object> information = new ArrayList<>();
-        Integer chainedId = null;
-        synchronized (this) {
-            // get information of all provider
-            for (IEntityProvider provider : providers.values()) {
-                // if the provider chained, create information with chainedId
-                if (providerChain.containsKey(provider.getID())) {
-                    chainedId = providerChain.get(provider.getID());
-                }
-
-                information.add(DefaultResponse.getProviderResult(provider, chainedId));
-                // getProviderResult(ProviderInfo, ChainedId);
-                chainedId = null;
-            }
+        // get information of all provider, without waiting for the main loop
+        for (IEntityProvider provider : providers.values()) {
+            // if the provider chained, create information with chainedId
+            Integer chainedId = providerChain.get(provider.getID());
+            information.add(DefaultResponse.getProviderResult(provider, chainedId));
         }
         // Return information listed
         return new ServerResponse(ServerResponse.STATUS_OK
@@ -718,10 +1020,7 @@ public class DefaultManager implements Manager {
     @Override
     public ServerResponse requestViewerList() {
         // List up all information of Viewer
-        List<Object> information = new ArrayList<>();
-        synchronized (this) {
-            information.addAll(viewerStates.values());
-        }
+        List<Object> information = new ArrayList<>(viewerStates.values());
 
         // Return information listed
         return new ServerResponse(ServerResponse.STATUS_OK
@@ -749,11 +1048,24 @@ public class DefaultManager implements Manager {
             }
             logger.info("/manager/close: Server will Shutdown");
         }
+        wakeup();
 
         //ACCEPTED
         return new ServerResponse(ServerResponse.STATUS_ACCEPTED);
     }
 
+    /**
+     * Get stats of Recorders: bytes on the heap, hits and misses of records requested.
+     *
+     * Recorderの統計を取得する: ヒープ上のバイト数，要求されたレコードのヒットとミス.
+     *
+     * @return stats of Recorders. Recorderの統計.
+     * */
+    @Override
+    public ServerResponse requestRecorderStats() {
+        return new ServerResponse(ServerResponse.STATUS_OK, recorderCache.getStats(viewerRecorders));
+    }
+
 
     /*+++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++*/
     // Main Loop and Exit
@@ -788,106 +1100,158 @@ public class DefaultManager implements Manager {
 
         /* Main Loop */
         do {
-            synchronized (this) {
-                /* Check Provider Update */
-                for (Integer providerId : providers.keySet()) {
-                    IEntityProvider provider = providers.get(providerId);
+            /* Check Provider Update, each provider is locked only while recording it */
+            for (Map.Entry<Integer, IEntityProvider> entry : providers.entrySet()) {
+                Integer providerId = entry.getKey();
+                IEntityProvider provider = entry.getValue();
 
-                    if (provider.isClosed()) {
+                synchronized (provider) {
+                    if (!pendingRecords.containsKey(providerId) && provider.isClosed()) {
                         /* the provider still closed */
                         continue;
                     }
 
-                    /* Check New Record */
-                    if (provider.isIncomingRecordAvailable()) {
+                    /* Check New Record, only when it can be submitted; checking may read the next record */
+                    EncodingPipeline.Lane lane = recorderLanes.get(providerId);
+                    Record record = pendingRecords.remove(providerId);
+                    if (record == null && (lane == null || lane.hasRoom()) && provider.isIncomingRecordAvailable()) {
+                        record = provider.getIncomingRecord();
+                    }
+                    if (record != null) {
                         /* Recording */
                         logger.debug("/manager: incoming record available - " + provider.getID());
-                        Recorder recorder = null;
-                        if (!viewerRecorders.containsKey(providerId)) {
+                        if (lane == null) {
                             /* create new recorder and append it to list */
-                            recorder = new DefaultRecorder(new MsgPackEncoder());
+                            Recorder recorder = createRecorder(provider);
+                            lane = pipeline.createLane(recorder);
+                            recorderLanes.put(providerId, lane);
                             viewerRecorders.put(providerId, recorder);
                             logger.debug("/manager: new recorder created for - " + provider.getID());
-                        }
-                        else {
-                            /* get recorder online */
-                            recorder = viewerRecorders.get(providerId);
-                        } // :fi providerId contains on recorders
 
-                        /* Append Record to Recorder */
-                        try {
-                            while (provider.isIncomingRecordAvailable()) {
-                                /* get record from list */
-                                Record record = provider.getIncomingRecord();
-                                if (record != null)
-                                {
-                                    // Set Config/Map on first Record
-                                    if (recorder.size() == 0) {
-                                        record.config = provider.getConfig();
-                                        record.map = provider.getMap();
-                                    }
-
-                                    /* append to recorder */
-                                    recorder.appendRecord(record);
+                            /* streams and requests waiting for the first record */
+                            for (RecordStream stream : recordStreams.getOrDefault(providerId, Collections.emptyList())) {
+                                stream.attach(recorder);
+                            }
+                            for (RecordWait wait : recordWaits) {
+                                if (wait.getProviderId() == providerId) {
+                                    wait.attach(recorder);
                                 }
                             }
-                        } catch (EncodeException e) {
-                            logger.error("Encoder Failed", e);
+                        } // :fi providerId contains on recorders
+
+                        /* Submit Record to encode and append to Recorder, while the lane has room */
+                        while (record != null) {
+                            if (!lane.hasRoom()) {
+                                /* kept until the lane drains */
+                                pendingRecords.put(providerId, record);
+                                break;
+                            }
+                            if (record.time > lane.getLastTime()) {
+                                // Set Config/Map on first Record
+                                if (lane.getCount() == 0) {
+                                    record.config = provider.getConfig();
+                                    record.map = provider.getMap();
+                                }
+
+                                /* submit to the lane of recorder */
+                                lane.submit(record);
+                            } // else: already recorded, restored by the recorder
+
+                            /* get next record from list, only when it can be submitted */
+                            record = (lane.hasRoom() && provider.isIncomingRecordAvailable()) ? provider.getIncomingRecord() : null;
                         }
                     } // :fi incomingRecord available
 
-                    /* Check is the provider working. */
-                    if (!provider.isWorking()) {
-                        /* Provider end of own job */
-                        /* shutdown(close) provider */
-                        provider.shutdown();
-
-                        if (provider.isOnline()) {
-                            // Request Re-connection and Add to Provider Chain
-                            ServerResponse response =
-                                    requestOpenProvider(provider.getRemoteHostName(), provider.getRemotePort(), true);
-
-                            if (response != null && response.getData() instanceof DefaultResponse.OnlineProviderResult) {
-                                DefaultResponse.OnlineProviderResult result
-                                        = (DefaultResponse.OnlineProviderResult)response.getData();
-                                providerChain.put(providerId , result.providerId);
-                                logger.info("/manager: create chained provider => Provider " + result.providerId);
-                            }
+                    /* Check is the provider working, and all records taken; a record found is kept for the next pass */
+                    if (!provider.isWorking() && !pendingRecords.containsKey(providerId)) {
+                        Record last = (provider.isIncomingRecordAvailable()) ? provider.getIncomingRecord() : null;
+                        if (last != null) {
+                            pendingRecords.put(providerId, last);
+                            wakeup();
                         }
+                        else {
+                            /* Provider end of own job */
+                            /* shutdown(close) provider */
+                            provider.shutdown();
+
+                            if (provider.isOnline()) {
+                                // Request Re-connection and Add to Provider Chain
+                                ServerResponse response =
+                                        requestOpenProvider(provider.getRemoteHostName(), provider.getRemotePort(), true);
+
+                                if (response != null && response.getData() instanceof DefaultResponse.OnlineProviderResult) {
+                                    DefaultResponse.OnlineProviderResult result
+                                            = (DefaultResponse.OnlineProviderResult)response.getData();
+                                    providerChain.put(providerId , result.providerId);
+                                    logger.info("/manager: create chained provider => Provider " + result.providerId);
+                                }
+                            }
 
-//                        providers.remove(providerId); /* remove from list */
-                        logger.info("/manager: recording end => provider '" + providerId + "'");
+//                            providers.remove(providerId); /* remove from list */
+                            logger.info("/manager: recording end => provider '" + providerId + "'");
+
+                            /* streams end after all records written */
+                            List<RecordStream> streams = recordStreams.remove(providerId);
+                            if (streams != null) {
+                                if (lane != null) {
+                                    lane.runAfter(() -> streams.forEach(RecordStream::end));
+                                }
+                                else {
+                                    streams.forEach(RecordStream::end);
+                                }
+                            }
+                        }
                     }
-                } // :rof each providers.keySet()
+                } // :end of synchronized provider
+            } // :rof each providers
 
-                /* check each viewer */
-                // TODO: Implement?
+            /* keep records on the heap in the budget */
+            evictRecorders();
 
+            /* check each viewer */
+            // TODO: Implement?
 
-            } // :end of Critical Section
 
-            // Sleep a little
-            try {
-                Thread.sleep(20);
-            } catch (InterruptedException e) {
-                logger.info("Manager: Thread Sleep Interrupted");
+            // Park until a Provider notifies, or the idle time passes to check Providers not notifying
+            synchronized (signal) {
+                if (!signaled && serverState == STATE_RUNNING) {
+                    try {
+                        signal.wait(idleTime);
+                    } catch (InterruptedException e) {
+                        logger.info("Manager: Thread Wait Interrupted");
+                    }
+                }
+                signaled = false;
             }
 
             // Check state for continue or quit loops
-            synchronized (this) {
-                state = serverState;
-            }
+            state = serverState;
         } while (state == STATE_RUNNING);
 
 
-        // Release Resources
+        // Release Resources, after records submitted are appended
+        pipeline.shutdown();
+        new ArrayList<>(recordWaits).forEach(RecordWait::finish);
+        waitExecutor.shutdown();
+        respondExecutor.shutdown();
         synchronized (this) {
+            recordStreams.values().forEach(streams -> streams.forEach(RecordStream::close));
+            recordStreams.clear();
+            for (Recorder recorder : viewerRecorders.values()) {
+                if (recorder instanceof Closeable) {
+                    try {
+                        ((Closeable) recorder).close();
+                    } catch (IOException e) {
+                        logger.warn("/manager: cannot close recorder", e);
+                    }
+                }
+            }
             providers.clear();
-            providers = null;
             viewerStates.clear();
-            viewerStates = null;
             viewerRecorders.clear();
-            viewerRecorders = null;
+            recorderLanes.clear();
+            pendingRecords.clear();
+            recorderSnapshots.clear();
 
             serverState = STATE_ENDED;
             logger.info("/manager: stop");
@@ -907,6 +1271,163 @@ public class DefaultManager implements Manager {
                 serverState = STATE_ENDING;
             }
         }
+        wakeup();
+    }
+
+    /**
+     * Create the Recorder of the Provider, by <code>ViewerManagerKeys.RECORDER_TYPE</code>.
+     * On "mapped", records of an offline Provider are kept in the directory named by the log, its size, modified time and the format,
+     *  so the same log opened after restart reuses records encoded; records of an online Provider are deleted when dropped.
+     * On "heap", records of an online Provider keep the world only on keyframes, by <code>ViewerManagerKeys.RECORDER_KEYFRAME</code>.
+     *
+     * ProviderのRecorderを<code>ViewerManagerKeys.RECORDER_TYPE</code>に従って作る.
+     * "mapped"のとき，オフラインのProviderのレコードはログ，そのサイズ，更新時刻と形式によって名付けたディレクトリに保持するため，
+     *  再起動後に開いた同じログは符号化済みのレコードを再利用する．オンラインのProviderのレコードは破棄したときに削除する.
+     * "heap"のとき，オンラインのProviderのレコードは<code>ViewerManagerKeys.RECORDER_KEYFRAME</code>に従いキーフレームにのみワールドを持つ.
+     * */
+    Recorder createRecorder(IEntityProvider provider) {
+        String type = System.getProperty(ViewerManagerKeys.RECORDER_TYPE, ViewerManagerKeys.RECORDER_DEFAULT_TYPE);
+        if ("mapped".equalsIgnoreCase(type)) {
+            MsgPackEncoder encoder = new MsgPackEncoder();
+            String idString = String.valueOf(provider.getProviderIDString());
+            String source = null;
+            String name;
+            if (provider.isOnline()) {
+                name = String.format("online-%d-%d", provider.getID(), System.currentTimeMillis());
+            }
+            else {
+                // Records are reused only for the same content of the log, written by the same format
+                File log = new File(idString);
+                try {
+                    source = log.getCanonicalPath() + ";size=" + log.length() + ";modified=" + log.lastModified();
+                } catch (IOException e) {
+                    source = log.getAbsolutePath() + ";size=" + log.length() + ";modified=" + log.lastModified();
+                }
+                name = log.getName() + "-" + Integer.toHexString((source + encoder.getFormat()).hashCode());
+            }
+            File directory = new File(System.getProperty(ViewerManagerKeys.RECORDER_DIR,
+                    ViewerManagerKeys.RECORDER_DEFAULT_DIR), name);
+            try {
+                MappedRecorder recorder = new MappedRecorder(encoder, directory, source);
+                recorder.setDeleteOnClose(provider.isOnline());
+                return recorder;
+            } catch (IOException e) {
+                logger.warn("/manager: cannot create mapped recorder on " + directory + ", records are kept on heap", e);
+            }
+        }
+        // Worlds of live steps are kept only on keyframes
+        int keyframeInterval = (provider.isOnline())
+                ? Integer.parseInt(System.getProperty(ViewerManagerKeys.RECORDER_KEYFRAME, ViewerManagerKeys.RECORDER_DEFAULT_KEYFRAME))
+                : 0;
+        DefaultRecorder recorder = new DefaultRecorder(new MsgPackEncoder(), keyframeInterval);
+        if (provider instanceof ProviderLogReader) {
+            // Records of logs evicted are read again from the log
+            RecordSource source = ((ProviderLogReader) provider).createRecordSource();
+            if (source != null) {
+                Map<String, String> config = provider.getConfig();
+                MapInfo map = provider.getMap();
+                recorder.setSource(new RecordSource() {
+                    @Override
+                    public Record readRecord(int time) {
+                        Record record = source.readRecord(time);
+                        // Set Config/Map on first Record, same as recorded
+                        if (record != null && time == recorder.getTime(0)) {
+                            record.config = config;
+                            record.map = map;
+                        }
+                        return record;
+                    }
+
+                    @Override
+                    public void close() {
+                        source.close();
+                    }
+                });
+            }
+        }
+        return recorder;
+    }
+
+    /**
+     * Create the world snapshot of the Recorder, applying records appended by its lane from now on.
+     *
+     * Recorderのワールドのスナップショットを作る．以降はそのレーンが追加したレコードを適用する.
+     * */
+    WorldSnapshot createSnapshot(int providerId, Recorder recorder) {
+        WorldSnapshot snapshot = new WorldSnapshot(recorder);
+        EncodingPipeline.Lane lane = recorderLanes.get(providerId);
+        if (lane != null && lane.getRecorder() == recorder) {
+            lane.addListener(snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Remove the world snapshot of the Provider, and stop applying records to it.
+     *
+     * Providerのワールドのスナップショットを取り除き，レコードの適用を止める.
+     *
+     * @return bytes released. 開放したバイト数
+     * */
+    long removeSnapshot(int providerId) {
+        WorldSnapshot snapshot = recorderSnapshots.remove(providerId);
+        if (snapshot == null) {
+            return 0;
+        }
+        EncodingPipeline.Lane lane = recorderLanes.get(providerId);
+        if (lane != null) {
+            lane.removeListener(snapshot);
+        }
+        return snapshot.getBytes();
+    }
+
+    /**
+     * Evict records over the budget, least recently accessed Providers first.
+     *  Recorders of open Providers, streaming, or connected by Viewers are not dropped.
+     *
+     * 予算を超えたレコードを，Viewerが最も以前にアクセスしたProviderのものから追い出す.
+     *  開いているProvider，送信中，Viewerが接続しているもののRecorderは破棄しない.
+     * */
+    void evictRecorders() {
+        Map<Integer, Long> lastAccess = new HashMap<>();
+        Set<Integer> pinned = new HashSet<>();
+        for (ViewerState viewerState : viewerStates.values()) {
+            lastAccess.merge(viewerState.getProviderId(), viewerState.getTimeStamp(), Math::max);
+            if (viewerState.isConnected()) {
+                pinned.add(viewerState.getProviderId());
+            }
+        }
+        providers.forEach((providerId, provider) -> {
+            if (!provider.isClosed()) {
+                pinned.add(providerId);
+            }
+        });
+        pinned.addAll(recordStreams.keySet());
+
+        for (Integer providerId : recorderCache.evict(viewerRecorders, lastAccess, pinned)) {
+            Recorder recorder = viewerRecorders.remove(providerId);
+            recorderLanes.remove(providerId);
+            if (recorder instanceof Closeable) {
+                try {
+                    ((Closeable) recorder).close();
+                } catch (IOException e) {
+                    logger.warn("/manager: cannot close recorder", e);
+                }
+            }
+            logger.info("/manager: recorder dropped over the budget => provider '" + providerId + "'");
+        }
+    }
+
+    /**
+     * Wake up the main loop parking; called when Providers are updated.
+     *
+     * 待機しているメインループを起こす．Providerが更新されたときに呼ばれる.
+     * */
+    void wakeup() {
+        synchronized (signal) {
+            signaled = true;
+            signal.notifyAll();
+        }
     }
 
 
@@ -1,7 +1,9 @@
 package viewermanager.manager;
 
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import viewermanager.entity.provider.IEntityProvider;
+import viewermanager.entity.provider.RRSEntityProvider;
 
 import java.nio.ByteBuffer;
 import java.util.List;
@@ -25,6 +27,19 @@ public class DefaultResponse {
          * */
         public boolean reconnected;
 
+        /**
+         * records framed with the length, and the response serialized; made once when shared
+         * 長さでフレーム化したレコードと直列化した返答，共有されるときは一度だけ作る
+         * */
+        private ByteBuffer framed;
+        private byte[] responseJson;
+
+        /**
+         * is shared by Viewers requesting the same window
+         * 同じ範囲を要求するViewerで共有されるか
+         * */
+        private boolean shared;
+
         public RecordResult(ByteBuffer[] records) {
             this.record = records;
         }
@@ -36,6 +51,84 @@ public class DefaultResponse {
         public RecordResult(boolean reconnected) {
             this.reconnected = true;
         }
+
+        /**
+         * get records framed: (length(uint32, big endian) | record) * count.
+         * フレーム化したレコードを取得する: (長さ(uint32, ビッグエンディアン) | レコード) * count.
+         *
+         * @return framed records, read-only. フレーム化したレコード，読み出し専用
+         * */
+        @JsonIgnore
+        public synchronized ByteBuffer getFramed() {
+            if (framed == null) {
+                ByteBuffer[] records = (record != null) ? record : new ByteBuffer[0];
+                int length = 0;
+                for (ByteBuffer buffer : records) {
+                    length += 4 + buffer.remaining();
+                }
+                ByteBuffer frames = ByteBuffer.allocate(length);
+                for (ByteBuffer buffer : records) {
+                    frames.putInt(buffer.remaining());
+                    frames.put(buffer.duplicate());
+                }
+                frames.flip();
+                framed = frames.asReadOnlyBuffer();
+            }
+            return framed.duplicate();
+        }
+
+        /**
+         * get the response including this result serialized, or null if not yet.
+         * この結果を含む直列化した返答を取得する．まだの場合はnull
+         * */
+        @JsonIgnore
+        public synchronized byte[] getResponseJson() {
+            return responseJson;
+        }
+
+        /**
+         * keep the response including this result serialized.
+         * この結果を含む直列化した返答を保持する．
+         * */
+        public synchronized void setResponseJson(byte[] json) {
+            this.responseJson = json;
+        }
+
+        /**
+         * get bytes of records framed and the response serialized, made on writing, and references of records.
+         *  records are shared with recorders, and not counted.
+         * 書き出すときに作った，フレーム化したレコードと直列化した返答，レコードの参照のバイト数を取得する．
+         *  レコードはRecorderと共有するため数えない．
+         * */
+        @JsonIgnore
+        public synchronized long getBytes() {
+            long bytes = (record != null) ? 16L + 8L * record.length : 0;
+            if (framed != null) {
+                bytes += framed.capacity();
+            }
+            if (responseJson != null) {
+                bytes += responseJson.length;
+            }
+            return bytes;
+        }
+
+        /**
+         * is shared by Viewers, so the response serialized is worth keeping.
+         * Viewerで共有されるか．共有される場合は直列化した返答を保持する価値がある．
+         * */
+        @JsonIgnore
+        public synchronized boolean isShared() {
+            return shared;
+        }
+
+        /**
+         * mark as shared by Viewers.
+         * Viewerで共有されるとする．
+         * */
+        @JsonIgnore
+        public synchronized void setShared(boolean shared) {
+            this.shared = shared;
+        }
     }
 
     /**
@@ -110,6 +203,13 @@ public class DefaultResponse {
          * 次にViewerに接続されるProviderのID
          * */
         public Integer chainedProviderId;
+        /**
+         * Records queued on the provider not taken yet, the max of them, and records dropped on overflow.
+         * Providerにあるまだ取り出していないレコードの数，その最大，溢れたときに捨てたレコードの数
+         * */
+        public Integer queueDepth;
+        public Integer queueMaxDepth;
+        public Long droppedRecords;
 
         public OnlineProviderResult(IEntityProvider provider) {
             this.providerId = provider.getID();
@@ -120,6 +220,12 @@ public class DefaultResponse {
             this.timeStep = provider.getCurrentTimeStep();
             this.maxTimeStep = provider.getMaxTimeSteps();
             this.chainedProviderId = null;
+            if (provider instanceof RRSEntityProvider) {
+                RRSEntityProvider rrs = (RRSEntityProvider) provider;
+                this.queueDepth = rrs.getQueueDepth();
+                this.queueMaxDepth = rrs.getQueueMaxDepth();
+                this.droppedRecords = rrs.getDroppedRecords();
+            }
         }
 
         public OnlineProviderResult(IEntityProvider provider, Integer chainedId) {
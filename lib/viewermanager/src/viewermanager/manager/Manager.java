@@ -2,6 +2,7 @@ package viewermanager.manager;
 
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 public interface Manager {
 
@@ -19,6 +20,40 @@ public interface Manager {
      */
     ServerResponse requestRecords(ServerRequest request);
 
+    /**
+     * Wait for records requested by the Viewer, not recorded yet.
+     * {@code task} is run once on other thread, when the first record requested is recorded or {@code timeout} passed;
+     *  then it requests records again with {@code requestRecords}.
+     *
+     * Viewerが要求した，まだ記録されていないレコードを待つ．
+     * 要求した最初のレコードが記録されたとき，または{@code timeout}が経過したときに{@code task}を別のスレッドで一度だけ実行する．
+     *  その後に{@code requestRecords}で再び要求する．
+     *
+     * @param request Request from Viewer. Viewerからの要求.
+     * @param timeout max time to wait (milliseconds). 待つ最長の時間(ミリ秒).
+     * @param executor runs {@code task}, as the worker pool of the server; or null to run on threads of the Manager.
+     *  {@code task}を実行する，サーバのワーカーのプールなど．nullの場合はManagerのスレッドで実行する.
+     * @param task run when records are recorded, or timed out. レコードが記録されたとき，またはタイムアウトしたときに実行する.
+     * @return false if not to wait, records are available or the request cannot wait; {@code task} is not run.
+     *  待たない場合(レコードがある，または待てない要求)はfalse，{@code task}は実行されない.
+     */
+    boolean awaitRecords(ServerRequest request, long timeout, Executor executor, Runnable task);
+
+    /**
+     * Open the push channel of records for the Viewer.
+     * Records of the connected Provider are written to {@code sink} from {@code time} as soon as they are recorded,
+     *  after {@code RecordStream.start} is called.
+     *
+     * Viewerへのレコードの送信経路を開く．
+     * {@code RecordStream.start}が呼ばれた後，接続されたProviderのレコードを記録され次第{@code time}から{@code sink}へ書き込む．
+     *
+     * @param viewerId ID of the Viewer. ViewerのID.
+     * @param time index of the first record, or null to continue from the Viewer's time. 最初のレコードの番号，nullの場合はViewerの続きから.
+     * @param sink destination of records. レコードの出力先.
+     * @return {@code ServerResponse} contains {@code RecordStream} opened if OK. OKの場合は開かれた{@code RecordStream}を含む{@code ServerResponse}.
+     */
+    ServerResponse requestRecordStream(int viewerId, Integer time, RecordSink sink);
+
     /**
      * Return the list of Information includes Viewer connected.
      * If no Viewer connected, Return empty list.
@@ -156,6 +191,15 @@ public interface Manager {
      * */
     ServerResponse requestCloseServer();
 
+    /**
+     * Get stats of Recorders: bytes on the heap, hits and misses of records requested.
+     *
+     * Recorderの統計を取得する: ヒープ上のバイト数，要求されたレコードのヒットとミス.
+     *
+     * @return stats of Recorders. Recorderの統計.
+     * */
+    ServerResponse requestRecorderStats();
+
     /**
      * Start the Manager.
      *
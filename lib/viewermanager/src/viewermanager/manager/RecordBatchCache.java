@@ -0,0 +1,193 @@
+package viewermanager.manager;
+
+import viewermanager.ViewerManagerKeys;
+import viewermanager.recorder.RecorderCache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * RecordBatchCache - Results of records requested, shared by Viewers requesting the same window.
+ *  Keyed by (providerId, time, count), only the windows all recorded are kept, so they never change.
+ *  The <code>RecordResult</code> kept also keeps the response framed and serialized once written,
+ *  so the repeated request is written with one buffer.
+ *  The least recently used is removed over <code>ViewerManagerKeys.BATCH_CACHE_SIZE</code> megabytes,
+ *  counted on responses framed and serialized; records are shared with recorders, and counted by them.
+ *  Charged to the budget of <code>RecorderCache</code>, results of a Provider are removed before its records are evicted.
+ *
+ * 同じ範囲を要求するViewerで共有する，要求されたレコードの結果．
+ *  (providerId, time, count)を鍵とし，すべて記録済みの範囲のみを保持するため，変化しない．
+ *  保持する<code>RecordResult</code>は一度書き出した返答のフレーム化・直列化済みのものも保持するため，
+ *  繰り返された要求は1つのバッファで書き出される．
+ *  フレーム化・直列化した返答で数えて<code>ViewerManagerKeys.BATCH_CACHE_SIZE</code>メガバイトを超えると，
+ *  最も以前に使われたものから取り除く．レコードはRecorderと共有するため，Recorderで数える．
+ *  <code>RecorderCache</code>の予算に計上し，Providerの結果はそのレコードを追い出す前に取り除く．
+ * */
+public class RecordBatchCache implements RecorderCache.ChargedCache {
+
+    /**
+     * window of records requested
+     * 要求されたレコードの範囲
+     * */
+    private static class Key {
+        final int providerId;
+        final int time;
+        final int count;
+
+        Key(int providerId, int time, int count) {
+            this.providerId = providerId;
+            this.time = time;
+            this.count = count;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return providerId == key.providerId && time == key.time && count == key.count;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(providerId, time, count);
+        }
+    }
+
+    /**
+     * results in access order
+     * アクセス順の結果
+     * */
+    private final LinkedHashMap<Key, DefaultResponse.RecordResult> batches;
+
+    /**
+     * max bytes of results kept
+     * 保持する結果の最大バイト数
+     * */
+    private final long maxBytes;
+
+    /**
+     * count of requests found, and not found
+     * 見つかった，見つからなかった要求の数
+     * */
+    long hits;
+    long misses;
+
+    /**
+     * Constructor, with <code>ViewerManagerKeys.BATCH_CACHE_SIZE</code> in megabytes.
+     * <code>ViewerManagerKeys.BATCH_CACHE_SIZE</code>のメガバイト数で作る．
+     * */
+    public RecordBatchCache() {
+        this(Long.parseLong(System.getProperty(ViewerManagerKeys.BATCH_CACHE_SIZE,
+                ViewerManagerKeys.BATCH_CACHE_DEFAULT_SIZE)) * 1024 * 1024);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxBytes max bytes of results kept, 0 not to keep. 保持する結果の最大バイト数，0で保持しない
+     * */
+    public RecordBatchCache(long maxBytes) {
+        batches = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxBytes = maxBytes;
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * get the result of the window.
+     * 範囲の結果を取得する．
+     *
+     * @return result kept, or null. 保持している結果，またはnull
+     * */
+    public synchronized DefaultResponse.RecordResult get(int providerId, int time, int count) {
+        DefaultResponse.RecordResult result = batches.get(new Key(providerId, time, count));
+        if (result != null) {
+            hits++;
+        }
+        else {
+            misses++;
+        }
+        return result;
+    }
+
+    /**
+     * keep the result of the window, all records must be recorded.
+     *  The least recently used are removed over the max bytes, also responses made after kept are counted here.
+     * 範囲の結果を保持する．すべてのレコードは記録済みであること．
+     *  最大バイト数を超えると最も以前に使われたものから取り除く．保持した後に作られた返答もここで数える．
+     * */
+    public synchronized void put(int providerId, int time, int count, DefaultResponse.RecordResult result) {
+        if (maxBytes <= 0) {
+            return;
+        }
+        result.setShared(true);
+        batches.put(new Key(providerId, time, count), result);
+
+        long bytes = getBytes();
+        Iterator<DefaultResponse.RecordResult> eldest = batches.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().getBytes();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * remove results of the provider.
+     * Providerの結果を取り除く．
+     *
+     * @return bytes released. 開放したバイト数
+     * */
+    @Override
+    public synchronized long invalidate(int providerId) {
+        long released = 0;
+        Iterator<Map.Entry<Key, DefaultResponse.RecordResult>> entries = batches.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Key, DefaultResponse.RecordResult> entry = entries.next();
+            if (entry.getKey().providerId == providerId) {
+                released += entry.getValue().getBytes();
+                entries.remove();
+            }
+        }
+        return released;
+    }
+
+    /**
+     * get bytes of responses kept, framed and serialized.
+     * 保持しているフレーム化・直列化した返答のバイト数を取得する．
+     * */
+    @Override
+    public synchronized long getBytes() {
+        long bytes = 0;
+        for (DefaultResponse.RecordResult result : batches.values()) {
+            bytes += result.getBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * get count of results kept.
+     * 保持している結果の数を取得する．
+     * */
+    public synchronized int size() {
+        return batches.size();
+    }
+
+    /**
+     * get count of requests found.
+     * 見つかった要求の数を取得する．
+     * */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * get count of requests not found.
+     * 見つからなかった要求の数を取得する．
+     * */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
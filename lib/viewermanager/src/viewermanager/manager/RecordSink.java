@@ -0,0 +1,50 @@
+package viewermanager.manager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Destination of records pushed to a Viewer, given by the server.
+ *  Writing must not block; <code>isReady</code> tells whether more records can be written now.
+ * Viewerへ送るレコードの出力先，サーバが与える．
+ *  書き込みはブロックしてはならない．<code>isReady</code>は今レコードを書き込めるかを示す．
+ * */
+public interface RecordSink {
+
+    /**
+     * check can records be written without blocking.
+     * ブロックせずにレコードを書き込めるか確かめる．
+     * */
+    boolean isReady();
+
+    /**
+     * call the task once, when records can be written again.
+     * 再びレコードを書き込めるようになったときに，一度だけ処理を呼ぶ．
+     *
+     * @param task task to call. 呼び出す処理
+     * */
+    void onReady(Runnable task);
+
+    /**
+     * write one record encoded.
+     * 直列化済みのレコードを1つ書き込む．
+     *
+     * @param record record to write. 書き込むレコード
+     * @exception IOException cannot write, so the Viewer is gone.
+     * */
+    void write(ByteBuffer record) throws IOException;
+
+    /**
+     * send records written.
+     * 書き込んだレコードを送信する．
+     *
+     * @exception IOException cannot write, so the Viewer is gone.
+     * */
+    void flush() throws IOException;
+
+    /**
+     * finish sending and release the destination.
+     * 送信を終えて出力先を開放する．
+     * */
+    void close();
+}
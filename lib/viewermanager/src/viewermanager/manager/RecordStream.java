@@ -0,0 +1,197 @@
+package viewermanager.manager;
+
+import org.apache.log4j.Logger;
+import viewermanager.ViewerManagerKeys;
+import viewermanager.recorder.Recorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Push channel of records for a Viewer.
+ * Viewerへのレコードの送信経路
+ *
+ * Records of the <code>Recorder</code> are written to the <code>RecordSink</code> from <code>time</code>,
+ *  as soon as they are appended. When the sink is not ready, the stream waits for it
+ *  without reading more records, so slow Viewers do not make the Manager wait.
+ * The stream is closed when the Provider finished and all records are written,
+ *  when the Viewer disconnected, or when the sink failed.
+ *
+ * <code>Recorder</code>のレコードを，追加され次第<code>time</code>から<code>RecordSink</code>へ書き込む．
+ *  出力先が書き込めないときは，それ以上のレコードを読まずに待つため，遅いViewerがManagerを待たせることはない．
+ * Providerが終了してすべてのレコードを書き込んだとき，Viewerが切断されたとき，出力先が失敗したときに閉じる．
+ * */
+public class RecordStream implements Recorder.Listener {
+
+    /**
+     * id of the Viewer
+     * ViewerのID
+     * */
+    private final int viewerId;
+
+    /**
+     * id of the Provider streaming
+     * 送信しているProviderのID
+     * */
+    private final int providerId;
+
+    /**
+     * destination of records
+     * レコードの出力先
+     * */
+    private final RecordSink sink;
+
+    /**
+     * recorder of the Provider, null until the first record
+     * ProviderのRecorder，最初のレコードまではnull
+     * */
+    private Recorder recorder;
+
+    /**
+     * index of the next record to write
+     * 次に書き込むレコードの番号
+     * */
+    private int time;
+
+    private boolean started;
+    private boolean waiting;
+    private boolean ending;
+    private boolean closed;
+
+    private Logger logger;
+
+    public RecordStream(int viewerId, int providerId, int time, RecordSink sink) {
+        logger = Logger.getLogger(System.getProperty(ViewerManagerKeys.LOGGER, ViewerManagerKeys.DEFAULT_LOGGER));
+        if (Objects.isNull(logger)) {
+            logger = Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER);
+        }
+
+        this.viewerId = viewerId;
+        this.providerId = providerId;
+        this.time = Math.max(0, time);
+        this.sink = sink;
+    }
+
+    public int getViewerId() {
+        return viewerId;
+    }
+
+    public int getProviderId() {
+        return providerId;
+    }
+
+    /**
+     * get index of the next record to write.
+     * 次に書き込むレコードの番号を取得する．
+     * */
+    public synchronized int getTime() {
+        return time;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * attach to the recorder of the Provider, and write records appended.
+     * ProviderのRecorderに接続し，追加されたレコードを書き込む．
+     * */
+    public void attach(Recorder recorder) {
+        synchronized (this) {
+            if (closed || this.recorder != null) return;
+            this.recorder = recorder;
+        }
+        recorder.addListener(this);
+        pump();
+    }
+
+    /**
+     * start writing; records are not written until started.
+     * 書き込みを開始する．開始するまでレコードは書き込まない．
+     * */
+    public void start() {
+        synchronized (this) {
+            started = true;
+        }
+        pump();
+    }
+
+    /**
+     * the Provider finished: close after all records are written.
+     * Providerが終了した: すべてのレコードを書き込んだ後に閉じる．
+     * */
+    public void end() {
+        synchronized (this) {
+            ending = true;
+        }
+        pump();
+    }
+
+    @Override
+    public void recordAppended(Recorder recorder, int size) {
+        pump();
+    }
+
+    /**
+     * write records available while the sink is ready.
+     * 出力先が書き込める間，取得できるレコードを書き込む．
+     * */
+    private synchronized void pump() {
+        if (closed || !started || waiting) return;
+
+        try {
+            if (recorder != null) {
+                int written = 0;
+                while (time < recorder.size()) {
+                    if (!sink.isReady()) {
+                        // Back pressure: wait for the sink
+                        waiting = true;
+                        sink.onReady(() -> {
+                            synchronized (this) {
+                                waiting = false;
+                            }
+                            pump();
+                        });
+                        break;
+                    }
+
+                    ByteBuffer record = recorder.getRecord(time);
+                    if (record == null) break;
+                    sink.write(record);
+                    time++;
+                    written++;
+                }
+                if (written > 0) {
+                    sink.flush();
+                }
+            }
+
+            if (ending && !waiting && (recorder == null || time >= recorder.size())) {
+                close();
+            }
+        } catch (IOException e) {
+            logger.info("/manager/stream: Viewer " + viewerId + " stream closed : " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * close the stream.
+     * 送信経路を閉じる．
+     * */
+    public void close() {
+        Recorder recorder;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            recorder = this.recorder;
+        }
+
+        if (recorder != null) {
+            recorder.removeListener(this);
+        }
+        sink.close();
+        logger.info("/manager/stream: Viewer " + viewerId + " stream of Provider " + providerId + " closed at " + time);
+    }
+}
@@ -0,0 +1,162 @@
+package viewermanager.manager;
+
+import viewermanager.recorder.Recorder;
+
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Request of a Viewer waiting for records not recorded yet.
+ * まだ記録されていないレコードを待つViewerの要求
+ *
+ * The task is run once on the executor, when the record of <code>time</code> is appended to the <code>Recorder</code> of the Provider,
+ *  when the timeout passed, or when the Manager stopped.
+ *  The task is not run on the thread appending, so the Recorder is not blocked by responding.
+ *
+ * タスクは，<code>time</code>のレコードがProviderの<code>Recorder</code>に追加されたとき，タイムアウトしたとき，
+ *  Managerが停止したときに，一度だけexecutor上で実行される．
+ *  タスクは追加したスレッドでは実行しないため，返答でRecorderが止まることはない．
+ * */
+class RecordWait implements Recorder.Listener {
+
+    /**
+     * id of the Provider waited, and index of the record waited
+     * 待っているProviderのIDと，待っているレコードの番号
+     * */
+    private final int providerId;
+    private final int time;
+
+    /**
+     * recorder of the Provider, null until the first record
+     * ProviderのRecorder，最初のレコードまではnull
+     * */
+    private Recorder recorder;
+
+    /**
+     * task to respond, and the executor to run it
+     * 返答するタスクと，それを実行するexecutor
+     * */
+    private final Runnable task;
+    private final Executor executor;
+
+    /**
+     * requests waiting, this is removed when finished
+     * 待っている要求，終わったときにこれを取り除く
+     * */
+    private final Collection<RecordWait> waits;
+
+    private final AtomicBoolean finished;
+    private volatile ScheduledFuture<?> timeout;
+
+    RecordWait(int providerId, int time, Runnable task, Executor executor, Collection<RecordWait> waits) {
+        this.providerId = providerId;
+        this.recorder = null;
+        this.time = time;
+        this.task = task;
+        this.executor = executor;
+        this.waits = waits;
+        this.finished = new AtomicBoolean(false);
+        this.timeout = null;
+    }
+
+    /**
+     * set the timeout scheduled, cancelled when finished.
+     * 予定したタイムアウトを設定する．終わったときに取り消す．
+     * */
+    void setTimeout(ScheduledFuture<?> timeout) {
+        this.timeout = timeout;
+        if (finished.get()) {
+            timeout.cancel(false);
+        }
+    }
+
+    public int getProviderId() {
+        return providerId;
+    }
+
+    /**
+     * attach to the recorder of the Provider, and finish if the record waited is already recorded.
+     * ProviderのRecorderに接続し，待っているレコードがすでに記録されていれば終わる．
+     * */
+    void attach(Recorder recorder) {
+        synchronized (this) {
+            if (finished.get() || this.recorder != null) return;
+            this.recorder = recorder;
+        }
+        recorder.addListener(this);
+        if (recorder.size() > time) {
+            finish();
+        }
+    }
+
+    /**
+     * is the record waited recorded.
+     * 待っているレコードが記録されたか．
+     * */
+    synchronized boolean isAvailable() {
+        return recorder != null && recorder.size() > time;
+    }
+
+    /**
+     * stop listening the recorder.
+     * Recorderの監視をやめる．
+     * */
+    private void detach() {
+        Recorder recorder;
+        synchronized (this) {
+            recorder = this.recorder;
+        }
+        if (recorder != null) {
+            recorder.removeListener(this);
+        }
+        waits.remove(this);
+    }
+
+    @Override
+    public void recordAppended(Recorder recorder, int size) {
+        if (size > time) {
+            finish();
+        }
+    }
+
+    /**
+     * stop waiting, and run the task once.
+     * 待つのをやめ，タスクを一度だけ実行する．
+     *
+     * @return false if already finished. すでに終わっていた場合はfalse
+     * */
+    boolean finish() {
+        if (!finished.compareAndSet(false, true)) {
+            return false;
+        }
+        detach();
+        ScheduledFuture<?> timeout = this.timeout;
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // stopped: respond on this thread
+            task.run();
+        }
+        return true;
+    }
+
+    /**
+     * stop waiting without the task.
+     * タスクを実行せずに待つのをやめる．
+     *
+     * @return false if already finished, and the task is run. すでに終わりタスクが実行される場合はfalse
+     * */
+    boolean cancel() {
+        if (!finished.compareAndSet(false, true)) {
+            return false;
+        }
+        detach();
+        return true;
+    }
+}
@@ -33,6 +33,12 @@ public class ServerRequest {
      * */
     protected Integer time;
 
+    /**
+     * want one record with the whole world of the latest step, instead of records from <code>time</code>
+     * <code>time</code>からのレコードの代わりに，最新のステップのワールド全体を持つ1つのレコードを要求するか
+     * */
+    protected boolean snapshot;
+
     /**
      * create Request empty
      * */
@@ -40,6 +46,7 @@ public class ServerRequest {
         viewerId = null;
         timeStamp = null;
         count = null;
+        snapshot = false;
     }
 
     /**
@@ -110,4 +117,20 @@ public class ServerRequest {
         return time;
     }
 
+    /**
+     * is one record with the whole world of the latest step wanted
+     * */
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * want one record with the whole world of the latest step, then records after it
+     * 最新のステップのワールド全体を持つ1つのレコードを要求し，その後はその次からのレコードを要求する
+     * */
+    public ServerRequest setSnapshot(boolean snapshot) {
+        this.snapshot = snapshot;
+        return this;
+    }
+
 }
@@ -6,10 +6,12 @@ import viewermanager.encoder.EncodeException;
 import viewermanager.encoder.Encoder;
 import viewermanager.entity.Record;
 
+import java.io.Closeable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Default Recorder - Reference Implementation of <code>Recorder</code>.
@@ -17,8 +19,21 @@ import java.util.Objects;
  *
  * <code>Recorder</code>のリファレンス実装，
  * <code>Encoder</code>をコンストラクタで指定して利用する．
+ *
+ * Records are appended by the manager and read by the server threads, so access to the list is synchronized;
+ *  listeners are called out of the lock.
+ * レコードはManagerが追加し，サーバのスレッドが読み出すため，リストへのアクセスは同期する．
+ *  リスナはロックの外で呼ぶ．
+ *
+ * With the keyframe interval, only records of every interval keep the world, and others are only changes.
+ * キーフレームの間隔を指定すると，間隔ごとのレコードのみがワールドを持ち，他は変化のみとなる．
+ *
+ * Records can be evicted to release the heap with <code>evict</code>;
+ *  with a <code>RecordSource</code>, the evicted records are read from the source and encoded again when requested.
+ * <code>evict</code>でレコードを追い出してヒープを開放できる．
+ *  <code>RecordSource</code>がある場合，追い出したレコードは要求されたときに読み出し元から読み出して再び符号化する．
  * */
-public class DefaultRecorder implements Recorder {
+public class DefaultRecorder implements Recorder, Closeable {
 
     /**
      * encoded Record's List
@@ -27,6 +42,42 @@ public class DefaultRecorder implements Recorder {
      * */
     List<ByteBuffer> recordList;
 
+    /**
+     * time of each Record in the list
+     *
+     * リスト中のそれぞれの<code>Record</code>の時間
+     * */
+    List<Integer> timeList;
+
+    /**
+     * source to read records evicted, or null
+     *
+     * 追い出したレコードを読み出す読み出し元，またはnull
+     * */
+    RecordSource source;
+
+    /**
+     * bytes of records kept, and the first index may be kept
+     *
+     * 保持しているレコードのバイト数と，保持している可能性のある最初の番号
+     * */
+    long bytes;
+    int firstKept;
+
+    /**
+     * records keep the world on every this count, 0 for all records as given
+     * この数ごとのレコードがワールドを保持する．0の場合はすべてのレコードを与えられたまま保持する
+     * */
+    int keyframeInterval;
+
+    /**
+     * count of records got from the list, and read from the source again
+     *
+     * リストから取得した，また読み出し元から再び読み出したレコードの数
+     * */
+    long hits;
+    long misses;
+
     /**
      * current TimeStep taken from appended Record
      *
@@ -39,20 +90,44 @@ public class DefaultRecorder implements Recorder {
      * */
     Encoder encoder;
 
+    /**
+     * listeners of records appended
+     * レコードの追加のリスナ
+     * */
+    List<Listener> listeners;
+
     Logger logger;
 
     /**
      * Constructor of <code>DefaultRecorder</code>.
      * */
     public DefaultRecorder(Encoder encoder) {
+        this(encoder, 0);
+    }
+
+    /**
+     * Constructor of <code>DefaultRecorder</code> with keyframes.
+     * キーフレームを持つ<code>DefaultRecorder</code>のコンストラクタ．
+     *
+     * @param keyframeInterval records keep the world on every this count, 0 for all. この数ごとのレコードがワールドを保持する，0ですべて
+     * */
+    public DefaultRecorder(Encoder encoder, int keyframeInterval) {
         logger = Logger.getLogger(System.getProperty(ViewerManagerKeys.LOGGER, ViewerManagerKeys.DEFAULT_LOGGER));
         if (Objects.isNull(logger)){
             logger = Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER);
         }
 
         recordList = new ArrayList<>();
+        timeList = new ArrayList<>();
+        source = null;
+        bytes = 0;
+        firstKept = 0;
+        hits = 0;
+        misses = 0;
         currentTimeStep = 0;
+        this.keyframeInterval = Math.max(0, keyframeInterval);
         this.encoder = encoder;
+        listeners = new CopyOnWriteArrayList<>();
     }
 
 
@@ -74,7 +149,7 @@ public class DefaultRecorder implements Recorder {
         // Encode Record
         ByteBuffer buffer = null;
         try {
-            buffer = encoder.encodeRecord(record);
+            buffer = encoder.encodeRecord(prepareRecord(record, size()));
         } catch (EncodeException e) {
             logger.error("DefaultRecorder - Cannot encode Record", e);
             throw e;
@@ -82,10 +157,36 @@ public class DefaultRecorder implements Recorder {
 
         // Save time and append to List
         if (buffer != null) {
+            appendRecord(record.time, buffer);
+        }
+    }
+
+    /**
+     * Append Record encoded by <code>getEncoder</code> to List.
+     * <code>getEncoder</code>で直列化済みの<code>Record</code>をListに追加する．
+     *
+     * @param time time of the record. レコードの時間
+     * @param buffer record encoded. 直列化済みのレコード
+     * */
+    @Override
+    public void appendRecord(int time, ByteBuffer buffer) {
+        int size;
+        synchronized (this) {
+            if (currentTimeStep >= time) {
+                throw new IllegalArgumentException("Record time Reverted: " + String.format("{'currentTimeStep': %d, 'record.time': %d}", currentTimeStep, time));
+            }
             recordList.add(buffer);
-            currentTimeStep = record.time;
-            logger.debug(String.format("/recorder/default: record appended: {time: %d, length: %d}"
-                    , record.time, buffer.array().length));
+            timeList.add(time);
+            bytes += buffer.capacity();
+            currentTimeStep = time;
+            size = recordList.size();
+        }
+        logger.debug(String.format("/recorder/default: record appended: {time: %d, length: %d}"
+                , time, buffer.capacity()));
+
+        // Notify out of the lock
+        for (Listener listener : listeners) {
+            listener.recordAppended(this, size);
         }
     }
 
@@ -102,17 +203,181 @@ public class DefaultRecorder implements Recorder {
         //timeStep -= 1;
         logger.debug(String.format("/recorder/default: record requested on time %d", timeStep));
 
-        // Check is the valid Record Listed
-        if (timeStep < recordList.size()) {
-            // get record and copy it
-            ByteBuffer buf = recordList.get(timeStep).duplicate();
-            // go back pointer 0
-            buf.clear();
-            return buf;
+        int time;
+        synchronized (this) {
+            // Check is the valid Record Listed
+            if (timeStep < 0 || timeStep >= recordList.size()) {
+                // No Record Available
+                return null;
+            }
+
+            ByteBuffer record = recordList.get(timeStep);
+            if (record != null || source == null) {
+                if (record == null) {
+                    return null;
+                }
+                hits++;
+                // get record and copy it
+                ByteBuffer buf = record.duplicate();
+                // go back pointer 0
+                buf.clear();
+                return buf;
+            }
+            misses++;
+            time = timeList.get(timeStep);
+        }
+
+        // Evicted: read from the source and encode again, out of the lock
+        Record record = source.readRecord(time);
+        if (record == null) {
+            return null;
+        }
+        ByteBuffer buffer;
+        try {
+            buffer = encoder.encodeRecord(prepareRecord(record, timeStep));
+        } catch (EncodeException e) {
+            logger.error("DefaultRecorder - Cannot encode Record again", e);
+            return null;
+        }
+
+        synchronized (this) {
+            if (recordList.get(timeStep) == null) {
+                recordList.set(timeStep, buffer);
+                bytes += buffer.capacity();
+                firstKept = Math.min(firstKept, timeStep);
+            }
+        }
+        ByteBuffer buf = buffer.duplicate();
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * leave out the world of records between keyframes, so the world is not built nor encoded.
+     * キーフレームの間のレコードのワールドを省く．そのためワールドは作られず，符号化もされない．
+     * */
+    @Override
+    public Record prepareRecord(Record record, int index) {
+        if (keyframeInterval <= 0 || index % keyframeInterval == 0) {
+            return record;
+        }
+        Record changes = record.copy();
+        changes.setWorldSupplier(null);
+        return changes;
+    }
+
+    /**
+     * get index of the keyframe at or before the index.
+     * <code>index</code>以前のキーフレームの番号を取得する．
+     * */
+    @Override
+    public int getKeyframeIndex(int index) {
+        if (keyframeInterval <= 0 || index <= 0) {
+            return index;
+        }
+        return index - index % keyframeInterval;
+    }
+
+    /**
+     * evict records from the oldest until <code>size</code> bytes released; only with a source.
+     *  The source is closed too, as the reader it keeps is not counted; it opens again on the next read.
+     * 古いものから<code>size</code>バイトを開放するまでレコードを追い出す．読み出し元がある場合のみ．
+     *  読み出し元が保持するReaderは数えないため，読み出し元も閉じる．次の読み出しで再び開く．
+     *
+     * @param size bytes to release. 開放するバイト数
+     * @return bytes released. 開放したバイト数
+     * */
+    public long evict(long size) {
+        RecordSource source;
+        long released = 0;
+        synchronized (this) {
+            source = this.source;
+            if (source == null) {
+                return 0;
+            }
+
+            while (released < size && firstKept < recordList.size()) {
+                ByteBuffer record = recordList.get(firstKept);
+                if (record != null) {
+                    recordList.set(firstKept, null);
+                    released += record.capacity();
+                }
+                firstKept++;
+            }
+            bytes -= released;
         }
 
-        // No Record Available
-        return null;
+        // Out of the lock, the source may be reading
+        source.close();
+        return released;
+    }
+
+    /**
+     * set the source to read records evicted.
+     *  config and map of the first record are kept, these are set on the first record by the manager.
+     * 追い出したレコードを読み出す読み出し元を設定する．
+     *  最初のレコードの設定と地図はManagerが設定するため保持しておく．
+     * */
+    public synchronized void setSource(RecordSource source) {
+        this.source = source;
+    }
+
+    /**
+     * get the source to read records evicted.
+     * 追い出したレコードを読み出す読み出し元を取得する．
+     * */
+    public synchronized RecordSource getSource() {
+        return source;
+    }
+
+    /**
+     * get time of the record on the index.
+     * 指定した番号のレコードの時間を取得する．
+     *
+     * @param index index of the record. レコードの番号
+     * @return time of the record, or -1 if not recorded. レコードの時間，記録されていない場合は-1
+     * */
+    public synchronized int getTime(int index) {
+        if (index < 0 || index >= timeList.size()) {
+            return -1;
+        }
+        return timeList.get(index);
+    }
+
+    /**
+     * get bytes of records kept on the heap.
+     * ヒープに保持しているレコードのバイト数を取得する．
+     * */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * get count of records got from the list.
+     * リストから取得したレコードの数を取得する．
+     * */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * get count of records read from the source again.
+     * 読み出し元から再び読み出したレコードの数を取得する．
+     * */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * close the source to read records evicted.
+     * 追い出したレコードの読み出し元を閉じる．
+     * */
+    @Override
+    public void close() {
+        RecordSource source = getSource();
+        if (source != null) {
+            source.close();
+        }
     }
 
     /**
@@ -122,7 +387,7 @@ public class DefaultRecorder implements Recorder {
      * @return list size of records
      * */
     @Override
-    public int size() {
+    public synchronized int size() {
         return recordList.size();
     }
 
@@ -134,7 +399,21 @@ public class DefaultRecorder implements Recorder {
      * */
     @Override
     public ByteBuffer[] getRecords() {
-        return recordList.toArray(new ByteBuffer[0]);
+        // records evicted are read again
+        ByteBuffer[] records = new ByteBuffer[size()];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = getRecord(i);
+        }
+        return records;
+    }
+
+    /**
+     * get the time of the last record appended.
+     * 最後に追加されたレコードの時間を取得する．
+     * */
+    @Override
+    public synchronized int getCurrentTimeStep() {
+        return currentTimeStep;
     }
 
     /**
@@ -148,4 +427,22 @@ public class DefaultRecorder implements Recorder {
         return encoder;
     }
 
+    /**
+     * add the listener called when a record appended.
+     * レコードが追加されたときに呼ばれるリスナを追加する．
+     * */
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * remove the listener added.
+     * 追加したリスナを取り除く．
+     * */
+    @Override
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
 }
@@ -0,0 +1,407 @@
+package viewermanager.recorder;
+
+import org.apache.log4j.Logger;
+import viewermanager.ViewerManagerKeys;
+import viewermanager.encoder.EncodeException;
+import viewermanager.entity.Record;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * EncodingPipeline - Encode records on a pool of workers between Providers and Recorders.
+ *  Each Recorder has its own <code>Lane</code>: records submitted are encoded in parallel,
+ *  and appended to the Recorder in the order submitted.
+ *  A lane keeps at most <code>capacity</code> records not appended; the rest stay on the Provider.
+ *  A lane encodes on at most half of the workers at once, so a Provider of slow records does not hold all of them.
+ *
+ * ProviderとRecorderの間で，ワーカーのプールによりレコードを符号化する．
+ *  それぞれのRecorderは自身の<code>Lane</code>を持つ: 投入したレコードは並列に符号化され，投入した順にRecorderへ追加される．
+ *  レーンは追加されていないレコードを最大<code>capacity</code>個まで保持し，残りはProviderに留まる．
+ *  レーンは同時に最大でワーカーの半分で符号化するため，遅いレコードのProviderがすべてのワーカーを占有しない．
+ * */
+public class EncodingPipeline {
+
+    /**
+     * workers to encode records
+     * レコードを符号化するワーカー
+     * */
+    ExecutorService workers;
+
+    /**
+     * max count of records not appended on each lane
+     * それぞれのレーンで追加されていないレコードの最大数
+     * */
+    int capacity;
+
+    /**
+     * max count of records encoding at once on each lane
+     * それぞれのレーンで同時に符号化するレコードの最大数
+     * */
+    int parallelism;
+
+    /**
+     * called when records appended, so the lane has room
+     * レコードが追加され，レーンに空きができたときに呼ばれる
+     * */
+    Runnable listener;
+
+    /**
+     * count of records submitted and not encoded, on all lanes
+     * すべてのレーンで投入されて符号化されていないレコードの数
+     * */
+    int active;
+
+    Logger logger;
+
+    /**
+     * Constructor, with <code>ViewerManagerKeys.ENCODER_THREADS</code> and <code>ViewerManagerKeys.ENCODER_QUEUE</code>.
+     * <code>ViewerManagerKeys.ENCODER_THREADS</code>と<code>ViewerManagerKeys.ENCODER_QUEUE</code>で作る．
+     *
+     * @param listener called when records appended. レコードが追加されたときに呼ばれる
+     * */
+    public EncodingPipeline(Runnable listener) {
+        this(Integer.parseInt(System.getProperty(ViewerManagerKeys.ENCODER_THREADS, ViewerManagerKeys.ENCODER_DEFAULT_THREADS)),
+                Integer.parseInt(System.getProperty(ViewerManagerKeys.ENCODER_QUEUE, ViewerManagerKeys.ENCODER_DEFAULT_QUEUE)),
+                listener);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param threads count of workers. ワーカーの数
+     * @param capacity max count of records not appended on each lane. それぞれのレーンで追加されていないレコードの最大数
+     * @param listener called when records appended. レコードが追加されたときに呼ばれる
+     * */
+    public EncodingPipeline(int threads, int capacity, Runnable listener) {
+        logger = Logger.getLogger(System.getProperty(ViewerManagerKeys.LOGGER, ViewerManagerKeys.DEFAULT_LOGGER));
+        if (Objects.isNull(logger)) {
+            logger = Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER);
+        }
+
+        AtomicInteger number = new AtomicInteger(0);
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "encoder-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.capacity = Math.max(1, capacity);
+        this.parallelism = Math.max(1, threads / 2);
+        this.listener = (listener != null) ? listener : () -> {};
+        this.active = 0;
+    }
+
+    /**
+     * create the lane to the recorder.
+     * Recorderへのレーンを作る．
+     * */
+    public Lane createLane(Recorder recorder) {
+        return new Lane(recorder);
+    }
+
+    /**
+     * stop workers after all records submitted are appended.
+     * 投入したすべてのレコードが追加されてから，ワーカーを停止する．
+     * */
+    public void shutdown() {
+        long deadline = System.currentTimeMillis() + 10000;
+        synchronized (this) {
+            try {
+                // jobs waiting on lanes are executed by workers, so wait before stop
+                while (active > 0 && System.currentTimeMillis() < deadline) {
+                    wait(deadline - System.currentTimeMillis());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (active > 0) {
+                logger.warn("/recorder/pipeline: records not encoded in time, stopped");
+            }
+        }
+        workers.shutdownNow();
+    }
+
+    /**
+     * count records submitted, and notify when all encoded.
+     * 投入されたレコードを数え，すべて符号化されたら通知する．
+     * */
+    private synchronized void countActive(int delta) {
+        active += delta;
+        if (active == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Listener of records appended by a lane, given the record before encoded.
+     * レーンが追加したレコードのリスナ，符号化する前のレコードが与えられる．
+     * */
+    public interface Listener {
+        /**
+         * called when a record appended, in the order appended.
+         * レコードが追加されたときに，追加した順に呼ばれる．
+         *
+         * @param record record submitted, not prepared by the recorder. 投入したレコード，Recorderで準備する前のもの
+         * @param index index of the record in the recorder. Recorder中のレコードの番号
+         * */
+        void recordAppended(Record record, int index);
+    }
+
+    /**
+     * record submitted, or task run after records submitted before
+     * 投入されたレコード，またはそれより前に投入されたレコードの後に実行するタスク
+     * */
+    private static class Entry {
+        final int time;
+        final Runnable task;
+        ByteBuffer buffer;
+        volatile boolean done;
+
+        /**
+         * record submitted and the index prepared for, to prepare again when records before failed
+         * 投入したレコードと準備した番号，前のレコードが失敗したときに再び準備するため
+         * */
+        final Record record;
+        final int index;
+
+        Entry(int time, Runnable task) {
+            this(time, task, null, -1);
+        }
+
+        Entry(int time, Runnable task, Record record, int index) {
+            this.time = time;
+            this.task = task;
+            this.record = record;
+            this.index = index;
+            this.buffer = null;
+            this.done = (task != null);
+        }
+    }
+
+    /**
+     * Lane - records of one Recorder, appended in the order submitted.
+     * 1つのRecorderのレコード，投入した順に追加される．
+     * */
+    public class Lane {
+        final Recorder recorder;
+
+        /**
+         * entries not appended, in the order submitted
+         * 追加されていないエントリ，投入した順
+         * */
+        final ArrayDeque<Entry> pending;
+
+        /**
+         * jobs to encode waiting for workers, and count of jobs encoding
+         * ワーカーを待つ符号化のジョブと，符号化中のジョブの数
+         * */
+        final ArrayDeque<Runnable> waiting;
+        int encoding;
+
+        /**
+         * time of the last record submitted, and count of records submitted including recorded, except ones failed to encode
+         * 最後に投入したレコードの時間と，記録済みを含む投入したレコードの数(符号化に失敗したものを除く)
+         * */
+        int lastTime;
+        int count;
+
+        /**
+         * lock to append, only one thread appends at once
+         * 追加のためのロック，一度に1つのスレッドのみが追加する
+         * */
+        private final Object appendLock = new Object();
+
+        /**
+         * listeners of records appended
+         * 追加したレコードのリスナ
+         * */
+        final List<Listener> listeners;
+
+        Lane(Recorder recorder) {
+            this.recorder = recorder;
+            this.pending = new ArrayDeque<>();
+            this.waiting = new ArrayDeque<>();
+            this.encoding = 0;
+            this.lastTime = recorder.getCurrentTimeStep();
+            this.count = recorder.size();
+            this.listeners = new CopyOnWriteArrayList<>();
+        }
+
+        /**
+         * add the listener called when a record appended.
+         * レコードが追加されたときに呼ばれるリスナを追加する．
+         * */
+        public void addListener(Listener listener) {
+            listeners.add(listener);
+        }
+
+        /**
+         * remove the listener added.
+         * 追加したリスナを取り除く．
+         * */
+        public void removeListener(Listener listener) {
+            listeners.remove(listener);
+        }
+
+        /**
+         * get the recorder of this lane.
+         * このレーンのRecorderを取得する．
+         * */
+        public Recorder getRecorder() {
+            return recorder;
+        }
+
+        /**
+         * is a record can be submitted.
+         * レコードを投入できるか．
+         * */
+        public synchronized boolean hasRoom() {
+            return pending.size() < capacity;
+        }
+
+        /**
+         * get time of the last record submitted, or recorded.
+         * 最後に投入した，または記録されたレコードの時間を取得する．
+         * */
+        public synchronized int getLastTime() {
+            return lastTime;
+        }
+
+        /**
+         * get count of records submitted, including recorded.
+         * 記録済みを含む，投入したレコードの数を取得する．
+         * */
+        public synchronized int getCount() {
+            return count;
+        }
+
+        /**
+         * submit the record to encode and append.
+         * 符号化して追加するためにレコードを投入する．
+         *
+         * @param record record to append, must not be changed after. 追加するレコード，この後に変更しないこと
+         * @return false if the lane has no room. レーンに空きがない場合はfalse
+         * */
+        public boolean submit(Record record) {
+            Entry entry;
+            int index;
+            synchronized (this) {
+                if (pending.size() >= capacity) {
+                    return false;
+                }
+                index = count;
+                entry = new Entry(record.time, null, record, index);
+                pending.add(entry);
+                lastTime = record.time;
+                count++;
+                countActive(1);
+            }
+
+            Record prepared = recorder.prepareRecord(record, index);
+            Runnable job = () -> {
+                try {
+                    entry.buffer = recorder.getEncoder().encodeRecord(prepared);
+                } catch (EncodeException e) {
+                    logger.error("Encoder Failed", e);
+                    // Not appended, so records submitted next take its index
+                    synchronized (this) {
+                        count--;
+                    }
+                } finally {
+                    entry.done = true;
+                }
+                drain();
+                next();
+                countActive(-1);
+            };
+
+            synchronized (this) {
+                if (encoding >= parallelism) {
+                    waiting.add(job);
+                    return true;
+                }
+                encoding++;
+            }
+            workers.execute(job);
+            return true;
+        }
+
+        /**
+         * run the next job waiting, on a job finished.
+         * ジョブが終わったときに，待っている次のジョブを実行する．
+         * */
+        void next() {
+            Runnable job;
+            synchronized (this) {
+                job = waiting.poll();
+                if (job == null) {
+                    encoding--;
+                    return;
+                }
+            }
+            workers.execute(job);
+        }
+
+        /**
+         * run the task after all records submitted before are appended.
+         * それより前に投入したすべてのレコードが追加された後にタスクを実行する．
+         * */
+        public void runAfter(Runnable task) {
+            synchronized (this) {
+                pending.add(new Entry(0, task));
+            }
+            drain();
+        }
+
+        /**
+         * append records encoded from the head, in order.
+         * 先頭から符号化済みのレコードを順に追加する．
+         * */
+        void drain() {
+            boolean appended = false;
+            synchronized (appendLock) {
+                while (true) {
+                    Entry entry;
+                    synchronized (this) {
+                        entry = pending.peek();
+                        if (entry == null || !entry.done) {
+                            break;
+                        }
+                        pending.poll();
+                    }
+
+                    if (entry.task != null) {
+                        entry.task.run();
+                    }
+                    else if (entry.buffer != null) {
+                        try {
+                            // Records before failed, so the index differs from the one prepared for
+                            if (entry.index != recorder.size()) {
+                                entry.buffer = recorder.getEncoder().encodeRecord(
+                                        recorder.prepareRecord(entry.record, recorder.size()));
+                            }
+                            recorder.appendRecord(entry.time, entry.buffer);
+                            int index = recorder.size() - 1;
+                            for (Listener listener : listeners) {
+                                listener.recordAppended(entry.record, index);
+                            }
+                        } catch (EncodeException | IllegalArgumentException e) {
+                            logger.error("/recorder/pipeline: cannot append record on time " + entry.time, e);
+                        }
+                    }
+                    appended = true;
+                }
+            }
+
+            if (appended) {
+                listener.run();
+            }
+        }
+    }
+}
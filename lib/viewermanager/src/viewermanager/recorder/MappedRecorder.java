@@ -0,0 +1,568 @@
+package viewermanager.recorder;
+
+import org.apache.log4j.Logger;
+import viewermanager.ViewerManagerKeys;
+import viewermanager.encoder.EncodeException;
+import viewermanager.encoder.Encoder;
+import viewermanager.entity.Record;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Mapped Recorder - <code>Recorder</code> keeping encoded records out of the heap, in memory-mapped segment files.
+ * 符号化したレコードをヒープの外，メモリマップしたセグメントファイルに保持する<code>Recorder</code>
+ *
+ * Files in the directory:
+ *  - segment-NNNNN.seg : encoded records appended one after another, mapped as a whole
+ *  - records.idx : index of records, (time(int) | segment(int) | offset(int) | length(int)) for each record
+ *  - identity.properties : source of records and format of the encoder, the records are written from
+ * A record is written to the segment first, and then its index entry, so the index refers only records written.
+ * Opening the directory again restores the records in the index, so records survive restarts of the server;
+ *  records of other source or format are discarded, and a directory open by another recorder is refused.
+ * <code>getRecord</code> returns a read-only slice of the segment without copying.
+ *
+ * ディレクトリ内のファイル:
+ *  - segment-NNNNN.seg : 符号化したレコードを順に追加したもの，全体をマップする
+ *  - records.idx : レコードの索引，レコード毎に(時間(int) | セグメント(int) | 位置(int) | 長さ(int))
+ *  - identity.properties : レコードを書いた読み出し元とEncoderの形式
+ * レコードを先にセグメントに書き，その後で索引の項目を書くため，索引は書き終えたレコードのみを指す．
+ * 同じディレクトリを再び開くと索引にあるレコードを復元するため，レコードはサーバの再起動後も残る．
+ *  読み出し元か形式が異なるレコードは破棄し，他のRecorderが開いているディレクトリは拒否する．
+ * <code>getRecord</code>はセグメントの読み出し専用のスライスを複製せずに返す．
+ * */
+public class MappedRecorder implements Recorder, Closeable {
+
+    /** name of the index file. 索引ファイルの名前 */
+    public static final String INDEX_FILE = "records.idx";
+    /** size of an entry of the index. 索引の1項目のサイズ */
+    public static final int INDEX_ENTRY_SIZE = 16;
+    /** name of the identity file. 識別ファイルの名前 */
+    public static final String IDENTITY_FILE = "identity.properties";
+
+    /**
+     * directories open by recorders, canonical
+     * Recorderが開いているディレクトリ(正規化したもの)
+     * */
+    private static final Set<File> opened = ConcurrentHashMap.newKeySet();
+
+    /**
+     * directory of segments and index
+     * セグメントと索引のディレクトリ
+     * */
+    private final File directory;
+    private final File canonical;
+
+    /**
+     * source of records, or null not to check
+     * レコードの読み出し元，確認しない場合はnull
+     * */
+    private final String source;
+
+    /**
+     * delete the directory on close, for records not used again
+     * 閉じるときにディレクトリを削除するか，再び使わないレコードのため
+     * */
+    private volatile boolean deleteOnClose;
+    private boolean closed;
+
+    /**
+     * size of a segment; a record larger than this has own segment
+     * セグメントのサイズ，これより大きいレコードは専用のセグメントを持つ
+     * */
+    private final int segmentSize;
+
+    /**
+     * segments mapped, by number
+     * マップしたセグメント(番号毎)
+     * */
+    private final List<MappedByteBuffer> segments;
+
+    /**
+     * channel of the index appending
+     * 追加する索引のチャンネル
+     * */
+    private FileChannel indexChannel;
+
+    /**
+     * index of records: segment, offset and length
+     * レコードの索引: セグメント，位置，長さ
+     * */
+    private int[] segmentOf;
+    private int[] offsetOf;
+    private int[] lengthOf;
+    private int count;
+
+    /**
+     * position to write in the last segment
+     * 最後のセグメント中の書き込む位置
+     * */
+    private int writePosition;
+
+    /**
+     * current TimeStep taken from appended Record
+     * 最後に与えられた<code>Record</code>から得たTimeStep
+     * */
+    private int currentTimeStep;
+
+    private final Encoder encoder;
+
+    /**
+     * listeners of records appended
+     * レコードの追加のリスナ
+     * */
+    private final List<Listener> listeners;
+
+    private Logger logger;
+
+    /**
+     * Constructor, segment size is taken from <code>ViewerManagerKeys.RECORDER_SEGMENT_SIZE</code>.
+     * コンストラクタ，セグメントのサイズは<code>ViewerManagerKeys.RECORDER_SEGMENT_SIZE</code>から取得する．
+     *
+     * @param encoder encoder of records. レコードのEncoder
+     * @param directory directory of segments, records in it are restored. セグメントのディレクトリ，中のレコードは復元する
+     * @exception IOException cannot create or read the directory, or open by another recorder.
+     * */
+    public MappedRecorder(Encoder encoder, File directory) throws IOException {
+        this(encoder, directory, null);
+    }
+
+    /**
+     * Constructor, segment size is taken from <code>ViewerManagerKeys.RECORDER_SEGMENT_SIZE</code>.
+     * コンストラクタ，セグメントのサイズは<code>ViewerManagerKeys.RECORDER_SEGMENT_SIZE</code>から取得する．
+     *
+     * @param encoder encoder of records. レコードのEncoder
+     * @param directory directory of segments, records of the same source are restored. セグメントのディレクトリ，同じ読み出し元のレコードは復元する
+     * @param source source of records, or null not to check. レコードの読み出し元，確認しない場合はnull
+     * @exception IOException cannot create or read the directory, or open by another recorder.
+     * */
+    public MappedRecorder(Encoder encoder, File directory, String source) throws IOException {
+        this(encoder, directory, Integer.parseInt(System.getProperty(ViewerManagerKeys.RECORDER_SEGMENT_SIZE,
+                ViewerManagerKeys.RECORDER_DEFAULT_SEGMENT_SIZE)) * 1024 * 1024, source);
+    }
+
+    /**
+     * Constructor.
+     * コンストラクタ
+     *
+     * @param encoder encoder of records. レコードのEncoder
+     * @param directory directory of segments, records in it are restored. セグメントのディレクトリ，中のレコードは復元する
+     * @param segmentSize size of a segment in bytes. セグメントのバイト数
+     * @exception IOException cannot create or read the directory, or open by another recorder.
+     * */
+    public MappedRecorder(Encoder encoder, File directory, int segmentSize) throws IOException {
+        this(encoder, directory, segmentSize, null);
+    }
+
+    /**
+     * Constructor.
+     * コンストラクタ
+     *
+     * @param encoder encoder of records. レコードのEncoder
+     * @param directory directory of segments, records of the same source are restored. セグメントのディレクトリ，同じ読み出し元のレコードは復元する
+     * @param segmentSize size of a segment in bytes. セグメントのバイト数
+     * @param source source of records, or null not to check. レコードの読み出し元，確認しない場合はnull
+     * @exception IOException cannot create or read the directory, or open by another recorder.
+     * */
+    public MappedRecorder(Encoder encoder, File directory, int segmentSize, String source) throws IOException {
+        logger = Logger.getLogger(System.getProperty(ViewerManagerKeys.LOGGER, ViewerManagerKeys.DEFAULT_LOGGER));
+        if (Objects.isNull(logger)) {
+            logger = Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER);
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("MappedRecorder - Cannot create directory: " + directory);
+        }
+
+        this.encoder = encoder;
+        this.directory = directory;
+        this.canonical = directory.getCanonicalFile();
+        this.source = source;
+        this.deleteOnClose = false;
+        this.closed = false;
+        this.segmentSize = segmentSize;
+        this.segments = new ArrayList<>();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.segmentOf = new int[256];
+        this.offsetOf = new int[256];
+        this.lengthOf = new int[256];
+        this.count = 0;
+        this.writePosition = 0;
+        this.currentTimeStep = 0;
+
+        // Records are appended by one recorder
+        if (!opened.add(canonical)) {
+            throw new IOException("MappedRecorder - Directory already open: " + directory);
+        }
+        try {
+            validate();
+            restore();
+        } catch (IOException | RuntimeException e) {
+            opened.remove(canonical);
+            throw e;
+        }
+    }
+
+    /**
+     * discard records of the directory when written from other source or format, and write the identity.
+     * ディレクトリのレコードが他の読み出し元や形式で書かれていれば破棄し，識別を書き込む．
+     * */
+    private void validate() throws IOException {
+        File file = new File(directory, IDENTITY_FILE);
+        Properties identity = new Properties();
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                identity.load(in);
+            }
+        }
+
+        String format = encoder.getFormat();
+        boolean valid = format.equals(identity.getProperty("format"))
+                && (source == null || source.equals(identity.getProperty("source")));
+        if (valid) {
+            return;
+        }
+        if (new File(directory, INDEX_FILE).exists()) {
+            logger.info("/recorder/mapped: records of other source or format discarded on " + directory);
+        }
+        deleteRecords();
+
+        identity.setProperty("format", format);
+        if (source != null) {
+            identity.setProperty("source", source);
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            identity.store(out, "MappedRecorder");
+        }
+    }
+
+    /**
+     * delete the index and segments in the directory.
+     * ディレクトリ中の索引とセグメントを削除する．
+     * */
+    private void deleteRecords() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.equals(INDEX_FILE) || name.endsWith(".seg"));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * read the index and map segments written before.
+     * 索引を読み，以前に書かれたセグメントをマップする．
+     * */
+    private void restore() throws IOException {
+        indexChannel = FileChannel.open(new File(directory, INDEX_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        // Drop a partial entry written on crash
+        long entries = indexChannel.size() / INDEX_ENTRY_SIZE;
+        indexChannel.truncate(entries * INDEX_ENTRY_SIZE);
+
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        for (long i = 0; i < entries; i++) {
+            entry.clear();
+            indexChannel.read(entry, i * INDEX_ENTRY_SIZE);
+            entry.flip();
+            int time = entry.getInt();
+            int segment = entry.getInt();
+            int offset = entry.getInt();
+            int length = entry.getInt();
+
+            while (segments.size() <= segment) {
+                segments.add(mapSegment(segments.size(), 0));
+            }
+            if (offset + length > segments.get(segment).capacity()) {
+                // The segment is lost, records after this are not available
+                logger.warn("MappedRecorder - index refers out of segment " + segment + ", records restored until " + currentTimeStep);
+                indexChannel.truncate(i * INDEX_ENTRY_SIZE);
+                break;
+            }
+            addIndex(segment, offset, length);
+            currentTimeStep = time;
+            writePosition = offset + length;
+        }
+        indexChannel.position(indexChannel.size());
+
+        if (count > 0) {
+            logger.info(String.format("/recorder/mapped: restored %d records from %s", count, directory));
+        }
+    }
+
+    /**
+     * map the segment; it's created with <code>size</code> if not exists.
+     * セグメントをマップする．存在しなければ<code>size</code>で作る．
+     * */
+    private MappedByteBuffer mapSegment(int number, int size) throws IOException {
+        File file = new File(directory, String.format("segment-%05d.seg", number));
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long length = Math.max(channel.size(), size);
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+    }
+
+    /**
+     * add an entry to the index on memory; must be called in synchronized or on constructing.
+     * メモリ上の索引に項目を追加する．synchronizedの中か構築中に呼ぶこと．
+     * */
+    private void addIndex(int segment, int offset, int length) {
+        if (count == segmentOf.length) {
+            segmentOf = Arrays.copyOf(segmentOf, count * 2);
+            offsetOf = Arrays.copyOf(offsetOf, count * 2);
+            lengthOf = Arrays.copyOf(lengthOf, count * 2);
+        }
+        segmentOf[count] = segment;
+        offsetOf[count] = offset;
+        lengthOf[count] = length;
+        count++;
+    }
+
+    /**
+     * Append Record to the segment.
+     * Appended records will be serialized to byte array.
+     *
+     * セグメントに<code>Record</code>を追加する．
+     * 追加された<code>Record</code>はバイト配列に直列化されます．
+     *
+     * @param record record appended.
+     * */
+    @Override
+    public void appendRecord(Record record) throws EncodeException {
+        if (currentTimeStep >= record.time) {
+            throw new IllegalArgumentException("Record time Reverted: " + String.format("{'currentTimeStep': %d, 'record.time': %d}", currentTimeStep, record.time));
+        }
+
+        // Encode Record
+        ByteBuffer buffer;
+        try {
+            buffer = encoder.encodeRecord(record);
+        } catch (EncodeException e) {
+            logger.error("MappedRecorder - Cannot encode Record", e);
+            throw e;
+        }
+        if (buffer == null) {
+            return;
+        }
+        appendRecord(record.time, buffer);
+    }
+
+    /**
+     * Append Record encoded by <code>getEncoder</code> to the segment.
+     * <code>getEncoder</code>で直列化済みの<code>Record</code>をセグメントに追加する．
+     *
+     * @param time time of the record. レコードの時間
+     * @param buffer record encoded. 直列化済みのレコード
+     * */
+    @Override
+    public void appendRecord(int time, ByteBuffer buffer) throws EncodeException {
+        if (currentTimeStep >= time) {
+            throw new IllegalArgumentException("Record time Reverted: " + String.format("{'currentTimeStep': %d, 'record.time': %d}", currentTimeStep, time));
+        }
+
+        // Write to the segment, and then to the index; only one thread appends at once
+        int length = buffer.remaining();
+        int size;
+        try {
+            int segment = segments.size() - 1;
+            if (segment < 0 || writePosition + length > segments.get(segment).capacity()) {
+                MappedByteBuffer mapped = mapSegment(segment + 1, Math.max(segmentSize, length));
+                synchronized (this) {
+                    segments.add(mapped);
+                }
+                segment++;
+                writePosition = 0;
+            }
+
+            ByteBuffer target = segments.get(segment).duplicate();
+            target.position(writePosition);
+            target.put(buffer.duplicate());
+
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            entry.putInt(time).putInt(segment).putInt(writePosition).putInt(length);
+            entry.flip();
+            while (entry.hasRemaining()) {
+                indexChannel.write(entry);
+            }
+
+            synchronized (this) {
+                addIndex(segment, writePosition, length);
+                currentTimeStep = time;
+                size = count;
+            }
+            writePosition += length;
+        } catch (IOException e) {
+            logger.error("MappedRecorder - Cannot write Record", e);
+            throw new EncodeException("MappedRecorder - Cannot write Record on time " + time, e);
+        }
+        logger.debug(String.format("/recorder/mapped: record appended: {time: %d, length: %d}", time, length));
+
+        // Notify out of the lock
+        for (Listener listener : listeners) {
+            listener.recordAppended(this, size);
+        }
+    }
+
+    /**
+     * get Serialized Record by time, as a read-only slice of the segment.
+     * 指定した<code>timeStep</code>の直列化済みレコードを，セグメントの読み出し専用のスライスとして取得する
+     *
+     * @param timeStep timeStep of record required.
+     * @return record encoded if timeStep already encoded. Else null.
+     * */
+    @Override
+    public ByteBuffer getRecord(int timeStep) {
+        ByteBuffer buf;
+        int offset;
+        int length;
+        synchronized (this) {
+            if (timeStep < 0 || timeStep >= count) {
+                return null;
+            }
+            buf = segments.get(segmentOf[timeStep]).asReadOnlyBuffer();
+            offset = offsetOf[timeStep];
+            length = lengthOf[timeStep];
+        }
+
+        buf.limit(offset + length);
+        buf.position(offset);
+        return buf.slice();
+    }
+
+    /**
+     * get Listed Record count.
+     * 追加された<code>Record</code>の数を返す．
+     *
+     * @return count of records
+     * */
+    @Override
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * get all record listed.
+     * 追加されたすべてのレコードの配列を返す．
+     *
+     * @return array of all records encoded, not null.
+     * */
+    @Override
+    public ByteBuffer[] getRecords() {
+        int size = size();
+        ByteBuffer[] records = new ByteBuffer[size];
+        for (int i = 0; i < size; i++) {
+            records[i] = getRecord(i);
+        }
+        return records;
+    }
+
+    /**
+     * get the time of the last record appended, or restored.
+     * 最後に追加された，または復元されたレコードの時間を取得する．
+     * */
+    @Override
+    public synchronized int getCurrentTimeStep() {
+        return currentTimeStep;
+    }
+
+    /**
+     * get <code>Encoder</code> used.
+     * 利用する<code>Encoder</code>を取得する．
+     *
+     * @return registered Encoder
+     * */
+    @Override
+    public Encoder getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * get the directory of segments.
+     * セグメントのディレクトリを取得する．
+     * */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * delete the directory on close, for records not used again like ones of online Providers.
+     * 閉じるときにディレクトリを削除する．オンラインのProviderのものなど，再び使わないレコードのため．
+     * */
+    public void setDeleteOnClose(boolean deleteOnClose) {
+        this.deleteOnClose = deleteOnClose;
+    }
+
+    /**
+     * add the listener called when a record appended.
+     * レコードが追加されたときに呼ばれるリスナを追加する．
+     * */
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * remove the listener added.
+     * 追加したリスナを取り除く．
+     * */
+    @Override
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * write segments and index to the disk, and close the index; or delete them if <code>setDeleteOnClose</code>.
+     *  segments are unmapped when the buffers are collected.
+     * セグメントと索引をディスクに書き出し，索引を閉じる．<code>setDeleteOnClose</code>の場合はそれらを削除する．
+     *  セグメントはバッファが回収されたときにマップが解除される．
+     * */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            if (deleteOnClose) {
+                indexChannel.close();
+                deleteRecords();
+                Files.deleteIfExists(new File(directory, IDENTITY_FILE).toPath());
+                Files.deleteIfExists(directory.toPath());
+                logger.debug("/recorder/mapped: records deleted on " + directory);
+            }
+            else {
+                for (MappedByteBuffer segment : segments) {
+                    segment.force();
+                }
+                indexChannel.force(true);
+                indexChannel.close();
+            }
+        } catch (IOException e) {
+            logger.warn("MappedRecorder - Cannot close records of " + directory, e);
+        } finally {
+            opened.remove(canonical);
+        }
+    }
+}
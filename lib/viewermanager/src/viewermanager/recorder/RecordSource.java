@@ -0,0 +1,31 @@
+package viewermanager.recorder;
+
+import viewermanager.entity.Record;
+
+import java.io.Closeable;
+
+/**
+ * RecordSource - Source to read a record of any time again, like a log file.
+ *  Used by <code>DefaultRecorder</code> to re-materialize records evicted.
+ *
+ * ログファイルのように，任意の時間のレコードを再び読み出せる読み出し元．
+ *  <code>DefaultRecorder</code>が追い出したレコードを再び作るために使う．
+ * */
+public interface RecordSource extends Closeable {
+
+    /**
+     * read the record of the time, same as provided first.
+     * 最初に提供されたものと同じ，その時間のレコードを読み出す．
+     *
+     * @param time time of the record. レコードの時間
+     * @return record, or null if cannot read. レコード，読み出せない場合はnull
+     * */
+    Record readRecord(int time);
+
+    /**
+     * release resources to read; reading after closed opens them again.
+     * 読み出しのための資源を開放する．閉じた後に読み出すと再び開く．
+     * */
+    @Override
+    void close();
+}
@@ -27,6 +27,43 @@ public interface Recorder {
      * */
     void appendRecord(Record record) throws EncodeException;
 
+    /**
+     * Append Record already serialized by <code>getEncoder</code>, to encode out of the recorder.
+     *
+     * <code>getEncoder</code>で直列化済みの<code>Record</code>を追加する．Recorderの外で直列化するために使う．
+     *
+     * @param time time of the record. レコードの時間
+     * @param buffer record encoded. 直列化済みのレコード
+     * */
+    void appendRecord(int time, ByteBuffer buffer) throws EncodeException;
+
+    /**
+     * Prepare the record to encode as the record of the index; recorders may leave out parts of it.
+     *
+     * <code>index</code>番目のレコードとして符号化するためにレコードを準備する．Recorderはその一部を省くことがある．
+     *
+     * @param record record to append. 追加するレコード
+     * @param index index of the record appended. 追加されるレコードの番号
+     * @return record to encode, the given one if not changed. 符号化するレコード，変更しない場合は与えられたもの
+     * */
+    default Record prepareRecord(Record record, int index) {
+        return record;
+    }
+
+    /**
+     * get index of the record to start reading from, for the state of the index.
+     *  Records from the index returned to <code>index</code> make the whole state of the world.
+     *
+     * <code>index</code>の状態のために読み始めるレコードの番号を取得する．
+     *  返す番号から<code>index</code>までのレコードでワールド全体の状態となる．
+     *
+     * @param index index of the record required. 要求されたレコードの番号
+     * @return index to start, not over <code>index</code>. 読み始める番号，<code>index</code>を超えない
+     * */
+    default int getKeyframeIndex(int index) {
+        return index;
+    }
+
     /**
      * get Serialized Record by time.
      * 指定した<code>timeStep</code>の直列化済みレコードを取得する
@@ -52,6 +89,14 @@ public interface Recorder {
      * */
     ByteBuffer[] getRecords();
 
+    /**
+     * get the time of the last record appended.
+     * 最後に追加されたレコードの時間を取得する．
+     *
+     * @return time of the last record, or 0 if no records.
+     * */
+    int getCurrentTimeStep();
+
     /**
      * get <code>Encoder</code> used.
      * 利用する<code>Encoder</code>を取得する．
@@ -59,6 +104,39 @@ public interface Recorder {
      * @return registered Encoder
      * */
     Encoder getEncoder();
+
+    /**
+     * add the listener called when a record appended.
+     * レコードが追加されたときに呼ばれるリスナを追加する．
+     *
+     * @param listener listener to add.
+     * */
+    void addListener(Listener listener);
+
+    /**
+     * remove the listener added.
+     * 追加したリスナを取り除く．
+     *
+     * @param listener listener to remove.
+     * */
+    void removeListener(Listener listener);
+
+    /**
+     * Listener of records appended, called after the record is available with <code>getRecord</code>.
+     *  it may be called on the thread appending, so do not block.
+     * 追加されたレコードのリスナ，<code>getRecord</code>でレコードが取得できるようになってから呼ばれる．
+     *  追加したスレッド上で呼ばれる可能性があるため，ブロックしないこと．
+     * */
+    interface Listener {
+        /**
+         * called when a record appended.
+         * レコードが追加されたときに呼ばれる．
+         *
+         * @param recorder recorder appended. 追加されたRecorder
+         * @param size count of records after appended. 追加後のレコードの数
+         * */
+        void recordAppended(Recorder recorder, int size);
+    }
 }
 
 
@@ -0,0 +1,252 @@
+package viewermanager.recorder;
+
+import org.apache.log4j.Logger;
+import viewermanager.ViewerManagerKeys;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * RecorderCache - Bound the bytes of records kept on the heap by all <code>DefaultRecorder</code>s.
+ *  Over the budget, recorders of the Provider least recently accessed by Viewers are evicted first:
+ *  a recorder with a <code>RecordSource</code> releases its oldest records, which are read again on demand,
+ *  and a recorder without source is dropped whole unless pinned.
+ * Records of <code>MappedRecorder</code> are off the heap, and not counted.
+ * Caches of data made from records, registered by <code>addCache</code>, are charged to the budget with the records;
+ *  the data of a Provider is released before its records are evicted.
+ *
+ * すべての<code>DefaultRecorder</code>がヒープに保持するレコードのバイト数を制限する．
+ *  予算を超えると，Viewerが最も以前にアクセスしたProviderのRecorderから追い出す:
+ *  <code>RecordSource</code>を持つRecorderは古いレコードを開放し，それらは要求されたときに再び読み出される．
+ *  読み出し元を持たないRecorderは固定されていなければ全体を破棄する．
+ * <code>MappedRecorder</code>のレコードはヒープの外にあるため数えない．
+ * <code>addCache</code>で登録した，レコードから作ったデータのキャッシュはレコードと共に予算に計上する．
+ *  Providerのデータはそのレコードを追い出す前に開放する．
+ * */
+public class RecorderCache {
+
+    /**
+     * Cache of data made from records of recorders, charged to the budget with the records.
+     * Recorderのレコードから作ったデータのキャッシュ，レコードと共に予算に計上する．
+     * */
+    public interface ChargedCache {
+        /**
+         * get bytes kept on the heap, besides records of recorders.
+         * Recorderのレコードとは別にヒープに保持しているバイト数を取得する．
+         * */
+        long getBytes();
+
+        /**
+         * release data of the provider, its records are going to be evicted.
+         * Providerのデータを開放する．そのレコードは追い出される．
+         *
+         * @return bytes released. 開放したバイト数
+         * */
+        long invalidate(int providerId);
+    }
+
+    /**
+     * budget of bytes on the heap
+     * ヒープ上のバイト数の予算
+     * */
+    long budget;
+
+    /**
+     * bytes evicted, and recorders dropped
+     * 追い出したバイト数と，破棄したRecorderの数
+     * */
+    long evictedBytes;
+    long droppedRecorders;
+
+    /**
+     * hits and misses of recorders dropped, kept for the stats
+     * 破棄したRecorderのヒットとミス，統計のために保持する
+     * */
+    long droppedHits;
+    long droppedMisses;
+
+    /**
+     * caches charged to the budget
+     * 予算に計上するキャッシュ
+     * */
+    final List<ChargedCache> caches;
+
+    Logger logger;
+
+    /**
+     * Constructor, with the budget of <code>ViewerManagerKeys.RECORDER_BUDGET</code> in megabytes.
+     * <code>ViewerManagerKeys.RECORDER_BUDGET</code>のメガバイト単位の予算で作る．
+     * */
+    public RecorderCache() {
+        this(Long.parseLong(System.getProperty(ViewerManagerKeys.RECORDER_BUDGET,
+                ViewerManagerKeys.RECORDER_DEFAULT_BUDGET)) * 1024 * 1024);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param budget budget of bytes on the heap. ヒープ上のバイト数の予算
+     * */
+    public RecorderCache(long budget) {
+        logger = Logger.getLogger(System.getProperty(ViewerManagerKeys.LOGGER, ViewerManagerKeys.DEFAULT_LOGGER));
+        if (Objects.isNull(logger)) {
+            logger = Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER);
+        }
+
+        this.budget = budget;
+        caches = new CopyOnWriteArrayList<>();
+        evictedBytes = 0;
+        droppedRecorders = 0;
+        droppedHits = 0;
+        droppedMisses = 0;
+    }
+
+    /**
+     * register the cache charged to the budget.
+     * 予算に計上するキャッシュを登録する．
+     * */
+    public void addCache(ChargedCache cache) {
+        caches.add(cache);
+    }
+
+    /**
+     * Evict records until the bytes on the heap fit the budget.
+     *  Data of caches made from records of a Provider is released first, and then its records.
+     *  Recorders dropped are not removed from <code>recorders</code>, the caller removes them.
+     * ヒープ上のバイト数が予算に収まるまでレコードを追い出す．
+     *  Providerのレコードから作ったキャッシュのデータを先に開放し，その後でレコードを追い出す．
+     *  破棄したRecorderは<code>recorders</code>から取り除かないため，呼び出し側が取り除く．
+     *
+     * @param recorders provider's id => recorder. ProviderId => Recorder
+     * @param lastAccess provider's id => last time Viewers accessed. ProviderId => Viewerが最後にアクセスした時間
+     * @param pinned ids of providers not to drop, in use. 利用中で破棄しないProviderId
+     * @return ids of providers whose recorder dropped. Recorderを破棄したProviderId
+     * */
+    public synchronized List<Integer> evict(Map<Integer, Recorder> recorders, Map<Integer, Long> lastAccess, Set<Integer> pinned) {
+        List<Integer> dropped = new ArrayList<>();
+        long bytes = getBytes(recorders) + getCachedBytes();
+        if (bytes <= budget) {
+            return dropped;
+        }
+
+        // Least recently accessed first
+        List<Integer> ids = new ArrayList<>(recorders.keySet());
+        ids.sort(Comparator.comparingLong((Integer id) -> lastAccess.getOrDefault(id, 0L)).thenComparing(id -> id));
+
+        for (Integer id : ids) {
+            if (bytes <= budget) {
+                break;
+            }
+            // Data made from records evicted is not valid
+            for (ChargedCache cache : caches) {
+                bytes -= cache.invalidate(id);
+            }
+            Recorder recorder = recorders.get(id);
+            if (bytes <= budget || !(recorder instanceof DefaultRecorder)) {
+                continue;
+            }
+
+            DefaultRecorder heap = (DefaultRecorder) recorder;
+            if (heap.getSource() != null) {
+                // Release the oldest records, read again on demand
+                long released = heap.evict(bytes - budget);
+                evictedBytes += released;
+                bytes -= released;
+            }
+            else if (!pinned.contains(id)) {
+                // Cannot read again, drop all
+                bytes -= heap.getBytes();
+                droppedHits += heap.getHits();
+                droppedMisses += heap.getMisses();
+                droppedRecorders++;
+                dropped.add(id);
+            }
+        }
+
+        if (bytes > budget) {
+            logger.info(String.format("/recorder/cache: %d bytes kept over the budget %d, recorders in use", bytes, budget));
+        }
+        return dropped;
+    }
+
+    /**
+     * get bytes of records kept on the heap.
+     * ヒープに保持しているレコードのバイト数を取得する．
+     * */
+    static long getBytes(Map<Integer, Recorder> recorders) {
+        long bytes = 0;
+        for (Recorder recorder : recorders.values()) {
+            if (recorder instanceof DefaultRecorder) {
+                bytes += ((DefaultRecorder) recorder).getBytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * get bytes kept by caches charged.
+     * 計上するキャッシュが保持しているバイト数を取得する．
+     * */
+    long getCachedBytes() {
+        long bytes = 0;
+        for (ChargedCache cache : caches) {
+            bytes += cache.getBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * get stats of the recorders.
+     * Recorderの統計を取得する．
+     *
+     * @param recorders provider's id => recorder. ProviderId => Recorder
+     * */
+    public synchronized Stats getStats(Map<Integer, Recorder> recorders) {
+        Stats stats = new Stats();
+        stats.budget = budget;
+        stats.bytes = 0;
+        stats.hits = droppedHits;
+        stats.misses = droppedMisses;
+        stats.evicted = evictedBytes;
+        stats.dropped = droppedRecorders;
+        stats.recorders = recorders.size();
+        stats.cached = getCachedBytes();
+        for (Recorder recorder : recorders.values()) {
+            if (recorder instanceof DefaultRecorder) {
+                DefaultRecorder heap = (DefaultRecorder) recorder;
+                stats.bytes += heap.getBytes();
+                stats.hits += heap.getHits();
+                stats.misses += heap.getMisses();
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Stats of the recorders, hits and misses are counted on records requested.
+     * Recorderの統計．ヒットとミスは要求されたレコードで数える．
+     * */
+    public static class Stats {
+        /// budget of bytes on the heap. ヒープ上のバイト数の予算
+        public long budget;
+        /// bytes kept on the heap. ヒープに保持しているバイト数
+        public long bytes;
+        /// records kept on the heap. ヒープに保持していたレコード
+        public long hits;
+        /// records read again from sources. 読み出し元から再び読み出したレコード
+        public long misses;
+        /// bytes evicted. 追い出したバイト数
+        public long evicted;
+        /// recorders dropped. 破棄したRecorderの数
+        public long dropped;
+        /// recorders kept. 保持しているRecorderの数
+        public int recorders;
+        /// bytes kept by caches charged. 計上するキャッシュが保持しているバイト数
+        public long cached;
+    }
+}
@@ -0,0 +1,235 @@
+package viewermanager.recorder;
+
+import org.apache.log4j.Logger;
+import viewermanager.ViewerManagerKeys;
+import viewermanager.encoder.EncodeException;
+import viewermanager.entity.Entity;
+import viewermanager.entity.MapInfo;
+import viewermanager.entity.Record;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * WorldSnapshot - One record with the whole world of a step, made from records of the Recorder.
+ *  The world is taken from the latest record having the world at or before the step (the keyframe),
+ *  and the changes of records after it are applied.
+ *  The world made is kept, and records appended by the lane are applied as they are, before encoded;
+ *  so a snapshot decodes only records not applied yet, such as ones recorded before this is made.
+ *  Map and config are taken from the first record.
+ *  The world kept is charged to the budget of <code>RecorderCache</code> by <code>getBytes</code>.
+ *  A Viewer joined on the way gets this one record instead of all records from the first.
+ *
+ * Recorderのレコードから作る，あるステップのワールド全体を持つ1つのレコード．
+ *  ワールドはそのステップ以前でワールドを持つ最新のレコード(キーフレーム)から取り，その後のレコードの変化を適用する．
+ *  作ったワールドは保持し，レーンが追加したレコードを符号化する前のまま適用するため，
+ *  スナップショットはこれを作る前に記録されたものなど，適用していないレコードのみを復元する．
+ *  マップとコンフィグは最初のレコードから取る．
+ *  保持するワールドは<code>getBytes</code>により<code>RecorderCache</code>の予算に計上する．
+ *  途中から参加したViewerは，最初からのすべてのレコードの代わりにこの1つのレコードを得る．
+ * */
+public class WorldSnapshot implements EncodingPipeline.Listener {
+
+    /**
+     * estimated bytes of an entity kept on the heap
+     * ヒープに保持するEntity1つの見積もりのバイト数
+     * */
+    static final int ENTITY_BYTES = 256;
+
+    private final Recorder recorder;
+
+    /**
+     * entities of the world made, by id; and index of the last record applied, -1 for nothing
+     * 作ったワールドのEntity(IDで検索)と，最後に適用したレコードの番号，なければ-1
+     * */
+    private Map<Integer, Entity> world;
+    private int index;
+
+    /**
+     * the last record applied without the world, or null
+     * 最後に適用したワールドを除くレコード，またはnull
+     * */
+    private Record last;
+
+    /**
+     * map and config of the first record, or records applied later
+     * 最初のレコード，または後に適用したレコードのマップとコンフィグ
+     * */
+    private MapInfo map;
+    private Map<String, String> config;
+
+    Logger logger;
+
+    /**
+     * Constructor.
+     *
+     * @param recorder recorder of records, its encoder must decode. レコードのRecorder，そのEncoderは復元できること
+     * */
+    public WorldSnapshot(Recorder recorder) {
+        logger = Logger.getLogger(System.getProperty(ViewerManagerKeys.LOGGER, ViewerManagerKeys.DEFAULT_LOGGER));
+        if (Objects.isNull(logger)) {
+            logger = Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER);
+        }
+
+        this.recorder = recorder;
+        this.world = new LinkedHashMap<>();
+        this.index = -1;
+        this.last = null;
+        this.map = null;
+        this.config = null;
+    }
+
+    /**
+     * create the record of the step with the whole world, encoded by the encoder of the Recorder.
+     * ステップのワールド全体を持つレコードを作り，RecorderのEncoderで変換する．
+     *
+     * @param target index of the record. レコードの番号
+     * @return record encoded, or null if not recorded. 変換したレコード，記録されていない場合はnull
+     * */
+    public synchronized ByteBuffer create(int target) throws EncodeException {
+        if (target < 0 || target >= recorder.size()) {
+            return null;
+        }
+
+        if (index > target) {
+            world.clear();
+            index = -1;
+            last = null;
+        }
+        if (map == null && config == null) {
+            // The first record has map and config
+            Record first = decode(0);
+            if (first != null) {
+                map = first.map;
+                config = first.config;
+            }
+        }
+
+        // Skip records before the latest world, not applied yet
+        index = findKeyframe(recorder.getKeyframeIndex(target), index + 1) - 1;
+
+        Record record = null;
+        for (int i = index + 1; i <= target; i++) {
+            record = decode(i);
+            if (record == null) {
+                return null;
+            }
+            apply(record);
+            index = i;
+        }
+        if (record == null) {
+            // Applied already
+            record = (last != null) ? last : decode(target);
+            if (record == null) {
+                return null;
+            }
+        }
+
+        Record snapshot = record.copy();
+        snapshot.world = new ArrayList<>(world.values());
+        snapshot.map = map;
+        snapshot.config = config;
+        logger.debug("/recorder/snapshot: snapshot created on " + target + ", entities " + world.size());
+        return recorder.getEncoder().encodeRecord(snapshot);
+    }
+
+    /**
+     * apply the record appended by the lane, when it is the next of records applied.
+     *  a record after a gap is not applied, and the gap is decoded on the next snapshot.
+     * レーンが追加したレコードを，適用したレコードの次であれば適用する．
+     *  間が空いたレコードは適用せず，間は次のスナップショットで復元する．
+     * */
+    @Override
+    public synchronized void recordAppended(Record record, int index) {
+        if (index != this.index + 1) {
+            return;
+        }
+        Record prepared = recorder.prepareRecord(record, index);
+        Record applied = prepared.copy();
+        // World of the record is shared, so entities are copied before updated
+        List<Entity> entities = prepared.getWorld();
+        if (entities != null) {
+            applied.world = new ArrayList<>(entities.size());
+            for (Entity entity : entities) {
+                Entity copy = new Entity();
+                copy.update(entity);
+                applied.world.add(copy);
+            }
+        }
+        apply(applied);
+        this.index = index;
+    }
+
+    /**
+     * get estimated bytes of the world kept.
+     * 保持しているワールドの見積もりのバイト数を取得する．
+     * */
+    public synchronized long getBytes() {
+        return (long) world.size() * ENTITY_BYTES;
+    }
+
+    /**
+     * find the latest record having the world from <code>from</code> down to <code>lowest</code>.
+     * <code>from</code>から<code>lowest</code>までで，ワールドを持つ最新のレコードを探す．
+     *
+     * @return index of the record, or <code>lowest</code> if not found. レコードの番号，見つからない場合は<code>lowest</code>
+     * */
+    private int findKeyframe(int from, int lowest) throws EncodeException {
+        for (int i = from; i > lowest; i--) {
+            Record record = decode(i);
+            if (record != null && record.world != null) {
+                return i;
+            }
+        }
+        return lowest;
+    }
+
+    /**
+     * apply the record to the world.
+     * レコードをワールドに適用する．
+     * */
+    private void apply(Record record) {
+        last = record.copy();
+        last.setWorldSupplier(null);
+        if (record.map != null) {
+            map = record.map;
+        }
+        if (record.config != null) {
+            config = record.config;
+        }
+        if (record.world != null) {
+            world.clear();
+            for (Entity entity : record.world) {
+                if (entity.id != null) {
+                    world.put(entity.id, entity);
+                }
+            }
+        }
+        if (record.changes != null) {
+            for (Entity change : record.changes) {
+                if (change.id == null) {
+                    continue;
+                }
+                if (Boolean.TRUE.equals(change.deleted)) {
+                    world.remove(change.id);
+                    continue;
+                }
+                Entity entity = world.get(change.id);
+                if (entity == null) {
+                    entity = new Entity();
+                    world.put(change.id, entity);
+                }
+                entity.update(change);
+            }
+        }
+    }
+
+    private Record decode(int i) throws EncodeException {
+        ByteBuffer buffer = recorder.getRecord(i);
+        return (buffer != null) ? recorder.getEncoder().decodeRecord(buffer) : null;
+    }
+}
@@ -0,0 +1,127 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import viewermanager.encoder.CompactEntityModule;
+import viewermanager.entity.Entity;
+import viewermanager.entity.EntityField;
+import viewermanager.entity.Point;
+import viewermanager.entity.Record;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+public class CompactEntityModuleTest {
+
+    private List<Entity> createEntities(Random random, int size) {
+        List<Entity> entities = new ArrayList<>();
+        for (int i = 1; i <= size; i++) {
+            Entity entity = new Entity();
+            entity.id = i;
+            switch (i % 4) {
+                case 0:
+                    entity.type = "Building";
+                    entity.temp = random.nextInt(500);
+                    entity.fiery = random.nextInt(8);
+                    entity.broken = random.nextInt(100);
+                    break;
+                case 1:
+                    entity.type = "Road";
+                    entity.blockades = (random.nextBoolean()) ? Arrays.asList(i + 1000, i + 2000) : new ArrayList<>();
+                    break;
+                case 2:
+                    entity.type = "FireBrigade";
+                    entity.x = random.nextInt(100000);
+                    entity.y = random.nextInt(100000);
+                    entity.hp = random.nextInt(10000);
+                    entity.position = random.nextInt(size) + 1;
+                    entity.history = Arrays.asList(new Point(1, 2), new Point(-3, 4));
+                    entity.created = random.nextBoolean() ? Boolean.TRUE : null;
+                    break;
+                default:
+                    entity.type = "Blockade";
+                    entity.deleted = random.nextBoolean();
+                    entity.apexes = Arrays.asList(new Point(0, 0), new Point(10, 0), new Point(10, 10));
+                    entity.repairCost = random.nextInt(100);
+                    break;
+            }
+            entities.add(entity);
+        }
+        return entities;
+    }
+
+    /** Point has no equals, so compare as text */
+    private static Object value(Object value) {
+        if (value instanceof List && !((List<?>) value).isEmpty() && ((List<?>) value).get(0) instanceof Point) {
+            return ((List<?>) value).stream().map(p -> ((Point) p).x + "," + ((Point) p).y).collect(Collectors.toList());
+        }
+        return value;
+    }
+
+    private static boolean same(Entity a, Entity b) {
+        for (EntityField field : EntityField.FIELDS) {
+            if (!Objects.equals(value(field.get(a)), value(field.get(b)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Record createRecord(List<Entity> entities) {
+        Record record = new Record();
+        record.time = 10;
+        record.score = 99.5;
+        record.world = entities;
+        record.changes = entities.subList(0, entities.size() / 10);
+        return record;
+    }
+
+    @Test
+    public void RoundTripTest() throws Exception {
+        List<Entity> entities = createEntities(new Random(1), 1000);
+        ObjectMapper mapper = CompactEntityModule.createMapper();
+
+        Record read = mapper.readValue(mapper.writeValueAsBytes(createRecord(entities)), Record.class);
+        assert read.time == 10 && read.score == 99.5;
+        assert read.world.size() == entities.size();
+        assert read.changes.size() == entities.size() / 10;
+        for (int i = 0; i < entities.size(); i++) {
+            assert same(entities.get(i), read.world.get(i)) : i;
+        }
+
+        // Empty entity
+        Entity empty = mapper.readValue(mapper.writeValueAsBytes(new Entity()), Entity.class);
+        assert same(new Entity(), empty);
+    }
+
+    @Test
+    public void SizeAndSpeedTest() throws Exception {
+        Record record = createRecord(createEntities(new Random(2), 20000));
+        ObjectMapper plain = new ObjectMapper(new MessagePackFactory());
+        ObjectMapper compact = CompactEntityModule.createMapper();
+
+        byte[] plainData = plain.writeValueAsBytes(record);
+        byte[] compactData = compact.writeValueAsBytes(record);
+        assert compactData.length < plainData.length;
+
+        // Warm up, and measure encode and decode
+        long[] times = new long[2];
+        for (int round = 0; round < 2; round++) {
+            ObjectMapper mapper = (round == 0) ? plain : compact;
+            for (int i = 0; i < 3; i++) {
+                mapper.readValue(mapper.writeValueAsBytes(record), Record.class);
+            }
+            long begin = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                mapper.readValue(mapper.writeValueAsBytes(record), Record.class);
+            }
+            times[round] = (System.nanoTime() - begin) / 1000000;
+        }
+
+        System.out.println(String.format("record of 20000 entities: map %d bytes %d ms, compact %d bytes %d ms",
+                plainData.length, times[0], compactData.length, times[1]));
+    }
+}
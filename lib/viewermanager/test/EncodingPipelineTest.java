@@ -0,0 +1,274 @@
+import org.junit.Test;
+import viewermanager.ViewerManagerKeys;
+import viewermanager.encoder.MsgPackEncoder;
+import viewermanager.entity.Entity;
+import viewermanager.entity.Record;
+import viewermanager.entity.provider.DummyProvider;
+import viewermanager.manager.DefaultManager;
+import viewermanager.recorder.DefaultRecorder;
+import viewermanager.recorder.EncodingPipeline;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class EncodingPipelineTest {
+
+    private static Record createRecord(int time, int entities) {
+        Record record = new Record();
+        record.time = time;
+        record.changes = new ArrayList<>();
+        for (int i = 0; i < entities; i++) {
+            Entity entity = new Entity();
+            entity.id = i;
+            entity.hp = 10000 - time;
+            record.changes.add(entity);
+        }
+        return record;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    /**
+     * Encoder taking time, to finish out of order on workers.
+     * 時間のかかるEncoder，ワーカー上で順不同に終わる
+     * */
+    private static class SlowEncoder extends MsgPackEncoder {
+        private final Random random = new Random(1);
+        private final int maxSleep;
+
+        SlowEncoder(int maxSleep) {
+            this.maxSleep = maxSleep;
+        }
+
+        @Override
+        public ByteBuffer encodeRecord(Record record) throws viewermanager.encoder.EncodeException {
+            try {
+                int sleep;
+                synchronized (random) {
+                    sleep = random.nextInt(maxSleep + 1);
+                }
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.encodeRecord(record);
+        }
+    }
+
+    @Test
+    public void OrderTest() throws Exception {
+        EncodingPipeline pipeline = new EncodingPipeline(4, 8, null);
+        DefaultRecorder recorder = new DefaultRecorder(new SlowEncoder(5));
+        EncodingPipeline.Lane lane = pipeline.createLane(recorder);
+
+        for (int time = 1; time <= 100; time++) {
+            while (!lane.hasRoom()) {
+                Thread.sleep(1);
+            }
+            boolean submitted = lane.submit(createRecord(time, time % 5));
+            assert submitted;
+            assert lane.getLastTime() == time && lane.getCount() == time;
+        }
+        CountDownLatch ended = new CountDownLatch(1);
+        lane.runAfter(ended::countDown);
+        boolean drained = ended.await(10, TimeUnit.SECONDS);
+        assert drained;
+        pipeline.shutdown();
+
+        // Appended in the order submitted, same as encoded inline
+        assert recorder.size() == 100;
+        MsgPackEncoder encoder = new MsgPackEncoder();
+        for (int i = 0; i < 100; i++) {
+            assert recorder.getTime(i) == i + 1;
+            ByteBuffer expected = encoder.encodeRecord(createRecord(i + 1, (i + 1) % 5));
+            ByteBuffer record = recorder.getRecord(i);
+            assert Arrays.equals(bytes(record), bytes(expected)) : i;
+        }
+    }
+
+    @Test
+    public void SlowLaneTest() throws Exception {
+        EncodingPipeline pipeline = new EncodingPipeline(2, 4, null);
+        DefaultRecorder slow = new DefaultRecorder(new SlowEncoder(200) {
+            @Override
+            public ByteBuffer encodeRecord(Record record) throws viewermanager.encoder.EncodeException {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new MsgPackEncoder().encodeRecord(record);
+            }
+        });
+        DefaultRecorder fast = new DefaultRecorder(new MsgPackEncoder());
+        EncodingPipeline.Lane slowLane = pipeline.createLane(slow);
+        EncodingPipeline.Lane fastLane = pipeline.createLane(fast);
+
+        // The slow lane is bounded, and does not take more records
+        for (int time = 1; time <= 4; time++) {
+            boolean submitted = slowLane.submit(createRecord(time, 10));
+            assert submitted;
+        }
+        assert !slowLane.hasRoom();
+        boolean over = slowLane.submit(createRecord(5, 10));
+        assert !over;
+
+        // Records of the other lane are appended while the slow one encodes
+        long begin = System.nanoTime();
+        boolean submitted = fastLane.submit(createRecord(1, 10));
+        assert submitted;
+        while (fast.size() == 0 && System.nanoTime() - begin < 5_000_000_000L) {
+            Thread.sleep(1);
+        }
+        long elapsed = System.nanoTime() - begin;
+        assert fast.size() == 1;
+        assert elapsed < 150_000_000L : elapsed;
+
+        pipeline.shutdown();
+        assert slow.size() == 4 && slow.getCurrentTimeStep() == 4;
+    }
+
+    @Test
+    public void FailedEncodeTest() throws Exception {
+        EncodingPipeline pipeline = new EncodingPipeline(4, 8, null);
+        // Record of time 2 cannot be encoded, and records after it are encoded first
+        DefaultRecorder recorder = new DefaultRecorder(new SlowEncoder(5) {
+            @Override
+            public ByteBuffer encodeRecord(Record record) throws viewermanager.encoder.EncodeException {
+                if (record.time == 2) {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new viewermanager.encoder.EncodeException("cannot encode");
+                }
+                return super.encodeRecord(record);
+            }
+        }, 3);
+        EncodingPipeline.Lane lane = pipeline.createLane(recorder);
+
+        for (int time = 1; time <= 10; time++) {
+            while (!lane.hasRoom()) {
+                Thread.sleep(1);
+            }
+            Record record = createRecord(time, 2);
+            record.setWorldSupplier(() -> createRecord(0, 3).changes);
+            boolean submitted = lane.submit(record);
+            assert submitted;
+        }
+        CountDownLatch ended = new CountDownLatch(1);
+        lane.runAfter(ended::countDown);
+        boolean drained = ended.await(10, TimeUnit.SECONDS);
+        assert drained;
+        pipeline.shutdown();
+
+        // The failed record is not counted, and keyframes are still on every 3 records
+        assert recorder.size() == 9 && lane.getCount() == 9;
+        MsgPackEncoder encoder = new MsgPackEncoder();
+        for (int i = 0; i < 9; i++) {
+            Record record = encoder.decodeRecord(recorder.getRecord(i));
+            assert record.time == ((i == 0) ? 1 : i + 2);
+            assert (record.world != null) == (i % 3 == 0) : i;
+        }
+    }
+
+    /**
+     * Provider reading the next step on each check, same as RRSLogReader.
+     * RRSLogReaderと同じく，確認のたびに次のステップを読むProvider
+     * */
+    private static class AdvancingProvider extends DummyProvider {
+        private final int steps;
+        private volatile int time = 0;
+        private volatile Record current = null;
+        private volatile boolean closed = false;
+
+        AdvancingProvider(int steps) {
+            this.steps = steps;
+        }
+
+        @Override
+        public boolean isWorking() {
+            return !closed && time < steps;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed && !isIncomingRecordAvailable();
+        }
+
+        @Override
+        public Integer getMaxTimeSteps() {
+            return steps;
+        }
+
+        @Override
+        public boolean isIncomingRecordAvailable() {
+            if (time < steps) {
+                time++;
+                current = createRecord(time, 1);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public Record getIncomingRecord() {
+            return current;
+        }
+
+        @Override
+        public void shutdown() {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void AdvancingProviderTest() throws Exception {
+        // Longer than the lane, so records are taken over several passes
+        final int steps = 200;
+        System.setProperty(ViewerManagerKeys.ENCODER_QUEUE, "4");
+        DefaultManager manager;
+        try {
+            manager = new DefaultManager();
+        } finally {
+            System.clearProperty(ViewerManagerKeys.ENCODER_QUEUE);
+        }
+        int providerId = manager.registerProvider(new AdvancingProvider(steps));
+        Thread thread = new Thread(manager::run);
+        thread.start();
+
+        Field field = DefaultManager.class.getDeclaredField("viewerRecorders");
+        field.setAccessible(true);
+        DefaultRecorder recorder = null;
+        try {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (System.currentTimeMillis() < deadline) {
+                recorder = (DefaultRecorder) ((Map<?, ?>) field.get(manager)).get(providerId);
+                if (recorder != null && recorder.size() >= steps) {
+                    break;
+                }
+                Thread.sleep(10);
+            }
+        } finally {
+            manager.shutdown();
+            thread.join();
+        }
+
+        // Every step is appended, none skipped by checking
+        assert recorder != null && recorder.size() == steps : (recorder == null) ? "no recorder" : recorder.size();
+        for (int i = 0; i < steps; i++) {
+            assert recorder.getTime(i) == i + 1 : i;
+        }
+    }
+}
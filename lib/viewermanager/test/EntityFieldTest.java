@@ -0,0 +1,163 @@
+import org.junit.Test;
+import viewermanager.entity.Entity;
+import viewermanager.entity.EntityField;
+import viewermanager.entity.Point;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+public class EntityFieldTest {
+
+    /** count of entities on a full map (about the size of a large RRS map) */
+    private static final int ENTITIES = 20000;
+    private static final int ROUNDS = 20;
+
+    private List<Entity> createWorld(Random random, int size) {
+        List<Entity> world = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Entity entity = new Entity();
+            entity.id = i;
+            entity.type = "type" + (i % 10);
+            entity.x = random.nextInt(100000);
+            entity.y = random.nextInt(100000);
+            switch (i % 3) {
+                case 0:
+                    entity.hp = random.nextInt(10000);
+                    entity.damage = random.nextInt(100);
+                    entity.buried = random.nextInt(3);
+                    entity.position = random.nextInt(size);
+                    entity.history = (random.nextBoolean()) ? Arrays.asList(new Point(1, 2), new Point(3, 4)) : null;
+                    break;
+                case 1:
+                    entity.temp = random.nextInt(3);
+                    entity.fiery = random.nextInt(3);
+                    entity.broken = random.nextInt(3);
+                    break;
+                default:
+                    entity.blockades = (random.nextBoolean()) ? Arrays.asList(1, 2, 3) : null;
+                    break;
+            }
+            world.add(entity);
+        }
+        return world;
+    }
+
+    //-------------------------------------------------------------------------
+    // Reflection baseline (the former implementation)
+
+    private static Entity reflectDifference(Entity e1, Entity e2) throws IllegalAccessException {
+        Entity entity = new Entity();
+        for (Field field : entity.getClass().getFields()) {
+            if (!Objects.equals(field.get(e1), field.get(e2))) {
+                field.set(entity, field.get(e2));
+            }
+        }
+        entity.id = e1.id;
+        return entity;
+    }
+
+    private static void reflectUpdate(Entity self, Entity entity) throws IllegalAccessException {
+        for (Field field : entity.getClass().getFields()) {
+            if (!Objects.equals(field.get(entity), null) && !Objects.equals(field.get(self), field.get(entity))) {
+                field.set(self, field.get(entity));
+            }
+        }
+    }
+
+    private static boolean reflectIsEmpty(Entity self) throws IllegalAccessException {
+        boolean filled = false;
+        for (Field field : self.getClass().getFields()) {
+            if (!field.getName().equals("id") && !field.getName().equals("type")) {
+                filled |= (field.get(self) != null);
+            }
+        }
+        return !filled;
+    }
+
+    private static boolean same(Entity a, Entity b) throws IllegalAccessException {
+        for (Field field : Entity.class.getFields()) {
+            if (!Objects.equals(field.get(a), field.get(b))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+
+    @Test
+    public void AllFieldsTest() {
+        Field[] fields = Entity.class.getFields();
+        assert fields.length == EntityField.FIELDS.size();
+
+        Entity entity = new Entity();
+        for (Field field : fields) {
+            assert EntityField.FIELDS.stream().anyMatch(f -> f.name.equals(field.getName())) : field.getName();
+        }
+        for (EntityField field : EntityField.FIELDS) {
+            assert field.get(entity) == null : field.name;
+        }
+    }
+
+    @Test
+    public void SameAsReflectionTest() throws Exception {
+        List<Entity> w1 = createWorld(new Random(1), 3000);
+        List<Entity> w2 = createWorld(new Random(2), 3000);
+
+        for (int i = 0; i < w1.size(); i++) {
+            Entity a = w1.get(i), b = w2.get(i);
+
+            Entity expected = reflectDifference(a, b);
+            Entity actual = Entity.difference(a, b);
+            assert same(expected, actual);
+            assert reflectIsEmpty(expected) == actual.isEmpty();
+            assert reflectIsEmpty(Entity.difference(a, a)) == Entity.difference(a, a).isEmpty();
+
+            Entity updated = Entity.difference(a, a);
+            Entity reflectUpdated = Entity.difference(a, a);
+            updated.update(b);
+            reflectUpdate(reflectUpdated, b);
+            assert same(updated, reflectUpdated);
+        }
+    }
+
+    @Test
+    public void DifferenceBenchmarkTest() throws Exception {
+        List<Entity> w1 = createWorld(new Random(1), ENTITIES);
+        List<Entity> w2 = createWorld(new Random(2), ENTITIES);
+
+        // Warm up
+        for (int i = 0; i < ENTITIES; i++) {
+            reflectDifference(w1.get(i), w2.get(i));
+            Entity.difference(w1.get(i), w2.get(i));
+        }
+
+        long start = System.nanoTime();
+        int count = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            for (int i = 0; i < ENTITIES; i++) {
+                Entity entity = reflectDifference(w1.get(i), w2.get(i));
+                if (!reflectIsEmpty(entity)) count++;
+            }
+        }
+        long reflection = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int count2 = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            for (int i = 0; i < ENTITIES; i++) {
+                Entity entity = Entity.difference(w1.get(i), w2.get(i));
+                if (!entity.isEmpty()) count2++;
+            }
+        }
+        long accessor = System.nanoTime() - start;
+
+        assert count == count2;
+        System.out.println(String.format("difference+isEmpty on %d entities x %d: reflection %d ms, accessor %d ms (x%.1f)",
+                ENTITIES, ROUNDS, reflection / 1000000, accessor / 1000000, (double) reflection / accessor));
+    }
+}
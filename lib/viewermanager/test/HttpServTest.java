@@ -1,18 +1,44 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.glassfish.grizzly.http.Method;
 import org.glassfish.grizzly.http.server.HttpHandler;
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
 import org.glassfish.grizzly.http.server.Request;
 import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.http.util.Parameters;
 import org.junit.Test;
 import server.Http;
 import server.HttpRest;
+import server.rest.BinaryRecordHandler;
 import server.rest.DefaultHandler;
+import server.rest.RecordHandler;
+import server.rest.RecordStreamHandler;
 import viewermanager.ViewerManagerKeys;
+import viewermanager.entity.Entity;
+import viewermanager.entity.MapInfo;
+import viewermanager.entity.Record;
+import viewermanager.entity.provider.DummyProvider;
+import viewermanager.log.ViewerLogFileRecord;
+import viewermanager.log.ViewerLogFileWriter;
 import viewermanager.manager.DefaultManager;
+import viewermanager.manager.DefaultResponse;
+import viewermanager.manager.ServerRequest;
 import viewermanager.manager.ServerResponse;
 
+import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class HttpServTest {
     @Test
@@ -124,4 +150,355 @@ public class HttpServTest {
 
     }
 
-}
\ No newline at end of file
+    /**
+     * Handler showing parameters bound.
+     * 結び付けたパラメータを見せるHandler
+     * */
+    private static class BindingHandler extends RecordHandler {
+        BindingHandler() {
+            super(null);
+        }
+
+        RecordHandler.RecordParam bind(String query) throws Exception {
+            Parameters parameters = new Parameters();
+            parameters.processParameters(query);
+            return (RecordHandler.RecordParam) bindParameters(parameters);
+        }
+    }
+
+    @Test
+    public void ParameterBinderTest() throws Exception {
+        BindingHandler handler = new BindingHandler();
+        RecordHandler.RecordParam param = handler.bind("viewerId=3&time=5&snapshot=ON&other=1");
+        assert param.viewerId == 3 && param.time == 5 && param.snapshot;
+        assert param.count == null && param.wait == null;
+
+        // Each request gets its own instance
+        RecordHandler.RecordParam next = handler.bind("viewerId=4&snapshot=no");
+        assert next != param && param.viewerId == 3;
+        assert next.viewerId == 4 && next.time == null && !next.snapshot;
+
+        try {
+            handler.bind("viewerId=x");
+            assert false;
+        } catch (NumberFormatException e) {
+            // Same as before
+        }
+    }
+
+    @Test
+    public void StreamedResponseTest() throws Exception {
+        List<String> large = new ArrayList<>();
+        for (int i = 0; i < 200000; i++) {
+            large.add("entity-" + i);
+        }
+
+        HttpServer server = new HttpServer();
+        server.addListener(new NetworkListener("test", "127.0.0.1", 0));
+        server.getServerConfiguration().addHttpHandler(new DefaultHandler(Method.GET,
+                () -> new ServerResponse(ServerResponse.STATUS_OK, large)), "/large");
+        server.getServerConfiguration().addHttpHandler(new DefaultHandler(Method.GET,
+                () -> new ServerResponse(ServerResponse.STATUS_OK, "短い")), "/small");
+        server.start();
+        try {
+            int port = server.getListener("test").getPort();
+            ObjectMapper mapper = new ObjectMapper();
+
+            // Over the buffer: sent in chunks, without the whole JSON
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/large").openConnection();
+            String contentType = connection.getContentType();
+            assert contentType.startsWith("application/json");
+            String encoding = connection.getHeaderField("Transfer-Encoding");
+            assert "chunked".equals(encoding);
+            JsonNode node = mapper.readTree(connection.getInputStream());
+            assert node.get("data").size() == large.size();
+            assert node.get("data").get(199999).asText().equals("entity-199999");
+
+            // In the buffer: exact length in bytes
+            connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/small").openConnection();
+            byte[] body = new byte[connection.getContentLength()];
+            try (DataInputStream in = new DataInputStream(connection.getInputStream())) {
+                in.readFully(body);
+                int end = in.read();
+                assert end < 0;
+            }
+            JsonNode small = mapper.readTree(body);
+            assert small.get("message").asText().equals("短い");
+        } finally {
+            server.shutdownNow();
+        }
+    }
+
+    @Test
+    public void BinaryRecordHandlerTest() throws Exception {
+        List<ByteBuffer> records = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            byte[] data = new byte[100 * (i + 1)];
+            Arrays.fill(data, (byte) i);
+            records.add(ByteBuffer.wrap(data));
+        }
+
+        HttpServer server = new HttpServer();
+        server.addListener(new NetworkListener("test", "127.0.0.1", 0));
+        BinaryRecordHandler handler = new BinaryRecordHandler(null);
+        handler.setService((Object o) -> new ServerResponse(ServerResponse.STATUS_OK, new DefaultResponse.RecordResult(records)));
+        server.getServerConfiguration().addHttpHandler(handler, "/viewer/record/binary");
+        server.start();
+        try {
+            int port = server.getListener("test").getPort();
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/viewer/record/binary?viewerId=0").openConnection();
+            String contentType = connection.getContentType();
+            assert contentType.equals(BinaryRecordHandler.CONTENT_TYPE);
+            String count = connection.getHeaderField(BinaryRecordHandler.HEADER_COUNT);
+            assert count.equals("3");
+
+            try (DataInputStream in = new DataInputStream(connection.getInputStream())) {
+                for (int i = 0; i < 3; i++) {
+                    byte[] data = new byte[in.readInt()];
+                    in.readFully(data);
+                    assert data.length == 100 * (i + 1);
+                    assert data[0] == i && data[data.length - 1] == i;
+                }
+                int end = in.read();
+                assert end < 0;
+            }
+
+            // Buffers are not consumed
+            assert records.get(0).remaining() == 100;
+        } finally {
+            server.shutdownNow();
+        }
+    }
+
+    @Test
+    public void RecordStreamHandlerTest() throws Exception {
+        // Log to provide
+        File file = File.createTempFile("record_stream", ".vlog");
+        file.deleteOnExit();
+        int max = 50;
+        ViewerLogFileRecord header = new ViewerLogFileRecord();
+        header.maxTimeStep = max;
+        header.mapName = "/maps/test";
+        header.map = new MapInfo();
+        header.map.entities = new ArrayList<>();
+        header.config = new HashMap<>();
+        try (ViewerLogFileWriter writer = new ViewerLogFileWriter(header, file.getPath())) {
+            for (int i = 1; i <= max; i++) {
+                Entity entity = new Entity();
+                entity.id = 1;
+                entity.hp = 10000 - i;
+                Record record = new Record();
+                record.time = i;
+                record.world = Arrays.asList(entity);
+                record.changes = Arrays.asList(entity);
+                writer.write(record);
+            }
+        }
+
+        DefaultManager manager = new DefaultManager();
+        manager.requestOpenLogProvider(file.getPath());
+        ServerResponse viewer = manager.requestOpenViewer(true);
+        int viewerId = ((DefaultResponse.IDsResult) viewer.getData()).viewerId;
+        ServerResponse connected = manager.requestConnection(viewerId, 0);
+        assert connected.getStatus() == ServerResponse.STATUS_OK;
+        Thread thread = new Thread(manager::run);
+        thread.start();
+
+        HttpServer server = new HttpServer();
+        server.addListener(new NetworkListener("test", "127.0.0.1", 0));
+        server.getServerConfiguration().addHttpHandler(new RecordStreamHandler(manager), "/viewer/record/stream");
+        server.start();
+        try {
+            int port = server.getListener("test").getPort();
+
+            // Unknown viewer is answered with JSON
+            HttpURLConnection bad = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/viewer/record/stream?viewerId=100").openConnection();
+            String badType = bad.getContentType();
+            assert !BinaryRecordHandler.CONTENT_TYPE.equals(badType);
+
+            // All records are pushed, then the stream ends
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/viewer/record/stream?viewerId=" + viewerId).openConnection();
+            connection.setReadTimeout(10000);
+            String contentType = connection.getContentType();
+            assert contentType.equals(BinaryRecordHandler.CONTENT_TYPE);
+            int count = 0;
+            try (DataInputStream in = new DataInputStream(connection.getInputStream())) {
+                int length;
+                while ((length = readLength(in)) >= 0) {
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+                    count++;
+                }
+            }
+            assert count == max : count;
+        } finally {
+            server.shutdownNow();
+            manager.shutdown();
+            thread.join();
+        }
+    }
+
+    /**
+     * Live Provider, records are pushed by the test.
+     * 試験から送られるレコードを持つ，ライブのProvider
+     * */
+    private static class LiveProvider extends DummyProvider {
+        private final ConcurrentLinkedQueue<Record> records = new ConcurrentLinkedQueue<>();
+        private volatile Listener listener;
+
+        void push(int time) {
+            Record record = new Record();
+            record.time = time;
+            record.changes = new ArrayList<>();
+            records.add(record);
+            if (listener != null) {
+                listener.providerUpdated(this);
+            }
+        }
+
+        @Override
+        public void setListener(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean isOnline() {
+            return true;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean isWorking() {
+            return true;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public Integer getMaxTimeSteps() {
+            return 100;
+        }
+
+        @Override
+        public boolean isIncomingRecordAvailable() {
+            return !records.isEmpty();
+        }
+
+        @Override
+        public Record getIncomingRecord() {
+            return records.poll();
+        }
+    }
+
+    @Test
+    public void RecordWaitHandlerTest() throws Exception {
+        DefaultManager manager = new DefaultManager();
+        LiveProvider provider = new LiveProvider();
+        int providerId = manager.registerProvider(provider);
+        int viewerId = ((DefaultResponse.IDsResult) manager.requestOpenViewer(true).getData()).viewerId;
+        ServerResponse connected = manager.requestConnection(viewerId, providerId);
+        assert connected.getStatus() == ServerResponse.STATUS_OK;
+        Thread thread = new Thread(manager::run);
+        thread.start();
+
+        HttpServer server = new HttpServer();
+        server.addListener(new NetworkListener("test", "127.0.0.1", 0));
+        server.getServerConfiguration().addHttpHandler(new BinaryRecordHandler(manager), "/viewer/record/binary");
+        server.getServerConfiguration().addHttpHandler(new RecordHandler(manager), "/viewer/record");
+        server.start();
+        try {
+            int port = server.getListener("test").getPort();
+            String base = "http://127.0.0.1:" + port;
+
+            // Held until the record is recorded
+            long begin = System.currentTimeMillis();
+            new Thread(() -> {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                provider.push(1);
+            }).start();
+            HttpURLConnection connection = (HttpURLConnection) new URL(base + "/viewer/record/binary?viewerId=" + viewerId + "&wait=5000").openConnection();
+            connection.setReadTimeout(10000);
+            String contentType = connection.getContentType();
+            assert contentType.equals(BinaryRecordHandler.CONTENT_TYPE);
+            String count = connection.getHeaderField(BinaryRecordHandler.HEADER_COUNT);
+            assert count.equals("1");
+            long elapsed = System.currentTimeMillis() - begin;
+            assert elapsed >= 250 && elapsed < 5000 : elapsed;
+
+            // The next one, recorded before or while waiting
+            provider.push(2);
+            connection = (HttpURLConnection) new URL(base + "/viewer/record/binary?viewerId=" + viewerId + "&wait=5000").openConnection();
+            connection.setReadTimeout(10000);
+            count = connection.getHeaderField(BinaryRecordHandler.HEADER_COUNT);
+            assert count.equals("1");
+
+            // Timed out without records, answered as no records
+            begin = System.currentTimeMillis();
+            connection = (HttpURLConnection) new URL(base + "/viewer/record?viewerId=" + viewerId + "&wait=300").openConnection();
+            connection.setReadTimeout(10000);
+            int status = connection.getResponseCode();
+            assert status == 200;
+            contentType = connection.getContentType();
+            assert contentType.startsWith("application/json");
+            elapsed = System.currentTimeMillis() - begin;
+            assert elapsed >= 250 && elapsed < 5000 : elapsed;
+        } finally {
+            server.shutdownNow();
+            manager.shutdown();
+            thread.join();
+        }
+    }
+
+    @Test
+    public void RecordWaitBlockedTest() throws Exception {
+        DefaultManager manager = new DefaultManager();
+        int providerId = manager.registerProvider(new LiveProvider());
+        int[] viewerIds = new int[2];
+        for (int i = 0; i < viewerIds.length; i++) {
+            viewerIds[i] = ((DefaultResponse.IDsResult) manager.requestOpenViewer(true).getData()).viewerId;
+            ServerResponse connected = manager.requestConnection(viewerIds[i], providerId);
+            assert connected.getStatus() == ServerResponse.STATUS_OK;
+        }
+
+        // The response to a slow Viewer blocks, but other waits still time out
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch timedOut = new CountDownLatch(1);
+        try {
+            boolean blocking = manager.awaitRecords(new ServerRequest(viewerIds[0], System.currentTimeMillis()), 50, null, () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assert blocking;
+            Thread.sleep(200);
+            boolean waiting = manager.awaitRecords(new ServerRequest(viewerIds[1], System.currentTimeMillis()), 100, null, timedOut::countDown);
+            assert waiting;
+            boolean answered = timedOut.await(5, TimeUnit.SECONDS);
+            assert answered;
+        } finally {
+            release.countDown();
+            manager.shutdown();
+        }
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return -1;
+        }
+        return (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+    }
+}
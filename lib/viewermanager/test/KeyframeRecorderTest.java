@@ -0,0 +1,300 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import rescuecore2.components.AbstractComponent;
+import rescuecore2.log.FileLogReader;
+import rescuecore2.log.LogReader;
+import rescuecore2.messages.control.KVTimestep;
+import rescuecore2.registry.Registry;
+import rescuecore2.standard.entities.StandardEntity;
+import rescuecore2.standard.entities.StandardWorldModel;
+import viewermanager.ViewerManagerKeys;
+import viewermanager.encoder.MsgPackEncoder;
+import viewermanager.entity.Entity;
+import viewermanager.entity.Record;
+import viewermanager.entity.provider.DummyProvider;
+import viewermanager.entity.provider.IEntityProvider;
+import viewermanager.entity.provider.RRSEntityProvider;
+import viewermanager.entity.provider.RecordRing;
+import viewermanager.manager.DefaultManager;
+import viewermanager.manager.DefaultResponse;
+import viewermanager.manager.ServerRequest;
+import viewermanager.manager.ServerResponse;
+import viewermanager.recorder.DefaultRecorder;
+import viewermanager.recorder.EncodingPipeline;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class KeyframeRecorderTest {
+
+    private static final int STEPS = 30;
+    private static final int INTERVAL = 10;
+
+    private static final ObjectMapper mapper = new ObjectMapper(new MessagePackFactory());
+
+    private static Record createRecord(int time, AtomicInteger built) {
+        Record record = new Record();
+        record.time = time;
+        record.changes = new ArrayList<>();
+        Entity entity = new Entity();
+        entity.id = 1;
+        entity.hp = time;
+        record.changes.add(entity);
+        record.setWorldSupplier(() -> {
+            built.incrementAndGet();
+            List<Entity> world = new ArrayList<>();
+            for (int id = 1; id <= 100; id++) {
+                Entity e = new Entity();
+                e.id = id;
+                world.add(e);
+            }
+            return world;
+        });
+        return record;
+    }
+
+    private static JsonNode decode(ByteBuffer buffer) throws Exception {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return mapper.readTree(data);
+    }
+
+    @Test
+    public void KeyframeTest() throws Exception {
+        AtomicInteger built = new AtomicInteger(0);
+        DefaultRecorder recorder = new DefaultRecorder(new MsgPackEncoder(false), INTERVAL);
+        DefaultRecorder plain = new DefaultRecorder(new MsgPackEncoder(false));
+        for (int time = 1; time <= STEPS; time++) {
+            recorder.appendRecord(createRecord(time, built));
+            plain.appendRecord(createRecord(time, new AtomicInteger()));
+        }
+
+        // The world is built and kept only on keyframes
+        assert built.get() == STEPS / INTERVAL : built.get();
+        for (int index = 0; index < STEPS; index++) {
+            JsonNode node = decode(recorder.getRecord(index));
+            assert node.get("time").asInt() == index + 1;
+            assert node.has("changes");
+            assert node.has("world") == (index % INTERVAL == 0) : index;
+            assert recorder.getKeyframeIndex(index) == index - index % INTERVAL;
+        }
+        assert plain.getKeyframeIndex(7) == 7;
+        assert recorder.getBytes() * 3 < plain.getBytes() : recorder.getBytes() + " " + plain.getBytes();
+    }
+
+    @Test
+    public void PipelineTest() throws Exception {
+        AtomicInteger built = new AtomicInteger(0);
+        EncodingPipeline pipeline = new EncodingPipeline(4, 8, null);
+        DefaultRecorder recorder = new DefaultRecorder(new MsgPackEncoder(false), INTERVAL);
+        EncodingPipeline.Lane lane = pipeline.createLane(recorder);
+
+        for (int time = 1; time <= STEPS; time++) {
+            while (!lane.hasRoom()) {
+                Thread.sleep(1);
+            }
+            boolean submitted = lane.submit(createRecord(time, built));
+            assert submitted;
+        }
+        CountDownLatch ended = new CountDownLatch(1);
+        lane.runAfter(ended::countDown);
+        boolean drained = ended.await(10, TimeUnit.SECONDS);
+        assert drained;
+        pipeline.shutdown();
+
+        // Keyframes by the order submitted, not by the order encoded
+        assert recorder.size() == STEPS;
+        assert built.get() == STEPS / INTERVAL;
+        for (int index = 0; index < STEPS; index++) {
+            JsonNode node = decode(recorder.getRecord(index));
+            assert node.has("world") == (index % INTERVAL == 0) : index;
+        }
+    }
+
+    /**
+     * Live Provider, records are pushed by the test.
+     * 試験から送られるレコードを持つ，ライブのProvider
+     * */
+    private static class LiveProvider extends DummyProvider {
+        private final ConcurrentLinkedQueue<Record> records = new ConcurrentLinkedQueue<>();
+        private volatile IEntityProvider.Listener listener;
+
+        void push(Record record) {
+            records.add(record);
+            if (listener != null) {
+                listener.providerUpdated(this);
+            }
+        }
+
+        @Override
+        public void setListener(IEntityProvider.Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean isOnline() {
+            return true;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean isWorking() {
+            return true;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public Integer getMaxTimeSteps() {
+            return STEPS;
+        }
+
+        @Override
+        public boolean isIncomingRecordAvailable() {
+            return !records.isEmpty();
+        }
+
+        @Override
+        public Record getIncomingRecord() {
+            return records.poll();
+        }
+    }
+
+    @Test
+    public void LateJoinTest() throws Exception {
+        String interval = System.getProperty(ViewerManagerKeys.RECORDER_KEYFRAME);
+        System.setProperty(ViewerManagerKeys.RECORDER_KEYFRAME, String.valueOf(INTERVAL));
+        DefaultManager manager = new DefaultManager();
+        LiveProvider provider = new LiveProvider();
+        int providerId = manager.registerProvider(provider);
+        int viewerId = ((DefaultResponse.IDsResult) manager.requestOpenViewer(true).getData()).viewerId;
+        ServerResponse connected = manager.requestConnection(viewerId, providerId);
+        assert connected.getStatus() == ServerResponse.STATUS_OK;
+
+        Thread main = new Thread(manager::run);
+        main.start();
+        try {
+            AtomicInteger built = new AtomicInteger(0);
+            for (int time = 1; time <= STEPS; time++) {
+                provider.push(createRecord(time, built));
+            }
+            // Wait for all recorded, with other Viewer
+            int other = ((DefaultResponse.IDsResult) manager.requestOpenViewer(true).getData()).viewerId;
+            connected = manager.requestConnection(other, providerId);
+            assert connected.getStatus() == ServerResponse.STATUS_OK;
+            long deadline = System.currentTimeMillis() + 10000;
+            while (System.currentTimeMillis() < deadline) {
+                ServerResponse response = manager.requestRecords(new ServerRequest(other, System.currentTimeMillis(), 0, STEPS));
+                if (response.getData() instanceof DefaultResponse.RecordResult
+                        && ((DefaultResponse.RecordResult) response.getData()).record.length == STEPS) {
+                    break;
+                }
+                Thread.sleep(10);
+            }
+            assert built.get() == STEPS / INTERVAL;
+
+            // Joined on 25, the records start from the keyframe on 20
+            DefaultResponse.RecordResult result = (DefaultResponse.RecordResult) manager.requestRecords(
+                    new ServerRequest(viewerId, System.currentTimeMillis(), 25, 3)).getData();
+            assert result.record.length == 8 : result.record.length;
+            JsonNode first = decode(result.record[0]);
+            assert first.get("time").asInt() == 21 && first.has("world");
+            assert decode(result.record[7]).get("time").asInt() == 28;
+
+            // Following requests are not moved
+            result = (DefaultResponse.RecordResult) manager.requestRecords(
+                    new ServerRequest(viewerId, System.currentTimeMillis(), 28, 2)).getData();
+            assert result.record.length == 2 && decode(result.record[0]).get("time").asInt() == 29;
+        } finally {
+            manager.shutdown();
+            main.join();
+            if (interval == null) {
+                System.clearProperty(ViewerManagerKeys.RECORDER_KEYFRAME);
+            }
+            else {
+                System.setProperty(ViewerManagerKeys.RECORDER_KEYFRAME, interval);
+            }
+        }
+    }
+
+    /** entities of the world by id, as JSON to compare */
+    private static Map<Integer, String> byId(List<Entity> world) throws Exception {
+        ObjectMapper json = new ObjectMapper();
+        Map<Integer, String> map = new TreeMap<>();
+        for (Entity entity : world) {
+            map.put(entity.id, json.writeValueAsString(entity));
+        }
+        return map;
+    }
+
+    @Test
+    public void LiveProviderWorldTest() throws Exception {
+        File log = RRSLogSample.write(8);
+        LogReader reader = new FileLogReader(log.getPath(), Registry.SYSTEM_REGISTRY);
+        // The viewer merges steps to the entities of its model, so expected worlds are read by another reader
+        LogReader expectedReader = new FileLogReader(log.getPath(), Registry.SYSTEM_REGISTRY);
+
+        // RRS Viewer of the provider, fed with steps of the log instead of the kernel
+        RRSEntityProvider provider = new RRSEntityProvider();
+        Field records = RRSEntityProvider.class.getDeclaredField("records");
+        records.setAccessible(true);
+        RecordRing ring = new RecordRing(16);
+        records.set(provider, ring);
+
+        Class<?> viewerClass = Class.forName(RRSEntityProvider.class.getName() + "$InnerStandardViewer");
+        Constructor<?> constructor = viewerClass.getDeclaredConstructor(RRSEntityProvider.class);
+        constructor.setAccessible(true);
+        Object viewer = constructor.newInstance(provider);
+        Field model = AbstractComponent.class.getDeclaredField("model");
+        model.setAccessible(true);
+        StandardWorldModel world = StandardWorldModel.createStandardWorldModel(reader.getWorldModel(0));
+        model.set(viewer, world);
+        Method setInformation = RRSEntityProvider.class.getDeclaredMethod("setInformation",
+                rescuecore2.worldmodel.WorldModel.class, rescuecore2.config.Config.class);
+        setInformation.setAccessible(true);
+        setInformation.invoke(provider, world, reader.getConfig());
+        Method handleTimestep = viewerClass.getDeclaredMethod("handleTimestep", KVTimestep.class);
+        handleTimestep.setAccessible(true);
+
+        List<Record> received = new ArrayList<>();
+        for (int time = 1; time <= 8; time++) {
+            handleTimestep.invoke(viewer, new KVTimestep(0, time,
+                    reader.getCommands(time).getCommands(), reader.getUpdates(time).getChangeSet()));
+            Record record = ring.poll();
+            assert record != null && record.time == time;
+            received.add(record);
+        }
+
+        // Worlds are not built by following steps, and built later as of each step
+        for (Record record : received) {
+            assert record.world == null : record.time;
+        }
+        for (Record record : received) {
+            List<Entity> expected = new ArrayList<>();
+            for (StandardEntity entity : StandardWorldModel.createStandardWorldModel(expectedReader.getWorldModel(record.time))) {
+                expected.add(new Entity(entity));
+            }
+            assert byId(record.getWorld()).equals(byId(expected)) : record.time;
+        }
+    }
+}
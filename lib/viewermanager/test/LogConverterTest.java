@@ -0,0 +1,85 @@
+import org.junit.Test;
+import viewermanager.LogConverter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class LogConverterTest {
+
+    /**
+     * logs/rescue.log, logs/a/rescue.log, logs/a/b/rescue.log and logs/a/other.txt
+     * */
+    private static Path createTree() throws Exception {
+        // Deleted on exit in reverse order, so directories are registered first
+        Path root = Files.createTempDirectory("logs");
+        Files.createDirectories(root.resolve("a/b"));
+        for (String name : new String[]{"", "a", "a/b"}) {
+            root.resolve(name).toFile().deleteOnExit();
+        }
+        for (String name : new String[]{"rescue.log", "a/rescue.log", "a/b/rescue.log", "a/other.txt"}) {
+            Files.write(root.resolve(name), new byte[]{0});
+            root.resolve(name).toFile().deleteOnExit();
+        }
+        return root;
+    }
+
+    private static List<String> relative(Path root, List<Path> paths) {
+        return paths.stream().map(p -> root.relativize(p.toAbsolutePath()).toString()).collect(Collectors.toList());
+    }
+
+    @Test
+    public void FindLogsTest() throws Exception {
+        Path root = createTree();
+
+        // Directory: all logs under it
+        List<String> found = relative(root, LogConverter.findLogs(root.toString()));
+        assert found.size() == 3 : found;
+        assert found.contains("rescue.log") && found.contains("a/rescue.log") && found.contains("a/b/rescue.log");
+
+        // Glob: "**/" also matches no directory
+        found = relative(root, LogConverter.findLogs(root + "/**/rescue.log"));
+        assert found.size() == 3 : found;
+        assert found.contains("rescue.log");
+
+        found = relative(root, LogConverter.findLogs(root + "/a/**/rescue.log"));
+        assert found.size() == 2 : found;
+        assert found.contains("a/rescue.log") && found.contains("a/b/rescue.log");
+
+        found = relative(root, LogConverter.findLogs(root + "/*/rescue.log"));
+        assert found.size() == 1 && found.contains("a/rescue.log") : found;
+    }
+
+    @Test
+    public void BatchTest() throws Exception {
+        Path root = Files.createTempDirectory("batch");
+        root.toFile().deleteOnExit();
+        File good = RRSLogSample.write(root.resolve("good.log").toFile(), 5);
+        good.deleteOnExit();
+        // Not a RRS Log, and a log cut on the way (fails with RuntimeException on reading)
+        Path broken = root.resolve("broken.log");
+        Files.write(broken, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        broken.toFile().deleteOnExit();
+        byte[] data = Files.readAllBytes(good.toPath());
+        Path cut = root.resolve("cut.log");
+        Files.write(cut, Arrays.copyOf(data, data.length / 2));
+        cut.toFile().deleteOnExit();
+
+        // Broken logs do not stop the batch
+        List<LogConverter.Result> results = LogConverter.batch(root.toString(), null, 2);
+        assert results.size() == 3;
+        for (LogConverter.Result result : results) {
+            new File(result.input.replaceAll("\\.log$", ".vlog")).deleteOnExit();
+            if (result.input.endsWith("good.log")) {
+                assert result.isSucceeded() : result.error;
+                assert result.records == 5 && result.outputBytes > 0;
+            }
+            else {
+                assert !result.isSucceeded();
+            }
+        }
+    }
+}
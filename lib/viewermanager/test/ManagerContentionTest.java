@@ -0,0 +1,134 @@
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import viewermanager.ViewerManagerKeys;
+import viewermanager.entity.Entity;
+import viewermanager.entity.MapInfo;
+import viewermanager.entity.Record;
+import viewermanager.log.ViewerLogFileRecord;
+import viewermanager.log.ViewerLogFileWriter;
+import viewermanager.manager.DefaultManager;
+import viewermanager.manager.DefaultResponse;
+import viewermanager.manager.ServerRequest;
+import viewermanager.manager.ServerResponse;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Contention of DefaultManager: Viewers request records while the main loop encodes big steps.
+ * DefaultManagerの競合: メインループが大きなステップを符号化する間にViewerがレコードを要求する．
+ * */
+public class ManagerContentionTest {
+
+    private static final int VIEWERS = 12;
+    private static final int STEPS = 100;
+    private static final int ENTITIES = 3000;
+
+    private File createLog() throws Exception {
+        File file = File.createTempFile("contention", ".vlog");
+        file.deleteOnExit();
+
+        ViewerLogFileRecord header = new ViewerLogFileRecord();
+        header.maxTimeStep = STEPS;
+        header.mapName = "/maps/test";
+        header.map = new MapInfo();
+        header.map.entities = new ArrayList<>();
+        header.config = new HashMap<>();
+        try (ViewerLogFileWriter writer = new ViewerLogFileWriter(header, file.getPath())) {
+            for (int time = 1; time <= STEPS; time++) {
+                List<Entity> changes = new ArrayList<>();
+                for (int i = 0; i < ENTITIES; i++) {
+                    Entity entity = new Entity();
+                    entity.id = i;
+                    entity.hp = 10000 - time;
+                    entity.x = i * 10;
+                    entity.y = time * 10;
+                    entity.type = "Civilian";
+                    changes.add(entity);
+                }
+                Record record = new Record();
+                record.time = time;
+                record.changes = changes;
+                record.world = (time == 1) ? changes : null;
+                writer.write(record);
+            }
+        }
+        return file;
+    }
+
+    @Test
+    public void RecordRequestContentionTest() throws Exception {
+        Logger logger = Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER);
+        Level level = logger.getLevel();
+        logger.setLevel(Level.WARN);
+
+        File file = createLog();
+        DefaultManager manager = new DefaultManager();
+        manager.requestOpenLogProvider(file.getPath());
+        int[] viewerIds = new int[VIEWERS];
+        for (int i = 0; i < VIEWERS; i++) {
+            viewerIds[i] = ((DefaultResponse.IDsResult) manager.requestOpenViewer(true).getData()).viewerId;
+            ServerResponse connected = manager.requestConnection(viewerIds[i], 0);
+            assert connected.getStatus() == ServerResponse.STATUS_OK;
+        }
+
+        Thread main = new Thread(manager::run);
+        main.start();
+        try {
+            List<long[]> latencies = Collections.synchronizedList(new ArrayList<>());
+            AtomicInteger received = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int viewerId : viewerIds) {
+                Thread thread = new Thread(() -> {
+                    long[] times = new long[STEPS * 100];
+                    int n = 0;
+                    int count = 0;
+                    long deadline = System.currentTimeMillis() + 60000;
+                    while (count < STEPS && System.currentTimeMillis() < deadline && n < times.length) {
+                        long begin = System.nanoTime();
+                        ServerResponse response = manager.requestRecords(new ServerRequest(viewerId, System.currentTimeMillis(), 1));
+                        times[n++] = System.nanoTime() - begin;
+                        int size = (response.getData() instanceof DefaultResponse.RecordResult)
+                                ? ((DefaultResponse.RecordResult) response.getData()).record.length : 0;
+                        count += size;
+                        if (size == 0) {
+                            // poll again later, as viewers do
+                            try {
+                                Thread.sleep(1);
+                            } catch (InterruptedException e) {
+                                break;
+                            }
+                        }
+                    }
+                    received.addAndGet(count);
+                    latencies.add(Arrays.copyOf(times, n));
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            // every viewer gets every step
+            assert received.get() == VIEWERS * STEPS : received.get();
+
+            long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+            System.out.println(String.format("%d viewers, %d requests in %.1f ms: p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+                    VIEWERS, all.length, elapsed / 1e6,
+                    all[all.length / 2] / 1e6, all[(int) (all.length * 0.99)] / 1e6, all[all.length - 1] / 1e6));
+        } finally {
+            manager.shutdown();
+            main.join();
+            logger.setLevel(level);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import viewermanager.ViewerManagerKeys;
+import viewermanager.entity.Record;
+import viewermanager.entity.provider.DummyProvider;
+import viewermanager.entity.provider.IEntityProvider;
+import viewermanager.manager.DefaultManager;
+import viewermanager.manager.DefaultResponse;
+import viewermanager.manager.ServerRequest;
+import viewermanager.manager.ServerResponse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Latency from a record arrived on the Provider to be available for Viewers.
+ * Providerにレコードが届いてからViewerが取得できるまでの遅延
+ * */
+public class ManagerWakeupTest {
+
+    private static final int STEPS = 50;
+
+    /**
+     * Provider receiving records on other thread, like RRSEntityProvider.
+     * RRSEntityProviderのように別スレッドでレコードを受信するProvider
+     * */
+    private static class PushProvider extends DummyProvider {
+        private final ConcurrentLinkedQueue<Record> records = new ConcurrentLinkedQueue<>();
+        private volatile IEntityProvider.Listener listener;
+        private volatile boolean working = true;
+
+        void push(Record record) {
+            records.add(record);
+            if (listener != null) {
+                listener.providerUpdated(this);
+            }
+        }
+
+        void end() {
+            working = false;
+            if (listener != null) {
+                listener.providerUpdated(this);
+            }
+        }
+
+        @Override
+        public void setListener(IEntityProvider.Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean isWorking() {
+            return working;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return !working && records.isEmpty();
+        }
+
+        @Override
+        public Integer getMaxTimeSteps() {
+            return STEPS;
+        }
+
+        @Override
+        public boolean isIncomingRecordAvailable() {
+            return !records.isEmpty();
+        }
+
+        @Override
+        public Record getIncomingRecord() {
+            return records.poll();
+        }
+    }
+
+    @Test
+    public void RecordLatencyTest() throws Exception {
+        Logger logger = Logger.getLogger(ViewerManagerKeys.DEFAULT_LOGGER);
+        Level level = logger.getLevel();
+        logger.setLevel(Level.WARN);
+
+        DefaultManager manager = new DefaultManager();
+        PushProvider provider = new PushProvider();
+        int providerId = manager.registerProvider(provider);
+        int viewerId = ((DefaultResponse.IDsResult) manager.requestOpenViewer(true).getData()).viewerId;
+        ServerResponse connected = manager.requestConnection(viewerId, providerId);
+        assert connected.getStatus() == ServerResponse.STATUS_OK;
+
+        Thread main = new Thread(manager::run);
+        main.start();
+        try {
+            long[] latencies = new long[STEPS];
+            for (int time = 1; time <= STEPS; time++) {
+                Record record = new Record();
+                record.time = time;
+                record.changes = new ArrayList<>();
+                long begin = System.nanoTime();
+                provider.push(record);
+
+                // Wait for the record to be recorded
+                int received = 0;
+                while (received == 0 && System.nanoTime() - begin < 5_000_000_000L) {
+                    ServerResponse response = manager.requestRecords(new ServerRequest(viewerId, System.currentTimeMillis(), 1));
+                    if (response.getData() instanceof DefaultResponse.RecordResult) {
+                        received = ((DefaultResponse.RecordResult) response.getData()).record.length;
+                    }
+                }
+                latencies[time - 1] = System.nanoTime() - begin;
+                assert received == 1 : time;
+                Thread.sleep(5);
+            }
+            provider.end();
+
+            Arrays.sort(latencies);
+            System.out.println(String.format("%d records: p50 %.3f ms, max %.3f ms",
+                    STEPS, latencies[STEPS / 2] / 1e6, latencies[STEPS - 1] / 1e6));
+            // Recorded right away, not on the next poll of the providers
+            assert latencies[STEPS / 2] < 10_000_000L;
+        } finally {
+            manager.shutdown();
+            main.join();
+            logger.setLevel(level);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import viewermanager.ViewerManagerKeys;
+import viewermanager.encoder.MsgPackEncoder;
+import viewermanager.entity.Entity;
+import viewermanager.entity.MapInfo;
+import viewermanager.entity.Record;
+import viewermanager.log.ViewerLogFileRecord;
+import viewermanager.log.ViewerLogFileWriter;
+import viewermanager.manager.DefaultManager;
+import viewermanager.manager.DefaultResponse;
+import viewermanager.manager.ServerRequest;
+import viewermanager.manager.ServerResponse;
+import viewermanager.recorder.DefaultRecorder;
+import viewermanager.recorder.MappedRecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+public class MappedRecorderTest {
+
+    private Record createRecord(int time, int entities) {
+        Record record = new Record();
+        record.time = time;
+        record.changes = new ArrayList<>();
+        for (int i = 0; i < entities; i++) {
+            Entity entity = new Entity();
+            entity.id = i;
+            entity.hp = 10000 - time;
+            record.changes.add(entity);
+        }
+        return record;
+    }
+
+    private File createDirectory() throws Exception {
+        File directory = Files.createTempDirectory("recorder").toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    @Test
+    public void SameAsDefaultRecorderTest() throws Exception {
+        DefaultRecorder heap = new DefaultRecorder(new MsgPackEncoder());
+        // Small segments to use several of them
+        try (MappedRecorder mapped = new MappedRecorder(new MsgPackEncoder(), createDirectory(), 4096)) {
+            for (int time = 1; time <= 100; time++) {
+                heap.appendRecord(createRecord(time, time % 7));
+                mapped.appendRecord(createRecord(time, time % 7));
+            }
+
+            assert mapped.size() == 100;
+            assert mapped.getCurrentTimeStep() == 100;
+            for (int i = 0; i < 100; i++) {
+                ByteBuffer record = mapped.getRecord(i);
+                assert record.isDirect() && record.isReadOnly();
+                assert record.position() == 0;
+                ByteBuffer expected = heap.getRecord(i);
+                assert Arrays.equals(bytes(record), bytes(expected)) : i;
+            }
+            ByteBuffer none = mapped.getRecord(100);
+            assert none == null;
+            ByteBuffer[] records = mapped.getRecords();
+            assert records.length == 100;
+        }
+    }
+
+    @Test
+    public void LargeRecordTest() throws Exception {
+        try (MappedRecorder mapped = new MappedRecorder(new MsgPackEncoder(), createDirectory(), 1024)) {
+            mapped.appendRecord(createRecord(1, 1));
+            mapped.appendRecord(createRecord(2, 500));
+            mapped.appendRecord(createRecord(3, 1));
+
+            ByteBuffer expected = new MsgPackEncoder().encodeRecord(createRecord(2, 500));
+            assert expected.remaining() > 1024;
+            ByteBuffer large = mapped.getRecord(1);
+            assert Arrays.equals(bytes(large), bytes(expected));
+            ByteBuffer small = mapped.getRecord(2);
+            assert small.remaining() < 1024;
+        }
+    }
+
+    @Test
+    public void RestoreTest() throws Exception {
+        File directory = createDirectory();
+        List<byte[]> written = new ArrayList<>();
+        try (MappedRecorder mapped = new MappedRecorder(new MsgPackEncoder(), directory, 4096)) {
+            for (int time = 1; time <= 50; time++) {
+                mapped.appendRecord(createRecord(time, 3));
+                written.add(bytes(mapped.getRecord(time - 1)));
+            }
+        }
+
+        // Partial entry of the index, as written on crash
+        try (RandomAccessFile index = new RandomAccessFile(new File(directory, MappedRecorder.INDEX_FILE), "rw")) {
+            index.seek(index.length());
+            index.write(new byte[MappedRecorder.INDEX_ENTRY_SIZE / 2]);
+        }
+
+        try (MappedRecorder mapped = new MappedRecorder(new MsgPackEncoder(), directory, 4096)) {
+            assert mapped.size() == 50;
+            assert mapped.getCurrentTimeStep() == 50;
+            for (int i = 0; i < 50; i++) {
+                ByteBuffer record = mapped.getRecord(i);
+                assert Arrays.equals(bytes(record), written.get(i)) : i;
+            }
+
+            // Continue appending
+            mapped.appendRecord(createRecord(51, 3));
+            assert mapped.size() == 51;
+            ByteBuffer appended = mapped.getRecord(50);
+            ByteBuffer expected = new MsgPackEncoder().encodeRecord(createRecord(51, 3));
+            assert Arrays.equals(bytes(appended), bytes(expected));
+        }
+    }
+
+    @Test
+    public void OtherSourceTest() throws Exception {
+        File directory = createDirectory();
+        try (MappedRecorder mapped = new MappedRecorder(new MsgPackEncoder(true), directory, 4096, "log;size=1")) {
+            for (int time = 1; time <= 10; time++) {
+                mapped.appendRecord(createRecord(time, 3));
+            }
+        }
+
+        // Same source, or not checked: restored
+        try (MappedRecorder mapped = new MappedRecorder(new MsgPackEncoder(true), directory, 4096, "log;size=1")) {
+            assert mapped.size() == 10;
+        }
+        try (MappedRecorder mapped = new MappedRecorder(new MsgPackEncoder(true), directory, 4096)) {
+            assert mapped.size() == 10;
+        }
+
+        // Other format: discarded
+        try (MappedRecorder mapped = new MappedRecorder(new MsgPackEncoder(false), directory, 4096)) {
+            assert mapped.size() == 0;
+            mapped.appendRecord(createRecord(1, 3));
+        }
+
+        // Other source, as the log rewritten: discarded
+        try (MappedRecorder mapped = new MappedRecorder(new MsgPackEncoder(false), directory, 4096, "log;size=2")) {
+            assert mapped.size() == 0;
+            assert mapped.getCurrentTimeStep() == 0;
+        }
+    }
+
+    @Test
+    public void AlreadyOpenTest() throws Exception {
+        File directory = createDirectory();
+        try (MappedRecorder mapped = new MappedRecorder(new MsgPackEncoder(), directory, 4096)) {
+            mapped.appendRecord(createRecord(1, 3));
+            boolean refused = false;
+            try {
+                new MappedRecorder(new MsgPackEncoder(), new File(directory, "../" + directory.getName()), 4096).close();
+            } catch (IOException e) {
+                refused = true;
+            }
+            assert refused;
+        }
+
+        // Open again after closed
+        try (MappedRecorder mapped = new MappedRecorder(new MsgPackEncoder(), directory, 4096)) {
+            assert mapped.size() == 1;
+        }
+    }
+
+    @Test
+    public void DeleteOnCloseTest() throws Exception {
+        File directory = new File(createDirectory(), "online-0-0");
+        MappedRecorder mapped = new MappedRecorder(new MsgPackEncoder(), directory, 4096);
+        mapped.setDeleteOnClose(true);
+        mapped.appendRecord(createRecord(1, 3));
+        assert directory.isDirectory();
+
+        mapped.close();
+        assert !directory.exists();
+        // Closed twice on shutdown
+        mapped.close();
+    }
+
+    @Test
+    public void JsonResponseTest() throws Exception {
+        try (MappedRecorder mapped = new MappedRecorder(new MsgPackEncoder(), createDirectory(), 4096)) {
+            mapped.appendRecord(createRecord(1, 3));
+            ByteBuffer record = mapped.getRecord(0);
+
+            // Records are written as base64 on JSON responses, also from off-heap buffers
+            ObjectMapper mapper = new ObjectMapper();
+            String json = mapper.writeValueAsString(new DefaultResponse.RecordResult(Arrays.asList(record)));
+            byte[][] read = mapper.readValue(mapper.readTree(json).get("record").toString(), byte[][].class);
+            assert Arrays.equals(read[0], bytes(record));
+        }
+    }
+
+    private int receiveAll(DefaultManager manager, int count) throws Exception {
+        int viewerId = ((DefaultResponse.IDsResult) manager.requestOpenViewer(true).getData()).viewerId;
+        ServerResponse connected = manager.requestConnection(viewerId, 0);
+        assert connected.getStatus() == ServerResponse.STATUS_OK;
+        int received = 0;
+        long deadline = System.currentTimeMillis() + 10000;
+        while (received < count && System.currentTimeMillis() < deadline) {
+            ServerResponse response = manager.requestRecords(new ServerRequest(viewerId, System.currentTimeMillis()));
+            if (response.getData() instanceof DefaultResponse.RecordResult) {
+                received += ((DefaultResponse.RecordResult) response.getData()).record.length;
+            }
+            Thread.sleep(10);
+        }
+        return received;
+    }
+
+    @Test
+    public void ManagerRestoreTest() throws Exception {
+        File log = File.createTempFile("restore", ".vlog");
+        log.deleteOnExit();
+        ViewerLogFileRecord header = new ViewerLogFileRecord();
+        header.maxTimeStep = 20;
+        header.mapName = "/maps/test";
+        header.map = new MapInfo();
+        header.map.entities = new ArrayList<>();
+        header.config = new HashMap<>();
+        try (ViewerLogFileWriter writer = new ViewerLogFileWriter(header, log.getPath())) {
+            for (int time = 1; time <= 20; time++) {
+                Record record = createRecord(time, 3);
+                record.world = (time == 1) ? record.changes : null;
+                writer.write(record);
+            }
+        }
+
+        File directory = createDirectory();
+        System.setProperty(ViewerManagerKeys.RECORDER_TYPE, "mapped");
+        System.setProperty(ViewerManagerKeys.RECORDER_DIR, directory.getPath());
+        try {
+            for (int run = 0; run < 2; run++) {
+                // The second run restores records written by the first
+                DefaultManager manager = new DefaultManager();
+                manager.requestOpenLogProvider(log.getPath());
+                Thread main = new Thread(manager::run);
+                main.start();
+                try {
+                    int received = receiveAll(manager, 20);
+                    assert received == 20;
+                } finally {
+                    manager.shutdown();
+                    main.join();
+                }
+
+                File[] recorders = directory.listFiles();
+                assert recorders != null && recorders.length == 1;
+                try (MappedRecorder mapped = new MappedRecorder(new MsgPackEncoder(), recorders[0])) {
+                    assert mapped.size() == 20;
+                }
+            }
+        } finally {
+            System.clearProperty(ViewerManagerKeys.RECORDER_TYPE);
+            System.clearProperty(ViewerManagerKeys.RECORDER_DIR);
+        }
+    }
+}
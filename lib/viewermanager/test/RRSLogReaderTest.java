@@ -14,8 +14,25 @@ import rescuecore2.worldmodel.Entity;
 import rescuecore2.worldmodel.EntityID;
 import rescuecore2.worldmodel.WorldModel;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import rescuecore2.log.CommandsRecord;
+import rescuecore2.standard.entities.StandardWorldModel;
+import viewermanager.encoder.MsgPackEncoder;
+import viewermanager.entity.Record;
+import viewermanager.entity.provider.RRSLogReader;
+
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class RRSLogReaderTest {
@@ -37,4 +54,214 @@ public class RRSLogReaderTest {
         }
     }
 
+    /**
+     * LogReader counting worlds read, to find worlds built from the log again.
+     * 読み出したWorldを数えるLogReader，ログから再度作られたWorldを見つけるため
+     * */
+    private static class CountingLogReader implements LogReader {
+        final LogReader reader;
+        final AtomicInteger worldsRead = new AtomicInteger(0);
+
+        CountingLogReader(LogReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public Config getConfig() throws rescuecore2.log.LogException {
+            return reader.getConfig();
+        }
+
+        @Override
+        public int getMaxTimestep() throws rescuecore2.log.LogException {
+            return reader.getMaxTimestep();
+        }
+
+        @Override
+        public WorldModel<? extends Entity> getWorldModel(int time) throws rescuecore2.log.LogException {
+            worldsRead.incrementAndGet();
+            return reader.getWorldModel(time);
+        }
+
+        @Override
+        public Set<EntityID> getEntitiesWithUpdates(int time) throws rescuecore2.log.LogException {
+            return reader.getEntitiesWithUpdates(time);
+        }
+
+        @Override
+        public PerceptionRecord getPerception(int time, EntityID entity) throws rescuecore2.log.LogException {
+            return reader.getPerception(time, entity);
+        }
+
+        @Override
+        public CommandsRecord getCommands(int time) throws rescuecore2.log.LogException {
+            return reader.getCommands(time);
+        }
+
+        @Override
+        public UpdatesRecord getUpdates(int time) throws rescuecore2.log.LogException {
+            return reader.getUpdates(time);
+        }
+    }
+
+    private static class CountingRRSLogReader extends RRSLogReader {
+        CountingLogReader counting;
+
+        @Override
+        public void open(String fileName) throws viewermanager.log.LogFileException {
+            super.open(fileName);
+            counting = new CountingLogReader(reader);
+            reader = counting;
+        }
+    }
+
+    /** entities of the world by id, as JSON to compare */
+    private static Map<Integer, String> byId(List<viewermanager.entity.Entity> world) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        Map<Integer, String> map = new TreeMap<>();
+        for (viewermanager.entity.Entity entity : world) {
+            map.put(entity.id, mapper.writeValueAsString(entity));
+        }
+        return map;
+    }
+
+    private static List<viewermanager.entity.Entity> worldOf(LogReader reader, int time) throws Exception {
+        List<viewermanager.entity.Entity> world = new ArrayList<>();
+        for (StandardEntity entity : StandardWorldModel.createStandardWorldModel(reader.getWorldModel(time))) {
+            world.add(new viewermanager.entity.Entity(entity));
+        }
+        return world;
+    }
+
+    @Test
+    public void ReadAheadWorldTest() throws Exception {
+        File log = RRSLogSample.write(12);
+        LogReader expected = new FileLogReader(log.getPath(), Registry.SYSTEM_REGISTRY);
+
+        for (int parallelism : new int[]{1, 3}) {
+            CountingRRSLogReader reader = new CountingRRSLogReader();
+            reader.setIncremental(true);
+            reader.setParallelism(parallelism, 4);
+            reader.open(log.getPath());
+
+            // Read all steps ahead, as the manager filling the lane, then build worlds on workers
+            List<Record> records = new ArrayList<>();
+            while (reader.isIncomingRecordAvailable()) {
+                records.add(reader.getIncomingRecord());
+            }
+            int before = reader.counting.worldsRead.get();
+            ExecutorService workers = Executors.newFixedThreadPool(4);
+            List<Future<List<viewermanager.entity.Entity>>> worlds = new ArrayList<>();
+            for (Record record : records) {
+                worlds.add(workers.submit(record::getWorld));
+            }
+
+            assert records.size() == 12;
+            for (int i = 0; i < records.size(); i++) {
+                int time = records.get(i).time;
+                Map<Integer, String> world = byId(worlds.get(i).get());
+                Map<Integer, String> expectedWorld = byId(worldOf(expected, time));
+                assert world.equals(expectedWorld) : parallelism + ", " + time;
+            }
+            workers.shutdown();
+
+            // Worlds are not built from the log again
+            int rebuilt = reader.counting.worldsRead.get() - before;
+            assert rebuilt == 0 : rebuilt;
+            reader.shutdown();
+        }
+    }
+
+
+    @Test
+    public void ReadAgainTest() throws Exception {
+        File log = RRSLogSample.write(10);
+        LogReader expected = new FileLogReader(log.getPath(), Registry.SYSTEM_REGISTRY);
+        RRSLogReader reader = new RRSLogReader();
+        reader.setIncremental(true);
+        reader.open(log.getPath());
+
+        RRSLogReader full = new RRSLogReader();
+        full.setIncremental(false);
+        full.open(log.getPath());
+
+        // Steps read again in any order, the log reader keeps worlds read before as key frames
+        viewermanager.recorder.RecordSource source = reader.createRecordSource();
+        viewermanager.recorder.RecordSource fullSource = full.createRecordSource();
+        for (int time : new int[]{5, 4, 5, 3, 6, 4}) {
+            Record record = source.readRecord(time);
+            Record fullRecord = fullSource.readRecord(time);
+            List<viewermanager.entity.Entity> expectedWorld = worldOf(expected, time);
+            assert record.time == time;
+            assert byId(record.getWorld()).equals(byId(expectedWorld)) : time;
+            assert byId(record.changes).equals(byId(fullRecord.changes)) : time;
+        }
+        source.close();
+        fullSource.close();
+        reader.shutdown();
+        full.shutdown();
+    }
+
+    /** records of the log encoded, read with the parallelism */
+    private static List<ByteBuffer> encodeAll(File log, int parallelism, int chunkSize, boolean incremental) throws Exception {
+        RRSLogReader reader = new RRSLogReader();
+        reader.setParallelism(parallelism, chunkSize);
+        reader.setIncremental(incremental);
+        reader.open(log.getPath());
+
+        MsgPackEncoder encoder = new MsgPackEncoder();
+        List<ByteBuffer> records = new ArrayList<>();
+        while (reader.isIncomingRecordAvailable()) {
+            records.add(encoder.encodeRecord(reader.getIncomingRecord()));
+        }
+        reader.shutdown();
+        return records;
+    }
+
+    @Test
+    public void WorkersReleasedTest() throws Exception {
+        File log = RRSLogSample.write(20);
+        RRSLogReader reader = new RRSLogReader();
+        reader.setParallelism(3, 2);
+        reader.open(log.getPath());
+
+        boolean available = reader.isIncomingRecordAvailable();
+        assert available;
+        Record first = reader.getIncomingRecord();
+        assert first.time == 1;
+
+        // Readers of workers, each loading the whole log
+        java.lang.reflect.Field decodersField = RRSLogReader.class.getDeclaredField("decoders");
+        decodersField.setAccessible(true);
+        java.lang.reflect.Field executorField = RRSLogReader.class.getDeclaredField("executor");
+        executorField.setAccessible(true);
+        java.util.Collection<?> decoders = (java.util.Collection<?>) decodersField.get(reader);
+        ExecutorService executor = (ExecutorService) executorField.get(reader);
+        assert decoders != null && executor != null;
+
+        // Stopped on the way, as dropped before the last step
+        reader.shutdown();
+        boolean terminated = executor.awaitTermination(10, java.util.concurrent.TimeUnit.SECONDS);
+        assert terminated;
+        assert decoders.isEmpty();
+        assert decodersField.get(reader) == null;
+    }
+
+    @Test
+    public void ParallelParityTest() throws Exception {
+        // Entities are created and deleted on the way, so chunks start from worlds of different rows
+        File log = RRSLogSample.write(20);
+        List<ByteBuffer> sequential = encodeAll(log, 1, 1, false);
+        assert sequential.size() == 20;
+
+        for (boolean incremental : new boolean[]{false, true}) {
+            for (int[] parallelism : new int[][]{{1, 1}, {2, 1}, {3, 4}, {4, 7}}) {
+                List<ByteBuffer> records = encodeAll(log, parallelism[0], parallelism[1], incremental);
+                assert records.size() == sequential.size();
+                for (int i = 0; i < records.size(); i++) {
+                    assert records.get(i).equals(sequential.get(i))
+                            : incremental + ", " + parallelism[0] + "x" + parallelism[1] + " on " + (i + 1);
+                }
+            }
+        }
+    }
 }
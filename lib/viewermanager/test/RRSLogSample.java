@@ -0,0 +1,189 @@
+import rescuecore2.config.Config;
+import rescuecore2.log.CommandsRecord;
+import rescuecore2.log.ConfigRecord;
+import rescuecore2.log.EndLogRecord;
+import rescuecore2.log.FileLogWriter;
+import rescuecore2.log.InitialConditionsRecord;
+import rescuecore2.log.LogWriter;
+import rescuecore2.log.StartLogRecord;
+import rescuecore2.log.UpdatesRecord;
+import rescuecore2.standard.entities.Building;
+import rescuecore2.standard.entities.Civilian;
+import rescuecore2.standard.entities.Edge;
+import rescuecore2.standard.entities.FireBrigade;
+import rescuecore2.standard.entities.Road;
+import rescuecore2.standard.entities.StandardEntity;
+import rescuecore2.standard.entities.StandardWorldModel;
+import rescuecore2.worldmodel.ChangeSet;
+import rescuecore2.worldmodel.EntityID;
+import viewermanager.entity.provider.RRSRegistry;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Small RRS Log written for tests: buildings heat up, agents move and lose hp,
+ *  a civilian is created on step 3 and another is deleted on step 5.
+ * 試験のために書き出す小さなRRS Log: 建物の温度が上がり，エージェントが移動してHPを失う．
+ *  ステップ3で市民が作られ，ステップ5で別の市民が削除される．
+ * */
+public class RRSLogSample {
+
+    private static final int BUILDINGS = 6;
+    private static final int SIZE = 10000;
+
+    private static final EntityID ROAD = new EntityID(100);
+    private static final EntityID CIVILIAN = new EntityID(200);
+    private static final EntityID CREATED = new EntityID(201);
+    private static final EntityID DELETED = new EntityID(202);
+    private static final EntityID BRIGADE = new EntityID(300);
+
+    private RRSLogSample() {
+    }
+
+    private static List<Edge> square(int x, int y) {
+        return Arrays.asList(
+                new Edge(x, y, x + SIZE, y),
+                new Edge(x + SIZE, y, x + SIZE, y + SIZE),
+                new Edge(x + SIZE, y + SIZE, x, y + SIZE),
+                new Edge(x, y + SIZE, x, y));
+    }
+
+    private static Civilian createCivilian(EntityID id, int hp) {
+        Civilian civilian = new Civilian(id);
+        civilian.setX(SIZE / 2);
+        civilian.setY(SIZE * 3 / 2);
+        civilian.setPosition(ROAD);
+        civilian.setHP(hp);
+        civilian.setDamage(10);
+        civilian.setBuriedness(0);
+        civilian.setStamina(10000);
+        civilian.setDirection(0);
+        return civilian;
+    }
+
+    private static StandardWorldModel createWorld() {
+        List<StandardEntity> entities = new ArrayList<>();
+        for (int i = 0; i < BUILDINGS; i++) {
+            Building building = new Building(new EntityID(i + 1));
+            building.setX(i * SIZE + SIZE / 2);
+            building.setY(SIZE / 2);
+            building.setEdges(square(i * SIZE, 0));
+            building.setFloors(1);
+            building.setGroundArea(SIZE * SIZE / 1000000);
+            building.setTotalArea(SIZE * SIZE / 1000000);
+            building.setFieryness(0);
+            building.setTemperature(0);
+            building.setBrokenness(0);
+            building.setImportance(1);
+            building.setBuildingCode(0);
+            building.setBuildingAttributes(0);
+            entities.add(building);
+        }
+        Road road = new Road(ROAD);
+        road.setX(SIZE / 2);
+        road.setY(SIZE * 3 / 2);
+        road.setEdges(square(0, SIZE));
+        entities.add(road);
+
+        entities.add(createCivilian(CIVILIAN, 10000));
+        entities.add(createCivilian(DELETED, 10000));
+
+        FireBrigade brigade = new FireBrigade(BRIGADE);
+        brigade.setX(SIZE / 2);
+        brigade.setY(SIZE * 3 / 2);
+        brigade.setPosition(ROAD);
+        brigade.setHP(10000);
+        brigade.setDamage(0);
+        brigade.setBuriedness(0);
+        brigade.setStamina(10000);
+        brigade.setDirection(0);
+        brigade.setWater(15000);
+        entities.add(brigade);
+
+        StandardWorldModel model = new StandardWorldModel();
+        model.addEntities(entities);
+        return model;
+    }
+
+    /**
+     * write the log of <code>steps</code> steps to the file.
+     * <code>steps</code>ステップのログをファイルに書き出す．
+     * */
+    public static File write(File file, int steps) throws Exception {
+        RRSRegistry.initialize();
+        StandardWorldModel model = createWorld();
+
+        LogWriter writer = new FileLogWriter(file);
+        try {
+            writer.writeRecord(new StartLogRecord());
+            writer.writeRecord(new InitialConditionsRecord(model));
+            Config config = new Config();
+            config.setValue("kernel.timesteps", String.valueOf(steps));
+            // Used by the score function
+            config.setValue("score.standard.building-fire.heating", "0.9");
+            config.setValue("score.standard.building-fire.burning", "0.6");
+            config.setValue("score.standard.building-fire.inferno", "0.3");
+            config.setValue("score.standard.building-fire.burnt-out", "0.0");
+            config.setValue("score.standard.building-fire.water-damage", "0.8");
+            config.setValue("score.standard.building-fire.minor-damage", "0.9");
+            config.setValue("score.standard.building-fire.moderate-damage", "0.6");
+            config.setValue("score.standard.building-fire.severe-damage", "0.3");
+            config.setValue("score.standard.building-fire.absolute", "false");
+            config.setValue("score.standard.health.absolute", "false");
+            writer.writeRecord(new ConfigRecord(config));
+
+            for (int time = 1; time <= steps; time++) {
+                ChangeSet changes = new ChangeSet();
+                for (int i = 0; i < BUILDINGS; i++) {
+                    Building building = (Building) model.getEntity(new EntityID(i + 1));
+                    building.setTemperature(building.getTemperature() + (i + 1) * time);
+                    if (time == i + 2) {
+                        building.setFieryness(1);
+                        changes.addChange(building, building.getFierynessProperty());
+                    }
+                    changes.addChange(building, building.getTemperatureProperty());
+                }
+
+                Civilian civilian = (Civilian) model.getEntity(CIVILIAN);
+                civilian.setHP(10000 - time * 100);
+                changes.addChange(civilian, civilian.getHPProperty());
+
+                FireBrigade brigade = (FireBrigade) model.getEntity(BRIGADE);
+                brigade.setX(SIZE / 2 + time * 100);
+                brigade.setWater(15000 - time * 500);
+                changes.addChange(brigade, brigade.getXProperty());
+                changes.addChange(brigade, brigade.getWaterProperty());
+
+                if (time == 3) {
+                    Civilian created = createCivilian(CREATED, 5000);
+                    model.addEntity(created);
+                    changes.addAll(Arrays.asList(created));
+                }
+                if (time == 5) {
+                    model.removeEntity(DELETED);
+                    changes.entityDeleted(DELETED);
+                }
+
+                writer.writeRecord(new CommandsRecord(time, new ArrayList<>()));
+                writer.writeRecord(new UpdatesRecord(time, changes));
+            }
+            writer.writeRecord(new EndLogRecord());
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * write the log to a temporary file deleted on exit.
+     * 終了時に削除する一時ファイルにログを書き出す．
+     * */
+    public static File write(int steps) throws Exception {
+        File file = File.createTempFile("rescue", ".log");
+        file.deleteOnExit();
+        return write(file, steps);
+    }
+}
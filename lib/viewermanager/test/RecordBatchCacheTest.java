@@ -0,0 +1,217 @@
+import org.junit.Test;
+import viewermanager.encoder.MsgPackEncoder;
+import viewermanager.entity.Entity;
+import viewermanager.entity.MapInfo;
+import viewermanager.entity.Record;
+import viewermanager.log.ViewerLogFileRecord;
+import viewermanager.log.ViewerLogFileWriter;
+import viewermanager.manager.DefaultManager;
+import viewermanager.manager.DefaultResponse;
+import viewermanager.manager.RecordBatchCache;
+import viewermanager.manager.ServerRequest;
+import viewermanager.manager.ServerResponse;
+import viewermanager.recorder.DefaultRecorder;
+import viewermanager.recorder.RecordSource;
+import viewermanager.recorder.Recorder;
+import viewermanager.recorder.RecorderCache;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RecordBatchCacheTest {
+
+    private static final int STEPS = 20;
+
+    private static File createLog() throws Exception {
+        File log = File.createTempFile("batch", ".vlog");
+        log.deleteOnExit();
+        ViewerLogFileRecord header = new ViewerLogFileRecord();
+        header.maxTimeStep = STEPS;
+        header.mapName = "/maps/test";
+        header.map = new MapInfo();
+        header.map.entities = new ArrayList<>();
+        header.config = new HashMap<>();
+        try (ViewerLogFileWriter writer = new ViewerLogFileWriter(header, log.getPath())) {
+            for (int time = 1; time <= STEPS; time++) {
+                Record record = new Record();
+                record.time = time;
+                record.changes = new ArrayList<>();
+                Entity entity = new Entity();
+                entity.id = 1;
+                entity.hp = time;
+                record.changes.add(entity);
+                record.world = (time == 1) ? record.changes : null;
+                writer.write(record);
+            }
+        }
+        return log;
+    }
+
+    private static int openViewer(DefaultManager manager) {
+        int viewerId = ((DefaultResponse.IDsResult) manager.requestOpenViewer(true).getData()).viewerId;
+        ServerResponse connected = manager.requestConnection(viewerId, 0);
+        assert connected.getStatus() == ServerResponse.STATUS_OK;
+        return viewerId;
+    }
+
+    private static DefaultResponse.RecordResult request(DefaultManager manager, int viewerId, int time, int count) {
+        ServerResponse response = manager.requestRecords(new ServerRequest(viewerId, System.currentTimeMillis(), time, count));
+        return (DefaultResponse.RecordResult) response.getData();
+    }
+
+    @Test
+    public void SharedWindowTest() throws Exception {
+        DefaultManager manager = new DefaultManager();
+        manager.requestOpenLogProvider(createLog().getPath());
+        int first = openViewer(manager);
+        int second = openViewer(manager);
+
+        Thread main = new Thread(manager::run);
+        main.start();
+        try {
+            // Wait for all recorded
+            long deadline = System.currentTimeMillis() + 10000;
+            while (System.currentTimeMillis() < deadline) {
+                ServerResponse response = manager.requestRecords(new ServerRequest(first, System.currentTimeMillis(), 0, STEPS));
+                if (response.getData() instanceof DefaultResponse.RecordResult
+                        && ((DefaultResponse.RecordResult) response.getData()).record.length == STEPS) {
+                    break;
+                }
+                Thread.sleep(10);
+            }
+
+            // The same window is the same result
+            DefaultResponse.RecordResult result = request(manager, first, 0, 10);
+            assert result.record.length == 10;
+            DefaultResponse.RecordResult same = request(manager, second, 0, 10);
+            DefaultResponse.RecordResult next = request(manager, second, 10, 10);
+            assert same == result && next != result;
+            assert result.isShared();
+
+            // Windows not recorded all are not shared
+            DefaultResponse.RecordResult partial = request(manager, first, 15, 10);
+            DefaultResponse.RecordResult other = request(manager, second, 15, 10);
+            assert partial != other && !partial.isShared();
+
+            // Framed once: (length | record) * count
+            ByteBuffer framed = result.getFramed();
+            assert framed.isReadOnly() && framed.position() == 0;
+            for (ByteBuffer record : result.record) {
+                int length = framed.getInt();
+                assert length == record.remaining();
+                ByteBuffer frame = framed.slice();
+                frame.limit(length);
+                assert frame.equals(record);
+                framed.position(framed.position() + length);
+            }
+            assert !framed.hasRemaining();
+            assert result.getFramed().remaining() == framed.limit();
+        } finally {
+            manager.shutdown();
+            main.join();
+        }
+    }
+
+    /**
+     * result of one record of 100 bytes, framed
+     * 100バイトのレコード1つの，フレーム化した結果
+     * */
+    private static DefaultResponse.RecordResult createResult() {
+        DefaultResponse.RecordResult result = new DefaultResponse.RecordResult(new ByteBuffer[]{ByteBuffer.allocate(100)});
+        result.getFramed();
+        return result;
+    }
+
+    @Test
+    public void LeastRecentlyUsedTest() {
+        DefaultResponse.RecordResult a = createResult();
+        DefaultResponse.RecordResult b = createResult();
+        DefaultResponse.RecordResult c = createResult();
+        long size = a.getBytes();
+        assert size >= 104;
+
+        // Room for 2 results
+        RecordBatchCache cache = new RecordBatchCache(size * 2 + size / 2);
+        cache.put(0, 0, 10, a);
+        cache.put(0, 10, 10, b);
+        DefaultResponse.RecordResult found = cache.get(0, 0, 10);
+        assert found == a;
+        cache.put(1, 0, 10, c);
+
+        // b is the least recently used
+        assert cache.size() == 2 && cache.getBytes() == size * 2;
+        DefaultResponse.RecordResult removed = cache.get(0, 10, 10);
+        DefaultResponse.RecordResult keptA = cache.get(0, 0, 10);
+        DefaultResponse.RecordResult keptC = cache.get(1, 0, 10);
+        assert removed == null && keptA == a && keptC == c;
+        assert cache.getHits() == 3 && cache.getMisses() == 1;
+
+        long released = cache.invalidate(0);
+        assert released == size && cache.size() == 1;
+
+        // Not kept with no bytes
+        RecordBatchCache none = new RecordBatchCache(0);
+        none.put(0, 0, 10, createResult());
+        assert none.size() == 0;
+    }
+
+    @Test
+    public void ChargedToBudgetTest() throws Exception {
+        // Recorder of a source, whose records are read again
+        DefaultRecorder recorder = new DefaultRecorder(new MsgPackEncoder());
+        recorder.setSource(new RecordSource() {
+            @Override
+            public Record readRecord(int time) {
+                Record record = new Record();
+                record.time = time;
+                return record;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        for (int time = 1; time <= 10; time++) {
+            Record record = new Record();
+            record.time = time;
+            recorder.appendRecord(record);
+        }
+        Map<Integer, Recorder> recorders = new HashMap<>();
+        recorders.put(0, recorder);
+
+        RecordBatchCache batches = new RecordBatchCache(1024 * 1024);
+        DefaultResponse.RecordResult result = new DefaultResponse.RecordResult(recorder.getRecords());
+        result.getFramed();
+        batches.put(0, 0, 10, result);
+        batches.put(1, 0, 10, createResult());
+
+        // Within the budget with records, over with results
+        long records = recorder.getBytes();
+        RecorderCache cache = new RecorderCache(records + batches.getBytes() - 1);
+        cache.addCache(batches);
+        List<Integer> dropped = cache.evict(recorders, new HashMap<>(), Collections.emptySet());
+        assert dropped.isEmpty();
+        RecorderCache.Stats stats = cache.getStats(recorders);
+        assert stats.cached == batches.getBytes() && stats.evicted == 0;
+
+        // Results of the provider least recently accessed are removed first
+        DefaultResponse.RecordResult removed = batches.get(0, 0, 10);
+        assert removed == null && batches.size() == 1 && recorder.getBytes() == records;
+
+        // Results of records evicted are removed with them
+        batches.put(0, 0, 10, result);
+        cache = new RecorderCache(records / 2);
+        cache.addCache(batches);
+        Map<Integer, Long> lastAccess = new HashMap<>();
+        lastAccess.put(1, 100L);
+        cache.evict(recorders, lastAccess, Collections.emptySet());
+        assert recorder.getBytes() < records;
+        removed = batches.get(0, 0, 10);
+        assert removed == null;
+    }
+}
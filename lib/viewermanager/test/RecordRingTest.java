@@ -0,0 +1,130 @@
+import org.junit.Test;
+import viewermanager.ViewerManagerKeys;
+import viewermanager.entity.Record;
+import viewermanager.entity.provider.RRSEntityProvider;
+import viewermanager.entity.provider.RecordRing;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class RecordRingTest {
+
+    private static Record createRecord(int time) {
+        Record record = new Record();
+        record.time = time;
+        return record;
+    }
+
+    @Test
+    public void BoundedTest() {
+        RecordRing ring = new RecordRing(5);
+        assert ring.capacity() == 8;
+        Record none = ring.poll();
+        assert ring.isEmpty() && none == null;
+
+        for (int time = 1; time <= 8; time++) {
+            boolean added = ring.offer(createRecord(time));
+            assert added;
+        }
+        boolean overflowed = !ring.offer(createRecord(9));
+        assert overflowed;
+        assert ring.size() == 8 && ring.getMaxDepth() == 8;
+        long dropped = ring.drop();
+        assert dropped == 1 && ring.getDropped() == 1;
+
+        // In order, and room again after taken
+        Record first = ring.poll();
+        assert first.time == 1;
+        boolean added = ring.offer(createRecord(9));
+        assert added;
+        for (int time = 2; time <= 9; time++) {
+            Record record = ring.poll();
+            assert record.time == time;
+        }
+        assert ring.isEmpty() && ring.size() == 0;
+    }
+
+    @Test
+    public void ProducerConsumerTest() throws Exception {
+        final int count = 1_000_000;
+        RecordRing ring = new RecordRing(1024);
+        Thread producer = new Thread(() -> {
+            for (int time = 1; time <= count; time++) {
+                Record record = createRecord(time);
+                while (!ring.offer(record)) {
+                    Thread.yield();
+                }
+            }
+        });
+
+        long begin = System.nanoTime();
+        producer.start();
+        int expected = 1;
+        while (expected <= count) {
+            Record record = ring.poll();
+            if (record == null) {
+                Thread.yield();
+                continue;
+            }
+            assert record.time == expected : record.time + " " + expected;
+            expected++;
+        }
+        producer.join();
+        long ringTime = System.nanoTime() - begin;
+        assert ring.isEmpty() && ring.getDropped() == 0;
+
+        // Dequeue from a backlog, as the manager falling behind
+        List<Record> list = Collections.synchronizedList(new ArrayList<>());
+        RecordRing backlog = new RecordRing(1 << 17);
+        for (int time = 1; time <= 100_000; time++) {
+            list.add(createRecord(time));
+            backlog.offer(createRecord(time));
+        }
+        begin = System.nanoTime();
+        while (!list.isEmpty()) {
+            list.remove(0);
+        }
+        long listTime = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        while (backlog.poll() != null) {
+            // take all
+        }
+        long backlogTime = System.nanoTime() - begin;
+
+        System.out.println(String.format("%d records through the ring in %.1f ms; backlog of 100000: list %.1f ms, ring %.1f ms",
+                count, ringTime / 1e6, listTime / 1e6, backlogTime / 1e6));
+    }
+
+    @Test
+    public void DropOverflowTest() throws Exception {
+        System.setProperty(ViewerManagerKeys.VIEWER_QUEUE_OVERFLOW, "drop");
+        RRSEntityProvider provider;
+        try {
+            provider = new RRSEntityProvider();
+        } finally {
+            System.clearProperty(ViewerManagerKeys.VIEWER_QUEUE_OVERFLOW);
+        }
+
+        // Queue of 2 records, which the manager never takes
+        RecordRing ring = new RecordRing(2);
+        Field records = RRSEntityProvider.class.getDeclaredField("records");
+        records.setAccessible(true);
+        records.set(provider, ring);
+        Field maxTimeStep = RRSEntityProvider.class.getDeclaredField("maxTimeStep");
+        maxTimeStep.setAccessible(true);
+        maxTimeStep.set(provider, 10);
+        Method appendRecord = RRSEntityProvider.class.getDeclaredMethod("appendRecord", Record.class);
+        appendRecord.setAccessible(true);
+
+        for (int time = 1; time <= 5; time++) {
+            appendRecord.invoke(provider, createRecord(time));
+        }
+
+        // Steps dropped have passed, too
+        assert ring.size() == 2 && ring.getDropped() == 3;
+        assert provider.getCurrentTimeStep() == 5;
+    }
+}
@@ -0,0 +1,238 @@
+import org.junit.Test;
+import viewermanager.ViewerManagerKeys;
+import viewermanager.encoder.MsgPackEncoder;
+import viewermanager.entity.Entity;
+import viewermanager.entity.MapInfo;
+import viewermanager.entity.Record;
+import viewermanager.entity.provider.ViewerLogReader;
+import viewermanager.log.ViewerLogFileRecord;
+import viewermanager.log.ViewerLogFileWriter;
+import viewermanager.manager.DefaultManager;
+import viewermanager.manager.DefaultResponse;
+import viewermanager.manager.ServerRequest;
+import viewermanager.manager.ServerResponse;
+import viewermanager.recorder.DefaultRecorder;
+import viewermanager.recorder.RecordSource;
+import viewermanager.recorder.Recorder;
+import viewermanager.recorder.RecorderCache;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+public class RecorderCacheTest {
+
+    private static Record createRecord(int time, int entities) {
+        Record record = new Record();
+        record.time = time;
+        record.changes = new ArrayList<>();
+        for (int i = 0; i < entities; i++) {
+            Entity entity = new Entity();
+            entity.id = i;
+            entity.hp = 10000 - time;
+            record.changes.add(entity);
+        }
+        return record;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    /**
+     * Source creating the same record again, and counting reads.
+     * 同じレコードを再び作り，読み出しを数える読み出し元
+     * */
+    private static class CountingSource implements RecordSource {
+        int reads = 0;
+        boolean closed = false;
+
+        @Override
+        public Record readRecord(int time) {
+            reads++;
+            return createRecord(time, 10);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void EvictAndReadAgainTest() throws Exception {
+        DefaultRecorder recorder = new DefaultRecorder(new MsgPackEncoder());
+        CountingSource source = new CountingSource();
+        recorder.setSource(source);
+        List<byte[]> written = new ArrayList<>();
+        for (int time = 1; time <= 50; time++) {
+            recorder.appendRecord(createRecord(time, 10));
+            written.add(bytes(recorder.getRecord(time - 1)));
+        }
+        assert recorder.getHits() == 50 && recorder.getMisses() == 0;
+
+        // Release the half, and the source
+        long bytes = recorder.getBytes();
+        long released = recorder.evict(bytes / 2);
+        assert released >= bytes / 2 && recorder.getBytes() == bytes - released;
+        assert source.closed;
+        source.closed = false;
+
+        for (int i = 0; i < 50; i++) {
+            ByteBuffer record = recorder.getRecord(i);
+            assert Arrays.equals(bytes(record), written.get(i)) : i;
+        }
+        assert recorder.getMisses() == source.reads && source.reads > 0 && source.reads < 50;
+        assert recorder.getBytes() == bytes;
+
+        // Kept again after read
+        recorder.getRecord(0);
+        assert recorder.getMisses() == source.reads;
+
+        recorder.close();
+        assert source.closed;
+    }
+
+    @Test
+    public void DropLeastRecentlyAccessedTest() throws Exception {
+        Map<Integer, Recorder> recorders = new HashMap<>();
+        for (int id = 0; id < 3; id++) {
+            DefaultRecorder recorder = new DefaultRecorder(new MsgPackEncoder());
+            for (int time = 1; time <= 10; time++) {
+                recorder.appendRecord(createRecord(time, 10));
+            }
+            recorders.put(id, recorder);
+        }
+        long size = ((DefaultRecorder) recorders.get(0)).getBytes();
+
+        // Provider 1 accessed before 0, and 2 is in use
+        Map<Integer, Long> lastAccess = new HashMap<>();
+        lastAccess.put(0, 200L);
+        lastAccess.put(1, 100L);
+        RecorderCache cache = new RecorderCache(size * 2);
+        List<Integer> dropped = cache.evict(recorders, lastAccess, Collections.singleton(2));
+        assert dropped.equals(Collections.singletonList(1)) : dropped;
+
+        recorders.remove(1);
+        cache = new RecorderCache(0);
+        dropped = cache.evict(recorders, lastAccess, new HashSet<>(Collections.singleton(2)));
+        assert dropped.equals(Collections.singletonList(0)) : dropped;
+
+        RecorderCache.Stats stats = cache.getStats(recorders);
+        assert stats.dropped == 1 && stats.budget == 0 && stats.recorders == 2;
+    }
+
+    private static File createLog(int steps) throws Exception {
+        File log = File.createTempFile("cache", ".vlog");
+        log.deleteOnExit();
+        ViewerLogFileRecord header = new ViewerLogFileRecord();
+        header.maxTimeStep = steps;
+        header.mapName = "/maps/test";
+        header.map = new MapInfo();
+        header.map.entities = new ArrayList<>();
+        header.config = new HashMap<>();
+        header.config.put("key", "value");
+        try (ViewerLogFileWriter writer = new ViewerLogFileWriter(header, log.getPath())) {
+            for (int time = 1; time <= steps; time++) {
+                Record record = createRecord(time, 20);
+                record.world = (time == 1) ? record.changes : null;
+                writer.write(record);
+            }
+        }
+        return log;
+    }
+
+    private static List<byte[]> receiveAll(File log, int count, boolean evicted) throws Exception {
+        DefaultManager manager = new DefaultManager();
+        manager.requestOpenLogProvider(log.getPath());
+        int viewerId = ((DefaultResponse.IDsResult) manager.requestOpenViewer(true).getData()).viewerId;
+        ServerResponse connected = manager.requestConnection(viewerId, 0);
+        assert connected.getStatus() == ServerResponse.STATUS_OK;
+
+        Thread main = new Thread(manager::run);
+        main.start();
+        List<byte[]> received = new ArrayList<>();
+        try {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (received.size() < count && System.currentTimeMillis() < deadline) {
+                ServerResponse response = manager.requestRecords(new ServerRequest(viewerId, System.currentTimeMillis(), 1));
+                if (response.getData() instanceof DefaultResponse.RecordResult) {
+                    for (ByteBuffer record : ((DefaultResponse.RecordResult) response.getData()).record) {
+                        received.add(bytes(record));
+                    }
+                }
+                else {
+                    Thread.sleep(5);
+                }
+            }
+
+            // Wait for the main loop evicting records recorded
+            while (evicted && ((RecorderCache.Stats) manager.requestRecorderStats().getData()).bytes > 0
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+
+            // Read all again from the first
+            List<byte[]> again = new ArrayList<>();
+            ServerResponse response = manager.requestRecords(new ServerRequest(viewerId, System.currentTimeMillis(), 0, count));
+            for (ByteBuffer record : ((DefaultResponse.RecordResult) response.getData()).record) {
+                again.add(bytes(record));
+            }
+            assert again.size() == received.size();
+            for (int i = 0; i < again.size(); i++) {
+                assert Arrays.equals(again.get(i), received.get(i)) : i;
+            }
+
+            RecorderCache.Stats stats = (RecorderCache.Stats) manager.requestRecorderStats().getData();
+            assert stats.hits + stats.misses >= count * 2;
+            assert (stats.misses > 0) == evicted : stats.misses;
+        } finally {
+            manager.shutdown();
+            main.join();
+        }
+        return received;
+    }
+
+    @Test
+    public void ManagerBudgetTest() throws Exception {
+        File log = createLog(30);
+        List<byte[]> expected = receiveAll(log, 30, false);
+        assert expected.size() == 30;
+
+        // No budget, all records of the log are read again
+        System.setProperty(ViewerManagerKeys.RECORDER_BUDGET, "0");
+        try {
+            List<byte[]> actual = receiveAll(log, 30, true);
+            assert actual.size() == 30;
+            for (int i = 0; i < 30; i++) {
+                assert Arrays.equals(actual.get(i), expected.get(i)) : i;
+            }
+        } finally {
+            System.clearProperty(ViewerManagerKeys.RECORDER_BUDGET);
+        }
+    }
+
+    @Test
+    public void SourceReopenTest() throws Exception {
+        File log = createLog(5);
+        ViewerLogReader provider = new ViewerLogReader(log.getPath());
+        RecordSource source = provider.createRecordSource();
+        Record first = source.readRecord(3);
+
+        // Closed on eviction, and opened again on the next read
+        source.close();
+        Record again = source.readRecord(3);
+        assert again != null && again.time == first.time;
+        assert again.changes.size() == first.changes.size();
+        source.close();
+        provider.shutdown();
+    }
+}
@@ -0,0 +1,331 @@
+import org.junit.Test;
+import viewermanager.ViewerManagerKeys;
+import viewermanager.entity.Entity;
+import viewermanager.entity.MapInfo;
+import viewermanager.entity.Record;
+import viewermanager.entity.provider.ViewerLogReader;
+import viewermanager.log.ViewerLogFile;
+import viewermanager.log.ViewerLogFileReader;
+import viewermanager.log.ViewerLogFileRecord;
+import viewermanager.log.ViewerLogFileWriter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+public class ViewerLogFileTest {
+
+    private ViewerLogFileRecord createHeader(int maxTimeStep) {
+        ViewerLogFileRecord header = new ViewerLogFileRecord();
+        header.maxTimeStep = maxTimeStep;
+        header.mapName = "/maps/test";
+        header.map = new MapInfo();
+        header.map.width = 100.0;
+        header.map.height = 200.0;
+        header.map.entities = new ArrayList<>();
+        header.config = new HashMap<>();
+        header.config.put("gis.map.dir", "/maps/test");
+        return header;
+    }
+
+    private Record createRecord(int time) {
+        Record record = new Record();
+        record.time = time;
+        record.score = 100.0 - time;
+        record.commands = new ArrayList<>();
+
+        Entity entity = new Entity();
+        entity.id = 1;
+        entity.hp = 10000 - time;
+        record.world = Arrays.asList(entity);
+        record.changes = Arrays.asList(entity);
+        return record;
+    }
+
+    @Test
+    public void StreamingWriteTest() throws Exception {
+        File file = File.createTempFile("stream", ".vlog");
+        file.deleteOnExit();
+
+        int max = 300;
+        try (ViewerLogFileWriter writer = new ViewerLogFileWriter(createHeader(max), file.getPath())) {
+            for (int i = 1; i <= max; i++) {
+                writer.write(createRecord(i));
+            }
+            assert writer.size() == max;
+        }
+
+        ViewerLogFileRecord read = ViewerLogFile.logRead(file.getPath());
+        assert read.getMaxTimeStep() == max;
+        assert read.getMapName().equals("/maps/test");
+        assert read.getConfig().get("gis.map.dir").equals("/maps/test");
+        assert read.size() == max;
+        assert read.get(1).world != null && read.get(1).world.size() == 1;
+        assert read.get(2).world == null;
+        assert read.get(max).changes.get(0).hp == 10000 - max;
+        assert read.get(1).commands == null;
+        System.out.println(String.format("%d records, %d bytes", read.size(), file.length()));
+    }
+
+    @Test
+    public void StreamingWriteSameAsWriteTest() throws Exception {
+        File streamed = File.createTempFile("stream", ".vlog");
+        File written = File.createTempFile("write", ".vlog");
+        streamed.deleteOnExit();
+        written.deleteOnExit();
+
+        ViewerLogFileRecord record = createHeader(3);
+        try (ViewerLogFileWriter writer = new ViewerLogFileWriter(createHeader(3), streamed.getPath())) {
+            for (int i = 1; i <= 3; i++) {
+                writer.write(createRecord(i));
+                record.put(createRecord(i));
+            }
+        }
+        ViewerLogFile.logWrite(record, written.getPath());
+
+        ViewerLogFileRecord a = ViewerLogFile.logRead(streamed.getPath());
+        ViewerLogFileRecord b = ViewerLogFile.logRead(written.getPath());
+        assert a.size() == b.size();
+        for (int i = 1; i <= 3; i++) {
+            assert a.get(i).time.equals(b.get(i).time);
+            assert a.get(i).score.equals(b.get(i).score);
+            assert (a.get(i).world == null) == (b.get(i).world == null);
+        }
+    }
+
+    @Test
+    public void LazyWorldTest() throws Exception {
+        File file = File.createTempFile("lazy", ".vlog");
+        file.deleteOnExit();
+
+        int[] built = {0};
+        try (ViewerLogFileWriter writer = new ViewerLogFileWriter(createHeader(3), file.getPath())) {
+            for (int i = 1; i <= 3; i++) {
+                Record record = createRecord(i);
+                List<Entity> world = record.world;
+                record.setWorldSupplier(() -> { built[0]++; return world; });
+                assert record.world == null;
+                writer.write(record);
+            }
+        }
+
+        // Only the world of the first record is required
+        assert built[0] == 1;
+        ViewerLogFileRecord read = ViewerLogFile.logRead(file.getPath());
+        assert read.get(1).world != null && read.get(1).world.size() == 1;
+        assert read.get(2).world == null;
+    }
+
+    @Test
+    public void Version2WriteTest() throws Exception {
+        File file = File.createTempFile("version2", ".vlog");
+        file.deleteOnExit();
+
+        int max = 120;
+        try (ViewerLogFileWriter writer = new ViewerLogFileWriter(createHeader(max), file.getPath(), 2, 50)) {
+            for (int i = 1; i <= max; i++) {
+                writer.write(createRecord(i));
+            }
+        }
+        assert ViewerLogFile.isVersion2(file.getPath());
+
+        // Read all, compatible with version 1
+        ViewerLogFileRecord read = ViewerLogFile.logRead(file.getPath());
+        assert read.getVersion() == 2;
+        assert read.getMaxTimeStep() == max;
+        assert read.getMapName().equals("/maps/test");
+        assert read.size() == max;
+        assert read.get(1).world != null;
+        assert read.get(2).world == null;
+        assert read.get(51).world != null;
+        assert read.get(max).changes.get(0).hp == 10000 - max;
+
+        // Seek: keyframe and changes
+        try (ViewerLogFileReader reader = new ViewerLogFileReader(file.getPath())) {
+            assert reader.size() == max;
+            assert reader.getHeader().keyframe == 50;
+            for (int time : new int[]{1, 2, 50, 51, 75, 120}) {
+                Record record = reader.seek(time);
+                assert record.time == time;
+                assert record.world.size() == 1;
+                assert record.world.get(0).hp == 10000 - time;
+            }
+            Record over = reader.seek(max + 1);
+            assert over == null;
+        }
+    }
+
+    @Test
+    public void ViewerLogReaderSeekTest() throws Exception {
+        for (int version : new int[]{1, 2}) {
+            File file = File.createTempFile("seek", ".vlog");
+            file.deleteOnExit();
+
+            int max = 80;
+            try (ViewerLogFileWriter writer = new ViewerLogFileWriter(createHeader(max), file.getPath(), version, 30)) {
+                for (int i = 1; i <= max; i++) {
+                    writer.write(createRecord(i));
+                }
+            }
+
+            ViewerLogReader reader = new ViewerLogReader(file.getPath());
+            assert reader.isIncomingRecordAvailable();
+            Record first = reader.getIncomingRecord();
+            assert first.time == 1;
+
+            boolean moved = reader.seek(65);
+            assert moved;
+            assert reader.isIncomingRecordAvailable();
+            Record record = reader.getIncomingRecord();
+            assert record.time == 65;
+            assert record.world.get(0).hp == 10000 - 65;
+
+            // Continue from the time
+            assert reader.isIncomingRecordAvailable();
+            Record next = reader.getIncomingRecord();
+            assert next.time == 66;
+            moved = reader.seek(max + 1);
+            assert !moved;
+            reader.shutdown();
+        }
+    }
+
+    @Test
+    public void Version1RandomAccessTest() throws Exception {
+        File file = File.createTempFile("version1", ".vlog");
+        file.deleteOnExit();
+
+        // Written by Jackson at once, keys of log are not sorted
+        int max = 200;
+        ViewerLogFileRecord record = createHeader(max);
+        for (int i = 1; i <= max; i++) {
+            record.put(createRecord(i));
+        }
+        ViewerLogFile.logWrite(record, file.getPath());
+
+        try (ViewerLogFileReader reader = new ViewerLogFileReader(file.getPath())) {
+            assert reader.getVersion() == 1;
+            assert reader.size() == max;
+            assert reader.getHeader().getMapName().equals("/maps/test");
+            assert reader.getHeader().getMaxTimeStep() == max;
+            assert reader.getHeader().log == null;
+            for (int i = 0; i < max; i++) {
+                assert reader.getTime(i) == i + 1;
+            }
+
+            Record r = reader.read(150);
+            assert r.time == 150 && r.world == null;
+            assert r.changes.get(0).hp == 10000 - 150;
+            Record keyframe = reader.read(1);
+            assert keyframe.world != null;
+
+            r = reader.seek(150);
+            assert r.world.size() == 1 && r.world.get(0).hp == 10000 - 150;
+        }
+    }
+
+    @Test
+    public void CompressedWriteTest() throws Exception {
+        int max = 300;
+        long plain = 0;
+        for (byte codec : new byte[]{ViewerLogFile.CODEC_NONE, ViewerLogFile.CODEC_DEFLATE, ViewerLogFile.CODEC_GZIP}) {
+            File file = File.createTempFile("compressed", ".vlog");
+            file.deleteOnExit();
+
+            try (ViewerLogFileWriter writer = new ViewerLogFileWriter(createHeader(max), file.getPath(), 2, 50, codec)) {
+                assert writer.getCodec() == codec;
+                for (int i = 1; i <= max; i++) {
+                    writer.write(createRecord(i));
+                }
+            }
+
+            if (codec == ViewerLogFile.CODEC_NONE) {
+                plain = file.length();
+            }
+            else {
+                System.out.println(String.format("codec %d: %d bytes (plain %d bytes)", codec, file.length(), plain));
+            }
+
+            // Frames are written in order
+            try (ViewerLogFileReader reader = new ViewerLogFileReader(file.getPath())) {
+                assert reader.size() == max;
+                for (int i = 0; i < max; i++) {
+                    assert reader.getTime(i) == i + 1;
+                }
+                Record read = reader.read(200);
+                Record sought = reader.seek(275);
+                assert read.changes.get(0).hp == 10000 - 200;
+                assert sought.world.get(0).hp == 10000 - 275;
+            }
+            ViewerLogFileRecord logRecord = ViewerLogFile.logRead(file.getPath());
+            assert logRecord.size() == max;
+        }
+
+        // Compression is not available on version 1
+        File file = File.createTempFile("compressed", ".vlog");
+        file.deleteOnExit();
+        try (ViewerLogFileWriter writer = new ViewerLogFileWriter(createHeader(1), file.getPath(), 1, 50, ViewerLogFile.CODEC_GZIP)) {
+            assert writer.getCodec() == ViewerLogFile.CODEC_NONE;
+        }
+    }
+
+    @Test
+    public void LogWriteVersion2Test() throws Exception {
+        File file = File.createTempFile("logwrite", ".vlog");
+        file.deleteOnExit();
+
+        int max = 120;
+        ViewerLogFileRecord record = createHeader(max);
+        for (int i = 1; i <= max; i++) {
+            record.put(createRecord(i));
+        }
+
+        System.setProperty(ViewerManagerKeys.VIEWER_LOG_VERSION, "2");
+        System.setProperty(ViewerManagerKeys.VIEWER_LOG_CODEC, "deflate");
+        try {
+            ViewerLogFile.logWrite(record, file.getPath());
+        } finally {
+            System.clearProperty(ViewerManagerKeys.VIEWER_LOG_VERSION);
+            System.clearProperty(ViewerManagerKeys.VIEWER_LOG_CODEC);
+        }
+
+        assert ViewerLogFile.isVersion2(file.getPath());
+        try (ViewerLogFileReader reader = new ViewerLogFileReader(file.getPath())) {
+            assert reader.size() == max;
+            // Keyframes are made from the changes
+            Record read = reader.read(101);
+            Record sought = reader.seek(110);
+            assert read.world.get(0).hp == 10000 - 101;
+            assert sought.world.get(0).hp == 10000 - 110;
+        }
+    }
+
+    @Test
+    public void CompactFrameTest() throws Exception {
+        File file = File.createTempFile("compact", ".vlog");
+        file.deleteOnExit();
+
+        int max = 60;
+        try (ViewerLogFileWriter writer = new ViewerLogFileWriter(createHeader(max), file.getPath(), 2, 25, ViewerLogFile.CODEC_DEFLATE, true)) {
+            assert writer.isCompact();
+            for (int i = 1; i <= max; i++) {
+                writer.write(createRecord(i));
+            }
+        }
+
+        try (ViewerLogFileReader reader = new ViewerLogFileReader(file.getPath())) {
+            Record r = reader.read(30);
+            assert r.changes.get(0).hp == 10000 - 30;
+            assert r.changes.get(0).id == 1 && r.changes.get(0).type == null;
+            Record sought = reader.seek(60);
+            assert sought.world.get(0).hp == 10000 - 60;
+        }
+
+        // Not available on version 1
+        try (ViewerLogFileWriter writer = new ViewerLogFileWriter(createHeader(1), file.getPath(), 1, 25, ViewerLogFile.CODEC_NONE, true)) {
+            assert !writer.isCompact();
+        }
+    }
+}
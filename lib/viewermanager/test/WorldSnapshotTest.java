@@ -0,0 +1,231 @@
+import org.junit.Test;
+import viewermanager.encoder.MsgPackEncoder;
+import viewermanager.encoder.EncodeException;
+import viewermanager.entity.Entity;
+import viewermanager.entity.MapInfo;
+import viewermanager.entity.Record;
+import viewermanager.log.ViewerLogFileRecord;
+import viewermanager.log.ViewerLogFileWriter;
+import viewermanager.manager.DefaultManager;
+import viewermanager.manager.DefaultResponse;
+import viewermanager.manager.ServerRequest;
+import viewermanager.manager.ServerResponse;
+import viewermanager.recorder.DefaultRecorder;
+import viewermanager.recorder.EncodingPipeline;
+import viewermanager.recorder.RecorderCache;
+import viewermanager.recorder.WorldSnapshot;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WorldSnapshotTest {
+
+    private static final int STEPS = 30;
+
+    private static Entity createEntity(int id, int time) {
+        Entity entity = new Entity();
+        entity.id = id;
+        entity.hp = time;
+        return entity;
+    }
+
+    /**
+     * world on the time: entities 1 to 5 of hp = time, 5 is deleted on 13, and 6 is created on 15
+     * その時間のワールド: hp = timeのEntity 1から5，5は13で削除され，6は15で作られる
+     * */
+    private static List<Entity> worldOn(int time) {
+        List<Entity> world = new ArrayList<>();
+        for (int id = 1; id <= 6; id++) {
+            if ((id == 5 && time >= 13) || (id == 6 && time < 15)) {
+                continue;
+            }
+            world.add(createEntity(id, (id == 6) ? 15 : time));
+        }
+        return world;
+    }
+
+    private static Record createRecord(int time, boolean world) {
+        Record record = new Record();
+        record.time = time;
+        record.changes = new ArrayList<>();
+        for (int id = 1; id <= 4; id++) {
+            record.changes.add(createEntity(id, time));
+        }
+        if (time < 13) {
+            record.changes.add(createEntity(5, time));
+        }
+        else if (time == 13) {
+            Entity deleted = new Entity();
+            deleted.id = 5;
+            deleted.deleted = true;
+            record.changes.add(deleted);
+        }
+        if (time == 15) {
+            record.changes.add(createEntity(6, 15));
+        }
+        if (world) {
+            record.world = worldOn(time);
+        }
+        if (time == 1) {
+            record.map = new MapInfo();
+            record.map.entities = new ArrayList<>();
+            record.config = new HashMap<>();
+            record.config.put("key", "value");
+        }
+        return record;
+    }
+
+    private static void assertWorld(Record record, int time) {
+        assert record.time == time;
+        assert record.map != null && "value".equals(record.config.get("key"));
+        Map<Integer, Integer> expected = new HashMap<>();
+        worldOn(time).forEach(e -> expected.put(e.id, e.hp));
+        Map<Integer, Integer> actual = new HashMap<>();
+        record.world.forEach(e -> actual.put(e.id, e.hp));
+        assert expected.equals(actual) : time + " " + actual;
+    }
+
+    @Test
+    public void SnapshotTest() throws Exception {
+        // Keyframes on every 10, and only the first has the world
+        DefaultRecorder keyframed = new DefaultRecorder(new MsgPackEncoder(), 10);
+        DefaultRecorder first = new DefaultRecorder(new MsgPackEncoder());
+        for (int time = 1; time <= STEPS; time++) {
+            keyframed.appendRecord(createRecord(time, true));
+            first.appendRecord(createRecord(time, time == 1));
+        }
+
+        for (DefaultRecorder recorder : new DefaultRecorder[]{keyframed, first}) {
+            WorldSnapshot snapshot = new WorldSnapshot(recorder);
+            MsgPackEncoder decoder = new MsgPackEncoder();
+            // Forward, then behind
+            for (int index : new int[]{24, 29, 11, 0, 14}) {
+                assertWorld(decoder.decodeRecord(snapshot.create(index)), index + 1);
+            }
+            ByteBuffer none = snapshot.create(STEPS);
+            assert none == null;
+        }
+    }
+
+    /**
+     * Encoder counting records decoded.
+     * 復元したレコードを数えるEncoder
+     * */
+    private static class CountingEncoder extends MsgPackEncoder {
+        final AtomicInteger decoded = new AtomicInteger(0);
+
+        @Override
+        public Record decodeRecord(ByteBuffer buffer) throws EncodeException {
+            decoded.incrementAndGet();
+            return super.decodeRecord(buffer);
+        }
+    }
+
+    private static void submitAll(EncodingPipeline.Lane lane, int from, int to) throws Exception {
+        for (int time = from; time <= to; time++) {
+            while (!lane.hasRoom()) {
+                Thread.sleep(1);
+            }
+            boolean submitted = lane.submit(createRecord(time, time == 1));
+            assert submitted;
+        }
+        CountDownLatch ended = new CountDownLatch(1);
+        lane.runAfter(ended::countDown);
+        boolean drained = ended.await(10, TimeUnit.SECONDS);
+        assert drained;
+    }
+
+    @Test
+    public void AppendedRecordsTest() throws Exception {
+        CountingEncoder encoder = new CountingEncoder();
+        DefaultRecorder recorder = new DefaultRecorder(encoder);
+        EncodingPipeline pipeline = new EncodingPipeline(4, 8, null);
+        EncodingPipeline.Lane lane = pipeline.createLane(recorder);
+        submitAll(lane, 1, 10);
+
+        // Records recorded before are decoded once
+        WorldSnapshot snapshot = new WorldSnapshot(recorder);
+        lane.addListener(snapshot);
+        ByteBuffer created = snapshot.create(9);
+        assertWorld(new MsgPackEncoder().decodeRecord(created), 10);
+        int decoded = encoder.decoded.get();
+        assert decoded >= 10 : decoded;
+        long bytes = snapshot.getBytes();
+        assert bytes > 0;
+
+        // Records appended after are applied as they are, and not decoded
+        submitAll(lane, 11, STEPS);
+        pipeline.shutdown();
+        created = snapshot.create(STEPS - 1);
+        assertWorld(new MsgPackEncoder().decodeRecord(created), STEPS);
+        assert encoder.decoded.get() == decoded : encoder.decoded.get();
+        assert snapshot.getBytes() == bytes;
+
+        // Behind the world applied, made again from records
+        created = snapshot.create(14);
+        assertWorld(new MsgPackEncoder().decodeRecord(created), 15);
+    }
+
+    @Test
+    public void LateJoinTest() throws Exception {
+        File log = File.createTempFile("snapshot", ".vlog");
+        log.deleteOnExit();
+        ViewerLogFileRecord header = new ViewerLogFileRecord();
+        header.maxTimeStep = STEPS;
+        header.mapName = "/maps/test";
+        header.map = new MapInfo();
+        header.map.entities = new ArrayList<>();
+        header.config = new HashMap<>();
+        header.config.put("key", "value");
+        try (ViewerLogFileWriter writer = new ViewerLogFileWriter(header, log.getPath())) {
+            for (int time = 1; time <= STEPS; time++) {
+                writer.write(createRecord(time, time == 1));
+            }
+        }
+
+        DefaultManager manager = new DefaultManager();
+        manager.requestOpenLogProvider(log.getPath());
+        int viewerId = ((DefaultResponse.IDsResult) manager.requestOpenViewer(true).getData()).viewerId;
+        int other = ((DefaultResponse.IDsResult) manager.requestOpenViewer(true).getData()).viewerId;
+        ServerResponse connected = manager.requestConnection(other, 0);
+        assert connected.getStatus() == ServerResponse.STATUS_OK;
+
+        Thread main = new Thread(manager::run);
+        main.start();
+        try {
+            // Wait for all recorded, with other Viewer
+            long deadline = System.currentTimeMillis() + 10000;
+            while (System.currentTimeMillis() < deadline) {
+                ServerResponse response = manager.requestRecords(new ServerRequest(other, System.currentTimeMillis(), 0, STEPS));
+                if (response.getData() instanceof DefaultResponse.RecordResult
+                        && ((DefaultResponse.RecordResult) response.getData()).record.length == STEPS) {
+                    break;
+                }
+                Thread.sleep(10);
+            }
+
+            // One record of the whole world on the last step
+            connected = manager.requestConnection(viewerId, 0);
+            assert connected.getStatus() == ServerResponse.STATUS_OK;
+            ServerResponse response = manager.requestRecords(
+                    new ServerRequest(viewerId, System.currentTimeMillis()).setSnapshot(true));
+            DefaultResponse.RecordResult result = (DefaultResponse.RecordResult) response.getData();
+            assert result.record.length == 1;
+            assertWorld(new MsgPackEncoder().decodeRecord(result.record[0]), STEPS);
+
+            // The world kept is charged to the budget
+            RecorderCache.Stats stats = (RecorderCache.Stats) manager.requestRecorderStats().getData();
+            assert stats.cached > 0 : stats.cached;
+        } finally {
+            manager.shutdown();
+            main.join();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+import org.junit.Test;
+import rescuecore2.standard.entities.*;
+import rescuecore2.worldmodel.EntityID;
+import viewermanager.encoder.MsgPackEncoder;
+import viewermanager.entity.Entity;
+import viewermanager.entity.EntityField;
+import viewermanager.entity.Point;
+import viewermanager.entity.Record;
+import viewermanager.entity.WorldStore;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+public class WorldStoreTest {
+
+    private List<StandardEntity> createWorld(Random random, int size) {
+        List<StandardEntity> world = new ArrayList<>();
+        for (int i = 1; i <= size; i++) {
+            EntityID id = new EntityID(i);
+            switch (i % 5) {
+                case 0: {
+                    Building building = (i % 2 == 0) ? new Refuge(id) : new Building(id);
+                    building.setX(random.nextInt(100000));
+                    building.setY(random.nextInt(100000));
+                    building.setTemperature(random.nextInt(500));
+                    building.setFieryness(random.nextInt(8));
+                    if (random.nextBoolean()) building.setBrokenness(random.nextInt(100));
+                    world.add(building);
+                    break;
+                }
+                case 1: {
+                    Road road = new Road(id);
+                    road.setX(random.nextInt(100000));
+                    road.setY(random.nextInt(100000));
+                    road.setBlockades((random.nextBoolean())
+                            ? Arrays.asList(new EntityID(i + 100000), new EntityID(i + 200000))
+                            : new ArrayList<>());
+                    world.add(road);
+                    break;
+                }
+                case 2: {
+                    FireBrigade human = new FireBrigade(id);
+                    human.setX(random.nextInt(100000));
+                    human.setY(random.nextInt(100000));
+                    human.setHP(random.nextInt(10000));
+                    human.setDamage(random.nextInt(100));
+                    human.setBuriedness(random.nextInt(10));
+                    human.setWater(random.nextInt(10000));
+                    human.setPosition(new EntityID(i - 1));
+                    human.setTravelDistance(random.nextInt(1000));
+                    if (random.nextBoolean()) human.setPositionHistory(new int[]{1, 2, 3, 4});
+                    world.add(human);
+                    break;
+                }
+                case 3: {
+                    Civilian human = new Civilian(id);
+                    human.setHP(random.nextInt(10000));
+                    human.setDamage(random.nextInt(100));
+                    world.add(human);
+                    break;
+                }
+                default: {
+                    Blockade blockade = new Blockade(id);
+                    blockade.setX(random.nextInt(100000));
+                    blockade.setY(random.nextInt(100000));
+                    blockade.setApexes(new int[]{1, 2, 3, 4, 5, 6});
+                    blockade.setRepairCost(random.nextInt(100));
+                    world.add(blockade);
+                    break;
+                }
+            }
+        }
+        return world;
+    }
+
+    /** Point has no equals, so compare as text */
+    private static Object value(Object value) {
+        if (value instanceof List && !((List<?>) value).isEmpty() && ((List<?>) value).get(0) instanceof Point) {
+            return ((List<?>) value).stream().map(p -> ((Point) p).x + "," + ((Point) p).y).collect(Collectors.toList());
+        }
+        return value;
+    }
+
+    private static boolean same(Entity a, Entity b) {
+        for (EntityField field : EntityField.FIELDS) {
+            if (!Objects.equals(value(field.get(a)), value(field.get(b)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void SameAsEntityTest() {
+        List<StandardEntity> world = createWorld(new Random(1), 5000);
+        WorldStore store = new WorldStore(16);
+        world.forEach(store::put);
+
+        assert store.size() == world.size();
+        for (StandardEntity entity : world) {
+            Entity expected = new Entity(entity);
+            assert same(expected, store.get(entity.getID().getValue())) : entity;
+            assert Objects.equals(expected.type, store.getType(entity.getID().getValue()));
+        }
+        assert store.get(0) == null;
+        assert store.toEntities().size() == world.size();
+    }
+
+    @Test
+    public void ReuseRowsTest() {
+        WorldStore store = new WorldStore();
+        createWorld(new Random(1), 3000).forEach(store::put);
+
+        // Overwrite with another world, after clear
+        List<StandardEntity> world = createWorld(new Random(2), 2000);
+        store.clear();
+        world.forEach(store::put);
+        assert store.size() == world.size();
+        assert !store.contains(2500);
+        for (StandardEntity entity : world) {
+            assert same(new Entity(entity), store.get(entity.getID().getValue()));
+        }
+    }
+
+    @Test
+    public void RemoveTest() {
+        List<StandardEntity> world = createWorld(new Random(3), 4000);
+        WorldStore store = new WorldStore();
+        world.forEach(store::put);
+
+        // Remove every third entity
+        for (int i = 1; i <= world.size(); i += 3) {
+            boolean removed = store.remove(i);
+            assert removed;
+        }
+        boolean again = store.remove(1);
+        assert !again;
+
+        for (StandardEntity entity : world) {
+            int id = entity.getID().getValue();
+            if ((id - 1) % 3 == 0) {
+                assert !store.contains(id) && store.get(id) == null;
+            }
+            else {
+                assert same(new Entity(entity), store.get(id)) : id;
+            }
+        }
+
+        // Put back
+        world.forEach(store::put);
+        assert store.size() == world.size();
+        for (StandardEntity entity : world) {
+            assert same(new Entity(entity), store.get(entity.getID().getValue()));
+        }
+    }
+
+    @Test
+    public void SnapshotTest() {
+        List<StandardEntity> world = createWorld(new Random(4), 1000);
+        WorldStore store = new WorldStore();
+        world.forEach(store::put);
+        WorldStore snapshot = store.snapshot();
+
+        // Changes after the snapshot are not seen by it
+        List<StandardEntity> changed = createWorld(new Random(5), 1000);
+        changed.forEach(store::put);
+        boolean removed = store.remove(1);
+        assert removed;
+
+        assert snapshot.size() == world.size() && store.size() == world.size() - 1;
+        for (StandardEntity entity : world) {
+            assert same(new Entity(entity), snapshot.get(entity.getID().getValue()));
+        }
+        for (StandardEntity entity : changed.subList(1, changed.size())) {
+            assert same(new Entity(entity), store.get(entity.getID().getValue()));
+        }
+    }
+
+    @Test
+    public void PagesCopiedTest() throws Exception {
+        List<StandardEntity> world = createWorld(new Random(7), 3000);
+        WorldStore store = new WorldStore();
+        world.forEach(store::put);
+        Field pages = WorldStore.class.getDeclaredField("pages");
+        pages.setAccessible(true);
+
+        // Snapshot every step while changing a few entities
+        Random random = new Random(8);
+        List<WorldStore> snapshots = new ArrayList<>();
+        List<Map<Integer, Entity>> expected = new ArrayList<>();
+        for (int step = 0; step < 20; step++) {
+            WorldStore snapshot = store.snapshot();
+            snapshots.add(snapshot);
+            Map<Integer, Entity> entities = new HashMap<>();
+            store.toEntities().forEach(entity -> entities.put(entity.id, entity));
+            expected.add(entities);
+
+            // Change one entity of the first page, and one blockade
+            Civilian civilian = new Civilian(new EntityID(3));
+            civilian.setHP(step);
+            civilian.setDamage(step);
+            store.put(civilian);
+            Blockade blockade = new Blockade(new EntityID(4));
+            blockade.setApexes(new int[]{step, step, step, step});
+            store.put(blockade);
+
+            // Only the changed page is copied, the others are shared with the snapshot
+            Object[] before = (Object[]) pages.get(snapshot);
+            Object[] after = (Object[]) pages.get(store);
+            assert before != after && before[0] != after[0];
+            for (int i = 1; i < after.length; i++) {
+                assert before[i] == after[i] : i;
+            }
+        }
+
+        for (int i = 0; i < snapshots.size(); i++) {
+            WorldStore snapshot = snapshots.get(i);
+            assert snapshot.size() == world.size();
+            for (Entity entity : expected.get(i).values()) {
+                assert same(entity, snapshot.get(entity.id)) : i + " " + entity.id;
+            }
+        }
+    }
+
+    @Test
+    public void EncodeTest() throws Exception {
+        List<StandardEntity> world = createWorld(new Random(6), 2000);
+        WorldStore store = new WorldStore();
+        world.forEach(store::put);
+
+        // Written from the store, same as the entities
+        for (boolean compact : new boolean[]{false, true}) {
+            MsgPackEncoder encoder = new MsgPackEncoder(compact);
+            Record entities = new Record();
+            entities.time = 1;
+            entities.world = store.toEntities();
+            Record view = new Record();
+            view.time = 1;
+            view.setWorldSupplier(store.snapshot()::asEntities);
+
+            ByteBuffer expected = encoder.encodeRecord(entities);
+            ByteBuffer written = encoder.encodeRecord(view);
+            assert written.equals(expected) : compact;
+
+            List<Entity> decoded = encoder.decodeRecord(written).world;
+            assert decoded.size() == world.size();
+            for (int i = 0; i < decoded.size(); i++) {
+                assert same(decoded.get(i), entities.world.get(i)) : i;
+            }
+        }
+
+        // The view is not changed by the store, and creates entities on get
+        List<Entity> view = store.asEntities();
+        store.clear();
+        assert view.size() == world.size();
+        for (Entity entity : view) {
+            assert entity.id != null && entity.type != null;
+        }
+    }
+}